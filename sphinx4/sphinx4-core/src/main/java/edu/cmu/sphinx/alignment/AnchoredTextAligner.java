@@ -0,0 +1,407 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.alignment;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cmu.sphinx.util.Range;
+
+/**
+ * Text aligner for long transcripts, like the text of a book. Words are
+ * replaced by integer ids and the database is indexed by a suffix array, so
+ * the aligner needs a few integers per database word.
+ * <p>
+ * A query is aligned in two steps. First anchors are found: runs of at least
+ * tuple size words which occur exactly once in the part of the database
+ * being aligned. The longest chain of anchors which is in order both in the
+ * query and in the database is kept. The words between the anchors are then
+ * aligned the same way, or with an edit distance computed within a band
+ * around the diagonal if there are no anchors left. Like with
+ * {@link LongTextAligner} only runs of at least tuple size matching words
+ * are reported.
+ *
+ * @see LongTextAligner
+ */
+public class AnchoredTextAligner implements TextAligner {
+
+    /** Largest number of cells of an edit distance table */
+    private static final int MAX_CELLS = 1 << 22;
+
+    /** Largest number of occurrences of a prefix which are checked for uniqueness */
+    private static final int MAX_CANDIDATES = 16;
+
+    /** Longest prefix of the query searched for an anchor */
+    private static final int MAX_ANCHOR_PREFIX = 64;
+
+    private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+    private static final byte DIAGONAL = 0;
+    private static final byte UP = 1;
+    private static final byte LEFT = 2;
+
+    private final int tupleSize;
+    private final List<String> refWords;
+    private final Map<String, Integer> vocabulary;
+    private final int[] reference;
+    private final int[] suffixes;
+
+    /**
+     * Constructs new text aligner that servers requests for alignment of
+     * sequence of words with the provided database sequence.
+     *
+     * @param words list of words forming the database
+     * @param tupleSize the smallest number of subsequent words which are
+     *        aligned, must be greater or equal to 1
+     */
+    public AnchoredTextAligner(List<String> words, int tupleSize) {
+        assert words != null;
+        assert tupleSize > 0;
+
+        this.tupleSize = tupleSize;
+        this.refWords = words;
+
+        vocabulary = new HashMap<String, Integer>();
+        reference = new int[words.size()];
+        int i = 0;
+        for (String word : words) {
+            Integer id = vocabulary.get(word);
+            if (id == null) {
+                id = vocabulary.size();
+                vocabulary.put(word, id);
+            }
+            reference[i++] = id;
+        }
+        suffixes = getSuffixArray(reference, vocabulary.size());
+    }
+
+    public int[] align(List<String> query) {
+        return align(query, new Range(0, refWords.size()));
+    }
+
+    /**
+     * Aligns query sequence with the previously built database. Like with
+     * {@link LongTextAligner} the range limits the positions where the
+     * aligned tuples start.
+     *
+     * @param words list words to look for
+     * @param range range of database to look for alignment
+     *
+     * @return indices of alignment
+     */
+    public int[] align(List<String> words, Range range) {
+        if (range.upperEndpoint() - range.lowerEndpoint() < tupleSize || words.size() < tupleSize) {
+            return LongTextAligner.alignTextSimple(
+                    refWords.subList(range.lowerEndpoint(), range.upperEndpoint()), words,
+                    range.lowerEndpoint());
+        }
+
+        int[] query = new int[words.size()];
+        int i = 0;
+        for (String word : words) {
+            Integer id = vocabulary.get(word);
+            query[i++] = id == null ? -1 : id;
+        }
+
+        int[] result = new int[query.length];
+        Arrays.fill(result, -1);
+        int end = min(reference.length, range.upperEndpoint() + tupleSize - 1);
+        alignSegment(query, 0, query.length, range.lowerEndpoint(), end, result);
+        removeShortRuns(result);
+        return result;
+    }
+
+    /** Aligns the query words from qFrom to qTo with the database words from rFrom to rTo. */
+    private void alignSegment(int[] query, int qFrom, int qTo, int rFrom, int rTo, int[] result) {
+        if (qFrom >= qTo || rFrom >= rTo)
+            return;
+
+        int[] anchors = getAnchorChain(query, qFrom, qTo, rFrom, rTo);
+        if (anchors.length == 0) {
+            alignEditDistance(query, qFrom, qTo, rFrom, rTo, result);
+            return;
+        }
+
+        int q = qFrom;
+        int r = rFrom;
+        for (int i = 0; i < anchors.length; i += 3) {
+            int shift = max(0, max(q - anchors[i], r - anchors[i + 1]));
+            int length = anchors[i + 2] - shift;
+            if (length < tupleSize)
+                continue;
+            int anchorQ = anchors[i] + shift;
+            int anchorR = anchors[i + 1] + shift;
+            alignSegment(query, q, anchorQ, r, anchorR, result);
+            for (int j = 0; j < length; j++)
+                result[anchorQ + j] = anchorR + j;
+            q = anchorQ + length;
+            r = anchorR + length;
+        }
+        alignSegment(query, q, qTo, r, rTo, result);
+    }
+
+    /**
+     * Finds the anchors and keeps the longest chain which is in order in
+     * the database.
+     *
+     * @return query position, database position and length of every anchor
+     */
+    private int[] getAnchorChain(int[] query, int qFrom, int qTo, int rFrom, int rTo) {
+        int[] anchors = new int[48];
+        int count = 0;
+        for (int q = qFrom; q < qTo;) {
+            int lo = 0;
+            int hi = suffixes.length;
+            int depth = 0;
+            int position = -1;
+            while (q + depth < qTo && depth < MAX_ANCHOR_PREFIX && query[q + depth] >= 0) {
+                int symbol = query[q + depth];
+                lo = lowerBound(lo, hi, depth, symbol);
+                hi = lowerBound(lo, hi, depth, symbol + 1);
+                if (lo == hi)
+                    break;
+                depth++;
+                if (depth < tupleSize || hi - lo > MAX_CANDIDATES)
+                    continue;
+                // count the occurrences within the segment
+                int found = 0;
+                for (int i = lo; i < hi; i++) {
+                    if (suffixes[i] >= rFrom && suffixes[i] + depth <= rTo) {
+                        position = suffixes[i];
+                        found++;
+                    }
+                }
+                if (found != 1)
+                    position = -1;
+                if (found <= 1)
+                    break;
+            }
+
+            if (position < 0) {
+                q++;
+                continue;
+            }
+
+            int length = depth;
+            while (q + length < qTo && position + length < rTo
+                    && query[q + length] == reference[position + length])
+                length++;
+            if (count + 3 > anchors.length)
+                anchors = Arrays.copyOf(anchors, 2 * anchors.length);
+            anchors[count++] = q;
+            anchors[count++] = position;
+            anchors[count++] = length;
+            q += length;
+        }
+
+        // longest chain with increasing database positions
+        int size = count / 3;
+        int[] tails = new int[size];
+        int[] previous = new int[size];
+        int chain = 0;
+        for (int i = 0; i < size; i++) {
+            int position = anchors[3 * i + 1];
+            int low = 0;
+            int high = chain;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (anchors[3 * tails[middle] + 1] < position)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == chain)
+                chain++;
+        }
+
+        int[] result = new int[3 * chain];
+        for (int i = chain > 0 ? tails[chain - 1] : -1, j = chain - 1; i >= 0; i = previous[i], j--)
+            System.arraycopy(anchors, 3 * i, result, 3 * j, 3);
+        return result;
+    }
+
+    /** @return the first suffix in [lo, hi) whose word at depth is not smaller than the symbol */
+    private int lowerBound(int lo, int hi, int depth, int symbol) {
+        while (lo < hi) {
+            int middle = (lo + hi) >>> 1;
+            int position = suffixes[middle] + depth;
+            int value = position < reference.length ? reference[position] : -1;
+            if (value < symbol)
+                lo = middle + 1;
+            else
+                hi = middle;
+        }
+        return lo;
+    }
+
+    /**
+     * Aligns by edit distance. If the table is too large, only cells
+     * within a band around the diagonal of the segment are computed.
+     */
+    private void alignEditDistance(int[] query, int qFrom, int qTo, int rFrom, int rTo, int[] result) {
+        int m = qTo - qFrom;
+        int n = rTo - rFrom;
+        int band;
+        if ((long) (m + 1) * (n + 1) <= MAX_CELLS)
+            band = n;
+        else
+            band = max(max(1, (MAX_CELLS / (m + 1) - 1) / 2), (n + m - 1) / m + 1);
+        int width = min(2 * band + 1, n + 1);
+
+        byte[] trace = new byte[(m + 1) * width];
+        int[] previous = new int[width];
+        int[] current = new int[width];
+
+        int previousLow = 0;
+        int previousHigh = min(n, band);
+        for (int j = previousLow; j <= previousHigh; j++) {
+            previous[j] = j;
+            trace[j] = LEFT;
+        }
+
+        for (int i = 1; i <= m; i++) {
+            int low = getBandLow(i, m, n, band);
+            int high = min(n, getDiagonal(i, m, n) + band);
+            int word = query[qFrom + i - 1];
+            for (int j = low; j <= high; j++) {
+                int best = INFINITY;
+                byte direction = UP;
+                if (j > previousLow && j - 1 <= previousHigh) {
+                    best = previous[j - 1 - previousLow]
+                            + (word == reference[rFrom + j - 1] ? 0 : 1);
+                    direction = DIAGONAL;
+                }
+                if (j >= previousLow && j <= previousHigh && previous[j - previousLow] + 1 < best) {
+                    best = previous[j - previousLow] + 1;
+                    direction = UP;
+                }
+                if (j > low && current[j - 1 - low] + 1 < best) {
+                    best = current[j - 1 - low] + 1;
+                    direction = LEFT;
+                }
+                current[j - low] = best;
+                trace[i * width + j - low] = direction;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+            previousLow = low;
+            previousHigh = high;
+        }
+
+        int i = m;
+        int j = n;
+        while (i > 0 && j > 0) {
+            byte direction = trace[i * width + j - getBandLow(i, m, n, band)];
+            if (direction == DIAGONAL) {
+                if (query[qFrom + i - 1] == reference[rFrom + j - 1])
+                    result[qFrom + i - 1] = rFrom + j - 1;
+                i--;
+                j--;
+            } else if (direction == UP) {
+                i--;
+            } else {
+                j--;
+            }
+        }
+    }
+
+    private static int getDiagonal(int i, int m, int n) {
+        return (int) ((long) i * n / m);
+    }
+
+    private static int getBandLow(int i, int m, int n, int band) {
+        return max(0, getDiagonal(i, m, n) - band);
+    }
+
+    /** Drops aligned words which are not part of a run of tuple size subsequent words. */
+    private void removeShortRuns(int[] result) {
+        int start = 0;
+        for (int i = 1; i <= result.length; i++) {
+            if (i < result.length && result[i] >= 0 && result[i - 1] >= 0
+                    && result[i] == result[i - 1] + 1)
+                continue;
+            if (i - start < tupleSize)
+                Arrays.fill(result, start, i, -1);
+            start = i;
+        }
+    }
+
+    /**
+     * Sorts the suffixes of the text by prefix doubling with counting sorts.
+     *
+     * @param text word ids
+     * @param alphabet number of different ids
+     * @return start positions of the suffixes in lexicographic order
+     */
+    static int[] getSuffixArray(int[] text, int alphabet) {
+        int n = text.length;
+        int[] suffixes = new int[n];
+        if (n == 0)
+            return suffixes;
+
+        int[] rank = Arrays.copyOf(text, n);
+        int[] next = new int[n];
+        int[] second = new int[n];
+        int[] count = new int[max(alphabet, n) + 1];
+
+        for (int i = 0; i < n; i++)
+            count[text[i]]++;
+        for (int c = 1; c < count.length; c++)
+            count[c] += count[c - 1];
+        for (int i = n - 1; i >= 0; i--)
+            suffixes[--count[text[i]]] = i;
+
+        for (int k = 1; k < n; k <<= 1) {
+            // order by the second half, suffixes without one come first
+            int p = 0;
+            for (int i = n - k; i < n; i++)
+                second[p++] = i;
+            for (int i = 0; i < n; i++)
+                if (suffixes[i] >= k)
+                    second[p++] = suffixes[i] - k;
+
+            // stable order by the first half
+            Arrays.fill(count, 0);
+            for (int i = 0; i < n; i++)
+                count[rank[i]]++;
+            for (int c = 1; c < count.length; c++)
+                count[c] += count[c - 1];
+            for (int i = n - 1; i >= 0; i--)
+                suffixes[--count[rank[second[i]]]] = second[i];
+
+            int classes = 1;
+            next[suffixes[0]] = 0;
+            for (int i = 1; i < n; i++) {
+                int a = suffixes[i - 1];
+                int b = suffixes[i];
+                int secondA = a + k < n ? rank[a + k] : -1;
+                int secondB = b + k < n ? rank[b + k] : -1;
+                if (rank[a] != rank[b] || secondA != secondB)
+                    classes++;
+                next[b] = classes - 1;
+            }
+            int[] swap = rank;
+            rank = next;
+            next = swap;
+            if (classes == n)
+                break;
+        }
+        return suffixes;
+    }
+}
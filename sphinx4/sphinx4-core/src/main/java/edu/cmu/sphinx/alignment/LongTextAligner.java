@@ -25,7 +25,7 @@ import edu.cmu.sphinx.util.Utilities;
  *
  * @author Alexander Solovets
  */
-public class LongTextAligner {
+public class LongTextAligner implements TextAligner {
 
     private final class Alignment {
 
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.alignment;
+
+import java.util.List;
+
+import edu.cmu.sphinx.util.Range;
+
+/**
+ * Aligns sequences of words with the database sequence given to the
+ * aligner when it is created.
+ *
+ * @see LongTextAligner
+ * @see AnchoredTextAligner
+ */
+public interface TextAligner {
+
+    /**
+     * Aligns query sequence with the database.
+     *
+     * @param query list of words to look for
+     * @return for every word of the query the index of the database word it
+     *         is aligned to, or -1. Aligned indices are increasing.
+     */
+    int[] align(List<String> query);
+
+    /**
+     * Aligns query sequence with a part of the database.
+     *
+     * @param words list of words to look for
+     * @param range range of database to look for alignment
+     * @return for every word of the query the index of the database word it
+     *         is aligned to, or -1. Aligned indices are increasing.
+     */
+    int[] align(List<String> words, Range range);
+}
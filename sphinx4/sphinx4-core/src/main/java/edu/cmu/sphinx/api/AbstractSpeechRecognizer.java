@@ -14,6 +14,7 @@ package edu.cmu.sphinx.api;
 import java.io.IOException;
 
 import edu.cmu.sphinx.decoder.adaptation.ClusteredDensityFileData;
+import edu.cmu.sphinx.decoder.adaptation.OnlineAdaptation;
 import edu.cmu.sphinx.decoder.adaptation.Stats;
 import edu.cmu.sphinx.decoder.adaptation.Transform;
 import edu.cmu.sphinx.linguist.acoustic.tiedstate.Sphinx3Loader;
@@ -31,6 +32,8 @@ public class AbstractSpeechRecognizer {
     
     protected ClusteredDensityFileData clusters;
 
+    private OnlineAdaptation adaptation;
+
     protected final SpeechSourceProvider speechSourceProvider;
 
     /**
@@ -58,7 +61,12 @@ public class AbstractSpeechRecognizer {
      */
     public SpeechResult getResult() {
         Result result = recognizer.recognize();
-        return null == result ? null : new SpeechResult(result);
+        if (null == result)
+            return null;
+        SpeechResult speechResult = new SpeechResult(result);
+        if (adaptation != null)
+            adaptation.collect(speechResult);
+        return speechResult;
     }
     
     public Stats createStats(int numClasses) {
@@ -67,15 +75,63 @@ public class AbstractSpeechRecognizer {
     }
 
     public void setTransform(Transform transform) {
+        checkNotShared();
         if (clusters != null && transform != null) {
             context.getLoader().update(transform, clusters);
         }
     }
 
+    /**
+     * Starts adapting the acoustic model to the speaker while recognizing.
+     * The statistics of every result returned by {@link #getResult()} are
+     * collected and every {@code interval} results a transform is estimated
+     * from all of them and applied to the model as it was when adaptation
+     * started. The transform is not updated until enough speech is collected.
+     *
+     * @param numClasses number of transform classes
+     * @param interval number of results between the updates of the transform
+     */
+    public void startAdaptation(int numClasses, int interval) {
+        checkNotShared();
+        adaptation = new OnlineAdaptation(context.getLoader(), numClasses, interval);
+        clusters = adaptation.getStats().getClusteredData();
+    }
+
+    /**
+     * Stops adapting the acoustic model. The model keeps the last transform.
+     *
+     * @return the last transform applied or {@code null} if the model was
+     *         not adapted
+     */
+    public Transform stopAdaptation() {
+        if (adaptation == null)
+            return null;
+        Transform transform = adaptation.getTransform();
+        adaptation = null;
+        return transform;
+    }
+
     public void loadTransform(String path, int numClass) throws Exception {
+    	checkNotShared();
     	clusters = new ClusteredDensityFileData(context.getLoader(), numClass);
     	Transform transform = new Transform((Sphinx3Loader)context.getLoader(), numClass);
     	transform.load(path);
     	context.getLoader().update(transform, clusters);
     }
+
+    /**
+     * Releases the models this recognizer shares with others. The recognizer
+     * can't be used afterwards.
+     *
+     * @see Configuration#setUseSharedModels(boolean)
+     */
+    public void close() {
+        context.close();
+    }
+
+    private void checkNotShared() {
+        if (context.isSharingModels())
+            throw new IllegalStateException(
+                    "Shared acoustic model can't be adapted");
+    }
 }
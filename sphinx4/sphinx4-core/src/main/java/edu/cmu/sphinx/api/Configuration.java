@@ -31,6 +31,7 @@ public class Configuration {
 
     private int sampleRate = 16000;
     private boolean useGrammar = false;
+    private boolean useSharedModels = false;
 
     /**
      * @return path to acoustic model
@@ -136,4 +137,24 @@ public class Configuration {
     public void setSampleRate(int sampleRate) {
         this.sampleRate = sampleRate;
     }
+
+    /**
+     * @return whether the models are shared with other recognizers.
+     */
+    public boolean getUseSharedModels() {
+        return useSharedModels;
+    }
+
+    /**
+     * Sets whether the acoustic model, the dictionary and the language model
+     * are shared with other recognizers of this process which use the same
+     * models. Shared models are loaded once and kept in the
+     * {@link ModelRegistry} until the last recognizer using them is closed.
+     * The acoustic model of a shared configuration can't be adapted.
+     *
+     * @param useSharedModels to share the models
+     */
+    public void setUseSharedModels(boolean useSharedModels) {
+        this.useSharedModels = useSharedModels;
+    }
 }
@@ -14,17 +14,34 @@ package edu.cmu.sphinx.api;
 import static edu.cmu.sphinx.util.props.ConfigurationManagerUtils.resourceToURL;
 import static edu.cmu.sphinx.util.props.ConfigurationManagerUtils.setProperty;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
+import edu.cmu.sphinx.frontend.FrontEnd;
 import edu.cmu.sphinx.frontend.frequencywarp.MelFrequencyFilterBank2;
+import edu.cmu.sphinx.frontend.util.FeatureStore;
+import edu.cmu.sphinx.frontend.util.FeatureStoreDataSource;
 import edu.cmu.sphinx.frontend.util.StreamDataSource;
+import edu.cmu.sphinx.linguist.acoustic.AcousticModel;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
 import edu.cmu.sphinx.linguist.acoustic.tiedstate.Loader;
+import edu.cmu.sphinx.linguist.dictionary.Dictionary;
+import edu.cmu.sphinx.linguist.language.ngram.LanguageModel;
+import edu.cmu.sphinx.linguist.language.ngram.SimpleNGramModel;
+import edu.cmu.sphinx.linguist.language.ngram.trie.NgramTrieModel;
 import edu.cmu.sphinx.util.TimeFrame;
 import edu.cmu.sphinx.util.Utilities;
 import edu.cmu.sphinx.util.props.Configurable;
 import edu.cmu.sphinx.util.props.ConfigurationManager;
+import edu.cmu.sphinx.util.props.PropertySheet;
 
 
 /**
@@ -33,6 +50,7 @@ import edu.cmu.sphinx.util.props.ConfigurationManager;
 public class Context {
 
     private final ConfigurationManager configurationManager;
+    private final List<String> sharedModelKeys = new ArrayList<String>();
 
     /**
      * Constructs builder that uses default XML configuration.
@@ -55,6 +73,30 @@ public class Context {
      */
     public Context(String path, Configuration config)
         throws IOException, MalformedURLException
+    {
+        this(path, config, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Constructs builder that uses default XML configuration and sets the
+     * given local properties before the models are shared, so that they are
+     * part of the keys of the shared models.
+     *
+     * @param  config configuration
+     * @param  properties local properties, see
+     *         {@link #setLocalProperty(String, Object)}
+     * @throws IOException if failed to load configuration file
+     */
+    Context(Configuration config, Map<String, String> properties)
+        throws IOException
+    {
+        this("resource:/edu/cmu/sphinx/api/default.config.xml", config,
+             properties);
+    }
+
+    private Context(String path, Configuration config,
+                    Map<String, String> properties)
+        throws IOException, MalformedURLException
     {
         configurationManager = new ConfigurationManager(resourceToURL(path));
 
@@ -68,6 +110,13 @@ public class Context {
 
         setSampleRate(config.getSampleRate());
 
+        for (Map.Entry<String, String> property : properties.entrySet())
+            setLocalProperty(property.getKey(), property.getValue());
+
+        if (config.getUseSharedModels())
+            shareModels(!config.getUseGrammar()
+                    && null != config.getLanguageModelPath());
+
         // Force ConfigurationManager to build the whole graph
         // in order to enable instance lookup by class.
         configurationManager.lookup("recognizer");
@@ -167,6 +216,20 @@ public class Context {
         setLocalProperty("trivialScorer->frontend", "liveFrontEnd");
     }
 
+    /**
+     * Sets stored features as the speech source. The features are replayed
+     * by a front end of their own, so the front end which computed them is
+     * not used until the next call to setSpeechSource.
+     *
+     * @param store complete store to replay
+     * @param timeFrame time range of the store to process
+     */
+    public void setFeatureSource(FeatureStore store, TimeFrame timeFrame) {
+        getInstance(FeatureStoreDataSource.class)
+            .setFeatureStore(store, timeFrame);
+        setLocalProperty("trivialScorer->frontend", "featureFrontEnd");
+    }
+
     /**
      * Sets byte stream as the speech source.
      *
@@ -224,4 +287,182 @@ public class Context {
     public Loader getLoader(){
     	return (Loader) configurationManager.lookup("acousticModelLoader");
     }
+
+    /**
+     * Returns the front end that computes features from the speech source.
+     *
+     * @return the front end
+     */
+    public FrontEnd getFrontEnd() {
+        return (FrontEnd) configurationManager.lookup("liveFrontEnd");
+    }
+
+    /**
+     * Returns whether the models are taken from the {@link ModelRegistry}.
+     *
+     * @return true if models are shared with other contexts
+     */
+    public boolean isSharingModels() {
+        return !sharedModelKeys.isEmpty();
+    }
+
+    /**
+     * Releases the models shared with other contexts. The context can't be
+     * used afterwards.
+     */
+    public void close() {
+        ModelRegistry registry = ModelRegistry.getInstance();
+        for (String key : sharedModelKeys)
+            registry.release(key);
+        sharedModelKeys.clear();
+    }
+
+    private static class SharedAcoustics implements Closeable {
+        final UnitManager unitManager;
+        final Loader loader;
+        final AcousticModel acousticModel;
+
+        SharedAcoustics(ConfigurationManager cm) throws IOException {
+            unitManager = cm.lookup("unitManager");
+            loader = cm.lookup("acousticModelLoader");
+            acousticModel = cm.lookup("acousticModel");
+            acousticModel.allocate();
+        }
+
+        public void close() {
+            acousticModel.deallocate();
+        }
+    }
+
+    private static class SharedModel<T> implements Closeable {
+        final T model;
+        // key of the model this one refers to
+        final String dependency;
+
+        SharedModel(T model, String dependency) {
+            this.model = model;
+            this.dependency = dependency;
+        }
+
+        public void close() throws IOException {
+            if (model instanceof Dictionary)
+                ((Dictionary) model).deallocate();
+            else
+                ((LanguageModel) model).deallocate();
+            ModelRegistry.getInstance().release(dependency);
+        }
+    }
+
+    /**
+     * Replaces the acoustic model, the dictionary and the language model of
+     * this context with the ones from the {@link ModelRegistry}. Models that
+     * are not registered yet are created from this configuration.
+     *
+     * The dictionary and the language model refer to the models they were
+     * created with, so their keys include the keys of these models. Only
+     * language models which are safe to use from several threads are shared.
+     */
+    private void shareModels(boolean useLanguageModel) throws IOException {
+        ModelRegistry registry = ModelRegistry.getInstance();
+
+        final String acousticKey = "acoustic:" + componentKey("unitManager")
+                + componentKey("acousticModelLoader")
+                + componentKey("acousticModel");
+        SharedAcoustics acoustics = registry.acquire(acousticKey,
+                new ModelRegistry.Factory<SharedAcoustics>() {
+                    public SharedAcoustics create() throws IOException {
+                        return new SharedAcoustics(configurationManager);
+                    }
+                });
+        sharedModelKeys.add(acousticKey);
+        replaceComponent("unitManager", acoustics.unitManager);
+        replaceComponent("acousticModelLoader", acoustics.loader);
+        replaceComponent("acousticModel",
+                new SharedAcousticModel(acoustics.acousticModel));
+
+        final String dictionaryKey = "dictionary:"
+                + componentKey("dictionary") + acousticKey;
+        SharedModel<Dictionary> dictionary = registry.acquire(dictionaryKey,
+                new ModelRegistry.Factory<SharedModel<Dictionary>>() {
+                    public SharedModel<Dictionary> create() throws IOException {
+                        Dictionary dictionary =
+                            configurationManager.lookup("dictionary");
+                        dictionary.allocate();
+                        // the units of the dictionary come from the
+                        // acoustic model, keep it while the dictionary lives
+                        ModelRegistry.getInstance().acquire(acousticKey, null);
+                        return new SharedModel<Dictionary>(dictionary,
+                                                           acousticKey);
+                    }
+                });
+        sharedModelKeys.add(dictionaryKey);
+        replaceComponent("dictionary",
+                new SharedDictionary(dictionary.model));
+
+        if (!useLanguageModel)
+            return;
+        final String name = (String) configurationManager
+            .getPropertySheet("lexTreeLinguist").getRaw("languageModel");
+        Class<?> type =
+            configurationManager.getPropertySheet(name).getConfigurableClass();
+        if (type != NgramTrieModel.class && type != SimpleNGramModel.class)
+            return;
+
+        final String languageModelKey = "languageModel:"
+                + componentKey(name) + dictionaryKey;
+        SharedModel<LanguageModel> languageModel = registry.acquire(
+                languageModelKey,
+                new ModelRegistry.Factory<SharedModel<LanguageModel>>() {
+                    public SharedModel<LanguageModel> create()
+                        throws IOException
+                    {
+                        LanguageModel model = configurationManager.lookup(name);
+                        model.allocate();
+                        // the model keeps the words of the dictionary
+                        ModelRegistry.getInstance().acquire(dictionaryKey, null);
+                        return new SharedModel<LanguageModel>(model,
+                                                              dictionaryKey);
+                    }
+                });
+        sharedModelKeys.add(languageModelKey);
+        replaceComponent(name, new SharedLanguageModel(languageModel.model));
+    }
+
+    /**
+     * Describes a component by its class and properties. Locations are
+     * resolved, so different paths to the same model give the same key.
+     */
+    private String componentKey(String name) {
+        PropertySheet ps = configurationManager.getPropertySheet(name);
+        StringBuilder key = new StringBuilder();
+        key.append('[').append(ps.getConfigurableClass().getName());
+        for (String property : new TreeSet<String>(ps.getRegisteredProperties())) {
+            Object raw = ps.getRaw(property);
+            if (raw == null)
+                continue;
+            String value = raw.toString();
+            if (value.startsWith("${") && value.endsWith("}")) {
+                String global = configurationManager.getGlobalProperty(
+                        value.substring(2, value.length() - 1));
+                if (global != null)
+                    value = global;
+            }
+            if (value.startsWith("resource:") || value.indexOf('/') != -1) {
+                try {
+                    URL url = resourceToURL(value);
+                    if (url != null)
+                        value = url.toString();
+                } catch (MalformedURLException e) {
+                    // not a location
+                }
+            }
+            key.append(' ').append(property).append('=').append(value);
+        }
+        return key.append(']').toString();
+    }
+
+    private void replaceComponent(String name, Configurable component) {
+        configurationManager.removeConfigurable(name);
+        configurationManager.addConfigurable(component, name);
+    }
 }
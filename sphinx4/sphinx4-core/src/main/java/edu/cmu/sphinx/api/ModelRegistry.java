@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+
+package edu.cmu.sphinx.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Process-wide registry of models which are shared between recognizers.
+ *
+ * Models are identified by a key which describes how they were configured,
+ * usually the resolved location and the properties of the components. The
+ * first {@link #acquire} of a key creates the model, later ones return the
+ * same instance and increase its reference count. When the last reference is
+ * released the model is removed and closed if it implements
+ * {@link Closeable}.
+ *
+ * Models are created outside of the registry lock, so loading a large model
+ * only blocks the threads which wait for the same key.
+ *
+ * @see Configuration#setUseSharedModels(boolean)
+ */
+public class ModelRegistry {
+
+    /**
+     * Creates a model on its first acquisition.
+     *
+     * @param <T> type of the model
+     */
+    public interface Factory<T> {
+        T create() throws IOException;
+    }
+
+    private static class Entry {
+        private Factory<?> factory;
+        private Object model;
+        private int references;
+
+        Entry(Factory<?> factory) {
+            this.factory = factory;
+        }
+
+        synchronized Object get() throws IOException {
+            if (model == null) {
+                model = factory.create();
+                // the factory may refer to the configuration of a recognizer
+                factory = null;
+            }
+            return model;
+        }
+    }
+
+    private static final ModelRegistry instance = new ModelRegistry();
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * @return the registry of this process
+     */
+    public static ModelRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the model of the given key, creating it if it is not
+     * registered yet. Every call has to be matched by a {@link #release}.
+     *
+     * @param <T>     type of the model
+     * @param key     key describing the model
+     * @param factory factory to create the model
+     * @return shared model
+     * @throws IOException if the model could not be created
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T acquire(String key, Factory<T> factory) throws IOException {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(factory);
+                entries.put(key, entry);
+            }
+            entry.references++;
+        }
+
+        boolean created = false;
+        try {
+            T model = (T) entry.get();
+            created = true;
+            return model;
+        } finally {
+            if (!created)
+                release(key);
+        }
+    }
+
+    /**
+     * Releases a model acquired before. The model is closed when it is not
+     * used anymore.
+     *
+     * @param key key of the model
+     * @throws IllegalStateException if the model is not registered
+     */
+    public void release(String key) {
+        Object model;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null)
+                throw new IllegalStateException("Model is not registered: " + key);
+            if (--entry.references > 0)
+                return;
+            entries.remove(key);
+            model = entry.model;
+        }
+
+        if (model instanceof Closeable) {
+            try {
+                ((Closeable) model).close();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to close model " + key, e);
+            }
+        }
+    }
+
+    /**
+     * @param key key of the model
+     * @return the number of references to the model, zero if it is not
+     *         registered
+     */
+    public int getReferenceCount(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            return entry == null ? 0 : entry.references;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+
+package edu.cmu.sphinx.api;
+
+
+/**
+ * Receives the results of a {@link RecognitionSession}. The methods are
+ * called on the decoder thread of the session, so they should return
+ * quickly.
+ *
+ * @see SpeechRecognitionService
+ */
+public interface RecognitionListener {
+
+    /**
+     * Called for every utterance recognized in the session.
+     *
+     * @param session session the result belongs to
+     * @param result  result of the utterance
+     */
+    void onResult(RecognitionSession session, SpeechResult result);
+
+    /**
+     * Called once when the session is decoded, failed or was cancelled.
+     *
+     * @param session finished session
+     * @param error   the failure or {@code null} if the session was decoded
+     *                or cancelled
+     */
+    void onFinished(RecognitionSession session, Throwable error);
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+
+package edu.cmu.sphinx.api;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Future;
+
+
+/**
+ * Audio stream decoded by a {@link SpeechRecognitionService}.
+ *
+ * The client pushes raw audio in the format of the service configuration with
+ * {@link #feed} and calls {@link #finish} at the end of the stream. Audio is
+ * buffered until a decoder takes the session, {@link #feed} blocks while the
+ * buffer is full. Results are passed to the {@link RecognitionListener} of the
+ * session as they are recognized and are all available from
+ * {@link #getResults} once the session is decoded.
+ *
+ * The session keeps account of the resources spent on it, which may be used
+ * to bill or to throttle clients.
+ */
+public class RecognitionSession {
+
+    private final int id;
+    private final RecognitionListener listener;
+
+    private final byte[] buffer;
+    private int head;
+    private int count;
+    private boolean finished;
+    private boolean cancelled;
+
+    private Future<List<SpeechResult>> results;
+
+    private volatile long audioBytes;
+    private volatile long cpuTime;
+    private volatile long allocatedBytes;
+
+    RecognitionSession(int id, int bufferSize, RecognitionListener listener) {
+        this.id = id;
+        this.listener = listener;
+        buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Appends audio to the session. Blocks while the buffer of the session is
+     * full.
+     *
+     * @param data   audio data
+     * @param offset start of the data in the array
+     * @param length number of bytes to append
+     * @throws InterruptedException  if interrupted while waiting for space
+     * @throws IllegalStateException if the session was finished or
+     *                               cancelled
+     */
+    public synchronized void feed(byte[] data, int offset, int length)
+        throws InterruptedException
+    {
+        if (finished)
+            throw new IllegalStateException("Session " + id + " is finished");
+        while (length > 0) {
+            while (count == buffer.length && !cancelled)
+                wait();
+            if (cancelled)
+                return;
+            int tail = (head + count) % buffer.length;
+            int chunk = Math.min(length,
+                    Math.min(buffer.length - count, buffer.length - tail));
+            System.arraycopy(data, offset, buffer, tail, chunk);
+            audioBytes += chunk;
+            count += chunk;
+            offset += chunk;
+            length -= chunk;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Appends audio to the session, see {@link #feed(byte[], int, int)}.
+     *
+     * @param data audio data
+     * @throws InterruptedException if interrupted while waiting for space
+     */
+    public void feed(byte[] data) throws InterruptedException {
+        feed(data, 0, data.length);
+    }
+
+    /**
+     * Marks the end of the audio. The decoder finishes the last utterance
+     * once the buffered audio is consumed.
+     */
+    public synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Stops decoding the session and drops the buffered audio. The result
+     * future of a cancelled session is cancelled too.
+     */
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            finished = true;
+            count = 0;
+            notifyAll();
+        }
+        results.cancel(false);
+    }
+
+    /**
+     * @return true if the session was cancelled
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the results of all utterances. The future completes when the
+     * session has been decoded.
+     *
+     * @return future list of results
+     */
+    public Future<List<SpeechResult>> getResults() {
+        return results;
+    }
+
+    /**
+     * @return identifier of the session within its service
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return number of bytes of audio fed into the buffer so far, a feed
+     *         interrupted by a cancel only counts the bytes it buffered
+     */
+    public long getAudioBytes() {
+        return audioBytes;
+    }
+
+    /**
+     * @return number of bytes of audio waiting for the decoder
+     */
+    public synchronized int getBufferedBytes() {
+        return count;
+    }
+
+    /**
+     * @return the size of the audio buffer in bytes
+     */
+    public int getBufferSize() {
+        return buffer.length;
+    }
+
+    /**
+     * @return CPU time in nanoseconds the decoder spent on the session, zero
+     *         if the JVM does not measure thread CPU time
+     */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * @return bytes allocated on the heap by the decoder for the session, zero
+     *         if the JVM does not measure allocations
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    void setResults(Future<List<SpeechResult>> results) {
+        this.results = results;
+    }
+
+    RecognitionListener getListener() {
+        return listener;
+    }
+
+    void addUsage(long cpuTime, long allocatedBytes) {
+        this.cpuTime += cpuTime;
+        this.allocatedBytes += allocatedBytes;
+    }
+
+    /**
+     * @return stream the decoder reads the audio of the session from
+     */
+    InputStream getInputStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws InterruptedIOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len)
+                throws InterruptedIOException
+            {
+                return take(b, off, len);
+            }
+        };
+    }
+
+    private synchronized int take(byte[] b, int off, int len)
+        throws InterruptedIOException
+    {
+        try {
+            while (count == 0 && !finished)
+                wait();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        if (count == 0)
+            return -1;
+        int chunk = Math.min(len, Math.min(count, buffer.length - head));
+        System.arraycopy(buffer, head, b, off, chunk);
+        head = (head + chunk) % buffer.length;
+        count -= chunk;
+        notifyAll();
+        return chunk;
+    }
+}
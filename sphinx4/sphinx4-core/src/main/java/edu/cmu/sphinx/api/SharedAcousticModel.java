@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+
+package edu.cmu.sphinx.api;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Properties;
+
+import edu.cmu.sphinx.linguist.acoustic.AcousticModel;
+import edu.cmu.sphinx.linguist.acoustic.HMM;
+import edu.cmu.sphinx.linguist.acoustic.HMMPosition;
+import edu.cmu.sphinx.linguist.acoustic.Unit;
+import edu.cmu.sphinx.util.props.PropertySheet;
+
+
+/**
+ * View of an acoustic model from the {@link ModelRegistry} given to a single
+ * recognizer. The shared model is allocated by the registry, so the
+ * recognizer can't allocate or deallocate it.
+ */
+class SharedAcousticModel implements AcousticModel {
+
+    private final AcousticModel model;
+
+    SharedAcousticModel(AcousticModel model) {
+        this.model = model;
+    }
+
+    public void newProperties(PropertySheet ps) {
+    }
+
+    public void allocate() throws IOException {
+    }
+
+    public void deallocate() {
+    }
+
+    public String getName() {
+        return model.getName();
+    }
+
+    public HMM lookupNearestHMM(Unit unit, HMMPosition position, boolean exactMatch) {
+        return model.lookupNearestHMM(unit, position, exactMatch);
+    }
+
+    public Iterator<HMM> getHMMIterator() {
+        return model.getHMMIterator();
+    }
+
+    public Iterator<Unit> getContextIndependentUnitIterator() {
+        return model.getContextIndependentUnitIterator();
+    }
+
+    public int getLeftContextSize() {
+        return model.getLeftContextSize();
+    }
+
+    public int getRightContextSize() {
+        return model.getRightContextSize();
+    }
+
+    public Properties getProperties() {
+        return model.getProperties();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+
+package edu.cmu.sphinx.api;
+
+import java.io.IOException;
+
+import edu.cmu.sphinx.linguist.dictionary.Dictionary;
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import edu.cmu.sphinx.util.props.PropertySheet;
+
+
+/**
+ * View of a dictionary from the {@link ModelRegistry} given to a single
+ * recognizer. The shared dictionary is allocated by the registry, so the
+ * recognizer can't allocate or deallocate it.
+ */
+class SharedDictionary implements Dictionary {
+
+    private final Dictionary dictionary;
+
+    SharedDictionary(Dictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    public void newProperties(PropertySheet ps) {
+    }
+
+    public void allocate() throws IOException {
+    }
+
+    public void deallocate() {
+    }
+
+    public Word getWord(String text) {
+        return dictionary.getWord(text);
+    }
+
+    public Word getSentenceStartWord() {
+        return dictionary.getSentenceStartWord();
+    }
+
+    public Word getSentenceEndWord() {
+        return dictionary.getSentenceEndWord();
+    }
+
+    public Word getSilenceWord() {
+        return dictionary.getSilenceWord();
+    }
+
+    public Word[] getFillerWords() {
+        return dictionary.getFillerWords();
+    }
+}
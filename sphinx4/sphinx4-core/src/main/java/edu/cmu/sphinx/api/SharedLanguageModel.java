@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+
+package edu.cmu.sphinx.api;
+
+import java.io.IOException;
+import java.util.Set;
+
+import edu.cmu.sphinx.linguist.WordSequence;
+import edu.cmu.sphinx.linguist.language.ngram.LanguageModel;
+import edu.cmu.sphinx.util.props.PropertySheet;
+
+
+/**
+ * View of a language model from the {@link ModelRegistry} given to a single
+ * recognizer. The shared model is allocated by the registry, so the
+ * recognizer can't allocate or deallocate it. The end of an utterance of one
+ * recognizer does not clear the caches the model shares with the others.
+ */
+class SharedLanguageModel implements LanguageModel {
+
+    private final LanguageModel model;
+
+    SharedLanguageModel(LanguageModel model) {
+        this.model = model;
+    }
+
+    public void newProperties(PropertySheet ps) {
+    }
+
+    public void allocate() throws IOException {
+    }
+
+    public void deallocate() throws IOException {
+    }
+
+    public float getProbability(WordSequence wordSequence) {
+        return model.getProbability(wordSequence);
+    }
+
+    public float getSmear(WordSequence wordSequence) {
+        return model.getSmear(wordSequence);
+    }
+
+    public Set<String> getVocabulary() {
+        return model.getVocabulary();
+    }
+
+    public int getMaxDepth() {
+        return model.getMaxDepth();
+    }
+
+    public void onUtteranceEnd() {
+    }
+}
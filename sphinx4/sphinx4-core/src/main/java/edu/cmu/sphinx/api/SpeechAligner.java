@@ -9,21 +9,36 @@
 
 package edu.cmu.sphinx.api;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Logger;
 
+import edu.cmu.sphinx.alignment.AnchoredTextAligner;
 import edu.cmu.sphinx.alignment.LongTextAligner;
 import edu.cmu.sphinx.alignment.SimpleTokenizer;
+import edu.cmu.sphinx.alignment.TextAligner;
 import edu.cmu.sphinx.alignment.TextTokenizer;
+import edu.cmu.sphinx.frontend.util.FeatureStore;
+import edu.cmu.sphinx.linguist.dictionary.Dictionary;
 import edu.cmu.sphinx.linguist.language.grammar.AlignerGrammar;
 import edu.cmu.sphinx.linguist.language.ngram.DynamicTrigramModel;
 import edu.cmu.sphinx.recognizer.Recognizer;
@@ -32,17 +47,39 @@ import edu.cmu.sphinx.result.WordResult;
 import edu.cmu.sphinx.util.Range;
 import edu.cmu.sphinx.util.TimeFrame;
 
+/**
+ * Aligns audio to its transcript. The audio is decoded with a language
+ * model built from the transcript first; the parts of the transcript which
+ * were not recognized are then decoded again with a grammar, a few times,
+ * within the time frames between the aligned words.
+ * <p>
+ * By default every part is decoded by reading the audio again. With
+ * {@link #setThreads(int)} the features are computed once and the parts are
+ * decoded at the same time by several recognizers which share the models.
+ */
 public class SpeechAligner {
     private final Logger logger = Logger.getLogger(getClass().getSimpleName());
 
     private static final int TUPLE_SIZE = 3;
 
+    /** Longer transcripts are aligned with {@link AnchoredTextAligner} */
+    private static final int MAX_SEARCH_TRANSCRIPT_SIZE = 10000;
+
     private final Context context;
     private final Recognizer recognizer;
     private final AlignerGrammar grammar;
     private final DynamicTrigramModel languageModel;
 
+    private final String amPath;
+    private final String dictPath;
+    private final String g2pPath;
+    private final Decoder decoder;
+    private final List<Decoder> workers = new ArrayList<Decoder>();
+
     private TextTokenizer tokenizer;
+    private int threads = 1;
+    private boolean cacheFeatures;
+    private File featureCacheDirectory;
 
     public SpeechAligner(String amPath, String dictPath, String g2pPath) throws MalformedURLException, IOException {
         Configuration configuration = new Configuration();
@@ -59,6 +96,11 @@ public class SpeechAligner {
         grammar = context.getInstance(AlignerGrammar.class);
         languageModel = context.getInstance(DynamicTrigramModel.class);
         setTokenizer(new SimpleTokenizer());
+
+        this.amPath = amPath;
+        this.dictPath = dictPath;
+        this.g2pPath = g2pPath;
+        decoder = new Decoder(context, recognizer, grammar, languageModel);
     }
 
     public List<WordResult> align(URL audioUrl, String transcript) throws IOException {
@@ -77,7 +119,9 @@ public class SpeechAligner {
         
         List<String> transcript = sentenceToWords(sentenceTranscript);
 
-        LongTextAligner aligner = new LongTextAligner(transcript, TUPLE_SIZE);
+        TextAligner aligner = transcript.size() > MAX_SEARCH_TRANSCRIPT_SIZE
+                ? new AnchoredTextAligner(transcript, TUPLE_SIZE)
+                : new LongTextAligner(transcript, TUPLE_SIZE);
         Map<Integer, WordResult> alignedWords = new TreeMap<Integer, WordResult>();
         Queue<Range> ranges = new LinkedList<Range>();
         Queue<List<String>> texts = new ArrayDeque<List<String>>();
@@ -89,71 +133,302 @@ public class SpeechAligner {
         timeFrames.offer(totalTimeFrame);
         long lastFrame = TimeFrame.INFINITE.getEnd();
 
-        languageModel.setText(sentenceTranscript);
-        
-        for (int i = 0; i < 4; ++i) {
-            if (i == 1) {
-                context.setLocalProperty("decoder->searchManager", "alignerSearchManager");
-            }
+        List<Decoder> decoders = getDecoders();
+        for (Decoder decoder : decoders)
+            decoder.languageModel.setText(sentenceTranscript);
+        if (decoders.size() > 1) {
+            // words missing from the dictionary are generated once, not
+            // by every thread
+            Dictionary dictionary = decoders.get(0).context.getInstance(Dictionary.class);
+            for (String word : transcript)
+                dictionary.getWord(word);
+        }
+
+        FeatureStore features = null;
+        try {
+            if (decoders.size() > 1 || cacheFeatures)
+                features = extractFeatures(audioUrl);
 
-            while (!texts.isEmpty()) {
+            for (int i = 0; i < 4; ++i) {
                 assert texts.size() == ranges.size();
                 assert texts.size() == timeFrames.size();
 
-                List<String> text = texts.poll();
-                TimeFrame frame = timeFrames.poll();
-                Range range = ranges.poll();
+                List<List<String>> passTexts = new ArrayList<List<String>>(texts);
+                List<TimeFrame> passFrames = new ArrayList<TimeFrame>(timeFrames);
+                List<Range> passRanges = new ArrayList<Range>(ranges);
+                texts.clear();
+                timeFrames.clear();
+                ranges.clear();
+
+                List<List<WordResult>> hypotheses;
+                if (i == 0 && decoders.size() > 1) {
+                    // the first pass decodes the whole audio, split it at
+                    // the pauses and join the results
+                    List<TimeFrame> chunks = splitSpeech(features.getSpeechSegments(), 2 * decoders.size());
+                    List<WordResult> hypothesis = new ArrayList<WordResult>();
+                    for (List<WordResult> chunk : decode(decoders, false,
+                            Collections.nCopies(chunks.size(), transcript), chunks, audioUrl, features))
+                        hypothesis.addAll(chunk);
+                    hypotheses = Collections.singletonList(hypothesis);
+                } else {
+                    hypotheses = decode(decoders, i >= 1, passTexts, passFrames, audioUrl, features);
+                }
 
+                for (int k = 0; k < hypotheses.size(); k++) {
+                    List<WordResult> hypothesis = hypotheses.get(k);
+                    Range range = passRanges.get(k);
 
-                logger.info("Aligning frame " + frame + " to text " + text + " range " + range);
+                    if (i == 0) {
+                        if (hypothesis.size() > 0) {
+                            lastFrame = hypothesis.get(hypothesis.size() - 1).getTimeFrame().getEnd();
+                        }
+                    }
 
-                recognizer.allocate();
+                    List<String> words = new ArrayList<String>();
+                    for (WordResult wr : hypothesis) {
+                        words.add(wr.getWord().getSpelling());
+                    }
+                    int[] alignment = aligner.align(words, range);
 
-                if (i >= 1) {
-                    grammar.setWords(text);
-                }
+                    List<WordResult> results = hypothesis;
 
-                context.setSpeechSource(audioUrl.openStream(), frame);
+                    logger.info("Decoding result is " + results);
 
-                List<WordResult> hypothesis = new ArrayList<WordResult>();
-                Result result;
-                while (null != (result = recognizer.recognize())) {
-                    logger.info("Utterance result " + result.getTimedBestResult(true));
-                    hypothesis.addAll(result.getTimedBestResult(false));
-                }
+                    // dumpAlignment(transcript, alignment, results);
+                    dumpAlignmentStats(transcript, alignment, results);
 
-                if (i == 0) {
-                    if (hypothesis.size() > 0) {
-                        lastFrame = hypothesis.get(hypothesis.size() - 1).getTimeFrame().getEnd();
+                    for (int j = 0; j < alignment.length; j++) {
+                        if (alignment[j] != -1) {
+                            alignedWords.put(alignment[j], hypothesis.get(j));
+                        }
                     }
                 }
 
-                List<String> words = new ArrayList<String>();
-                for (WordResult wr : hypothesis) {
-                    words.add(wr.getWord().getSpelling());
-                }
-                int[] alignment = aligner.align(words, range);
+                scheduleNextAlignment(transcript, alignedWords, ranges, texts, timeFrames, lastFrame);
+            }
+        } finally {
+            if (features != null)
+                features.close();
+        }
 
-                List<WordResult> results = hypothesis;
+        return new ArrayList<WordResult>(alignedWords.values());
+    }
 
-                logger.info("Decoding result is " + results);
+    /**
+     * Decodes the given parts of the audio with the recognizers of the
+     * decoders.
+     *
+     * @return the hypothesis of every part, in the order of the parts
+     */
+    private List<List<WordResult>> decode(List<Decoder> decoders, final boolean aligning,
+            List<List<String>> texts, List<TimeFrame> frames, final URL audioUrl,
+            final FeatureStore features) throws IOException {
+        List<PartDecoder> partDecoders = new ArrayList<PartDecoder>();
+        for (final Decoder decoder : decoders) {
+            partDecoders.add(new PartDecoder() {
+                public List<WordResult> decode(List<String> text, TimeFrame frame) throws IOException {
+                    return SpeechAligner.this.decode(decoder, aligning, text, frame, audioUrl, features);
+                }
+            });
+        }
+        return decode(partDecoders, texts, frames);
+    }
 
-                // dumpAlignment(transcript, alignment, results);
-                dumpAlignmentStats(transcript, alignment, results);
+    /**
+     * Decodes the given parts of the audio, at the same time if there are
+     * several decoders. Every decoder decodes one part at a time.
+     *
+     * @return the hypothesis of every part, in the order of the parts
+     */
+    static List<List<WordResult>> decode(List<? extends PartDecoder> decoders,
+            final List<List<String>> texts, final List<TimeFrame> frames) throws IOException {
+        List<List<WordResult>> hypotheses = new ArrayList<List<WordResult>>();
+        if (decoders.size() == 1) {
+            for (int i = 0; i < texts.size(); i++)
+                hypotheses.add(decoders.get(0).decode(texts.get(i), frames.get(i)));
+            return hypotheses;
+        }
 
-                for (int j = 0; j < alignment.length; j++) {
-                    if (alignment[j] != -1) {
-                        alignedWords.put(alignment[j], hypothesis.get(j));
+        final BlockingQueue<PartDecoder> idle = new LinkedBlockingQueue<PartDecoder>(decoders);
+        ExecutorService executor = Executors.newFixedThreadPool(decoders.size());
+        try {
+            List<Future<List<WordResult>>> results = new ArrayList<Future<List<WordResult>>>();
+            for (int i = 0; i < texts.size(); i++) {
+                final int part = i;
+                results.add(executor.submit(new Callable<List<WordResult>>() {
+                    public List<WordResult> call() throws Exception {
+                        PartDecoder decoder = idle.take();
+                        try {
+                            return decoder.decode(texts.get(part), frames.get(part));
+                        } finally {
+                            idle.add(decoder);
+                        }
                     }
-                }
+                }));
+            }
+            for (Future<List<WordResult>> result : results)
+                hypotheses.add(result.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Alignment was interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        return hypotheses;
+    }
+
+    private List<WordResult> decode(Decoder decoder, boolean aligning, List<String> text, TimeFrame frame,
+            URL audioUrl, FeatureStore features) throws IOException {
+        logger.info("Aligning frame " + frame + " to text " + text);
+
+        if (aligning && !decoder.aligning) {
+            decoder.context.setLocalProperty("decoder->searchManager", "alignerSearchManager");
+            decoder.aligning = true;
+        }
+
+        decoder.recognizer.allocate();
+
+        if (aligning) {
+            decoder.grammar.setWords(text);
+        }
 
-                recognizer.deallocate();
+        if (features != null)
+            decoder.context.setFeatureSource(features, frame);
+        else
+            decoder.context.setSpeechSource(audioUrl.openStream(), frame);
+
+        List<WordResult> hypothesis = new ArrayList<WordResult>();
+        Result result;
+        while (null != (result = decoder.recognizer.recognize())) {
+            logger.info("Utterance result " + result.getTimedBestResult(true));
+            hypothesis.addAll(result.getTimedBestResult(false));
+        }
+
+        decoder.recognizer.deallocate();
+        return hypothesis;
+    }
+
+    private FeatureStore extractFeatures(URL audioUrl) throws IOException {
+        FeatureStore features = featureCacheDirectory == null
+                ? new FeatureStore()
+                : new FeatureStore(File.createTempFile("features", ".bin", featureCacheDirectory));
+        context.setSpeechSource(audioUrl.openStream());
+        features.extract(context.getFrontEnd());
+        logger.info("Extracted " + features.size() + " frames of features");
+        return features;
+    }
+
+    /**
+     * Splits the audio into about the given number of parts of similar
+     * length. Parts consist of whole speech segments.
+     *
+     * @param segments the speech segments of the audio, in time order
+     * @param count the number of parts
+     * @return the time frames of the parts
+     */
+    static List<TimeFrame> splitSpeech(List<TimeFrame> segments, int count) {
+        if (segments.isEmpty())
+            return Collections.singletonList(TimeFrame.INFINITE);
+
+        long total = 0;
+        for (TimeFrame segment : segments)
+            total += segment.length();
+
+        List<TimeFrame> chunks = new ArrayList<TimeFrame>();
+        long start = segments.get(0).getStart();
+        long length = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            TimeFrame segment = segments.get(i);
+            length += segment.length();
+            if (length * count >= total || i == segments.size() - 1) {
+                chunks.add(new TimeFrame(start, segment.getEnd()));
+                if (i + 1 < segments.size())
+                    start = segments.get(i + 1).getStart();
+                length = 0;
             }
+        }
+        return chunks;
+    }
+
+    private List<Decoder> getDecoders() throws IOException {
+        if (threads == 1)
+            return Collections.singletonList(decoder);
 
-            scheduleNextAlignment(transcript, alignedWords, ranges, texts, timeFrames, lastFrame);
+        while (workers.size() < threads) {
+            Configuration configuration = new Configuration();
+            configuration.setAcousticModelPath(amPath);
+            configuration.setDictionaryPath(dictPath);
+            configuration.setUseSharedModels(true);
+
+            Map<String, String> properties = new LinkedHashMap<String, String>();
+            if (g2pPath != null) {
+                properties.put("dictionary->g2pModelPath", g2pPath);
+                properties.put("dictionary->g2pMaxPron", "2");
+            }
+            properties.put("lexTreeLinguist->languageModel", "dynamicTrigramModel");
+
+            Context workerContext = new Context(configuration, properties);
+            workers.add(new Decoder(workerContext,
+                    workerContext.getInstance(Recognizer.class),
+                    workerContext.getInstance(AlignerGrammar.class),
+                    workerContext.getInstance(DynamicTrigramModel.class)));
         }
+        return workers.subList(0, threads);
+    }
 
-        return new ArrayList<WordResult>(alignedWords.values());
+    /**
+     * Sets the number of parts of the audio which are decoded at the same
+     * time. With more than one thread the features are computed once, and
+     * every thread decodes with a recognizer of its own. The recognizers
+     * share the acoustic model and the dictionary.
+     *
+     * @param threads the number of threads, 1 by default
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     * Sets whether the features are computed once and kept for all passes,
+     * also when the parts are decoded one after another. The stored
+     * features are normalized over the whole audio rather than from the
+     * start of every part.
+     *
+     * @param cacheFeatures true to keep the features
+     */
+    public void setCacheFeatures(boolean cacheFeatures) {
+        this.cacheFeatures = cacheFeatures;
+    }
+
+    /**
+     * Sets the directory where the features are kept while the audio is
+     * aligned. By default they are kept in memory.
+     *
+     * @param directory the directory for temporary files, or null
+     */
+    public void setFeatureCacheDirectory(File directory) {
+        this.featureCacheDirectory = directory;
+    }
+
+    /**
+     * Releases the models of the recognizers created for decoding with
+     * several threads.
+     */
+    public void close() {
+        for (Decoder worker : workers)
+            worker.context.close();
+        workers.clear();
     }
 
     public List<String> sentenceToWords(List<String> sentenceTranscript) {
@@ -260,4 +535,31 @@ public class SpeechAligner {
     public void setTokenizer(TextTokenizer wordExpander) {
         this.tokenizer = wordExpander;
     }
+
+    /** Decodes a part of the audio. */
+    interface PartDecoder {
+        /**
+         * @param text the transcript of the part
+         * @param frame the time frame of the part
+         * @return the recognized words
+         * @throws IOException if the audio can't be read
+         */
+        List<WordResult> decode(List<String> text, TimeFrame frame) throws IOException;
+    }
+
+    private static class Decoder {
+        final Context context;
+        final Recognizer recognizer;
+        final AlignerGrammar grammar;
+        final DynamicTrigramModel languageModel;
+        boolean aligning;
+
+        Decoder(Context context, Recognizer recognizer, AlignerGrammar grammar,
+                DynamicTrigramModel languageModel) {
+            this.context = context;
+            this.recognizer = recognizer;
+            this.grammar = grammar;
+            this.languageModel = languageModel;
+        }
+    }
 }
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ */
+
+package edu.cmu.sphinx.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.cmu.sphinx.util.metrics.ThreadUsage;
+
+
+/**
+ * Decodes many concurrent audio streams on a bounded number of decoders.
+ *
+ * Every decoder is a recognizer of its own which runs on its own thread, the
+ * models are shared between the decoders through the {@link ModelRegistry}.
+ * A client opens a {@link RecognitionSession}, pushes audio into it and
+ * receives the results asynchronously. Sessions wait in a queue until a
+ * decoder is free, and the number of open sessions is limited, so an
+ * overloaded service rejects new sessions instead of buffering without bound.
+ *
+ * A decoder keeps its recognizer allocated between sessions, adaptive parts
+ * of the front end such as live CMN start a session from the state the
+ * previous one left.
+ */
+public class SpeechRecognitionService {
+
+    /** Default size of the audio buffer of a session, 10 seconds at 16 kHz */
+    public static final int DEFAULT_BUFFER_SIZE = 320000;
+
+    private final BlockingQueue<Decoder> decoders;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore admission;
+    private final int maxSessions;
+    private final int bufferSize;
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger rejectedSessions = new AtomicInteger();
+    private final Set<SessionTask> runningTasks =
+        Collections.synchronizedSet(new HashSet<SessionTask>());
+    // guarded by decoders, busy decoders are released when they stop
+    private boolean closed;
+
+    /**
+     * Decodes sessions one at a time.
+     */
+    interface Decoder {
+
+        /**
+         * Decodes the audio of the session and passes the results to its
+         * listener.
+         *
+         * @param session session to decode
+         * @return results of all utterances
+         */
+        List<SpeechResult> decode(RecognitionSession session);
+
+        /**
+         * Releases the resources of the decoder.
+         */
+        void shutdown();
+    }
+
+    /**
+     * Decodes a session with the recognizer of one thread.
+     */
+    private static class RecognizerDecoder extends AbstractSpeechRecognizer
+        implements Decoder
+    {
+        RecognizerDecoder(Configuration configuration) throws IOException {
+            super(configuration);
+            recognizer.allocate();
+        }
+
+        public List<SpeechResult> decode(RecognitionSession session) {
+            List<SpeechResult> results = new ArrayList<SpeechResult>();
+            context.setSpeechSource(session.getInputStream());
+            RecognitionListener listener = session.getListener();
+            SpeechResult result;
+            while ((result = getResult()) != null) {
+                results.add(result);
+                if (listener != null)
+                    listener.onResult(session, result);
+            }
+            return results;
+        }
+
+        public void shutdown() {
+            recognizer.deallocate();
+            close();
+        }
+    }
+
+    /**
+     * Decodes a session on a worker thread. The session is finished when the
+     * worker is done with it, a cancelled future completes while the decoder
+     * may still run.
+     */
+    private class SessionTask extends FutureTask<List<SpeechResult>> {
+        private final RecognitionSession session;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        SessionTask(final RecognitionSession session) {
+            super(new Callable<List<SpeechResult>>() {
+                public List<SpeechResult> call() throws Exception {
+                    Decoder decoder = decoders.take();
+                    long cpuTime = ThreadUsage.getCpuTime();
+                    long allocatedBytes = ThreadUsage.getAllocatedBytes();
+                    try {
+                        return decoder.decode(session);
+                    } finally {
+                        session.addUsage(
+                            ThreadUsage.getDifference(cpuTime, ThreadUsage.getCpuTime()),
+                            ThreadUsage.getDifference(allocatedBytes, ThreadUsage.getAllocatedBytes()));
+                        // a cancelled read may leave the flag set, the
+                        // pool never blocks as it holds every decoder
+                        Thread.interrupted();
+                        releaseDecoder(decoder);
+                    }
+                }
+            });
+            this.session = session;
+        }
+
+        @Override
+        public void run() {
+            runningTasks.add(this);
+            try {
+                super.run();
+            } finally {
+                runningTasks.remove(this);
+                finish();
+            }
+        }
+
+        /**
+         * Releases the admission of the session and notifies the listener,
+         * once the session will not be decoded any more.
+         */
+        void finish() {
+            if (!finished.compareAndSet(false, true))
+                return;
+            admission.release();
+            RecognitionListener listener = session.getListener();
+            if (listener == null)
+                return;
+            Throwable error = null;
+            if (!isCancelled()) {
+                try {
+                    get();
+                } catch (Exception e) {
+                    error = e.getCause() != null ? e.getCause() : e;
+                }
+            }
+            listener.onFinished(session, error);
+        }
+    }
+
+    /**
+     * Creates the service and its decoders. The models of the configuration
+     * are always shared.
+     *
+     * @param configuration configuration of the decoders
+     * @param numDecoders   number of sessions decoded in parallel
+     * @param maxSessions   number of sessions which may be open at the same
+     *                      time, decoded or waiting for a decoder
+     * @param bufferSize    size of the audio buffer of a session in bytes
+     * @throws IOException if the models could not be loaded
+     */
+    public SpeechRecognitionService(Configuration configuration,
+                                    int numDecoders, int maxSessions,
+                                    int bufferSize)
+        throws IOException
+    {
+        this(numDecoders, maxSessions, bufferSize);
+        configuration.setUseSharedModels(true);
+        try {
+            for (int i = 0; i < numDecoders; i++)
+                decoders.add(new RecognizerDecoder(configuration));
+        } catch (IOException e) {
+            for (Decoder decoder : decoders)
+                decoder.shutdown();
+            executor.shutdown();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the service with the given decoders.
+     *
+     * @param decoders    decoders of the service, one per parallel session
+     * @param maxSessions number of sessions which may be open at the same
+     *                    time
+     * @param bufferSize  size of the audio buffer of a session in bytes
+     */
+    SpeechRecognitionService(List<? extends Decoder> decoders,
+                             int maxSessions, int bufferSize)
+    {
+        this(decoders.size(), maxSessions, bufferSize);
+        this.decoders.addAll(decoders);
+    }
+
+    private SpeechRecognitionService(int numDecoders, int maxSessions,
+                                     int bufferSize)
+    {
+        if (numDecoders < 1 || maxSessions < numDecoders)
+            throw new IllegalArgumentException(
+                    "Need at least one decoder and a session per decoder");
+        this.maxSessions = maxSessions;
+        this.bufferSize = bufferSize;
+        admission = new Semaphore(maxSessions);
+        decoders = new ArrayBlockingQueue<Decoder>(numDecoders);
+
+        executor = new ThreadPoolExecutor(numDecoders, numDecoders, 0,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "Decoder-"
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Creates the service with sessions buffering
+     * {@value #DEFAULT_BUFFER_SIZE} bytes.
+     *
+     * @param configuration configuration of the decoders
+     * @param numDecoders   number of sessions decoded in parallel
+     * @param maxSessions   number of sessions which may be open at the same
+     *                      time
+     * @throws IOException if the models could not be loaded
+     */
+    public SpeechRecognitionService(Configuration configuration,
+                                    int numDecoders, int maxSessions)
+        throws IOException
+    {
+        this(configuration, numDecoders, maxSessions, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Opens a session. The session is decoded as soon as a decoder is free.
+     *
+     * @param listener listener for the results or {@code null}
+     * @return the new session
+     * @throws RejectedExecutionException if too many sessions are open or the
+     *                                    service is shut down
+     */
+    public RecognitionSession openSession(RecognitionListener listener) {
+        if (!admission.tryAcquire()) {
+            rejectedSessions.incrementAndGet();
+            throw new RejectedExecutionException("Too many open sessions: "
+                    + maxSessions);
+        }
+        RecognitionSession session = new RecognitionSession(
+                nextId.incrementAndGet(), bufferSize, listener);
+        SessionTask task = new SessionTask(session);
+        session.setResults(task);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            admission.release();
+            throw e;
+        }
+        return session;
+    }
+
+    /**
+     * @return number of sessions which are decoded or waiting for a decoder
+     */
+    public int getOpenSessions() {
+        return maxSessions - admission.availablePermits();
+    }
+
+    /**
+     * @return number of sessions being decoded
+     */
+    public int getActiveSessions() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return number of sessions rejected because too many were open
+     */
+    public int getRejectedSessions() {
+        return rejectedSessions.get();
+    }
+
+    /**
+     * Stops accepting sessions, waits for the open ones and releases the
+     * decoders. The sessions still open after the timeout are cancelled, the
+     * decoders still busy with them are released as soon as they stop.
+     *
+     * @param timeout time to wait for open sessions in milliseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void shutdown(long timeout) throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+            // the decoders are not interrupted, a cancelled session ends
+            // its audio stream instead
+            List<Runnable> waiting = new ArrayList<Runnable>();
+            executor.getQueue().drainTo(waiting);
+            for (Runnable runnable : waiting) {
+                SessionTask task = (SessionTask) runnable;
+                task.session.cancel();
+                task.finish();
+            }
+            List<SessionTask> running;
+            synchronized (runningTasks) {
+                running = new ArrayList<SessionTask>(runningTasks);
+            }
+            for (SessionTask task : running)
+                task.session.cancel();
+            executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        }
+        synchronized (decoders) {
+            closed = true;
+            for (Decoder decoder : decoders)
+                decoder.shutdown();
+            decoders.clear();
+        }
+    }
+
+    /**
+     * Returns a decoder to the pool, or releases it if the service is shut
+     * down.
+     */
+    private void releaseDecoder(Decoder decoder) {
+        synchronized (decoders) {
+            if (closed)
+                decoder.shutdown();
+            else
+                decoders.offer(decoder);
+        }
+    }
+}
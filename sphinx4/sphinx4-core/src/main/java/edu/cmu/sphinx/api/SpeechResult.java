@@ -26,6 +26,7 @@ public final class SpeechResult {
 
     private final Result result;
     private final Lattice lattice;
+    private final CompactLattice compactLattice;
 
     /**
      * Constructs recognition result based on {@link Result} object.
@@ -35,11 +36,14 @@ public final class SpeechResult {
     public SpeechResult(Result result) {
         this.result = result;
         if (result.toCreateLattice()) {
-            lattice = new Lattice(result);
-            new LatticeOptimizer(lattice).optimize();
-            lattice.computeNodePosteriors(1.0f);
-        } else
+            compactLattice = new CompactLattice(new Lattice(result));
+            compactLattice.optimize();
+            compactLattice.computeNodePosteriors(1.0f);
+            lattice = compactLattice.toLattice();
+        } else {
+            compactLattice = null;
             lattice = null;
+        }
     }
 
     /**
@@ -68,7 +72,7 @@ public final class SpeechResult {
     public Collection<String> getNbest(int n) {
         if (lattice == null)
             return new HashSet<String>();
-        return new Nbest(lattice).getNbest(n);
+        return compactLattice.getNbest(n);
     }
 
     /**
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.decoder.adaptation;
+
+import edu.cmu.sphinx.api.SpeechResult;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Loader;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Pool;
+
+/**
+ * Adapts an acoustic model to the speaker while recognizing. The statistics
+ * of every result are collected and every few results a transform is
+ * estimated from all of them and applied to the means as they were when the
+ * adaptation started, so that the transforms don't accumulate.
+ */
+public class OnlineAdaptation {
+
+    private final Loader loader;
+    private final Stats stats;
+    private final float[][] unadaptedMeans;
+    private final int interval;
+    private int results;
+    private Transform transform;
+
+    /**
+     * Starts adapting the model of the loader.
+     *
+     * @param loader the loader of the model to adapt
+     * @param numClasses number of transform classes
+     * @param interval number of results between the updates of the transform
+     */
+    public OnlineAdaptation(Loader loader, int numClasses, int interval) {
+        if (interval < 1)
+            throw new IllegalArgumentException("Interval must be positive");
+        this.loader = loader;
+        this.interval = interval;
+        stats = new Stats(loader, new ClusteredDensityFileData(loader, numClasses));
+
+        Pool<float[]> meansPool = loader.getMeansPool();
+        unadaptedMeans = new float[meansPool.size()][];
+        for (int i = 0; i < unadaptedMeans.length; i++)
+            unadaptedMeans[i] = meansPool.get(i).clone();
+    }
+
+    /**
+     * Collects the statistics of a result and updates the transform if it is
+     * time to.
+     *
+     * @param result the result to adapt to
+     */
+    public void collect(SpeechResult result) {
+        if (result.getResult().getBestToken() == null)
+            return;
+        try {
+            stats.collect(result);
+        } catch (Exception e) {
+            throw new RuntimeException("Collection of adaptation statistics failed", e);
+        }
+        resultCollected();
+    }
+
+    /**
+     * Counts a collected result, every interval results the transform is
+     * estimated and applied. The transform is not updated until enough
+     * speech is collected.
+     */
+    void resultCollected() {
+        if (++results % interval != 0)
+            return;
+        Transform newTransform = stats.createTransform();
+        if (newTransform == null)
+            return;
+        Pool<float[]> meansPool = loader.getMeansPool();
+        for (int i = 0; i < unadaptedMeans.length; i++)
+            System.arraycopy(unadaptedMeans[i], 0, meansPool.get(i), 0, unadaptedMeans[i].length);
+        loader.update(newTransform, stats.getClusteredData());
+        transform = newTransform;
+    }
+
+    /** @return the statistics collected so far */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the last transform applied or {@code null} if the model was
+     *         not adapted yet
+     */
+    public Transform getTransform() {
+        return transform;
+    }
+}
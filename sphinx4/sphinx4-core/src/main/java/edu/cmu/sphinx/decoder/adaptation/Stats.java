@@ -1,11 +1,20 @@
 package edu.cmu.sphinx.decoder.adaptation;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import edu.cmu.sphinx.api.SpeechResult;
 import edu.cmu.sphinx.decoder.search.Token;
 import edu.cmu.sphinx.frontend.FloatData;
 import edu.cmu.sphinx.linguist.HMMSearchState;
 import edu.cmu.sphinx.linguist.SearchState;
 import edu.cmu.sphinx.linguist.acoustic.tiedstate.Loader;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Pool;
 import edu.cmu.sphinx.linguist.acoustic.tiedstate.Sphinx3Loader;
 import edu.cmu.sphinx.util.LogMath;
 
@@ -13,46 +22,118 @@ import edu.cmu.sphinx.util.LogMath;
  * This class is used for estimating a MLLR transform for each cluster of data.
  * The clustering must be previously performed using
  * ClusteredDensityFileData.java
+ * <p>
+ * While collecting, only the occupancy and the occupancy weighted sum of the
+ * features are accumulated for every Gaussian. Legetter's G and K matrices
+ * are computed from them when the transform is created, since the means and
+ * variances are the same for all the frames. The means and the inverted
+ * variances are copied when the statistics are created, adapting the model
+ * afterwards doesn't change the statistics.
+ * <p>
+ * Statistics of different utterances can be collected on several threads
+ * with {@link #createPartialStats()} and {@link #merge(Stats)}, or with
+ * {@link #collect(List, int)}.
  */
 public class Stats {
 
     // Minimum number of frames to perform estimation
 
     private static final int MIN_FRAMES = 300;
-    private ClusteredDensityFileData means;
+    private final ClusteredDensityFileData means;
     private double[][][][][] regLs;
     private double[][][][] regRs;
-    private int nClusters;
-    private Sphinx3Loader loader;
-    private float varFlor;
-    private LogMath logMath = LogMath.getLogMath();
+    private final int nClusters;
+    private final Sphinx3Loader loader;
+    private final float varFlor;
+    private final LogMath logMath = LogMath.getLogMath();
     private int nFrames;
 
+    // model parameters, shared by partial statistics
+    private final int numStreams;
+    private final int gauPerState;
+    private final int[] vectorLength;
+    private final int[] senone2Ci;
+    private final float[][] gaussianMeans;
+    private final float[][] precisions;
+
+    // occupancy and weighted sum of features for every Gaussian
+    private final double[] occupancy;
+    private final double[][] featureSums;
+
     public Stats(Loader loader, ClusteredDensityFileData means) {
         this.loader = (Sphinx3Loader) loader;
         this.nClusters = means.getNumberOfClusters();
         this.means = means;
         this.varFlor = 1e-5f;
-        this.invertVariances();
-        this.init();
+        this.numStreams = this.loader.getNumStreams();
+        this.gauPerState = this.loader.getNumGaussiansPerState();
+        this.vectorLength = this.loader.getVectorLength();
+        this.senone2Ci = this.loader.hasTiedMixtures() ? this.loader.getSenone2Ci() : null;
+
+        Pool<float[]> meansPool = this.loader.getMeansPool();
+        this.gaussianMeans = new float[meansPool.size()][];
+        for (int i = 0; i < gaussianMeans.length; i++)
+            gaussianMeans[i] = meansPool.get(i).clone();
+        this.precisions = this.invertVariances();
+
+        this.occupancy = new double[gaussianMeans.length];
+        this.featureSums = new double[gaussianMeans.length][];
         this.nFrames = 0;
     }
 
-    private void init() {
-        int len = loader.getVectorLength()[0];
-        this.regLs = new double[nClusters][][][][];
-        this.regRs = new double[nClusters][][][];
+    /**
+     * Creates empty statistics sharing the model parameters of the given
+     * statistics.
+     */
+    private Stats(Stats stats) {
+        this.loader = stats.loader;
+        this.nClusters = stats.nClusters;
+        this.means = stats.means;
+        this.varFlor = stats.varFlor;
+        this.numStreams = stats.numStreams;
+        this.gauPerState = stats.gauPerState;
+        this.vectorLength = stats.vectorLength;
+        this.senone2Ci = stats.senone2Ci;
+        this.gaussianMeans = stats.gaussianMeans;
+        this.precisions = stats.precisions;
 
-        for (int i = 0; i < nClusters; i++) {
-            this.regLs[i] = new double[loader.getNumStreams()][][][];
-            this.regRs[i] = new double[loader.getNumStreams()][][];
+        this.occupancy = new double[gaussianMeans.length];
+        this.featureSums = new double[gaussianMeans.length][];
+        this.nFrames = 0;
+    }
 
-            for (int j = 0; j < loader.getNumStreams(); j++) {
-                len = loader.getVectorLength()[j];
-                this.regLs[i][j] = new double[len][len + 1][len + 1];
-                this.regRs[i][j] = new double[len][len + 1];
-            }
+    /**
+     * Creates empty statistics for the same model and clusters. They can be
+     * collected on another thread and added to these statistics with
+     * {@link #merge(Stats)}.
+     *
+     * @return empty statistics
+     */
+    public Stats createPartialStats() {
+        return new Stats(this);
+    }
+
+    /**
+     * Adds the counts of other statistics created by
+     * {@link #createPartialStats()}.
+     *
+     * @param stats statistics to add
+     */
+    public void merge(Stats stats) {
+        if (stats.gaussianMeans != gaussianMeans)
+            throw new IllegalArgumentException("Statistics of another model");
+        for (int i = 0; i < occupancy.length; i++) {
+            if (stats.featureSums[i] == null)
+                continue;
+            occupancy[i] += stats.occupancy[i];
+            double[] sums = getFeatureSums(i);
+            double[] otherSums = stats.featureSums[i];
+            for (int k = 0; k < sums.length; k++)
+                sums[k] += otherSums[k];
         }
+        nFrames += stats.nFrames;
+        regLs = null;
+        regRs = null;
     }
 
     public ClusteredDensityFileData getClusteredData() {
@@ -60,37 +141,44 @@ public class Stats {
     }
 
     public double[][][][][] getRegLs() {
+        if (regLs == null)
+            computeRegression();
         return regLs;
     }
 
     public double[][][][] getRegRs() {
+        if (regRs == null)
+            computeRegression();
         return regRs;
     }
 
     /**
      * Used for inverting variances.
+     *
+     * @return inverted variances of all Gaussians
      */
-    private void invertVariances() {
-
-        for (int i = 0; i < loader.getNumStates(); i++) {
-            for (int k = 0; k < loader.getNumGaussiansPerState(); k++) {
-                for (int l = 0; l < loader.getVectorLength()[0]; l++) {
-                    if (loader.getVariancePool().get(i * loader.getNumGaussiansPerState() + k)[l] <= 0.) {
-                        this.loader.getVariancePool().get(i * loader.getNumGaussiansPerState() + k)[l] = (float) 0.5;
-                    } else if (loader.getVariancePool().get(i * loader.getNumGaussiansPerState() + k)[l] < varFlor) {
-                        this.loader.getVariancePool().get(i * loader.getNumGaussiansPerState() + k)[l] = (float) (1. / varFlor);
-                    } else {
-                        this.loader.getVariancePool().get(i * loader.getNumGaussiansPerState() + k)[l] = (float) (1. / loader
-                                .getVariancePool().get(i * loader.getNumGaussiansPerState() + k)[l]);
-                    }
+    private float[][] invertVariances() {
+        Pool<float[]> variancePool = loader.getVariancePool();
+        float[][] inverted = new float[variancePool.size()][];
+        for (int i = 0; i < inverted.length; i++) {
+            float[] variance = variancePool.get(i);
+            inverted[i] = new float[variance.length];
+            for (int l = 0; l < variance.length; l++) {
+                if (variance[l] <= 0.) {
+                    inverted[i][l] = (float) 0.5;
+                } else if (variance[l] < varFlor) {
+                    inverted[i][l] = (float) (1. / varFlor);
+                } else {
+                    inverted[i][l] = (float) (1. / variance[l]);
                 }
             }
         }
+        return inverted;
     }
 
     /**
      * Computes posterior values for the each component.
-     * 
+     *
      * @param componentScores
      *            from which the posterior values are computed.
      * @param numStreams
@@ -122,7 +210,7 @@ public class Stats {
     /**
      * This method is used for directly collect and use counts. The counts are
      * collected and stored separately for each cluster.
-     * 
+     *
      * @param result
      *            Result object to collect counts from.
      * @throws Exception
@@ -130,11 +218,6 @@ public class Stats {
      */
     public void collect(SpeechResult result) throws Exception {
         Token token = result.getResult().getBestToken();
-        float[] componentScore, featureVector, posteriors, tmean;
-        int[] len;
-        float dnom, wtMeanVar, wtDcountVar, wtDcountVarMean, mean;
-        int mId, cluster;
-        int numStreams, gauPerState;
 
         if (token == null)
             throw new Exception("Best token not found!");
@@ -147,64 +230,154 @@ public class Stats {
                 token = token.getPredecessor();
                 continue;
             }
-            nFrames++;
 
-            componentScore = token.calculateComponentScore(feature);
-            featureVector = FloatData.toFloatData(feature).getValues();
-            mId = (int) ((HMMSearchState) token.getSearchState()).getHMMState().getMixtureId();
-            if (loader instanceof Sphinx3Loader && ((Sphinx3Loader) loader).hasTiedMixtures())
+            int mId = (int) ((HMMSearchState) ss).getHMMState().getMixtureId();
+            if (senone2Ci != null)
                 // use CI phone ID for tied mixture model
-                mId = ((Sphinx3Loader) loader).getSenone2Ci()[mId];
-            len = loader.getVectorLength();
-            numStreams = loader.getNumStreams();
-            gauPerState = loader.getNumGaussiansPerState();
-            posteriors = this.computePosterios(componentScore, numStreams);
-            int featVectorStartIdx = 0;
-
-            for (int i = 0; i < numStreams; i++) {
-                for (int j = 0; j < gauPerState; j++) {
-
-                    cluster = means.getClassIndex(mId * numStreams * gauPerState + i * gauPerState + j);
-                    dnom = posteriors[i * gauPerState + j];
-                    if (dnom > 0.) {
-                        tmean = loader.getMeansPool().get(mId * numStreams * gauPerState + i * gauPerState + j);
-
-                        for (int k = 0; k < len[i]; k++) {
-                            mean = posteriors[i * gauPerState + j] * featureVector[k + featVectorStartIdx];
-                            wtMeanVar = mean
-                                    * loader.getVariancePool().get(mId * numStreams * gauPerState + i * gauPerState + j)[k];
-                            wtDcountVar = dnom
-                                    * loader.getVariancePool().get(mId * numStreams * gauPerState + i * gauPerState + j)[k];
-
-                            for (int p = 0; p < len[i]; p++) {
-                                wtDcountVarMean = wtDcountVar * tmean[p];
-
-                                for (int q = p; q < len[i]; q++) {
-                                    regLs[cluster][i][k][p][q] += wtDcountVarMean * tmean[q];
-                                }
-                                regLs[cluster][i][k][p][len[i]] += wtDcountVarMean;
-                                regRs[cluster][i][k][p] += wtMeanVar * tmean[p];
-                            }
-                            regLs[cluster][i][k][len[i]][len[i]] += wtDcountVar;
-                            regRs[cluster][i][k][len[i]] += wtMeanVar;
-                        }
+                mId = senone2Ci[mId];
+            float[] posteriors = computePosterios(token.calculateComponentScore(feature), numStreams);
+            collect(mId, posteriors, FloatData.toFloatData(feature).getValues());
+            token = token.getPredecessor();
+        } while (token != null);
+    }
+
+    /**
+     * Collects the counts of the utterances on the given number of threads.
+     *
+     * @param results
+     *            Result objects to collect counts from.
+     * @param threads
+     *            number of threads
+     * @throws Exception
+     *             if something went wrong
+     */
+    public void collect(List<SpeechResult> results, int threads) throws Exception {
+        if (threads <= 1 || results.size() <= 1) {
+            for (SpeechResult result : results)
+                collect(result);
+            return;
+        }
+
+        threads = Math.min(threads, results.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Stats>> partials = new ArrayList<Future<Stats>>();
+            for (int i = 0; i < threads; i++) {
+                final List<SpeechResult> part = results.subList(i * results.size() / threads,
+                        (i + 1) * results.size() / threads);
+                partials.add(executor.submit(new Callable<Stats>() {
+                    public Stats call() throws Exception {
+                        Stats stats = createPartialStats();
+                        for (SpeechResult result : part)
+                            stats.collect(result);
+                        return stats;
                     }
+                }));
+            }
+            for (Future<Stats> partial : partials)
+                merge(partial.get());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception) e.getCause();
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Adds the counts of a frame.
+     *
+     * @param mId
+     *            mixture id of the state aligned to the frame
+     * @param posteriors
+     *            posterior values of the components of the mixture
+     * @param featureVector
+     *            feature vector of all streams
+     */
+    void collect(int mId, float[] posteriors, float[] featureVector) {
+        nFrames++;
+        int featVectorStartIdx = 0;
+        for (int i = 0; i < numStreams; i++) {
+            int len = vectorLength[i];
+            for (int j = 0; j < gauPerState; j++) {
+                double dnom = posteriors[i * gauPerState + j];
+                if (dnom > 0.) {
+                    int gaussian = mId * numStreams * gauPerState + i * gauPerState + j;
+                    occupancy[gaussian] += dnom;
+                    double[] sums = getFeatureSums(gaussian);
+                    for (int k = 0; k < len; k++)
+                        sums[k] += dnom * featureVector[k + featVectorStartIdx];
                 }
-                featVectorStartIdx += len[i];
             }
-            token = token.getPredecessor();
-        } while (token != null);
+            featVectorStartIdx += len;
+        }
+        regLs = null;
+        regRs = null;
+    }
+
+    private double[] getFeatureSums(int gaussian) {
+        if (featureSums[gaussian] == null)
+            featureSums[gaussian] = new double[gaussianMeans[gaussian].length];
+        return featureSums[gaussian];
+    }
+
+    /**
+     * Computes the upper part of Legetter's set of G matrices and the K
+     * matrices from the counts of every Gaussian.
+     */
+    private void computeRegression() {
+        regLs = new double[nClusters][numStreams][][][];
+        regRs = new double[nClusters][numStreams][][];
+        for (int i = 0; i < nClusters; i++) {
+            for (int j = 0; j < numStreams; j++) {
+                int len = vectorLength[j];
+                regLs[i][j] = new double[len][len + 1][len + 1];
+                regRs[i][j] = new double[len][len + 1];
+            }
+        }
+
+        for (int gaussian = 0; gaussian < occupancy.length; gaussian++) {
+            double[] sums = featureSums[gaussian];
+            if (sums == null)
+                continue;
+            int stream = gaussian / gauPerState % numStreams;
+            int cluster = means.getClassIndex(gaussian);
+            int len = vectorLength[stream];
+            float[] tmean = gaussianMeans[gaussian];
+            float[] precision = precisions[gaussian];
+
+            for (int k = 0; k < len; k++) {
+                double[][] regL = regLs[cluster][stream][k];
+                double[] regR = regRs[cluster][stream][k];
+                double wtDcountVar = occupancy[gaussian] * precision[k];
+                double wtMeanVar = sums[k] * precision[k];
+
+                for (int p = 0; p < len; p++) {
+                    double wtDcountVarMean = wtDcountVar * tmean[p];
+                    double[] row = regL[p];
+                    for (int q = p; q < len; q++) {
+                        row[q] += wtDcountVarMean * tmean[q];
+                    }
+                    row[len] += wtDcountVarMean;
+                    regR[p] += wtMeanVar * tmean[p];
+                }
+                regL[len][len] += wtDcountVar;
+                regR[len] += wtMeanVar;
+            }
+        }
     }
 
     /**
      * Fill lower part of Legetter's set of G matrices.
      */
     public void fillRegLowerPart() {
+        double[][][][][] regLs = getRegLs();
         for (int i = 0; i < this.nClusters; i++) {
-            for (int j = 0; j < loader.getNumStreams(); j++) {
-                for (int l = 0; l < loader.getVectorLength()[j]; l++) {
-                    for (int p = 0; p <= loader.getVectorLength()[j]; p++) {
-                        for (int q = p + 1; q <= loader.getVectorLength()[j]; q++) {
+            for (int j = 0; j < numStreams; j++) {
+                for (int l = 0; l < vectorLength[j]; l++) {
+                    for (int p = 0; p <= vectorLength[j]; p++) {
+                        for (int q = p + 1; q <= vectorLength[j]; q++) {
                             regLs[i][j][l][q][p] = regLs[i][j][l][p][q];
                         }
                     }
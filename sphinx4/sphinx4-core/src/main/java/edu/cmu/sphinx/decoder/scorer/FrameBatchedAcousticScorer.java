@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.decoder.scorer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.cmu.sphinx.decoder.search.Token;
+import edu.cmu.sphinx.frontend.BaseDataProcessor;
+import edu.cmu.sphinx.frontend.Data;
+import edu.cmu.sphinx.frontend.DoubleData;
+import edu.cmu.sphinx.frontend.FloatData;
+import edu.cmu.sphinx.frontend.util.DataUtil;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianMixture;
+import edu.cmu.sphinx.util.props.PropertyException;
+import edu.cmu.sphinx.util.props.PropertySheet;
+import edu.cmu.sphinx.util.props.S4Integer;
+
+/**
+ * An acoustic scorer that reads a batch of upcoming feature frames from the
+ * frontend and scores every senone on all remaining frames of the batch at
+ * once, while its parameters are still in cache. Scores for later frames of
+ * the batch are taken from a per-frame score table.
+ * <p>
+ * A batch never spans a {@link edu.cmu.sphinx.frontend.Signal}, signals are
+ * delivered in their original order. Since the scorer reads ahead of the
+ * search, it adds a latency of up to <code>batchSize</code> frames and is
+ * meant for batch transcription where latency does not matter.
+ * <p>
+ * All scores are maintained in LogMath log base
+ */
+public class FrameBatchedAcousticScorer extends SimpleAcousticScorer {
+
+    /** The property that defines the number of frames scored at once. */
+    @S4Integer(defaultValue = 8)
+    public final static String PROP_BATCH_SIZE = "batchSize";
+
+    private int batchSize;
+
+    private FloatData[] batch;
+    private int batchLength;
+    private int position;
+    private int batchNumber;
+    private Data pendingData;
+    private boolean hasPendingData;
+
+    // per senone: scores for each frame of the batch, the batch they were
+    // computed for and the first frame they were computed from
+    private float[] scoreTable;
+    private int[] tableBatch;
+    private int[] tableStart;
+
+    /**
+     * @param frontEnd
+     *            the frontend to retrieve features from for scoring
+     * @param scoreNormalizer
+     *            optional post-processor for computed scores that will
+     *            normalize scores. If not set, no normalization will applied
+     *            and the token scores will be returned unchanged.
+     * @param batchSize
+     *            the number of frames scored at once
+     */
+    public FrameBatchedAcousticScorer(BaseDataProcessor frontEnd,
+            ScoreNormalizer scoreNormalizer, int batchSize) {
+        super(frontEnd, scoreNormalizer);
+        init(batchSize);
+    }
+
+    public FrameBatchedAcousticScorer() {
+    }
+
+    @Override
+    public void newProperties(PropertySheet ps) throws PropertyException {
+        super.newProperties(ps);
+        init(ps.getInt(PROP_BATCH_SIZE));
+    }
+
+    private void init(int batchSize) {
+        this.batchSize = Math.max(batchSize, 1);
+        batch = new FloatData[this.batchSize];
+        scoreTable = new float[0];
+        tableBatch = new int[0];
+        tableStart = new int[0];
+    }
+
+    @Override
+    public void startRecognition() {
+        super.startRecognition();
+        Arrays.fill(batch, null);
+        batchLength = 0;
+        position = 0;
+        pendingData = null;
+        hasPendingData = false;
+        // invalidate everything in the table
+        batchNumber++;
+    }
+
+    @Override
+    protected Data getNextData() {
+        if (position == batchLength && !hasPendingData)
+            fillBatch();
+        if (position < batchLength)
+            return batch[position++];
+        Data data = pendingData;
+        pendingData = null;
+        hasPendingData = false;
+        return data;
+    }
+
+    /**
+     * Reads up to <code>batchSize</code> features from the frontend. Stops at
+     * the first signal, which is kept to be returned after the batch.
+     */
+    private void fillBatch() {
+        Arrays.fill(batch, 0, batchLength, null);
+        batchLength = 0;
+        position = 0;
+        batchNumber++;
+        while (batchLength < batchSize) {
+            Data data = frontEnd.getData();
+            if (data instanceof DoubleData)
+                data = DataUtil.DoubleData2FloatData((DoubleData) data);
+            if (!(data instanceof FloatData)) {
+                pendingData = data;
+                hasPendingData = true;
+                break;
+            }
+            batch[batchLength++] = (FloatData) data;
+        }
+    }
+
+    @Override
+    protected <T extends Scoreable> T doScoring(List<T> scoreableList, Data data) {
+        int frame = position - 1;
+        if (frame < 0 || batch[frame] != data)
+            return super.doScoring(scoreableList, data);
+
+        T best = null;
+        float bestScore = -Float.MAX_VALUE;
+
+        for (T item : scoreableList) {
+            GaussianMixture senone = getSenone(item);
+            if (senone != null)
+                ((Token) item).applyScore(getScore(senone, frame), data);
+            else
+                item.calculateScore(data);
+            if (item.getScore() > bestScore) {
+                bestScore = item.getScore();
+                best = item;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the score of the senone for the given frame of the batch. If the
+     * senone was not scored in this batch yet, it is scored on all remaining
+     * frames at once.
+     */
+    private float getScore(GaussianMixture senone, int frame) {
+        int id = (int) senone.getID();
+        ensureCapacity(id);
+        int offset = id * batchSize;
+        if (tableBatch[id] != batchNumber || tableStart[id] > frame) {
+            for (int i = frame; i < batchLength; i++)
+                scoreTable[offset + i] = senone.calculateScore(batch[i]);
+            tableBatch[id] = batchNumber;
+            tableStart[id] = frame;
+        }
+        return scoreTable[offset + frame];
+    }
+
+    private void ensureCapacity(int id) {
+        if (id < tableBatch.length)
+            return;
+        int size = Math.max(id + 1, tableBatch.length * 2);
+        scoreTable = Arrays.copyOf(scoreTable, size * batchSize);
+        tableBatch = Arrays.copyOf(tableBatch, size);
+        tableStart = Arrays.copyOf(tableStart, size);
+    }
+
+    /** @return the number of frames scored at once */
+    public int getBatchSize() {
+        return batchSize;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.decoder.scorer;
+
+import java.util.Arrays;
+
+import edu.cmu.sphinx.frontend.Data;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianMixture;
+
+/**
+ * Keeps the last score of every senone for one scorer. The senones of a model
+ * shared between recognizers are scored by several scorers on different
+ * frames, the cache of the senone itself would be overwritten by each of
+ * them.
+ * <p>
+ * Entries are immutable and the table is only replaced when it grows, so the
+ * cache may be used from several threads. An entry lost in a race is just
+ * computed again.
+ */
+class SenoneScoreCache {
+
+    private static class Entry {
+        private final Data feature;
+        private final float score;
+
+        Entry(Data feature, float score) {
+            this.feature = feature;
+            this.score = score;
+        }
+    }
+
+    private volatile Entry[] entries = new Entry[0];
+
+    /**
+     * Returns the score of the senone for the given feature, which is
+     * calculated if it is not cached yet.
+     *
+     * @param senone the senone to score
+     * @param feature the feature to score the senone against
+     * @return the score in LogMath log base
+     */
+    float getScore(GaussianMixture senone, Data feature) {
+        int id = (int) senone.getID();
+        Entry[] table = getTable(id);
+        Entry entry = table[id];
+        if (entry == null || entry.feature != feature) {
+            entry = new Entry(feature, senone.calculateScore(feature));
+            table[id] = entry;
+        }
+        return entry.score;
+    }
+
+    /**
+     * @return <code>true</code> if the score of the senone for the given
+     *         feature is cached
+     */
+    boolean contains(int id, Data feature) {
+        Entry[] table = entries;
+        return id < table.length && table[id] != null && table[id].feature == feature;
+    }
+
+    /**
+     * Caches a score which was already computed.
+     *
+     * @param id the id of the senone
+     * @param feature the feature the score was computed against
+     * @param score the score in LogMath log base
+     */
+    void put(int id, Data feature, float score) {
+        getTable(id)[id] = new Entry(feature, score);
+    }
+
+    private Entry[] getTable(int id) {
+        Entry[] table = entries;
+        if (id < table.length)
+            return table;
+        synchronized (this) {
+            if (id >= entries.length)
+                entries = Arrays.copyOf(entries, Math.max(id + 1, entries.length * 2));
+            return entries;
+        }
+    }
+}
@@ -4,11 +4,21 @@ import edu.cmu.sphinx.decoder.search.Token;
 import edu.cmu.sphinx.frontend.*;
 import edu.cmu.sphinx.frontend.endpoint.SpeechEndSignal;
 import edu.cmu.sphinx.frontend.util.DataUtil;
+import edu.cmu.sphinx.linguist.HMMSearchState;
+import edu.cmu.sphinx.linguist.SearchState;
+import edu.cmu.sphinx.linguist.acoustic.HMMState;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianMixture;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.PackedGaussianMixture;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.PackedGaussianPool;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Senone;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.SenoneHMMState;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.tiedmixture.SetBasedGaussianMixture;
 import edu.cmu.sphinx.util.props.ConfigurableAdapter;
 import edu.cmu.sphinx.util.props.PropertyException;
 import edu.cmu.sphinx.util.props.PropertySheet;
 import edu.cmu.sphinx.util.props.S4Component;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -16,6 +26,11 @@ import java.util.List;
  * Implements some basic scorer functionality, including a simple default
  * acoustic scoring implementation which scores within the current thread, that
  * can be changed by overriding the {@link #doScoring} method.
+ * <p>
+ * The scores of the senones of continuous models are cached by the scorer
+ * rather than by the senones, so recognizers which share a model don't
+ * overwrite the cached scores of each other. The senones of a
+ * {@link PackedGaussianPool} are scored in a single batch per frame.
  * 
  * <p>
  * Note that all scores are maintained in LogMath log base.
@@ -24,6 +39,9 @@ import java.util.List;
  */
 public class SimpleAcousticScorer extends ConfigurableAdapter implements AcousticScorer {
 
+    /** Senones with larger ids are not cached by the scorer */
+    protected final static int MAX_CACHED_SENONES = 1 << 20;
+
     /** Property the defines the frontend to retrieve features from for scoring */
     @S4Component(type = BaseDataProcessor.class)
     public final static String FEATURE_FRONTEND = "frontend";
@@ -40,6 +58,13 @@ public class SimpleAcousticScorer extends ConfigurableAdapter implements Acousti
 
     private LinkedList<Data> storedData;
     private boolean seenEnd = false;
+    private final SenoneScoreCache senoneScores = new SenoneScoreCache();
+
+    // senones of the packed pool to score in the current frame
+    private int[] batchSenones = new int[0];
+    private float[] batchScores = new float[0];
+    private int[] batchFrames = new int[0];
+    private int batchFrame;
 
     @Override
     public void newProperties(PropertySheet ps) throws PropertyException {
@@ -169,11 +194,13 @@ public class SimpleAcousticScorer extends ConfigurableAdapter implements Acousti
      */
     protected <T extends Scoreable> T doScoring(List<T> scoreableList, Data data) {
 
+        scorePackedSenones(scoreableList, data);
+
         T best = null;
         float bestScore = -Float.MAX_VALUE;
 
         for (T item : scoreableList) {
-    	    item.calculateScore(data);
+    	    calculateScore(item, data);
     	    if (item.getScore() > bestScore) {
     		bestScore = item.getScore();
     		best = item;
@@ -182,6 +209,83 @@ public class SimpleAcousticScorer extends ConfigurableAdapter implements Acousti
         return best;
     }
 
+    /**
+     * Scores a single <code>Scoreable</code>. The score of its senone is taken
+     * from the cache of this scorer if possible. May be called from several
+     * threads at once.
+     *
+     * @param item the scoreable to score
+     * @param data the <code>Data</code>-object to be used for scoring
+     */
+    protected void calculateScore(Scoreable item, Data data) {
+        GaussianMixture senone = getSenone(item);
+        if (senone != null)
+            ((Token) item).applyScore(senoneScores.getScore(senone, data), data);
+        else
+            item.calculateScore(data);
+    }
+
+    /**
+     * Scores the senones of a packed Gaussian pool which are not cached yet
+     * with a single call to the pool, and caches their scores.
+     */
+    private void scorePackedSenones(List<? extends Scoreable> scoreableList, Data data) {
+        PackedGaussianPool pool = null;
+        int count = 0;
+        batchFrame++;
+        for (Scoreable item : scoreableList) {
+            GaussianMixture senone = getSenone(item);
+            if (!(senone instanceof PackedGaussianMixture) || senone.getGaussianSelector() != null)
+                continue;
+            PackedGaussianPool senonePool = ((PackedGaussianMixture) senone).getGaussianPool();
+            if (pool == null)
+                pool = senonePool;
+            else if (senonePool != pool)
+                continue;
+            int id = (int) senone.getID();
+            if (id >= batchFrames.length)
+                batchFrames = Arrays.copyOf(batchFrames, Math.max(id + 1, batchFrames.length * 2));
+            if (batchFrames[id] == batchFrame || senoneScores.contains(id, data))
+                continue;
+            batchFrames[id] = batchFrame;
+            if (count == batchSenones.length) {
+                batchSenones = Arrays.copyOf(batchSenones, Math.max(16, count * 2));
+                batchScores = new float[batchSenones.length];
+            }
+            batchSenones[count++] = id;
+        }
+        if (count == 0)
+            return;
+        pool.calculateScores(batchSenones, count, FloatData.toFloatData(data).getValues(), batchScores);
+        for (int i = 0; i < count; i++)
+            senoneScores.put(batchSenones[i], data, batchScores[i]);
+    }
+
+    /**
+     * @param item the scoreable
+     * @return the senone scored by this scoreable or <code>null</code> if its
+     *         score can not be cached by the scorer
+     */
+    protected static GaussianMixture getSenone(Scoreable item) {
+        if (!(item instanceof Token))
+            return null;
+        SearchState state = ((Token) item).getSearchState();
+        if (!(state instanceof HMMSearchState && state instanceof ScoreProvider))
+            return null;
+        HMMState hmmState = ((HMMSearchState) state).getHMMState();
+        if (!(hmmState instanceof SenoneHMMState))
+            return null;
+        Senone senone = ((SenoneHMMState) hmmState).getSenone();
+        // composite senones have no dense ids and tied mixtures update their
+        // gaussian shortlist frame by frame, so both are scored directly
+        if (!(senone instanceof GaussianMixture) || senone instanceof SetBasedGaussianMixture)
+            return null;
+        long id = senone.getID();
+        if (id < 0 || id >= MAX_CACHED_SENONES)
+            return null;
+        return (GaussianMixture) senone;
+    }
+
     // Even if we don't do any meaningful allocation here, we implement the
     // methods because most extending scorers do need them either.
 
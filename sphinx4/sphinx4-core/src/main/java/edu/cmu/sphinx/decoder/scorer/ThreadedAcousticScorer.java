@@ -11,10 +11,17 @@
  */
 package edu.cmu.sphinx.decoder.scorer;
 
+import edu.cmu.sphinx.decoder.search.Token;
 import edu.cmu.sphinx.frontend.Data;
 import edu.cmu.sphinx.frontend.BaseDataProcessor;
 import edu.cmu.sphinx.frontend.DataProcessingException;
-import edu.cmu.sphinx.util.CustomThreadFactory;
+import edu.cmu.sphinx.linguist.HMMSearchState;
+import edu.cmu.sphinx.linguist.SearchState;
+import edu.cmu.sphinx.linguist.acoustic.HMMState;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.CompositeSenone;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianMixture;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Senone;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.SenoneHMMState;
 import edu.cmu.sphinx.util.props.PropertyException;
 import edu.cmu.sphinx.util.props.PropertySheet;
 import edu.cmu.sphinx.util.props.S4Boolean;
@@ -22,10 +29,18 @@ import edu.cmu.sphinx.util.props.S4Integer;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An acoustic scorer that breaks the scoring up into a configurable number of separate threads.
  * <p>
+ * Scoring runs on a persistent work-stealing {@link ForkJoinPool}. The active list is split into chunks of about
+ * equal cost, estimated from the number of Gaussians of each senone, and there are several chunks per thread so
+ * that idle threads can steal work from busy ones. The tasks and the slots for the best scoreable of every chunk
+ * are preallocated, so no objects are created per frame. The time chunks spend waiting in the queue and the time
+ * spent computing scores are accumulated and can be used to size the number of threads.
+ * <p>
  * All scores are maintained in LogMath log base
  */
 public class ThreadedAcousticScorer extends SimpleAcousticScorer {
@@ -71,10 +86,31 @@ public class ThreadedAcousticScorer extends SimpleAcousticScorer {
 
     private final static String className = ThreadedAcousticScorer.class.getSimpleName();
 
+    /** Number of chunks each thread gets on average, more chunks give more room for stealing */
+    private final static int CHUNKS_PER_THREAD = 4;
+
     private int numThreads;         // number of threads in use
     private int threadPriority;
     private int minScoreablesPerThread; // min scoreables sent to a thread
-    private ExecutorService executorService;
+    private ForkJoinPool forkJoinPool;
+
+    // per frame state shared with the scoring tasks
+    private ScoringTask[] tasks;
+    private int numTasks;
+    private Scoreable[] scoreables;
+    private int[] costs;
+    private int[] chunkStart;
+    private Scoreable[] chunkBest;
+    private long[] chunkWaitTime;
+    private long[] chunkComputeTime;
+    private int numChunks;
+    private int numScoreables;
+    private Data currentData;
+    private long frameStartTime;
+
+    private final AtomicLong queueWaitTime = new AtomicLong();
+    private final AtomicLong computeTime = new AtomicLong();
+    private final AtomicLong scoredFrames = new AtomicLong();
 
     /**
      * @param frontEnd
@@ -141,14 +177,41 @@ public class ThreadedAcousticScorer extends SimpleAcousticScorer {
         this.threadPriority = threadPriority;
     }
 
+    /**
+     * Builds a balanced tree of tasks over all chunks. Leaves score a single chunk, inner nodes fork their children.
+     */
+    private void createTasks() {
+        int maxChunks = numThreads * CHUNKS_PER_THREAD;
+        tasks = new ScoringTask[2 * maxChunks - 1];
+        chunkStart = new int[maxChunks + 1];
+        chunkBest = new Scoreable[maxChunks];
+        chunkWaitTime = new long[maxChunks];
+        chunkComputeTime = new long[maxChunks];
+        scoreables = new Scoreable[0];
+        costs = new int[0];
+        numTasks = 0;
+        createTask(0, maxChunks);
+    }
+
+    private ScoringTask createTask(int from, int to) {
+        ScoringTask task = new ScoringTask(from, to);
+        tasks[numTasks++] = task;
+        if (to - from > 1) {
+            int middle = (from + to) >>> 1;
+            task.left = createTask(from, middle);
+            task.right = createTask(middle, to);
+        }
+        return task;
+    }
+
     @Override
     public void allocate() {
         super.allocate();
-        if (executorService == null) {
+        if (forkJoinPool == null) {
             if (numThreads > 1) {
                 logger.fine("# of scoring threads: " + numThreads);
-                executorService = Executors.newFixedThreadPool(numThreads,
-                    new CustomThreadFactory(className, true, threadPriority));
+                forkJoinPool = new ForkJoinPool(numThreads, new ScoringThreadFactory(), null, false);
+                createTasks();
             } else {
                 logger.fine("no scoring threads");
             }
@@ -158,43 +221,204 @@ public class ThreadedAcousticScorer extends SimpleAcousticScorer {
     @Override
     public void deallocate() {
         super.deallocate();
-        if (executorService != null) {
-            executorService.shutdown();
-            executorService = null;
+        if (forkJoinPool != null) {
+            logger.fine("Scored frames: " + getScoredFrames() + " queue wait ms: " + getQueueWaitTime() / 1000000
+                    + " compute ms: " + getComputeTime() / 1000000);
+            forkJoinPool.shutdown();
+            forkJoinPool = null;
+            tasks = null;
         }
     }
 
+    /** @return the total time in nanoseconds scoring chunks spent waiting for a thread */
+    public long getQueueWaitTime() {
+        return queueWaitTime.get();
+    }
+
+    /** @return the total time in nanoseconds threads spent computing scores */
+    public long getComputeTime() {
+        return computeTime.get();
+    }
+
+    /** @return the number of frames scored in parallel */
+    public long getScoredFrames() {
+        return scoredFrames.get();
+    }
+
+    /** Resets the queue wait and compute time counters. */
+    public void resetTimers() {
+        queueWaitTime.set(0);
+        computeTime.set(0);
+        scoredFrames.set(0);
+    }
+
     @Override
+    @SuppressWarnings("unchecked")
     protected <T extends Scoreable> T doScoring(List<T> scoreableList, final Data data) {
-        if (numThreads > 1) {
+        if (forkJoinPool != null) {
             int totalSize = scoreableList.size();
             int jobSize = Math.max((totalSize + numThreads - 1) / numThreads, minScoreablesPerThread);
 
             if (jobSize < totalSize) {
-                List<Callable<T>> tasks = new ArrayList<Callable<T>>();
-                for (int from = 0, to = jobSize; from < totalSize; from = to, to += jobSize) {
-                    final List<T> scoringJob = scoreableList.subList(from, Math.min(to, totalSize));
-                    tasks.add(new Callable<T>() {
-                        public T call() throws Exception {
-                            return ThreadedAcousticScorer.super.doScoring(scoringJob, data);
-                        }
-                    });
-                }
+                numChunks = Math.min(chunkBest.length, (totalSize + minScoreablesPerThread - 1)
+                        / Math.max(minScoreablesPerThread, 1));
+                splitByCost(scoreableList);
+                currentData = data;
 
-                List<T> finalists = new ArrayList<T>(tasks.size());
-       
+                for (ScoringTask task : tasks)
+                    task.reinitialize();
+                frameStartTime = System.nanoTime();
                 try {
-                    for (Future<T> result : executorService.invokeAll(tasks))
-                        finalists.add(result.get());
-                } catch (Exception e) {
+                    forkJoinPool.invoke(tasks[0]);
+                } catch (RuntimeException e) {
                     throw new DataProcessingException("No scoring jobs ended", e);
+                } finally {
+                    Arrays.fill(scoreables, 0, numScoreables, null);
+                    currentData = null;
+                }
+
+                Scoreable best = null;
+                long waitTime = 0;
+                long scoreTime = 0;
+                for (int i = 0; i < numChunks; i++) {
+                    Scoreable chunkResult = chunkBest[i];
+                    if (chunkResult != null && (best == null || chunkResult.getScore() > best.getScore()))
+                        best = chunkResult;
+                    chunkBest[i] = null;
+                    waitTime += chunkWaitTime[i];
+                    scoreTime += chunkComputeTime[i];
                 }
-                
-                return Collections.min(finalists, Scoreable.COMPARATOR);
+                queueWaitTime.addAndGet(waitTime);
+                computeTime.addAndGet(scoreTime);
+                scoredFrames.incrementAndGet();
+                return (T) best;
             }
         }
         // if no additional threads are necessary, do the scoring in the calling thread
         return super.doScoring(scoreableList, data);
     }
 
+    /**
+     * Copies the scoreables into the reused array and computes chunk boundaries so that every chunk holds about the
+     * same number of Gaussians to evaluate.
+     */
+    private void splitByCost(List<? extends Scoreable> scoreableList) {
+        int totalSize = scoreableList.size();
+        if (scoreables.length < totalSize) {
+            scoreables = new Scoreable[totalSize + totalSize / 2];
+            costs = new int[scoreables.length];
+        }
+        long totalCost = 0;
+        int n = 0;
+        for (Scoreable scoreable : scoreableList) {
+            scoreables[n] = scoreable;
+            costs[n] = getCost(scoreable);
+            totalCost += costs[n++];
+        }
+        numScoreables = n;
+
+        int chunk = 0;
+        long cost = 0;
+        chunkStart[0] = 0;
+        for (int i = 0; i < totalSize && chunk < numChunks - 1; i++) {
+            cost += costs[i];
+            if (cost * numChunks >= totalCost * (chunk + 1))
+                chunkStart[++chunk] = i + 1;
+        }
+        while (chunk < numChunks)
+            chunkStart[++chunk] = totalSize;
+    }
+
+    /**
+     * Estimates the cost of scoring the given scoreable by the number of Gaussians of its senone.
+     */
+    private static int getCost(Scoreable scoreable) {
+        if (!(scoreable instanceof Token))
+            return 1;
+        SearchState state = ((Token) scoreable).getSearchState();
+        if (!(state instanceof HMMSearchState))
+            return 1;
+        HMMState hmmState = ((HMMSearchState) state).getHMMState();
+        if (!(hmmState instanceof SenoneHMMState))
+            return 1;
+        return getCost(((SenoneHMMState) hmmState).getSenone());
+    }
+
+    private static int getCost(Senone senone) {
+        if (senone instanceof GaussianMixture)
+            return ((GaussianMixture) senone).numComponents();
+        if (senone instanceof CompositeSenone) {
+            int cost = 0;
+            for (Senone child : ((CompositeSenone) senone).getSenones())
+                cost += getCost(child);
+            return cost;
+        }
+        return 1;
+    }
+
+    /** Scores a single chunk in the current thread and records its best scoreable and timing. */
+    private void scoreChunk(int chunk) {
+        long startTime = System.nanoTime();
+        Scoreable[] scoreableList = scoreables;
+        Data data = currentData;
+
+        Scoreable best = null;
+        float bestScore = -Float.MAX_VALUE;
+        for (int i = chunkStart[chunk], to = chunkStart[chunk + 1]; i < to; i++) {
+            Scoreable item = scoreableList[i];
+            calculateScore(item, data);
+            if (item.getScore() > bestScore) {
+                bestScore = item.getScore();
+                best = item;
+            }
+        }
+
+        chunkBest[chunk] = best;
+        long endTime = System.nanoTime();
+        chunkWaitTime[chunk] = startTime - frameStartTime;
+        chunkComputeTime[chunk] = endTime - startTime;
+    }
+
+    /**
+     * A node of the preallocated task tree. Leaves score one chunk, inner nodes split their range in two.
+     */
+    @SuppressWarnings("serial")
+    private class ScoringTask extends RecursiveAction {
+
+        private final int from;
+        private final int to;
+        private ScoringTask left;
+        private ScoringTask right;
+
+        ScoringTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (from >= numChunks)
+                return;
+            if (left == null)
+                scoreChunk(from);
+            else
+                invokeAll(left, right);
+        }
+    }
+
+    /** Creates named daemon worker threads with the configured priority. */
+    private class ScoringThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+            };
+            thread.setName(className + "-thread-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setPriority(threadPriority);
+            return thread;
+        }
+    }
+
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.decoder.search;
+
+import java.util.Arrays;
+
+import edu.cmu.sphinx.linguist.SearchState;
+
+/**
+ * Maps search states to the best token of the current frame. This is an open
+ * addressing table with linear probing keyed on the hash code of the state.
+ * The keys, states and tokens are kept in parallel arrays which are reused
+ * from frame to frame, so unlike a <code>HashMap</code> the table creates no
+ * garbage once it has grown to the working size of the search.
+ * <p>
+ * The table is cleared in constant time by advancing a generation stamp,
+ * slots written in an older generation are treated as empty.
+ */
+public class BestTokenTable {
+
+    private final static int INITIAL_CAPACITY = 1 << 10;
+
+    private int[] hashes;
+    private int[] stamps;
+    private SearchState[] states;
+    private Token[] tokens;
+    private int mask;
+    private int size;
+    private int stamp = 1;
+
+    public BestTokenTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        hashes = new int[capacity];
+        stamps = new int[capacity];
+        states = new SearchState[capacity];
+        tokens = new Token[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Removes all entries. The arrays are kept for the next frame.
+     */
+    public void clear() {
+        size = 0;
+        if (++stamp == 0) {
+            // the stamp wrapped around, old slots could look current
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+    }
+
+    /**
+     * Returns the token stored for the given state.
+     *
+     * @param state the state of interest
+     * @return the token or <code>null</code> if none was stored in this
+     *         generation
+     */
+    public Token get(SearchState state) {
+        int hash = state.hashCode();
+        for (int i = mix(hash) & mask; stamps[i] == stamp; i = (i + 1) & mask) {
+            if (hashes[i] == hash && states[i].equals(state))
+                return tokens[i];
+        }
+        return null;
+    }
+
+    /**
+     * Stores the token for the given state, replacing the previous one.
+     *
+     * @param state the state
+     * @param token the best token of the state
+     */
+    public void put(SearchState state, Token token) {
+        if ((size + 1) * 2 > hashes.length)
+            grow();
+        int hash = state.hashCode();
+        int i = mix(hash) & mask;
+        for (; stamps[i] == stamp; i = (i + 1) & mask) {
+            if (hashes[i] == hash && states[i].equals(state)) {
+                tokens[i] = token;
+                return;
+            }
+        }
+        stamps[i] = stamp;
+        hashes[i] = hash;
+        states[i] = state;
+        tokens[i] = token;
+        size++;
+    }
+
+    /**
+     * Returns the slot of the given state, adding the state without a token
+     * if it is not in the table yet. The table does not grow here, so the slot
+     * stays valid until the next {@link #put}. The caller has to make room
+     * for new states with {@link #ensureCapacity} beforehand.
+     *
+     * @param state the state
+     * @param hash the hash code of the state
+     * @return the slot of the state
+     */
+    public int slotOf(SearchState state, int hash) {
+        int i = mix(hash) & mask;
+        for (; stamps[i] == stamp; i = (i + 1) & mask) {
+            if (hashes[i] == hash && states[i].equals(state))
+                return i;
+        }
+        stamps[i] = stamp;
+        hashes[i] = hash;
+        states[i] = state;
+        tokens[i] = null;
+        size++;
+        return i;
+    }
+
+    /**
+     * Returns the token stored in the given slot.
+     *
+     * @param slot a slot returned by {@link #slotOf}
+     * @return the token or <code>null</code>
+     */
+    public Token getToken(int slot) {
+        return tokens[slot];
+    }
+
+    /**
+     * Stores a token in the given slot.
+     *
+     * @param slot a slot returned by {@link #slotOf}
+     * @param token the best token of the state in the slot
+     */
+    public void setToken(int slot, Token token) {
+        tokens[slot] = token;
+    }
+
+    /**
+     * Grows the table so that the given number of states can be added
+     * without growing again.
+     *
+     * @param additional the number of states which will be added
+     */
+    public void ensureCapacity(int additional) {
+        while ((size + additional) * 2 > hashes.length)
+            grow();
+    }
+
+    /** Doubles the capacity and reinserts the entries of this generation. */
+    private void grow() {
+        int[] oldHashes = hashes;
+        int[] oldStamps = stamps;
+        SearchState[] oldStates = states;
+        Token[] oldTokens = tokens;
+        int oldStamp = stamp;
+
+        allocate(oldHashes.length * 2);
+        stamp = 1;
+        for (int j = 0; j < oldHashes.length; j++) {
+            if (oldStamps[j] != oldStamp)
+                continue;
+            int i = mix(oldHashes[j]) & mask;
+            while (stamps[i] == stamp)
+                i = (i + 1) & mask;
+            stamps[i] = stamp;
+            hashes[i] = oldHashes[j];
+            states[i] = oldStates[j];
+            tokens[i] = oldTokens[j];
+        }
+    }
+
+    /**
+     * Spreads the bits of the hash code, state hash codes are often
+     * multiples of small constants.
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /** @return the number of states stored in this generation */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of slots of the table */
+    public int getCapacity() {
+        return hashes.length;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.decoder.search;
+
+import edu.cmu.sphinx.decoder.pruner.Pruner;
+import edu.cmu.sphinx.decoder.scorer.AcousticScorer;
+import edu.cmu.sphinx.linguist.Linguist;
+import edu.cmu.sphinx.linguist.SearchState;
+import edu.cmu.sphinx.linguist.SearchStateArc;
+import edu.cmu.sphinx.linguist.WordSearchState;
+import edu.cmu.sphinx.util.props.PropertyException;
+import edu.cmu.sphinx.util.props.PropertySheet;
+
+/**
+ * The word pruning breadth first search which does not allocate tokens in
+ * the steady state.
+ * <p>
+ * Tokens of HMM and other non-word states are taken from a {@link TokenArena}
+ * and recycled between frames, the best token of each state is kept in a
+ * {@link BestTokenTable} instead of a new <code>HashMap</code> every frame.
+ * Only tokens of word states are allocated on the heap, since they are linked
+ * into the word history and referenced by the lattice and the {@link
+ * edu.cmu.sphinx.result.Result}.
+ * <p>
+ * Recycling requires that tokens only refer to word tokens as predecessors,
+ * so the arena is used only when <code>keepAllTokens</code> is disabled.
+ * Otherwise the manager behaves exactly like its superclass. The tokens in the
+ * active list of a result are recycled two frames later, so a result should
+ * be used before <code>recognize</code> is called again.
+ * <p>
+ * All scores and probabilities are maintained in the log math log domain.
+ */
+public class PooledTokenSearchManager extends WordPruningBreadthFirstSearchManager {
+
+    private TokenArena tokenArena;
+    private BestTokenTable bestTokenTable;
+
+    /**
+     * Creates a pruning manager which recycles tokens
+     * @param linguist a linguist for search space
+     * @param pruner pruner to drop tokens
+     * @param scorer scorer to estimate token probability
+     * @param activeListManager active list manager to store tokens
+     * @param showTokenCount show count during decoding
+     * @param relativeWordBeamWidth relative beam for lookahead pruning
+     * @param growSkipInterval skip interval for grown
+     * @param checkStateOrder check order of states during growth
+     * @param buildWordLattice build a lattice during decoding
+     * @param maxLatticeEdges max edges to keep in lattice
+     * @param acousticLookaheadFrames frames to do lookahead
+     * @param keepAllTokens keep tokens including emitting tokens, disables
+     *            recycling
+     */
+    public PooledTokenSearchManager(Linguist linguist, Pruner pruner, AcousticScorer scorer,
+            ActiveListManager activeListManager, boolean showTokenCount, double relativeWordBeamWidth,
+            int growSkipInterval, boolean checkStateOrder, boolean buildWordLattice, int maxLatticeEdges,
+            float acousticLookaheadFrames, boolean keepAllTokens) {
+        super(linguist, pruner, scorer, activeListManager, showTokenCount, relativeWordBeamWidth,
+                growSkipInterval, checkStateOrder, buildWordLattice, maxLatticeEdges, acousticLookaheadFrames,
+                keepAllTokens);
+    }
+
+    public PooledTokenSearchManager() {
+
+    }
+
+    @Override
+    public void newProperties(PropertySheet ps) throws PropertyException {
+        super.newProperties(ps);
+        if (keepAllTokens)
+            logger.warning("keepAllTokens is set, tokens will not be recycled");
+    }
+
+    @Override
+    public void allocate() {
+        super.allocate();
+        tokenArena = new TokenArena();
+        bestTokenTable = new BestTokenTable();
+    }
+
+    @Override
+    public void deallocate() {
+        super.deallocate();
+        tokenArena.clear();
+        bestTokenTable = new BestTokenTable();
+    }
+
+    /**
+     * Clears the best token table and starts a new generation of pooled
+     * tokens instead of creating a new map.
+     */
+    @Override
+    protected void createBestTokenMap() {
+        bestTokenTable.clear();
+        tokenArena.nextGeneration();
+    }
+
+    @Override
+    protected Token getBestToken(SearchState state) {
+        return bestTokenTable.get(state);
+    }
+
+    @Override
+    protected void setBestToken(Token token, SearchState state) {
+        bestTokenTable.put(state, token);
+    }
+
+    /**
+     * Collects the next set of emitting tokens from a token and accumulates
+     * them in the active or result lists. Same as the superclass, except that
+     * tokens of non-word states come from the arena and the predecessor is
+     * only looked up once a successor needs it.
+     *
+     * @param token
+     *            the token to collect successors from
+     */
+    @Override
+    protected void collectSuccessorTokens(Token token) {
+
+        if (token.isFinal()) {
+            resultList.add(getResultListPredecessor(token));
+            return;
+        }
+
+        if (!token.isEmitting() && (keepAllTokens && isVisited(token))) {
+            return;
+        }
+
+        SearchState state = token.getSearchState();
+        SearchStateArc[] arcs = state.getSuccessors();
+        Token predecessor = null;
+        boolean hasPredecessor = false;
+
+        for (SearchStateArc arc : arcs) {
+            SearchState nextState = arc.getState();
+
+            if (checkStateOrder) {
+                checkStateOrder(state, nextState);
+            }
+
+            float logEntryScore = token.getScore() + arc.getProbability();
+
+            Token bestToken = getBestToken(nextState);
+            boolean isWord = nextState instanceof WordSearchState;
+
+            if (bestToken != null && bestToken.getScore() >= logEntryScore && !(buildWordLattice && isWord)) {
+                continue;
+            }
+
+            if (!hasPredecessor) {
+                // with buildWordLattice this creates the token holding the
+                // scores of the path since the last word
+                predecessor = getResultListPredecessor(token);
+                hasPredecessor = true;
+            }
+
+            if (bestToken == null) {
+                Token newBestToken = newToken(predecessor, nextState, logEntryScore,
+                        arc.getInsertionProbability(), arc.getLanguageProbability());
+                tokensCreated.value++;
+                setBestToken(newBestToken, nextState);
+                activeListAdd(newBestToken);
+            } else if (bestToken.getScore() < logEntryScore) {
+                Token oldPredecessor = bestToken.getPredecessor();
+                bestToken.update(predecessor, nextState, logEntryScore, arc.getInsertionProbability(),
+                        arc.getLanguageProbability(), currentCollectTime);
+                if (buildWordLattice && isWord) {
+                    loserManager.addAlternatePredecessor(bestToken, oldPredecessor);
+                }
+            } else if (buildWordLattice && isWord) {
+                if (predecessor != null) {
+                    loserManager.addAlternatePredecessor(bestToken, predecessor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a token for the current frame. Tokens of word states are
+     * allocated on the heap, all others are taken from the arena.
+     *
+     * @param predecessor the predecessor for the token
+     * @param state the search state of the token
+     * @param logEntryScore the entry score
+     * @param logInsertionScore the insertion score
+     * @param logLanguageScore the language score
+     * @return the new token
+     */
+    protected Token newToken(Token predecessor, SearchState state, float logEntryScore,
+            float logInsertionScore, float logLanguageScore) {
+        return newToken(tokenArena, predecessor, state, logEntryScore, logInsertionScore, logLanguageScore);
+    }
+
+    /**
+     * Creates a token for the current frame, taking it from the given arena
+     * unless it is a token of a word state.
+     *
+     * @param arena the arena to take the token from
+     * @param predecessor the predecessor for the token
+     * @param state the search state of the token
+     * @param logEntryScore the entry score
+     * @param logInsertionScore the insertion score
+     * @param logLanguageScore the language score
+     * @return the new token
+     */
+    protected Token newToken(TokenArena arena, Token predecessor, SearchState state, float logEntryScore,
+            float logInsertionScore, float logLanguageScore) {
+        if (keepAllTokens || state instanceof WordSearchState)
+            return new Token(predecessor, state, logEntryScore, logInsertionScore, logLanguageScore,
+                    currentCollectTime);
+        return arena.newToken(predecessor, state, logEntryScore, logInsertionScore, logLanguageScore,
+                currentCollectTime);
+    }
+
+    /** @return the arena the tokens of non-word states are taken from */
+    public TokenArena getTokenArena() {
+        return tokenArena;
+    }
+}
@@ -0,0 +1,655 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.decoder.search;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.cmu.sphinx.decoder.pruner.Pruner;
+import edu.cmu.sphinx.decoder.scorer.AcousticScorer;
+import edu.cmu.sphinx.linguist.Linguist;
+import edu.cmu.sphinx.linguist.SearchState;
+import edu.cmu.sphinx.linguist.SearchStateArc;
+import edu.cmu.sphinx.linguist.WordSearchState;
+import edu.cmu.sphinx.util.props.PropertyException;
+import edu.cmu.sphinx.util.props.PropertySheet;
+import edu.cmu.sphinx.util.props.S4Boolean;
+import edu.cmu.sphinx.util.props.S4Integer;
+
+/**
+ * The pooled word pruning breadth first search which expands the emitting
+ * active list on several threads.
+ * <p>
+ * The best tokens of a frame are kept in a number of shards, each a {@link
+ * BestTokenTable} holding the states whose hash code maps to it. Expansion of
+ * the emitting list runs in four steps:
+ * <ol>
+ * <li>the tokens are split into chunks, workers get the successors of their
+ * tokens from the linguist,
+ * <li>the arcs are split into chunks, workers compute the entry scores and
+ * sort the arcs into per shard buckets,
+ * <li>every shard is owned by one worker, which recombines the arcs of its
+ * shard in the original arc order in its own table and creates the tokens of
+ * its states from its own token arena,
+ * <li>the calling thread adds the new tokens to the active list and applies
+ * the arcs which improve a token in arc order.
+ * </ol>
+ * Since the recombination of every state sees its arcs in the same order as
+ * the serial search and the tokens are added and updated in the same order,
+ * the active lists are identical to the ones of {@link
+ * PooledTokenSearchManager} with the same beams, regardless of the number of
+ * threads. The non-emitting lists are small and expanded serially.
+ * <p>
+ * The linguist has to allow concurrent calls to {@link
+ * SearchState#getSuccessors()}, as the {@link
+ * edu.cmu.sphinx.linguist.lextree.LexTreeLinguist} does.
+ * <p>
+ * All scores and probabilities are maintained in the log math log domain.
+ */
+public class ShardedSearchManager extends PooledTokenSearchManager {
+
+    /**
+     * The property that controls the number of threads used to expand the
+     * active list. If isCpuRelative is true, the number of available
+     * processors is added to this value. With less than two threads the active
+     * list is expanded on the calling thread.
+     */
+    @S4Integer(defaultValue = 0)
+    public final static String PROP_NUM_THREADS = "numThreads";
+
+    /**
+     * The property that controls whether the number of available processors
+     * is added to the number of threads.
+     */
+    @S4Boolean(defaultValue = true)
+    public final static String PROP_IS_CPU_RELATIVE = "isCpuRelative";
+
+    /**
+     * The property that controls the minimum number of tokens per thread. If
+     * the active list is smaller, it is expanded on the calling thread.
+     */
+    @S4Integer(defaultValue = 100)
+    public final static String PROP_MIN_TOKENS_PER_THREAD = "minTokensPerThread";
+
+    private final static String className = ShardedSearchManager.class.getSimpleName();
+
+    private final static int CHUNKS_PER_THREAD = 2;
+    private final static int SHARDS_PER_THREAD = 2;
+
+    private int numThreads;
+    private int minTokensPerThread;
+    private ForkJoinPool forkJoinPool;
+    private long shardedExpansions;
+
+    // the shards of the best token map and their per expansion records
+    private int numShards;
+    private Shard[] shards;
+
+    // tokens collected for expansion
+    private boolean collecting;
+    private Token[] pending = new Token[0];
+    private int numPending;
+
+    // tokens to expand with their arcs, arcs of source s start at pairStart[s]
+    private Token[] sources = new Token[0];
+    private SearchStateArc[][] sourceArcs = new SearchStateArc[0][];
+    private Token[] predecessors = new Token[0];
+    private int[] pairStart = new int[1];
+    private int numSources;
+    private int numPairs;
+
+    // per arc
+    private SearchState[] pairStates = new SearchState[0];
+    private float[] pairScores = new float[0];
+    private int[] pairHashes = new int[0];
+    private int[] pairSources = new int[0];
+    private int[] nextEncounter = new int[0];
+    // shard and slot of the arcs which change a token, -1 for the others
+    private int[] targetShard = new int[0];
+    private int[] targetSlot = new int[0];
+    // whether the arc created the token of its state
+    private boolean[] creates = new boolean[0];
+
+    // token or arc chunks and the arcs of every chunk sorted by shard
+    private int maxChunks;
+    private int numChunks;
+    private int[] chunkStart;
+    private int[][][] buckets;
+    private int[][] bucketSizes;
+
+    private ExpansionTask successorTasks;
+    private ExpansionTask chunkTasks;
+    private ExpansionTask shardTasks;
+
+    /**
+     * Creates a pruning manager which recycles tokens and expands the active
+     * list on several threads
+     * @param linguist a linguist for search space
+     * @param pruner pruner to drop tokens
+     * @param scorer scorer to estimate token probability
+     * @param activeListManager active list manager to store tokens
+     * @param showTokenCount show count during decoding
+     * @param relativeWordBeamWidth relative beam for lookahead pruning
+     * @param growSkipInterval skip interval for grown
+     * @param checkStateOrder check order of states during growth
+     * @param buildWordLattice build a lattice during decoding
+     * @param maxLatticeEdges max edges to keep in lattice
+     * @param acousticLookaheadFrames frames to do lookahead
+     * @param keepAllTokens keep tokens including emitting tokens, disables
+     *            recycling
+     * @param numThreads the number of expansion threads
+     * @param cpuRelative add the number of available processors to numThreads
+     * @param minTokensPerThread the minimum number of tokens per thread
+     */
+    public ShardedSearchManager(Linguist linguist, Pruner pruner, AcousticScorer scorer,
+            ActiveListManager activeListManager, boolean showTokenCount, double relativeWordBeamWidth,
+            int growSkipInterval, boolean checkStateOrder, boolean buildWordLattice, int maxLatticeEdges,
+            float acousticLookaheadFrames, boolean keepAllTokens, int numThreads, boolean cpuRelative,
+            int minTokensPerThread) {
+        super(linguist, pruner, scorer, activeListManager, showTokenCount, relativeWordBeamWidth,
+                growSkipInterval, checkStateOrder, buildWordLattice, maxLatticeEdges, acousticLookaheadFrames,
+                keepAllTokens);
+        init(numThreads, cpuRelative, minTokensPerThread);
+    }
+
+    public ShardedSearchManager() {
+
+    }
+
+    @Override
+    public void newProperties(PropertySheet ps) throws PropertyException {
+        super.newProperties(ps);
+        init(ps.getInt(PROP_NUM_THREADS), ps.getBoolean(PROP_IS_CPU_RELATIVE),
+                ps.getInt(PROP_MIN_TOKENS_PER_THREAD));
+    }
+
+    private void init(int numThreads, boolean cpuRelative, int minTokensPerThread) {
+        if (cpuRelative) {
+            numThreads += Runtime.getRuntime().availableProcessors();
+        }
+        this.numThreads = Math.max(numThreads, 1);
+        this.minTokensPerThread = Math.max(minTokensPerThread, 1);
+    }
+
+    @Override
+    public void allocate() {
+        super.allocate();
+        numShards = numThreads > 1 ? numThreads * SHARDS_PER_THREAD : 1;
+        shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++)
+            shards[i] = new Shard();
+
+        if (numThreads > 1 && forkJoinPool == null) {
+            logger.fine("# of expansion threads: " + numThreads);
+            forkJoinPool = new ForkJoinPool(numThreads, new ExpansionThreadFactory(), null, false);
+            maxChunks = numThreads * CHUNKS_PER_THREAD;
+            chunkStart = new int[maxChunks + 1];
+            buckets = new int[maxChunks][numShards][];
+            bucketSizes = new int[maxChunks][numShards];
+            for (int[][] chunkBuckets : buckets)
+                for (int i = 0; i < numShards; i++)
+                    chunkBuckets[i] = new int[16];
+            successorTasks = new ExpansionTask(ExpansionTask.SUCCESSORS, 0, maxChunks);
+            chunkTasks = new ExpansionTask(ExpansionTask.SCORES, 0, maxChunks);
+            shardTasks = new ExpansionTask(ExpansionTask.SHARDS, 0, numShards);
+        }
+    }
+
+    @Override
+    public void deallocate() {
+        super.deallocate();
+        for (Shard shard : shards)
+            shard.arena.clear();
+        if (forkJoinPool != null) {
+            logger.fine("Sharded expansions: " + shardedExpansions);
+            forkJoinPool.shutdown();
+            forkJoinPool = null;
+        }
+    }
+
+    @Override
+    protected void createBestTokenMap() {
+        super.createBestTokenMap();
+        for (Shard shard : shards) {
+            shard.table.clear();
+            shard.arena.nextGeneration();
+        }
+    }
+
+    @Override
+    protected Token getBestToken(SearchState state) {
+        return shards[shardOf(state.hashCode())].table.get(state);
+    }
+
+    @Override
+    protected void setBestToken(Token token, SearchState state) {
+        shards[shardOf(state.hashCode())].table.put(state, token);
+    }
+
+    /**
+     * Selects the shard from other bits of the hash code than the slot
+     * within the table.
+     */
+    private int shardOf(int hash) {
+        return ((hash * 0x85EBCA6B) >>> 8) % numShards;
+    }
+
+    /**
+     * Grows the emitting branches. The tokens selected by the superclass are
+     * collected first and expanded together.
+     */
+    @Override
+    protected void growEmittingBranches() {
+        collecting = forkJoinPool != null;
+        try {
+            super.growEmittingBranches();
+        } finally {
+            collecting = false;
+        }
+        growTimer.start();
+        expandCollected();
+        growTimer.stop();
+    }
+
+    @Override
+    protected void collectSuccessorTokens(Token token) {
+        if (!collecting) {
+            super.collectSuccessorTokens(token);
+            return;
+        }
+        if (numPending == pending.length)
+            pending = Arrays.copyOf(pending, Math.max(16, numPending * 2));
+        pending[numPending++] = token;
+    }
+
+    /** Expands the collected tokens, in parallel if there are enough. */
+    private void expandCollected() {
+        int count = numPending;
+        numPending = 0;
+        if (count < numThreads * minTokensPerThread) {
+            for (int i = 0; i < count; i++) {
+                super.collectSuccessorTokens(pending[i]);
+                pending[i] = null;
+            }
+            return;
+        }
+
+        collectSources(count);
+        Arrays.fill(pending, 0, count, null);
+
+        if (numSources > 0) {
+            splitSources();
+            successorTasks.reinitialize();
+            forkJoinPool.invoke(successorTasks);
+            countArcs();
+        }
+        if (numPairs > 0) {
+            splitChunks();
+            for (Shard shard : shards)
+                shard.startExpansion();
+            chunkTasks.reinitialize();
+            forkJoinPool.invoke(chunkTasks);
+            shardTasks.reinitialize();
+            forkJoinPool.invoke(shardTasks);
+            applyTokens();
+            shardedExpansions++;
+        }
+
+        Arrays.fill(sources, 0, numSources, null);
+        Arrays.fill(sourceArcs, 0, numSources, null);
+        Arrays.fill(predecessors, 0, numSources, null);
+        Arrays.fill(pairStates, 0, numPairs, null);
+    }
+
+    /** Handles final tokens and collects all other tokens to expand. */
+    private void collectSources(int count) {
+        if (sources.length < count) {
+            int size = count + count / 2;
+            sources = new Token[size];
+            sourceArcs = new SearchStateArc[size][];
+            predecessors = new Token[size];
+            pairStart = new int[size + 1];
+        }
+        numSources = 0;
+        numPairs = 0;
+        for (int i = 0; i < count; i++) {
+            Token token = pending[i];
+            if (token.isFinal()) {
+                resultList.add(getResultListPredecessor(token));
+                continue;
+            }
+            if (!token.isEmitting() && (keepAllTokens && isVisited(token))) {
+                continue;
+            }
+            sources[numSources++] = token;
+        }
+    }
+
+    /** Splits the sources into chunks with the same number of tokens. */
+    private void splitSources() {
+        numChunks = Math.min(maxChunks, numSources);
+        for (int chunk = 0; chunk <= numChunks; chunk++)
+            chunkStart[chunk] = (int) ((long) numSources * chunk / numChunks);
+    }
+
+    /**
+     * Gets the successors of the tokens of a chunk from the linguist and the
+     * predecessor of the new tokens.
+     */
+    private void collectArcs(int chunk) {
+        for (int s = chunkStart[chunk], end = chunkStart[chunk + 1]; s < end; s++) {
+            SearchState state = sources[s].getSearchState();
+            SearchStateArc[] arcs = state.getSuccessors();
+            if (checkStateOrder) {
+                for (SearchStateArc arc : arcs)
+                    checkStateOrder(state, arc.getState());
+            }
+            sourceArcs[s] = arcs;
+            predecessors[s] = getResultListPredecessor(sources[s]);
+        }
+    }
+
+    /** Numbers the arcs of all sources. */
+    private void countArcs() {
+        for (int s = 0; s < numSources; s++) {
+            pairStart[s] = numPairs;
+            numPairs += sourceArcs[s].length;
+        }
+        pairStart[numSources] = numPairs;
+
+        if (pairStates.length < numPairs) {
+            int size = numPairs + numPairs / 2;
+            pairStates = new SearchState[size];
+            pairScores = new float[size];
+            pairHashes = new int[size];
+            pairSources = new int[size];
+            nextEncounter = new int[size];
+            targetShard = new int[size];
+            targetSlot = new int[size];
+            creates = new boolean[size];
+        }
+    }
+
+    /** Splits the sources into chunks with about the same number of arcs. */
+    private void splitChunks() {
+        numChunks = Math.min(maxChunks, numSources);
+        int chunk = 0;
+        chunkStart[0] = 0;
+        for (int s = 0; s < numSources && chunk < numChunks - 1; s++) {
+            if ((long) pairStart[s + 1] * numChunks >= (long) numPairs * (chunk + 1))
+                chunkStart[++chunk] = s + 1;
+        }
+        while (chunk < numChunks)
+            chunkStart[++chunk] = numSources;
+    }
+
+    /**
+     * Computes the entry scores of the arcs of a chunk and sorts them into
+     * the buckets of the shards.
+     */
+    private void scoreChunk(int chunk) {
+        int[][] chunkBuckets = buckets[chunk];
+        int[] sizes = bucketSizes[chunk];
+        Arrays.fill(sizes, 0);
+        for (int s = chunkStart[chunk], end = chunkStart[chunk + 1]; s < end; s++) {
+            float score = sources[s].getScore();
+            SearchStateArc[] arcs = sourceArcs[s];
+            int p = pairStart[s];
+            for (SearchStateArc arc : arcs) {
+                SearchState nextState = arc.getState();
+                int hash = nextState.hashCode();
+                pairStates[p] = nextState;
+                pairScores[p] = score + arc.getProbability();
+                pairHashes[p] = hash;
+                pairSources[p] = s;
+                targetShard[p] = -1;
+                creates[p] = false;
+
+                int shard = shardOf(hash);
+                int[] bucket = chunkBuckets[shard];
+                if (sizes[shard] == bucket.length) {
+                    bucket = Arrays.copyOf(bucket, bucket.length * 2);
+                    chunkBuckets[shard] = bucket;
+                }
+                bucket[sizes[shard]++] = p;
+                p++;
+            }
+        }
+    }
+
+    /**
+     * Recombines all arcs of a shard in arc order. For every state it creates
+     * the token with the first arc and marks it and the arcs which improve its
+     * score, for word states in a lattice it chains all arcs to the first one.
+     */
+    private void expandShard(int index) {
+        Shard shard = shards[index];
+        int total = 0;
+        for (int c = 0; c < numChunks; c++)
+            total += bucketSizes[c][index];
+        shard.ensureCapacity(total);
+
+        BestTokenTable table = shard.table;
+        int stamp = shard.stamp;
+        int[] stamps = shard.stamps;
+        float[] bestScores = shard.bestScores;
+        int[] lastEncounters = shard.lastEncounters;
+
+        for (int c = 0; c < numChunks; c++) {
+            int[] bucket = buckets[c][index];
+            for (int i = 0, size = bucketSizes[c][index]; i < size; i++) {
+                int p = bucket[i];
+                SearchState state = pairStates[p];
+                float score = pairScores[p];
+                int slot = table.slotOf(state, pairHashes[p]);
+                boolean chained = buildWordLattice && state instanceof WordSearchState;
+                boolean target;
+                if (stamps[slot] != stamp) {
+                    stamps[slot] = stamp;
+                    Token token = table.getToken(slot);
+                    target = chained || token == null || token.getScore() < score;
+                    bestScores[slot] = token == null ? score : Math.max(score, token.getScore());
+                    lastEncounters[slot] = p;
+                    nextEncounter[p] = -1;
+                    if (token == null && !chained) {
+                        SearchStateArc arc = getArc(p);
+                        table.setToken(slot, newToken(shard.arena, predecessors[pairSources[p]], state, score,
+                                arc.getInsertionProbability(), arc.getLanguageProbability()));
+                        creates[p] = true;
+                    }
+                } else {
+                    target = !chained && bestScores[slot] < score;
+                    if (bestScores[slot] < score)
+                        bestScores[slot] = score;
+                    if (chained) {
+                        nextEncounter[lastEncounters[slot]] = p;
+                        lastEncounters[slot] = p;
+                        nextEncounter[p] = -1;
+                    }
+                }
+                if (target) {
+                    targetShard[p] = index;
+                    targetSlot[p] = slot;
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the marked arcs in arc order like the serial search: a token is
+     * added to the active list with the score of the first arc reaching its
+     * state and updated by every later arc which improves it. The active lists
+     * track their best token as tokens are added, so adding a token with its
+     * final score would change the beam thresholds.
+     */
+    private void applyTokens() {
+        for (int p = 0; p < numPairs; p++) {
+            int index = targetShard[p];
+            if (index < 0)
+                continue;
+            Shard shard = shards[index];
+            int slot = targetSlot[p];
+
+            if (buildWordLattice && pairStates[p] instanceof WordSearchState) {
+                for (int e = p; e >= 0; e = nextEncounter[e])
+                    replay(shard, slot, e);
+                continue;
+            }
+
+            Token token = shard.table.getToken(slot);
+            if (creates[p]) {
+                tokensCreated.value++;
+                activeListAdd(token);
+            } else {
+                SearchStateArc arc = getArc(p);
+                token.update(predecessors[pairSources[p]], pairStates[p], pairScores[p],
+                        arc.getInsertionProbability(), arc.getLanguageProbability(), currentCollectTime);
+            }
+        }
+    }
+
+    /**
+     * Applies a single arc to a word state exactly like the serial search, so
+     * that the alternate predecessors of the lattice are the same.
+     */
+    private void replay(Shard shard, int slot, int p) {
+        SearchStateArc arc = getArc(p);
+        Token predecessor = predecessors[pairSources[p]];
+        float score = pairScores[p];
+        Token token = shard.table.getToken(slot);
+        if (token == null) {
+            token = newToken(predecessor, pairStates[p], score, arc.getInsertionProbability(),
+                    arc.getLanguageProbability());
+            tokensCreated.value++;
+            shard.table.setToken(slot, token);
+            activeListAdd(token);
+        } else if (token.getScore() < score) {
+            Token oldPredecessor = token.getPredecessor();
+            token.update(predecessor, pairStates[p], score, arc.getInsertionProbability(),
+                    arc.getLanguageProbability(), currentCollectTime);
+            loserManager.addAlternatePredecessor(token, oldPredecessor);
+        } else if (predecessor != null) {
+            loserManager.addAlternatePredecessor(token, predecessor);
+        }
+    }
+
+    private SearchStateArc getArc(int p) {
+        int s = pairSources[p];
+        return sourceArcs[s][p - pairStart[s]];
+    }
+
+    /** @return the number of frames expanded on several threads */
+    public long getShardedExpansions() {
+        return shardedExpansions;
+    }
+
+    /**
+     * A shard of the best token map with the arena its tokens are taken from.
+     * Besides the table it keeps for every slot the best score of the current
+     * expansion, the arrays are replaced when the table grows.
+     */
+    private static class Shard {
+
+        final BestTokenTable table = new BestTokenTable();
+        final TokenArena arena = new TokenArena();
+        int stamp;
+        int[] stamps = new int[0];
+        float[] bestScores = new float[0];
+        int[] lastEncounters = new int[0];
+
+        void startExpansion() {
+            if (++stamp == 0) {
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+        }
+
+        void ensureCapacity(int additional) {
+            table.ensureCapacity(additional);
+            int capacity = table.getCapacity();
+            if (stamps.length != capacity) {
+                stamps = new int[capacity];
+                bestScores = new float[capacity];
+                lastEncounters = new int[capacity];
+            }
+        }
+    }
+
+    /**
+     * A node of a preallocated task tree over chunks or shards. Leaves process
+     * a single chunk or shard, inner nodes fork their children.
+     */
+    @SuppressWarnings("serial")
+    private class ExpansionTask extends RecursiveAction {
+
+        static final int SUCCESSORS = 0;
+        static final int SCORES = 1;
+        static final int SHARDS = 2;
+
+        private final int step;
+        private final int from;
+        private final ExpansionTask left;
+        private final ExpansionTask right;
+
+        ExpansionTask(int step, int from, int to) {
+            this.step = step;
+            this.from = from;
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                left = new ExpansionTask(step, from, middle);
+                right = new ExpansionTask(step, middle, to);
+            } else {
+                left = null;
+                right = null;
+            }
+        }
+
+        @Override
+        public void reinitialize() {
+            super.reinitialize();
+            if (left != null) {
+                left.reinitialize();
+                right.reinitialize();
+            }
+        }
+
+        @Override
+        protected void compute() {
+            if (step != SHARDS && from >= numChunks)
+                return;
+            if (left != null)
+                invokeAll(left, right);
+            else if (step == SUCCESSORS)
+                collectArcs(from);
+            else if (step == SCORES)
+                scoreChunk(from);
+            else
+                expandShard(from);
+        }
+    }
+
+    /** Creates named daemon worker threads. */
+    private static class ExpansionThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+            };
+            thread.setName(className + "-thread-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -23,6 +23,8 @@ import edu.cmu.sphinx.util.LogMath;
 import edu.cmu.sphinx.util.StatisticsVariable;
 import edu.cmu.sphinx.util.Timer;
 import edu.cmu.sphinx.util.TimerPool;
+import edu.cmu.sphinx.util.metrics.Histogram;
+import edu.cmu.sphinx.util.metrics.MetricRegistry;
 import edu.cmu.sphinx.util.props.*;
 
 import java.util.*;
@@ -115,6 +117,7 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
     private StatisticsVariable tokensCreated;
     private StatisticsVariable viterbiPruned;
     private StatisticsVariable beamPruned;
+    private Histogram activeTokens;
 
     // ------------------------------------
     // Working data
@@ -371,6 +374,7 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
         // update statistics
         curTokensScored.value += activeList.size();
         totalTokensScored.value += activeList.size();
+        activeTokens.record(activeList.size());
         tokensPerSecond.value = totalTokensScored.value / getTotalTime();
 
 //        if (logger.isLoggable(Level.FINE)) {
@@ -641,6 +645,7 @@ public class SimpleBreadthFirstSearchManager extends TokenSearchManager {
         viterbiPruned = StatisticsVariable
                 .getStatisticsVariable("viterbiPruned");
         beamPruned = StatisticsVariable.getStatisticsVariable("beamPruned");
+        activeTokens = MetricRegistry.getRegistry().getHistogram("search.activeTokens");
 
 
         try {
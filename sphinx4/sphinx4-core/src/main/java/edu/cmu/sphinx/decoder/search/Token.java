@@ -176,7 +176,28 @@ public class Token implements Scoreable {
 
         return logTotalScore;
     }
-    
+
+
+    /**
+     * Applies an acoustic score which was already computed against the given
+     * feature, for example by a scorer that scores several frames at once.
+     * The result is the same as calling {@link #calculateScore(Data)}.
+     *
+     * @param logAcousticScore the acoustic score of this token's state
+     * @param feature the feature the score was computed against
+     * @return the score for the feature
+     */
+    public float applyScore(float logAcousticScore, Data feature) {
+
+        this.logAcousticScore = logAcousticScore;
+
+        logTotalScore += logAcousticScore;
+
+        setData(feature);
+
+        return logTotalScore;
+    }
+
     public float[] calculateComponentScore(Data feature){
     	return ((ScoreProvider) searchState).getComponentScore(feature);
     }
@@ -474,4 +495,23 @@ public class Token implements Scoreable {
         this.logLanguageScore = languageProbability;
         this.collectTime = collectTime;
     }
+
+    /**
+     * Reinitializes a pooled token so it can be used again as a new token.
+     * Unlike {@link #update} it also clears the acoustic score and the
+     * feature left from the previous use.
+     *
+     * @param predecessor the predecessor for this token
+     * @param state the search state associated with this token
+     * @param logTotalScore the total entry score for this token
+     * @param logInsertionScore the insertion score associated with this token
+     * @param logLanguageScore the language score associated with this token
+     * @param collectTime the frame collection time
+     */
+    void reset(Token predecessor, SearchState state, float logTotalScore,
+            float logInsertionScore, float logLanguageScore, long collectTime) {
+        update(predecessor, state, logTotalScore, logInsertionScore, logLanguageScore, collectTime);
+        this.logAcousticScore = 0.0f;
+        this.data = null;
+    }
 }
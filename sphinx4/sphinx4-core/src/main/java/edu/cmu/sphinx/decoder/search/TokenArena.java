@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.decoder.search;
+
+import java.util.Arrays;
+
+import edu.cmu.sphinx.linguist.SearchState;
+
+/**
+ * A pool of tokens which are recycled between frames.
+ * <p>
+ * Tokens are handed out in generations, one generation per frame expansion.
+ * The arena keeps two generations: tokens of the current expansion and tokens
+ * of the previous one, which are still in the active list being scored and
+ * expanded. When a new generation starts, the tokens of the generation before
+ * the previous one are reused. Tokens must therefore not be referenced for
+ * longer than one frame, a caller that links tokens into a history has to
+ * allocate those tokens on the heap instead.
+ */
+public class TokenArena {
+
+    private final static int INITIAL_CAPACITY = 1 << 10;
+
+    private final Token[][] pools = new Token[2][INITIAL_CAPACITY];
+    private final int[] used = new int[2];
+    private int generation;
+    private long tokensAllocated;
+
+    /**
+     * Starts a new generation. The tokens handed out two generations ago are
+     * recycled from now on.
+     */
+    public void nextGeneration() {
+        generation ^= 1;
+        used[generation] = 0;
+    }
+
+    /**
+     * Returns a token of the current generation, reusing a recycled one if
+     * possible.
+     *
+     * @param predecessor the predecessor for this token
+     * @param state the search state associated with this token
+     * @param logTotalScore the total entry score for this token
+     * @param logInsertionScore the insertion score associated with this token
+     * @param logLanguageScore the language score associated with this token
+     * @param collectTime the frame collection time
+     * @return the token
+     */
+    public Token newToken(Token predecessor, SearchState state, float logTotalScore,
+            float logInsertionScore, float logLanguageScore, long collectTime) {
+        Token[] pool = pools[generation];
+        int n = used[generation];
+        if (n == pool.length) {
+            pool = Arrays.copyOf(pool, n * 2);
+            pools[generation] = pool;
+        }
+        Token token = pool[n];
+        if (token == null) {
+            token = new Token(predecessor, state, logTotalScore, logInsertionScore, logLanguageScore, collectTime);
+            pool[n] = token;
+            tokensAllocated++;
+        } else {
+            token.reset(predecessor, state, logTotalScore, logInsertionScore, logLanguageScore, collectTime);
+        }
+        used[generation] = n + 1;
+        return token;
+    }
+
+    /** Drops all pooled tokens, for example at the end of an utterance. */
+    public void clear() {
+        for (Token[] pool : pools)
+            Arrays.fill(pool, null);
+        used[0] = used[1] = 0;
+    }
+
+    /** @return the number of tokens handed out in the current generation */
+    public int size() {
+        return used[generation];
+    }
+
+    /** @return the number of tokens created on the heap by this arena */
+    public long getTokensAllocated() {
+        return tokensAllocated;
+    }
+}
@@ -18,11 +18,15 @@ import edu.cmu.sphinx.decoder.pruner.Pruner;
 import edu.cmu.sphinx.decoder.scorer.AcousticScorer;
 import edu.cmu.sphinx.frontend.Data;
 import edu.cmu.sphinx.linguist.*;
+import edu.cmu.sphinx.linguist.language.ngram.BatchLanguageModel;
+import edu.cmu.sphinx.linguist.lextree.LexTreeLinguist;
 import edu.cmu.sphinx.result.Result;
 import edu.cmu.sphinx.util.LogMath;
 import edu.cmu.sphinx.util.StatisticsVariable;
 import edu.cmu.sphinx.util.Timer;
 import edu.cmu.sphinx.util.TimerPool;
+import edu.cmu.sphinx.util.metrics.Histogram;
+import edu.cmu.sphinx.util.metrics.MetricRegistry;
 import edu.cmu.sphinx.util.props.*;
 
 import java.io.IOException;
@@ -126,6 +130,9 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
     protected float relativeBeamWidth;
     protected float acousticLookaheadFrames;
     private int maxLatticeEdges = 100;
+    private LexTreeLinguist batchLinguist;
+    private BatchLanguageModel batchLanguageModel;
+    private final List<WordSequence> wordSequences = new ArrayList<WordSequence>();
 
     // -----------------------------------
     // Instrumentation
@@ -136,6 +143,7 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
     protected StatisticsVariable totalTokensScored;
     protected StatisticsVariable curTokensScored;
     protected StatisticsVariable tokensCreated;
+    protected Histogram activeTokens;
     private long tokenSum;
     private int tokenCount;
 
@@ -238,6 +246,7 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
         totalTokensScored = StatisticsVariable.getStatisticsVariable("totalTokensScored");
         curTokensScored = StatisticsVariable.getStatisticsVariable("curTokensScored");
         tokensCreated = StatisticsVariable.getStatisticsVariable("tokensCreated");
+        activeTokens = MetricRegistry.getRegistry().getHistogram("search.activeTokens");
 
         try {
             linguist.allocate();
@@ -246,6 +255,12 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
         } catch (IOException e) {
             throw new RuntimeException("Allocation of search manager resources failed", e);
         }
+
+        if (linguist instanceof LexTreeLinguist
+                && ((LexTreeLinguist) linguist).getLanguageModel() instanceof BatchLanguageModel) {
+            batchLinguist = (LexTreeLinguist) linguist;
+            batchLanguageModel = (BatchLanguageModel) batchLinguist.getLanguageModel();
+        }
     }
 
     /*
@@ -433,11 +448,31 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
             if (activeList != null) {
                 i.remove();
                 pruneBranches();
+                prefetchLanguageProbabilities();
                 growBranches();
             }
         }
     }
 
+    /**
+     * Passes the word sequences the tokens within the beam are going to be
+     * scored with to the language model in one batch, if the model supports
+     * it. Otherwise every word expansion would wait for its own answer.
+     */
+    private void prefetchLanguageProbabilities() {
+        if (batchLanguageModel == null)
+            return;
+        float relativeBeamThreshold = activeList.getBeamThreshold();
+        for (Token token : activeList) {
+            if (token.getScore() >= relativeBeamThreshold && allowExpansion(token))
+                batchLinguist.collectWordSequences(token.getSearchState(), wordSequences);
+        }
+        if (!wordSequences.isEmpty()) {
+            batchLanguageModel.prefetch(wordSequences);
+            wordSequences.clear();
+        }
+    }
+
     /**
      * Calculate the acoustic scores for the active list. The active list should
      * contain only emitting tokens.
@@ -472,6 +507,7 @@ public class WordPruningBreadthFirstSearchManager extends TokenSearchManager {
 
         curTokensScored.value += activeList.size();
         totalTokensScored.value += activeList.size();
+        activeTokens.record(activeList.size());
 
         return moreTokens;
     }
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.frontend;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.cmu.sphinx.util.props.PropertyException;
+import edu.cmu.sphinx.util.props.PropertySheet;
+import edu.cmu.sphinx.util.props.S4Integer;
+
+/**
+ * Runs the processors preceding it in the pipeline on a thread of its own.
+ * The thread pulls Data from the predecessor ahead of the consumer and stores
+ * it in a bounded ring buffer, so feature extraction overlaps with the search
+ * on another core:
+ * <pre>
+ * ... windower, dft, denoise, dct, async, liveCMN, featureExtraction ...
+ * </pre>
+ * Data and signals are returned in the order the predecessor produced them.
+ * When the buffer is full the thread waits until the consumer takes a frame.
+ * <p>
+ * The thread is started by the first call of {@link #getData()} and stops
+ * after it has read a {@link DataEndSignal} or <code>null</code> from the
+ * predecessor, so nothing is read from the source before the data of the
+ * previous stream have been consumed. This makes it possible to set a new
+ * input stream on the source between utterances, as in synchronous decoding.
+ * Exceptions thrown by the predecessor are rethrown by {@link #getData()}
+ * once the Data produced before have been returned.
+ * <p>
+ * The ring buffer has a single producer and a single consumer and is
+ * synchronized through its read and write counters only. The number of
+ * frames in the buffer shows how far the front end runs ahead of the
+ * decoder and is available from {@link #getOccupancy()} and
+ * {@link #getAverageOccupancy()}.
+ */
+public class AsyncDataProcessor extends BaseDataProcessor {
+
+    /** The property for the number of Data objects the ring buffer holds. */
+    @S4Integer(defaultValue = 256)
+    public static final String PROP_CAPACITY = "capacity";
+
+    /** Time a waiting thread sleeps before it checks the buffer again. */
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /** Stored in the buffer for a <code>null</code> from the predecessor. */
+    private static final Data END = new Data() {
+    };
+
+    private Data[] ring;
+    private int mask;
+
+    /** Number of Data objects written so far, updated by the producer. */
+    private final AtomicLong written = new AtomicLong();
+    /** Number of Data objects read so far, updated by the consumer. */
+    private final AtomicLong read = new AtomicLong();
+
+    private volatile Thread producer;
+    private volatile Thread waitingConsumer;
+    private volatile boolean running;
+    private volatile Throwable failure;
+
+    private long occupancySum;
+    private long occupancySamples;
+    private final AtomicLong producerStalls = new AtomicLong();
+    private long consumerStalls;
+
+    /**
+     * @param capacity number of Data objects the ring buffer holds, rounded
+     *                 up to a power of two
+     */
+    public AsyncDataProcessor(int capacity) {
+        initLogger();
+        init(capacity);
+    }
+
+    public AsyncDataProcessor() {
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see
+     * edu.cmu.sphinx.util.props.Configurable#newProperties(edu.cmu.sphinx.util
+     * .props.PropertySheet)
+     */
+    @Override
+    public void newProperties(PropertySheet ps) throws PropertyException {
+        super.newProperties(ps);
+        init(ps.getInt(PROP_CAPACITY));
+    }
+
+    private void init(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive: "
+                    + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        ring = new Data[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Stops the thread reading from the predecessor and discards the buffered
+     * Data.
+     */
+    @Override
+    public void initialize() {
+        super.initialize();
+        stop();
+        for (int i = 0; i < ring.length; i++)
+            ring[i] = null;
+        written.set(0);
+        read.set(0);
+        failure = null;
+        occupancySum = 0;
+        occupancySamples = 0;
+        producerStalls.set(0);
+        consumerStalls = 0;
+    }
+
+    /**
+     * Stops the thread reading from the predecessor. Data already in the
+     * buffer can still be read, the thread is started again when the buffer
+     * becomes empty.
+     */
+    public void stop() {
+        Thread thread = producer;
+        if (thread == null)
+            return;
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the next Data object read from the predecessor by the
+     * producer thread, waiting for it if the buffer is empty.
+     *
+     * @return the next Data object, or null if the predecessor returned null
+     * @throws DataProcessingException if the predecessor failed
+     */
+    @Override
+    public Data getData() throws DataProcessingException {
+        long position = read.get();
+        if (written.get() == position) {
+            consumerStalls++;
+            waitingConsumer = Thread.currentThread();
+            while (true) {
+                // Read the flag first, the producer clears it after its
+                // last write
+                boolean producing = running;
+                if (written.get() != position)
+                    break;
+                if (!producing)
+                    start();
+                LockSupport.parkNanos(this, MAX_WAIT_NANOS);
+                if (Thread.interrupted()) {
+                    waitingConsumer = null;
+                    throw new DataProcessingException(
+                            "Interrupted while waiting for data");
+                }
+            }
+            waitingConsumer = null;
+        }
+
+        occupancySum += written.get() - position;
+        occupancySamples++;
+
+        int index = (int) position & mask;
+        Data data = ring[index];
+        ring[index] = null;
+        read.lazySet(position + 1);
+
+        Thread thread = producer;
+        if (thread != null)
+            LockSupport.unpark(thread);
+
+        if (data == END) {
+            Throwable t = failure;
+            if (t != null) {
+                failure = null;
+                if (t instanceof DataProcessingException)
+                    throw (DataProcessingException) t;
+                throw new DataProcessingException(t);
+            }
+            return null;
+        }
+        if (data instanceof DataEndSignal)
+            logger.fine("Average ring buffer occupancy " + getAverageOccupancy());
+        return data;
+    }
+
+    private void start() {
+        running = true;
+        Thread thread = new Thread(new Producer(), getName() + "-producer");
+        thread.setDaemon(true);
+        producer = thread;
+        thread.start();
+    }
+
+    /** Reads Data from the predecessor into the ring buffer. */
+    private class Producer implements Runnable {
+
+        public void run() {
+            try {
+                Data data;
+                do {
+                    data = getPredecessor().getData();
+                    if (!put(data == null ? END : data))
+                        return;
+                } while (data != null && !(data instanceof DataEndSignal));
+            } catch (Throwable t) {
+                if (running) {
+                    failure = t;
+                    put(END);
+                }
+            } finally {
+                producer = null;
+                running = false;
+            }
+        }
+
+        private boolean put(Data data) {
+            long position = written.get();
+            if (position - read.get() == ring.length) {
+                producerStalls.incrementAndGet();
+                while (position - read.get() == ring.length) {
+                    if (!running)
+                        return false;
+                    LockSupport.parkNanos(this, MAX_WAIT_NANOS);
+                }
+            }
+            ring[(int) position & mask] = data;
+            written.lazySet(position + 1);
+
+            Thread consumer = waitingConsumer;
+            if (consumer != null)
+                LockSupport.unpark(consumer);
+            return true;
+        }
+    }
+
+    /** @return the number of Data objects the ring buffer holds */
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /** @return the number of Data objects currently in the ring buffer */
+    public int getOccupancy() {
+        return (int) (written.get() - read.get());
+    }
+
+    /**
+     * Returns the average number of Data objects in the ring buffer seen by
+     * {@link #getData()} since the last initialization. A value close to zero
+     * means the front end is the bottleneck, a value close to the capacity
+     * means the decoder is.
+     *
+     * @return the average occupancy of the ring buffer
+     */
+    public double getAverageOccupancy() {
+        return occupancySamples == 0 ? 0.0
+                : (double) occupancySum / occupancySamples;
+    }
+
+    /** @return how often the producer found the ring buffer full */
+    public long getProducerStalls() {
+        return producerStalls.get();
+    }
+
+    /** @return how often {@link #getData()} found the ring buffer empty */
+    public long getConsumerStalls() {
+        return consumerStalls;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.frontend;
+
+import java.io.IOException;
+
+import edu.cmu.sphinx.frontend.frequencywarp.MelFrequencyFilterBank;
+import edu.cmu.sphinx.frontend.frequencywarp.MelFrequencyFilterBank2;
+import edu.cmu.sphinx.frontend.frequencywarp.SparseFilterBank;
+import edu.cmu.sphinx.frontend.transform.DiscreteFourierTransform;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Loader;
+import edu.cmu.sphinx.util.props.PropertyException;
+import edu.cmu.sphinx.util.props.PropertySheet;
+import edu.cmu.sphinx.util.props.S4Integer;
+
+/**
+ * Computes the MFCC cepstrum of windowed audio frames in a single pipeline
+ * stage. It replaces a {@link DiscreteFourierTransform} followed by an
+ * {@link AutoCepstrum} and is configured the same way from the feat.params
+ * of the acoustic model: the power spectrum, the mel filter bank, the
+ * optional denoising, the DCT and the optional lifter are computed one after
+ * another for every frame, without passing intermediate {@link DoubleData}
+ * objects between processors.
+ * <p>
+ * The power spectrum and the mel spectrum are kept in buffers reused for
+ * every frame and the mel filters are applied from a {@link SparseFilterBank}.
+ * Every step calls the same code as the corresponding processor, so the
+ * cepstra are identical to the ones of the modular pipeline. A typical
+ * pipeline is
+ * <pre>
+ * ... preemphasizer, windower, fusedMfcc, liveCMN, featureExtraction ...
+ * </pre>
+ * Cepstral mean normalization and the deltas stay separate processors since
+ * they look at several frames.
+ */
+public class FusedMfccFrontEnd extends AutoCepstrum {
+
+    /** The property for the number of points in the Fourier Transform. */
+    @S4Integer(defaultValue = -1)
+    public static final String PROP_NUMBER_FFT_POINTS = "numberFftPoints";
+
+    private DataProcessor predecessor;
+    private DiscreteFourierTransform fft;
+    private SparseFilterBank filters;
+    private int sampleRate;
+
+    private double[] spectrum;
+    private double[] melSpectrum;
+
+    public FusedMfccFrontEnd(Loader loader, int numberFftPoints) throws IOException {
+        super(loader);
+        fft = new DiscreteFourierTransform(numberFftPoints, false);
+    }
+
+    public FusedMfccFrontEnd() {
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see
+     * edu.cmu.sphinx.util.props.Configurable#newProperties(edu.cmu.sphinx.util
+     * .props.PropertySheet)
+     */
+    @Override
+    public void newProperties(PropertySheet ps) throws PropertyException {
+        super.newProperties(ps);
+        fft = new DiscreteFourierTransform(ps.getInt(PROP_NUMBER_FFT_POINTS), false);
+    }
+
+    @Override
+    public void initialize() {
+        super.initialize();
+        fft.initialize();
+        filters = null;
+    }
+
+    @Override
+    public DataProcessor getPredecessor() {
+        return predecessor;
+    }
+
+    @Override
+    public void setPredecessor(DataProcessor predecessor) {
+        this.predecessor = predecessor;
+    }
+
+    /**
+     * Returns the cepstrum of the next audio frame. Signals are returned
+     * unmodified.
+     *
+     * @return the next cepstrum or Signal, or null if no Data is available
+     * @throws DataProcessingException if a data processor error occurs
+     */
+    @Override
+    public Data getData() throws DataProcessingException {
+        Data input = getPredecessor().getData();
+
+        if (input instanceof DoubleData) {
+            input = process((DoubleData) input);
+        } else if (input instanceof DataStartSignal && denoise != null) {
+            denoise.reset();
+        }
+        return input;
+    }
+
+    private DoubleData process(DoubleData input) {
+        spectrum = fft.powerSpectrum(input.getValues(), spectrum);
+
+        if (filters == null || sampleRate != input.getSampleRate()) {
+            sampleRate = input.getSampleRate();
+            filters = createFilters(sampleRate, (spectrum.length - 1) << 1);
+            melSpectrum = new double[filters.getNumberFilters()];
+        }
+        filters.apply(spectrum, melSpectrum);
+
+        if (denoise != null)
+            denoise.denoise(melSpectrum);
+
+        double[] cepstrum = dct.computeCepstrum(melSpectrum);
+
+        if (lifter != null)
+            lifter.liftCepstrum(cepstrum);
+
+        return new DoubleData(cepstrum, input.getSampleRate(),
+                input.getFirstSampleNumber());
+    }
+
+    private SparseFilterBank createFilters(int sampleRate, int numberFftPoints) {
+        if (filterBank instanceof MelFrequencyFilterBank)
+            return ((MelFrequencyFilterBank) filterBank)
+                    .createSparseFilterBank(sampleRate, numberFftPoints);
+        if (filterBank instanceof MelFrequencyFilterBank2)
+            return ((MelFrequencyFilterBank2) filterBank)
+                    .createSparseFilterBank(sampleRate, numberFftPoints);
+        throw new IllegalStateException("Unsupported filter bank " + filterBank);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.frontend;
+
+import edu.cmu.sphinx.frontend.frequencywarp.PLPCepstrumProducer;
+import edu.cmu.sphinx.frontend.frequencywarp.PLPFrequencyFilterBank;
+import edu.cmu.sphinx.frontend.frequencywarp.SparseFilterBank;
+import edu.cmu.sphinx.frontend.transform.DiscreteFourierTransform;
+import edu.cmu.sphinx.util.props.PropertyException;
+import edu.cmu.sphinx.util.props.PropertySheet;
+import edu.cmu.sphinx.util.props.S4Double;
+import edu.cmu.sphinx.util.props.S4Integer;
+
+/**
+ * Computes the PLP cepstrum of windowed audio frames in a single pipeline
+ * stage. It replaces a {@link DiscreteFourierTransform} followed by a
+ * {@link PLPFrequencyFilterBank} and a {@link PLPCepstrumProducer} and takes
+ * the same properties as these processors.
+ * <p>
+ * The power spectrum and the PLP spectrum are kept in buffers reused for
+ * every frame and the critical band filters are applied from a
+ * {@link SparseFilterBank}. The cepstra are identical to the ones of the
+ * modular pipeline.
+ *
+ * @see FusedMfccFrontEnd
+ */
+public class FusedPlpFrontEnd extends BaseDataProcessor {
+
+    /** The property for the number of points in the Fourier Transform. */
+    @S4Integer(defaultValue = -1)
+    public static final String PROP_NUMBER_FFT_POINTS = "numberFftPoints";
+
+    /** The property for the number of filters in the filterbank. */
+    @S4Integer(defaultValue = 32)
+    public static final String PROP_NUMBER_FILTERS = "numberFilters";
+
+    /** The property for the minimum frequency covered by the filterbank. */
+    @S4Double(defaultValue = 130.0)
+    public static final String PROP_MIN_FREQ = "minimumFrequency";
+
+    /** The property for the maximum frequency covered by the filterbank. */
+    @S4Double(defaultValue = 3600.0)
+    public static final String PROP_MAX_FREQ = "maximumFrequency";
+
+    /** The property for the size of the cepstrum */
+    @S4Integer(defaultValue = 13)
+    public static final String PROP_CEPSTRUM_LENGTH = "cepstrumLength";
+
+    /** The property for the LPC order */
+    @S4Integer(defaultValue = 14)
+    public static final String PROP_LPC_ORDER = "lpcOrder";
+
+    private DiscreteFourierTransform fft;
+    private PLPFrequencyFilterBank filterBank;
+    private PLPCepstrumProducer cepstrumProducer;
+    private SparseFilterBank filters;
+    private int sampleRate;
+
+    private double[] spectrum;
+    private double[] plpSpectrum;
+
+    public FusedPlpFrontEnd(int numberFftPoints, double minFreq, double maxFreq,
+                            int numberFilters, int cepstrumSize, int lpcOrder) {
+        initLogger();
+        init(numberFftPoints, minFreq, maxFreq, numberFilters, cepstrumSize, lpcOrder);
+    }
+
+    public FusedPlpFrontEnd() {
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see
+     * edu.cmu.sphinx.util.props.Configurable#newProperties(edu.cmu.sphinx.util
+     * .props.PropertySheet)
+     */
+    @Override
+    public void newProperties(PropertySheet ps) throws PropertyException {
+        super.newProperties(ps);
+        init(ps.getInt(PROP_NUMBER_FFT_POINTS),
+             ps.getDouble(PROP_MIN_FREQ),
+             ps.getDouble(PROP_MAX_FREQ),
+             ps.getInt(PROP_NUMBER_FILTERS),
+             ps.getInt(PROP_CEPSTRUM_LENGTH),
+             ps.getInt(PROP_LPC_ORDER));
+    }
+
+    private void init(int numberFftPoints, double minFreq, double maxFreq,
+                      int numberFilters, int cepstrumSize, int lpcOrder) {
+        fft = new DiscreteFourierTransform(numberFftPoints, false);
+        filterBank = new PLPFrequencyFilterBank(minFreq, maxFreq, numberFilters);
+        cepstrumProducer = new PLPCepstrumProducer(numberFilters, cepstrumSize, lpcOrder);
+        plpSpectrum = new double[numberFilters];
+    }
+
+    @Override
+    public void initialize() {
+        super.initialize();
+        fft.initialize();
+        filterBank.initialize();
+        cepstrumProducer.initialize();
+        filters = null;
+    }
+
+    /**
+     * Returns the PLP cepstrum of the next audio frame. Signals are returned
+     * unmodified.
+     *
+     * @return the next cepstrum or Signal, or null if no Data is available
+     * @throws DataProcessingException if a data processor error occurs
+     */
+    @Override
+    public Data getData() throws DataProcessingException {
+        Data input = getPredecessor().getData();
+        if (input instanceof DoubleData) {
+            input = process((DoubleData) input);
+        }
+        return input;
+    }
+
+    private DoubleData process(DoubleData input) {
+        spectrum = fft.powerSpectrum(input.getValues(), spectrum);
+
+        if (filters == null || sampleRate != input.getSampleRate()) {
+            sampleRate = input.getSampleRate();
+            filters = filterBank.createSparseFilterBank(sampleRate,
+                    (spectrum.length - 1) << 1);
+        }
+        filters.apply(spectrum, plpSpectrum);
+
+        double[] cepstrum = cepstrumProducer.computeCepstrum(plpSpectrum);
+        return new DoubleData(cepstrum, input.getSampleRate(),
+                input.getFirstSampleNumber());
+    }
+}
@@ -42,6 +42,11 @@ public class Denoise extends BaseDataProcessor {
     double[] floor;
     double[] peak;
 
+    // buffers reused for every frame
+    double[] signal;
+    double[] gain;
+    double[] smoothGain;
+
     @S4Double(defaultValue = 0.7)
     public final static String LAMBDA_POWER = "lambdaPower";
     double lambdaPower;
@@ -109,21 +114,38 @@ public class Denoise extends BaseDataProcessor {
     @Override
     public Data getData() throws DataProcessingException {
         Data inputData = getPredecessor().getData();
-        int i;
 
         if (inputData instanceof DataStartSignal) {
-            power = null;
-            noise = null;
-            floor = null;
-            peak = null;
+            reset();
             return inputData;
         }
         if (!(inputData instanceof DoubleData)) {
             return inputData;
         }
 
-        DoubleData inputDoubleData = (DoubleData) inputData;
-        double[] input = inputDoubleData.getValues();
+        denoise(((DoubleData) inputData).getValues());
+        return inputData;
+    }
+
+    /**
+     * Forgets the noise statistics, the next spectrum starts a new
+     * estimation.
+     */
+    public void reset() {
+        power = null;
+        noise = null;
+        floor = null;
+        peak = null;
+    }
+
+    /**
+     * Removes the estimated noise from a spectrum and updates the noise
+     * statistics with it.
+     * 
+     * @param input spectrum, denoised in place
+     */
+    public void denoise(double[] input) {
+        int i;
         int length = input.length;
 
         if (power == null)
@@ -133,7 +155,6 @@ public class Denoise extends BaseDataProcessor {
 
         estimateEnvelope(power, noise);
 
-        double[] signal = new double[length];
         for (i = 0; i < length; i++) {
             signal[i] = Math.max(power[i] - noise[i], 0.0);
         }
@@ -144,22 +165,18 @@ public class Denoise extends BaseDataProcessor {
 
         powerBoosting(signal);
 
-        double[] gain = new double[length];
         for (i = 0; i < length; i++) {
             gain[i] = signal[i] / (power[i] + EPS);
             gain[i] = Math.min(Math.max(gain[i], 1.0 / maxGain), maxGain);
         }
-        double[] smoothGain = smooth(gain);
+        smooth(gain, smoothGain);
 
         for (i = 0; i < length; i++) {
             input[i] *= smoothGain[i];
         }
-
-        return inputData;
     }
 
-    private double[] smooth(double[] gain) {
-        double[] result = new double[gain.length];
+    private void smooth(double[] gain, double[] result) {
         for (int i = 0; i < gain.length; i++) {
             int start = Math.max(i - smoothWindow, 0);
             int end = Math.min(i + smoothWindow + 1, gain.length);
@@ -169,7 +186,6 @@ public class Denoise extends BaseDataProcessor {
             }
             result[i] = sum / (end - start);
         }
-        return result;
     }
 
     private void powerBoosting(double[] signal) {
@@ -213,6 +229,9 @@ public class Denoise extends BaseDataProcessor {
         noise = Arrays.copyOf(input, length);
         floor = new double[length];
         peak = new double[length];
+        signal = new double[length];
+        gain = new double[length];
+        smoothGain = new double[length];
         for (int i = 0; i < length; i++) {
             floor[i] = input[i] / maxGain;
         }
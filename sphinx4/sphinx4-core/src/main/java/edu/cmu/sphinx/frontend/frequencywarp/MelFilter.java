@@ -140,6 +140,18 @@ public class MelFilter {
     }
 
 
+    /** @return the index of the first frequency bin in the pass band */
+    int getInitialFreqIndex() {
+        return initialFreqIndex;
+    }
+
+
+    /** @return the weights of the frequency bins starting at the initial one */
+    double[] getWeights() {
+        return weight;
+    }
+
+
     /**
      * Compute the output of a filter. We're given a power spectrum, to which we apply the appropriate weights.
      *
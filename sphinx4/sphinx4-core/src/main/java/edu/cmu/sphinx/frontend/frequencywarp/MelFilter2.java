@@ -69,6 +69,14 @@ public class MelFilter2 {
         weights = copyOfRange(heights, firstIndex, lastIndex + 1);
     }
 
+    int getOffset() {
+        return offset;
+    }
+
+    double[] getWeights() {
+        return weights;
+    }
+
     public double apply(double[] powerSpectrum) {
         double result = 0;
         for (int i = 0; i < weights.length; ++i)
@@ -85,6 +85,7 @@ public class MelFrequencyFilterBank extends BaseDataProcessor {
     private double minFreq;
     private double maxFreq;
     private MelFilter[] filter;
+    private SparseFilterBank filterBank;
 
 
     public MelFrequencyFilterBank(double minFreq, double maxFreq, int numberFilters) {
@@ -244,6 +245,32 @@ public class MelFrequencyFilterBank extends BaseDataProcessor {
     }
 
 
+    /**
+     * Builds the filterbank for power spectra of the given sample rate and number of FFT points.
+     *
+     * @param sampleRate      sample rate of the audio
+     * @param numberFftPoints number of points of the FFT the power spectra are computed with
+     * @return the weights of the filters in sparse form
+     * @throws IllegalArgumentException if the filters can't be built for the parameters
+     */
+    public SparseFilterBank createSparseFilterBank(int sampleRate, int numberFftPoints)
+            throws IllegalArgumentException {
+        this.sampleRate = sampleRate;
+        this.numberFftPoints = numberFftPoints;
+        buildFilterbank(numberFftPoints, numberFilters, minFreq, maxFreq);
+
+        int[] offsets = new int[numberFilters];
+        double[][] weights = new double[numberFilters][];
+        for (int i = 0; i < numberFilters; i++) {
+            offsets[i] = filter[i].getInitialFreqIndex();
+            weights[i] = filter[i].getWeights();
+        }
+        filterBank = new SparseFilterBank((numberFftPoints >> 1) + 1,
+                offsets, weights, null);
+        return filterBank;
+    }
+
+
     /**
      * Process data, creating the power spectrum from an input audio frame.
      *
@@ -256,10 +283,8 @@ public class MelFrequencyFilterBank extends BaseDataProcessor {
             throws IllegalArgumentException {
         double[] in = input.getValues();
 
-        if (filter == null || sampleRate != input.getSampleRate()) {
-            numberFftPoints = (in.length - 1) << 1;
-            sampleRate = input.getSampleRate();
-            buildFilterbank(numberFftPoints, numberFilters, minFreq, maxFreq);
+        if (filterBank == null || sampleRate != input.getSampleRate()) {
+            createSparseFilterBank(input.getSampleRate(), (in.length - 1) << 1);
         } else if (in.length != ((numberFftPoints >> 1) + 1)) {
             throw new IllegalArgumentException(
                     "Window size is incorrect: in.length == " + in.length
@@ -270,9 +295,7 @@ public class MelFrequencyFilterBank extends BaseDataProcessor {
         /**
          * Filter input power spectrum
          */
-        for (int i = 0; i < numberFilters; i++) {
-            output[i] = filter[i].filterOutput(in);
-        }
+        filterBank.apply(in, output);
         DoubleData outputMelSpectrum = new DoubleData(output,
                 sampleRate, input.getFirstSampleNumber());
         return outputMelSpectrum;
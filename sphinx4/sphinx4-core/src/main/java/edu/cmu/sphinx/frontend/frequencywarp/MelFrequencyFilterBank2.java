@@ -118,6 +118,7 @@ public class MelFrequencyFilterBank2 extends BaseDataProcessor {
     private double maxFreq;
 
     private MelFilter2[] filters;
+    private SparseFilterBank filterBank;
 
     public MelFrequencyFilterBank2(double minFreq, double maxFreq,
             int numberFilters) {
@@ -211,6 +212,31 @@ public class MelFrequencyFilterBank2 extends BaseDataProcessor {
         }
     }
 
+    /**
+     * Builds the filterbank for power spectra of the given sample rate and
+     * window length.
+     *
+     * @param sampleRate   sample rate of the audio
+     * @param windowLength number of points of the FFT the power spectra are
+     *                     computed with
+     * @return the weights of the filters in sparse form
+     */
+    public SparseFilterBank createSparseFilterBank(int sampleRate,
+            int windowLength) {
+        this.sampleRate = sampleRate;
+        buildFilterbank(windowLength, numberFilters, minFreq, maxFreq);
+
+        int[] offsets = new int[numberFilters];
+        double[][] weights = new double[numberFilters][];
+        for (int i = 0; i < numberFilters; i++) {
+            offsets[i] = filters[i].getOffset();
+            weights[i] = filters[i].getWeights();
+        }
+        filterBank = new SparseFilterBank((windowLength >> 1) + 1, offsets,
+                weights, null);
+        return filterBank;
+    }
+
     /**
      * Process data, creating the power spectrum from an input audio frame.
      *
@@ -223,9 +249,8 @@ public class MelFrequencyFilterBank2 extends BaseDataProcessor {
         double[] in = input.getValues();
         int windowLength = (in.length - 1) << 1;
 
-        if (filters == null || sampleRate != input.getSampleRate()) {
-            sampleRate = input.getSampleRate();
-            buildFilterbank(windowLength, numberFilters, minFreq, maxFreq);
+        if (filterBank == null || sampleRate != input.getSampleRate()) {
+            createSparseFilterBank(input.getSampleRate(), windowLength);
         } else if (in.length != ((windowLength >> 1) + 1)) {
             throw new IllegalArgumentException("Window size is incorrect: in.length == "
                     + in.length
@@ -234,8 +259,7 @@ public class MelFrequencyFilterBank2 extends BaseDataProcessor {
         }
 
         double[] output = new double[numberFilters];
-        for (int i = 0; i < numberFilters; i++)
-            output[i] = filters[i].apply(in);
+        filterBank.apply(in, output);
 
         DoubleData outputMelSpectrum = new DoubleData(output,
                 sampleRate,
@@ -51,6 +51,8 @@ public class PLPCepstrumProducer extends BaseDataProcessor {
     private int LPCOrder;           // LPC Order to compute cepstrum
     private int numberPLPFilters;   // number of PLP filters
     private double[][] cosine;
+    private double[] compressedspectrum;
+    private double[] autocor;
 
     public PLPCepstrumProducer(int numberPLPFilters,int cepstrumSize,int LPCOrder) {
         initLogger();
@@ -108,7 +110,9 @@ public class PLPCepstrumProducer extends BaseDataProcessor {
      * @param inspectrum
      */
     private double[] powerLawCompress(double[] inspectrum) {
-        double[] compressedspectrum = new double[inspectrum.length];
+        if (compressedspectrum == null || compressedspectrum.length != inspectrum.length) {
+            compressedspectrum = new double[inspectrum.length];
+        }
 
         for (int i = 0; i < inspectrum.length; i++) {
             compressedspectrum[i] = Math.pow(inspectrum[i], 1.0 / 3.0);
@@ -149,8 +153,25 @@ public class PLPCepstrumProducer extends BaseDataProcessor {
      */
     private Data process(DoubleData input) throws IllegalArgumentException {
 
-        double[] plpspectrum = input.getValues();
+        double[] cepstrumDouble = computeCepstrum(input.getValues());
+
+        DoubleData cepstrum = new DoubleData
+                (cepstrumDouble, input.getSampleRate(),
+                        input.getFirstSampleNumber());
+
+        return cepstrum;
+    }
 
+
+    /**
+     * Computes the PLP cepstrum of a PLP spectrum. The spectrum is not modified, intermediate values are kept in
+     * buffers reused for every frame.
+     *
+     * @param plpspectrum the PLP spectrum
+     * @return the PLP cepstrum
+     * @throws IllegalArgumentException if the spectrum is not of the configured size
+     */
+    public double[] computeCepstrum(double[] plpspectrum) throws IllegalArgumentException {
         if (plpspectrum.length != numberPLPFilters) {
             throw new IllegalArgumentException
                     ("PLPSpectrum size is incorrect: plpspectrum.length == " +
@@ -159,22 +180,16 @@ public class PLPCepstrumProducer extends BaseDataProcessor {
         }
 
         // power law compress spectrum
-        double[] compressedspectrum = powerLawCompress(plpspectrum);
+        powerLawCompress(plpspectrum);
 
         // compute autocorrelation values
-        double[] autocor = applyCosine(compressedspectrum);
+        applyCosine(compressedspectrum);
 
         LinearPredictor LPC = new LinearPredictor(LPCOrder);
         // Compute LPC Parameters
         LPC.getARFilter(autocor);
         // Compute LPC Cepstra
-        double[] cepstrumDouble = LPC.getData(cepstrumSize);
-
-        DoubleData cepstrum = new DoubleData
-                (cepstrumDouble, input.getSampleRate(),
-                        input.getFirstSampleNumber());
-
-        return cepstrum;
+        return LPC.getData(cepstrumSize);
     }
 
 
@@ -186,7 +201,9 @@ public class PLPCepstrumProducer extends BaseDataProcessor {
      */
     private double[] applyCosine(double[] plpspectrum) {
 
-        double[] autocor = new double[LPCOrder + 1];
+        if (autocor == null) {
+            autocor = new double[LPCOrder + 1];
+        }
         double period = numberPLPFilters;
         double beta = 0.5f;
 
@@ -196,6 +213,7 @@ public class PLPCepstrumProducer extends BaseDataProcessor {
             if (numberPLPFilters > 0) {
                 double[] cosine_i = cosine[i];
                 int j = 0;
+                autocor[i] = 0;
                 autocor[i] += (beta * plpspectrum[j] * cosine_i[j]);
 
                 for (j = 1; j < numberPLPFilters; j++) {
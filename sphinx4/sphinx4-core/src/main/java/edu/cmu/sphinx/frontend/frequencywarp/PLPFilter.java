@@ -94,6 +94,12 @@ public class PLPFilter {
     }
 
 
+    /** @return the weights of all DFT points */
+    double[] getCoefficients() {
+        return filterCoefficients;
+    }
+
+
     /**
      * Compute the PLP spectrum at the center frequency of this filter for a given power spectrum.
      *
@@ -12,6 +12,8 @@
 
 package edu.cmu.sphinx.frontend.frequencywarp;
 
+import java.util.Arrays;
+
 import edu.cmu.sphinx.frontend.BaseDataProcessor;
 import edu.cmu.sphinx.frontend.Data;
 import edu.cmu.sphinx.frontend.DataProcessingException;
@@ -54,6 +56,7 @@ public class PLPFrequencyFilterBank extends BaseDataProcessor {
     private double maxFreq;
     private PLPFilter[] criticalBandFilter;
     private double[] equalLoudnessScaling;
+    private SparseFilterBank filterBank;
 
 
     public PLPFrequencyFilterBank(double minFreq, double maxFreq, int numberFilters) {
@@ -181,6 +184,42 @@ public class PLPFrequencyFilterBank extends BaseDataProcessor {
     }
 
 
+    /**
+     * Builds the critical band filters and the equal loudness scaling for power spectra of the given sample rate and
+     * number of FFT points. The scaling is folded into the returned filter bank. Since the filters are zero outside
+     * of their pass band, only the range of DFT points between the first and the last nonzero weight is kept.
+     *
+     * @param sampleRate      sample rate of the audio
+     * @param numberFftPoints number of points of the FFT the power spectra are computed with
+     * @return the weights of the filters in sparse form
+     * @throws IllegalArgumentException if the filters can't be built for the parameters
+     */
+    public SparseFilterBank createSparseFilterBank(int sampleRate, int numberFftPoints)
+            throws IllegalArgumentException {
+        this.sampleRate = sampleRate;
+        this.numberFftPoints = numberFftPoints;
+        buildCriticalBandFilterbank();
+        buildEqualLoudnessScalingFactors();
+
+        int[] offsets = new int[numberFilters];
+        double[][] weights = new double[numberFilters][];
+        for (int i = 0; i < numberFilters; i++) {
+            double[] coefficients = criticalBandFilter[i].getCoefficients();
+            int first = 0;
+            while (first < coefficients.length && coefficients[first] == 0.0)
+                first++;
+            int last = coefficients.length;
+            while (last > first && coefficients[last - 1] == 0.0)
+                last--;
+            offsets[i] = first;
+            weights[i] = Arrays.copyOfRange(coefficients, first, last);
+        }
+        filterBank = new SparseFilterBank((numberFftPoints >> 1) + 1,
+                offsets, weights, equalLoudnessScaling);
+        return filterBank;
+    }
+
+
     /**
      * Process data, creating the power spectrum from an input audio frame.
      *
@@ -194,12 +233,9 @@ public class PLPFrequencyFilterBank extends BaseDataProcessor {
 
         double[] in = input.getValues();
 
-        if (criticalBandFilter == null ||
+        if (filterBank == null ||
                 sampleRate != input.getSampleRate()) {
-            numberFftPoints = (in.length - 1) << 1;
-            sampleRate = input.getSampleRate();
-            buildCriticalBandFilterbank();
-            buildEqualLoudnessScalingFactors();
+            createSparseFilterBank(input.getSampleRate(), (in.length - 1) << 1);
 
         } else if (in.length != ((numberFftPoints >> 1) + 1)) {
             throw new IllegalArgumentException
@@ -210,14 +246,10 @@ public class PLPFrequencyFilterBank extends BaseDataProcessor {
         double[] outputPLPSpectralArray = new double[numberFilters];
 
         /**
-         * Filter input power spectrum
+         * Filter input power spectrum, computing the critical band filter
+         * output and then scaling it for equal loudness preemphasis
          */
-        for (int i = 0; i < numberFilters; i++) {
-            // First compute critical band filter output
-            outputPLPSpectralArray[i] = criticalBandFilter[i].filterOutput(in);
-            // Then scale it for equal loudness preemphasis
-            outputPLPSpectralArray[i] *= equalLoudnessScaling[i];
-        }
+        filterBank.apply(in, outputPLPSpectralArray);
 
         DoubleData output = new DoubleData
                 (outputPLPSpectralArray, input.getSampleRate(),
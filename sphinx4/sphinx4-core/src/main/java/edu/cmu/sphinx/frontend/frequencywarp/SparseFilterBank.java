@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.frontend.frequencywarp;
+
+/**
+ * Weights of a bank of filters over a power spectrum, stored sparsely. Only
+ * the range of spectrum bins a filter covers is kept and the weights of all
+ * filters are concatenated in a single array.
+ * <p>
+ * The output of a filter is accumulated bin by bin in the same order as by
+ * {@link MelFilter}, {@link MelFilter2} and {@link PLPFilter}, so the
+ * results are identical to theirs. Applying the filter bank creates no
+ * objects.
+ */
+public class SparseFilterBank {
+
+    private final int spectrumLength;
+    private final int[] offsets;
+    private final int[] starts;
+    private final double[] weights;
+    private final double[] scales;
+
+    /**
+     * Creates the filter bank.
+     *
+     * @param spectrumLength number of bins of the power spectrum
+     * @param offsets        first spectrum bin of every filter
+     * @param weights        weights of every filter starting at its offset,
+     *                       weights past the end of the spectrum are ignored
+     * @param scales         factors applied to the output of every filter, or
+     *                       null
+     */
+    public SparseFilterBank(int spectrumLength, int[] offsets,
+                            double[][] weights, double[] scales) {
+        this.spectrumLength = spectrumLength;
+        this.scales = scales;
+        this.offsets = offsets.clone();
+        starts = new int[offsets.length + 1];
+        for (int i = 0; i < offsets.length; i++) {
+            int length = Math.max(0, Math.min(weights[i].length,
+                    spectrumLength - offsets[i]));
+            starts[i + 1] = starts[i] + length;
+        }
+        this.weights = new double[starts[offsets.length]];
+        for (int i = 0; i < offsets.length; i++)
+            System.arraycopy(weights[i], 0, this.weights, starts[i],
+                    starts[i + 1] - starts[i]);
+    }
+
+    /** @return the number of filters */
+    public int getNumberFilters() {
+        return offsets.length;
+    }
+
+    /** @return the number of bins of the power spectrum */
+    public int getSpectrumLength() {
+        return spectrumLength;
+    }
+
+    /**
+     * Filters a power spectrum.
+     *
+     * @param spectrum power spectrum
+     * @param output   array for the output of every filter
+     */
+    public void apply(double[] spectrum, double[] output) {
+        if (spectrum.length != spectrumLength)
+            throw new IllegalArgumentException("Window size is incorrect: "
+                    + "in.length == " + spectrum.length
+                    + ", spectrumLength == " + spectrumLength);
+
+        for (int i = 0; i < offsets.length; i++) {
+            double sum = 0.0;
+            int bin = offsets[i];
+            for (int j = starts[i]; j < starts[i + 1]; j++, bin++)
+                sum += spectrum[bin] * weights[j];
+            if (scales != null)
+                sum *= scales[i];
+            output[i] = sum;
+        }
+    }
+}
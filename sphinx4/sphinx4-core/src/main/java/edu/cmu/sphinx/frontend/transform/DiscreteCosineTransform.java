@@ -92,8 +92,22 @@ public class DiscreteCosineTransform extends BaseDataProcessor {
      */
     private DoubleData process(DoubleData input)
             throws IllegalArgumentException {
-        double[] melspectrum = input.getValues();
+        double[] cepstrum = computeCepstrum(input.getValues());
 
+        return new DoubleData(cepstrum, input.getSampleRate(),
+                input.getFirstSampleNumber());
+    }
+
+
+    /**
+     * Computes the mel cepstrum of a mel spectrum. The logarithm of the spectrum is taken in place.
+     *
+     * @param melspectrum a mel spectrum, replaced by its logarithm
+     * @return the mel cepstrum
+     * @throws IllegalArgumentException if the spectrum size differs from the one of the previous spectra
+     */
+    public double[] computeCepstrum(double[] melspectrum)
+            throws IllegalArgumentException {
         if (melcosine == null) {
             numberMelFilters = melspectrum.length;
             computeMelCosine();
@@ -109,13 +123,8 @@ public class DiscreteCosineTransform extends BaseDataProcessor {
             melspectrum[i] = Math.log(melspectrum[i] + LOG_FLOOR);
         }
 
-        double[] cepstrum;
-
         // create the cepstrum by apply the melcosine filter
-        cepstrum = applyMelCosine(melspectrum);
-
-        return new DoubleData(cepstrum, input.getSampleRate(),
-                input.getFirstSampleNumber());
+        return applyMelCosine(melspectrum);
     }
 
 
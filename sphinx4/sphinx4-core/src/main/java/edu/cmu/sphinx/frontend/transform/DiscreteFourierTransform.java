@@ -16,7 +16,6 @@ import edu.cmu.sphinx.frontend.BaseDataProcessor;
 import edu.cmu.sphinx.frontend.Data;
 import edu.cmu.sphinx.frontend.DataProcessingException;
 import edu.cmu.sphinx.frontend.DoubleData;
-import edu.cmu.sphinx.util.Complex;
 import edu.cmu.sphinx.util.props.*;
 
 
@@ -62,17 +61,11 @@ public class DiscreteFourierTransform extends BaseDataProcessor {
 
     private boolean isNumberFftPointsSet;
     private int numberFftPoints;
-    private int logBase2NumberFftPoints;
     private int numberDataPoints;
     private boolean invert;
 
-    private Complex[] weightFft;
-    private Complex[] inputFrame;
-    private Complex[] from;
-    private Complex[] to;
-
-    private Complex weightFftTimesFrom2;
-    private Complex tempComplex;
+    private RealFFT fft;
+    private double[] inputFrame;
 
     public DiscreteFourierTransform( int numberFftPoints, boolean invert ) {
         initLogger();
@@ -121,26 +114,8 @@ public class DiscreteFourierTransform extends BaseDataProcessor {
          * 511 are symmetrical with the ones between 1 and 254. Therefore,
          * we need only return values between 0 and 255.
          */
-        computeLogBase2(numberFftPoints);
-        createWeightFft(numberFftPoints, invert);
-        initComplexArrays();
-        weightFftTimesFrom2 = new Complex();
-        tempComplex = new Complex();
-    }
-
-
-    /** Initialize all the Complex arrays that will be necessary for FFT. */
-    private void initComplexArrays() {
-
-        inputFrame = new Complex[numberFftPoints];
-        from = new Complex[numberFftPoints];
-        to = new Complex[numberFftPoints];
-
-        for (int i = 0; i < numberFftPoints; i++) {
-            inputFrame[i] = new Complex();
-            from[i] = new Complex();
-            to[i] = new Complex();
-        }
+        fft = new RealFFT(numberFftPoints);
+        inputFrame = new double[numberFftPoints];
     }
 
 
@@ -156,43 +131,10 @@ public class DiscreteFourierTransform extends BaseDataProcessor {
             throws IllegalArgumentException {
 
         /**
-         * Create complex input sequence equivalent to the real
-         * input sequence.
-         * If the number of points is less than the window size,
-         * we incur in aliasing. If it's greater, we pad the input
-         * sequence with zeros.
-         */
-        double[] in = input.getValues();
-
-        if (numberFftPoints < in.length) {
-            int i = 0;
-            for (; i < numberFftPoints; i++) {
-                inputFrame[i].set(in[i], 0.0f);
-            }
-            for (; i < in.length; i++) {
-                tempComplex.set(in[i], 0.0f);
-                inputFrame[i % numberFftPoints].addComplex
-                        (inputFrame[i % numberFftPoints], tempComplex);
-            }
-        } else {
-            int i = 0;
-            for (; i < in.length; i++) {
-                inputFrame[i].set(in[i], 0.0f);
-            }
-            for (; i < numberFftPoints; i++) {
-                inputFrame[i].reset();
-            }
-        }
-
-        /**
-         * Create output sequence.
+         * Create output sequence and compute the power spectrum.
          */
         double[] outputSpectrum = new double[(numberFftPoints >> 1) + 1];
-
-        /**
-         * Start Fast Fourier Transform recursion
-         */
-        recurseFft(inputFrame, outputSpectrum, numberFftPoints, invert);
+        computePowerSpectrum(input.getValues(), outputSpectrum);
 
         /**
          * Return the power spectrum
@@ -206,53 +148,63 @@ public class DiscreteFourierTransform extends BaseDataProcessor {
 
 
     /**
-     * Make sure the number of points in the FFT is a power of 2 by computing its log base 2 and checking for
-     * remainders.
-     *
-     * @param numberFftPoints number of points in the FFT
-     * @throws java.lang.IllegalArgumentException
+     * Computes the power spectrum of a frame into the given array.
      *
+     * @param in     the input frame
+     * @param output array for the power spectrum
      */
-    private void computeLogBase2(int numberFftPoints)
-            throws IllegalArgumentException {
-        this.logBase2NumberFftPoints = 0;
-        for (int k = numberFftPoints; k > 1;
-             k >>= 1, this.logBase2NumberFftPoints++) {
-            if (((k % 2) != 0) || (numberFftPoints < 0)) {
-                throw new IllegalArgumentException("Not a power of 2: "
-                        + numberFftPoints);
-            }
-        }
-    }
-
+    private void computePowerSpectrum(double[] in, double[] output) {
 
-    /**
-     * Initializes the <b>weightFft[]</b> vector. <p><b>weightFft[k] = w ^ k</b></p> where: <p><b>w = exp(-2 * PI * i /
-     * N)</b></p> <p><b>i</b> is a complex number such that <b>i * i = -1</b> and <b>N</b> is the number of points in
-     * the FFT. Since <b>w</b> is complex, this is the same as</p> <p><b>Re(weightFft[k]) = cos ( -2 * PI * k /
-     * N)</b></p> <p><b>Im(weightFft[k]) = sin ( -2 * PI * k / N)</b></p>
-     *
-     * @param numberFftPoints number of points in the FFT
-     * @param invert          whether it's direct (false) or inverse (true) FFT
-     */
-    private void createWeightFft(int numberFftPoints, boolean invert) {
         /**
-         * weightFFT will have numberFftPoints/2 complex elements.
+         * Copy the input sequence into the work buffer of the FFT.
+         * If the number of points is less than the window size,
+         * we incur in aliasing. If it's greater, we pad the input
+         * sequence with zeros.
          */
-        weightFft = new Complex[numberFftPoints >> 1];
+
+        if (numberFftPoints < in.length) {
+            System.arraycopy(in, 0, inputFrame, 0, numberFftPoints);
+            for (int i = numberFftPoints; i < in.length; i++) {
+                inputFrame[i % numberFftPoints] += in[i];
+            }
+        } else {
+            System.arraycopy(in, 0, inputFrame, 0, in.length);
+            for (int i = in.length; i < numberFftPoints; i++) {
+                inputFrame[i] = 0.0;
+            }
+        }
 
         /**
-         * For the inverse FFT,
-         * w = 2 * PI / numberFftPoints;
+         * The inverse transform of a real sequence is the complex
+         * conjugate of the direct one, so its power spectrum only differs
+         * by the input being divided by "numberFftPoints".
          */
-        double w = -2 * Math.PI / numberFftPoints;
         if (invert) {
-            w = -w;
+            for (int i = 0; i < numberFftPoints; i++) {
+                inputFrame[i] /= numberFftPoints;
+            }
         }
 
-        for (int k = 0; k < (numberFftPoints >> 1); k++) {
-            weightFft[k] = new Complex(Math.cos(w * k), Math.sin(w * k));
+        fft.powerSpectrum(inputFrame, output);
+    }
+
+
+    /**
+     * Computes the power spectrum of a frame without creating a new array for every frame. The number of FFT points
+     * is chosen the same way as in {@link #getData()}.
+     *
+     * @param frame    the input frame
+     * @param spectrum array for the power spectrum, may be null
+     * @return the given array, or a new one if the given array is null or doesn't have the length of the power
+     *         spectrum
+     */
+    public double[] powerSpectrum(double[] frame, double[] spectrum) {
+        prepare(frame.length);
+        if (spectrum == null || spectrum.length != (numberFftPoints >> 1) + 1) {
+            spectrum = new double[(numberFftPoints >> 1) + 1];
         }
+        computePowerSpectrum(frame, spectrum);
+        return spectrum;
     }
 
 
@@ -270,31 +222,7 @@ public class DiscreteFourierTransform extends BaseDataProcessor {
 
         if ((input != null) && (input instanceof DoubleData)) {
             DoubleData data = (DoubleData) input;
-            if (!isNumberFftPointsSet) {
-                /*
-                 * If numberFftPoints is not set by the user,
-                 * figure out the numberFftPoints and initialize the
-                 * data structures appropriately.
-                 */
-                if (numberDataPoints != data.getValues().length) {
-                    numberDataPoints = data.getValues().length;
-                    numberFftPoints = getNumberFftPoints(numberDataPoints);
-                    initializeFFT();
-                }
-            } else {
-                /*
-                 * Warn if the user-set numberFftPoints is not ideal.
-                 */
-                if (numberDataPoints != data.getValues().length) {
-                    numberDataPoints = data.getValues().length;
-                    int idealFftPoints = getNumberFftPoints(numberDataPoints);
-                    if (idealFftPoints != numberFftPoints) {
-                        logger.warning("User set numberFftPoints (" +
-                                numberFftPoints + ") is not ideal (" +
-                                idealFftPoints + ')');
-                    }
-                }
-            }
+            prepare(data.getValues().length);
             input = process(data);
         }
 
@@ -307,6 +235,43 @@ public class DiscreteFourierTransform extends BaseDataProcessor {
     }
 
 
+    /**
+     * Adapts the FFT to the length of the incoming frames.
+     *
+     * @param length number of samples in the frame
+     */
+    private void prepare(int length) {
+        if (!isNumberFftPointsSet) {
+            /*
+             * If numberFftPoints is not set by the user,
+             * figure out the numberFftPoints and initialize the
+             * data structures appropriately.
+             */
+            if (numberDataPoints != length) {
+                numberDataPoints = length;
+                numberFftPoints = getNumberFftPoints(numberDataPoints);
+                initializeFFT();
+            }
+        } else {
+            if (fft == null) {
+                initializeFFT();
+            }
+            /*
+             * Warn if the user-set numberFftPoints is not ideal.
+             */
+            if (numberDataPoints != length) {
+                numberDataPoints = length;
+                int idealFftPoints = getNumberFftPoints(numberDataPoints);
+                if (idealFftPoints != numberFftPoints) {
+                    logger.warning("User set numberFftPoints (" +
+                            numberFftPoints + ") is not ideal (" +
+                            idealFftPoints + ')');
+                }
+            }
+        }
+    }
+
+
     /**
      * Returns the ideal number of FFT points given the number of samples. The ideal number of FFT points is the closest
      * power of 2 that is equal to or larger than the number of samples in the incoming window.
@@ -325,140 +290,4 @@ public class DiscreteFourierTransform extends BaseDataProcessor {
         }
         return fftPoints;
     }
-
-
-    /**
-     * Establish the recursion. The FFT computation will be computed by as a recursion. Each stage in the butterfly will
-     * be fully computed during recursion. In fact, we use the mechanism of recursion only because it's the simplest way
-     * of switching the "input" and "output" vectors. The output of a stage is the input to the next stage. The
-     * butterfly computes elements in place, but we still need to switch the vectors. We could copy it (not very
-     * efficient...) or, in C, switch the pointers. We can avoid the pointers by using recursion.
-     *
-     * @param input           input sequence
-     * @param output          output sequence
-     * @param numberFftPoints number of points in the FFT
-     * @param invert          whether it's direct (false) or inverse (true) FFT
-     */
-    private void recurseFft(Complex[] input,
-                            double[] output,
-                            int numberFftPoints,
-                            boolean invert) {
-
-        double divisor;
-
-        /**
-         * The direct and inverse FFT are essentially the same
-         * algorithm, except for two difference: a scaling factor of
-         * "numberFftPoints" and the signal of the exponent in the
-         * weightFft vectors, defined in the method
-         * <code>createWeightFft</code>.
-         */
-
-        if (!invert) {
-            divisor = 1.0;
-        } else {
-            divisor = numberFftPoints;
-        }
-
-        /**
-         * Initialize the "from" and "to" variables.
-         */
-        for (int i = 0; i < numberFftPoints; i++) {
-            to[i].reset();
-            from[i].scaleComplex(input[i], divisor);
-        }
-
-        /**
-         * Repeat the recursion log2(numberFftPoints) times,
-         * i.e., we have log2(numberFftPoints) butterfly stages.
-         */
-        butterflyStage(from, to, numberFftPoints, numberFftPoints >> 1);
-
-        /**
-         * Compute energy ("float") for each frequency point
-         * from the fft ("complex")
-         */
-        if ((this.logBase2NumberFftPoints & 1) == 0) {
-            for (int i = 0; i <= (numberFftPoints >> 1); i++) {
-                output[i] = from[i].squaredMagnitudeComplex();
-            }
-        } else {
-            for (int i = 0; i <= (numberFftPoints >> 1); i++) {
-                output[i] = to[i].squaredMagnitudeComplex();
-            }
-        }
-        }
-
-
-    /**
-     * Compute one stage in the FFT butterfly. The name "butterfly" appears because this method computes elements in
-     * pairs, and a flowgraph of the computation (output "0" comes from input "0" and "1" and output "1" comes from
-     * input "0" and "1") resembles a butterfly.
-     * <p>
-     * We repeat <code>butterflyStage</code> for <b>log_2(numberFftPoints)</b> stages, by calling the recursion with the
-     * argument <code>currentDistance</code> divided by 2 at each call, and checking if it's still > 0.
-     *
-     * @param from            the input sequence at each stage
-     * @param to              the output sequence
-     * @param numberFftPoints the total number of points
-     * @param currentDistance the "distance" between elements in the butterfly
-     */
-    private void butterflyStage(Complex[] from,
-                                Complex[] to,
-                                int numberFftPoints,
-                                int currentDistance) {
-        int ndx1From;
-        int ndx2From;
-        int ndx1To;
-        int ndx2To;
-        int ndxWeightFft;
-
-        if (currentDistance > 0) {
-
-            int twiceCurrentDistance = 2 * currentDistance;
-
-            for (int s = 0; s < currentDistance; s++) {
-                ndx1From = s;
-                ndx2From = s + currentDistance;
-                ndx1To = s;
-                ndx2To = s + (numberFftPoints >> 1);
-                ndxWeightFft = 0;
-                while (ndxWeightFft < (numberFftPoints >> 1)) {
-                    /**
-                     * <b>weightFftTimesFrom2 = weightFft[k]   </b>
-                     * <b>                      *from[ndx2From]</b>
-                     */
-                    weightFftTimesFrom2.multiplyComplex
-                            (weightFft[ndxWeightFft], from[ndx2From]);
-                    /**
-                     * <b>to[ndx1To] = from[ndx1From]       </b>
-                     * <b>             + weightFftTimesFrom2</b>
-                     */
-                    to[ndx1To].addComplex
-                            (from[ndx1From], weightFftTimesFrom2);
-                    /**
-                     * <b>to[ndx2To] = from[ndx1From]       </b>
-                     * <b>             - weightFftTimesFrom2</b>
-                     */
-                    to[ndx2To].subtractComplex
-                            (from[ndx1From], weightFftTimesFrom2);
-                    ndx1From += twiceCurrentDistance;
-                    ndx2From += twiceCurrentDistance;
-                    ndx1To += currentDistance;
-                    ndx2To += currentDistance;
-                    ndxWeightFft += currentDistance;
-                }
-            }
-
-            /**
-             * This call'd better be the last call in this block, so when
-             * it returns we go straight into the return line below.
-             *
-             * We switch the <i>to</i> and <i>from</i> variables,
-             * the total number of points remains the same, and
-             * the <i>currentDistance</i> is divided by 2.
-             */
-            butterflyStage(to, from, numberFftPoints, (currentDistance >> 1));
-        }
-        }
 }
@@ -65,21 +65,21 @@ public class Lifter extends BaseDataProcessor {
     public Data getData() throws DataProcessingException {
         Data data = getPredecessor().getData(); // get the cepstrum
         if (data != null && data instanceof DoubleData) {
-            liftCepstrum((DoubleData) data);
+            liftCepstrum(((DoubleData) data).getValues());
         }
         return data;
     }
 
     /**
-     * Lifts the input mel-cepstrum.
+     * Lifts the input mel-cepstrum in place.
      * 
-     * @param input
-     *            a mel-cepstrum frame
+     * @param melCepstrum
+     *            a mel-cepstrum
      * @throws IllegalArgumentException
+     *             if the cepstrum size differs from the one of the previous
+     *             cepstra
      */
-    private void liftCepstrum(DoubleData input) throws IllegalArgumentException {
-        double[] melCepstrum = input.getValues();
-
+    public void liftCepstrum(double[] melCepstrum) throws IllegalArgumentException {
         if (lifterWeights == null) {
             cepstrumSize = melCepstrum.length;
             computeLifterWeights();
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.frontend.transform;
+
+/**
+ * Fast Fourier Transform of real sequences working in place on primitive
+ * arrays.
+ * <p>
+ * A real sequence of <b>N</b> points is transformed as a complex sequence of
+ * <b>N/2</b> points, the even samples being the real parts and the odd
+ * samples the imaginary parts, and the spectrum of the real sequence is then
+ * split from the result. The complex transform is an iterative radix-2
+ * decimation in time, the twiddle factors and the bit reversal permutation
+ * are computed once in the constructor. No objects are created by
+ * {@link #transform(double[])} or {@link #powerSpectrum(double[], double[])}.
+ * <p>
+ * The spectrum is stored in the input array in the packed form:
+ * <code>data[0]</code> is the real value of bin 0, <code>data[1]</code> the
+ * real value of bin <b>N/2</b>, and <code>data[2k]</code>,
+ * <code>data[2k + 1]</code> are the real and imaginary parts of bin
+ * <b>k</b> for <b>0 &lt; k &lt; N/2</b>. The remaining bins are the complex
+ * conjugates of these.
+ * <p>
+ * The tables are never modified after construction, so an instance may be
+ * shared by threads transforming different arrays.
+ */
+public class RealFFT {
+
+    private final int size;
+    private final int halfSize;
+
+    /** cos and sin of 2 * PI * k / (N/2), twiddles of the complex transform */
+    private final double[] cos;
+    private final double[] sin;
+
+    /** cos and sin of 2 * PI * k / N, twiddles of the split step */
+    private final double[] splitCos;
+    private final double[] splitSin;
+
+    private final int[] bitReverse;
+
+    /**
+     * Creates the tables for a transform of the given size.
+     *
+     * @param size number of points, a power of 2
+     * @throws IllegalArgumentException if the size is not a power of 2
+     */
+    public RealFFT(int size) {
+        if (size < 1 || (size & (size - 1)) != 0)
+            throw new IllegalArgumentException("Not a power of 2: " + size);
+
+        this.size = size;
+        halfSize = size >> 1;
+
+        int quarterSize = halfSize >> 1;
+        cos = new double[quarterSize];
+        sin = new double[quarterSize];
+        for (int k = 0; k < quarterSize; k++) {
+            double w = 2 * Math.PI * k / halfSize;
+            cos[k] = Math.cos(w);
+            sin[k] = Math.sin(w);
+        }
+
+        splitCos = new double[quarterSize + 1];
+        splitSin = new double[quarterSize + 1];
+        for (int k = 0; k <= quarterSize; k++) {
+            double w = 2 * Math.PI * k / size;
+            splitCos[k] = Math.cos(w);
+            splitSin[k] = Math.sin(w);
+        }
+
+        bitReverse = new int[halfSize];
+        int bits = Integer.numberOfTrailingZeros(Math.max(halfSize, 1));
+        for (int i = 0; i < halfSize; i++)
+            bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+    }
+
+    /** @return the number of points of the transform */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Replaces a real sequence by its spectrum in the packed form described
+     * in the class documentation.
+     *
+     * @param data sequence of {@link #getSize()} real values
+     */
+    public void transform(double[] data) {
+        if (size == 1)
+            return;
+
+        complexTransform(data);
+
+        // the spectrum of the real sequence from the spectrum of the
+        // interleaved complex sequence, bins k and N/2 - k at once
+        double z0 = data[0];
+        data[0] = z0 + data[1];
+        data[1] = z0 - data[1];
+
+        for (int k = 1, l = halfSize - 1; k <= l; k++, l--) {
+            double ar = data[2 * k];
+            double ai = data[2 * k + 1];
+            double br = data[2 * l];
+            double bi = -data[2 * l + 1];
+
+            double er = 0.5 * (ar + br);
+            double ei = 0.5 * (ai + bi);
+            double or = 0.5 * (ai - bi);
+            double oi = 0.5 * (br - ar);
+
+            double c = splitCos[k];
+            double s = splitSin[k];
+            double tr = c * or + s * oi;
+            double ti = c * oi - s * or;
+
+            data[2 * k] = er + tr;
+            data[2 * k + 1] = ei + ti;
+            data[2 * l] = er - tr;
+            data[2 * l + 1] = ti - ei;
+        }
+    }
+
+    /**
+     * Computes the power spectrum of a real sequence. The input array is
+     * overwritten by the packed spectrum.
+     *
+     * @param data   sequence of {@link #getSize()} real values
+     * @param output array for the <b>N/2 + 1</b> squared magnitudes
+     */
+    public void powerSpectrum(double[] data, double[] output) {
+        if (size == 1) {
+            output[0] = data[0] * data[0];
+            return;
+        }
+
+        transform(data);
+        output[0] = data[0] * data[0];
+        output[halfSize] = data[1] * data[1];
+        for (int k = 1; k < halfSize; k++) {
+            double re = data[2 * k];
+            double im = data[2 * k + 1];
+            output[k] = re * re + im * im;
+        }
+    }
+
+    /** Forward transform of N/2 interleaved complex values in place. */
+    private void complexTransform(double[] data) {
+        for (int i = 0; i < halfSize; i++) {
+            int j = bitReverse[i];
+            if (i < j) {
+                double t = data[2 * i];
+                data[2 * i] = data[2 * j];
+                data[2 * j] = t;
+                t = data[2 * i + 1];
+                data[2 * i + 1] = data[2 * j + 1];
+                data[2 * j + 1] = t;
+            }
+        }
+
+        for (int span = 1, step = halfSize >> 1; span < halfSize; span <<= 1, step >>= 1) {
+            for (int start = 0; start < halfSize; start += span << 1) {
+                for (int k = 0; k < span; k++) {
+                    int p = 2 * (start + k);
+                    int q = p + 2 * span;
+                    // w = exp(-2 * PI * i * k / (2 * span))
+                    double wr = cos[k * step];
+                    double wi = -sin[k * step];
+                    double tr = wr * data[q] - wi * data[q + 1];
+                    double ti = wr * data[q + 1] + wi * data[q];
+                    data[q] = data[p] - tr;
+                    data[q + 1] = data[p + 1] - ti;
+                    data[p] += tr;
+                    data[p + 1] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.frontend.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.cmu.sphinx.frontend.Data;
+import edu.cmu.sphinx.frontend.DataEndSignal;
+import edu.cmu.sphinx.frontend.DataProcessingException;
+import edu.cmu.sphinx.frontend.DataProcessor;
+import edu.cmu.sphinx.frontend.DataStartSignal;
+import edu.cmu.sphinx.frontend.FloatData;
+import edu.cmu.sphinx.frontend.Signal;
+import edu.cmu.sphinx.frontend.endpoint.SpeechEndSignal;
+import edu.cmu.sphinx.frontend.endpoint.SpeechStartSignal;
+import edu.cmu.sphinx.util.TimeFrame;
+
+/**
+ * Keeps the output of a front end, the feature frames together with the
+ * speech start and end signals, so that parts of a long recording can be
+ * decoded several times without computing the features again. The frames
+ * are kept either in memory or in a file which is mapped into memory once
+ * the data end is reached.
+ * <p>
+ * The store is filled by a single thread, either with {@link #add(Data)} or
+ * with {@link #extract(DataProcessor)}. Once it is complete any number of
+ * threads can read it, usually through a {@link FeatureStoreDataSource}.
+ */
+public class FeatureStore implements Closeable {
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private RandomAccessFile output;
+    private ByteBuffer writeBuffer;
+    private float[] values;
+    private FloatBuffer frames;
+
+    private int dimension;
+    private int size;
+    private long[] collectTimes = new long[1024];
+    private long[] firstSamples = new long[1024];
+
+    // signal i is seen before frame signalFrames[i]
+    private int signalCount;
+    private int[] signalFrames = new int[64];
+    private boolean[] signalStarts = new boolean[64];
+    private long[] signalTimes = new long[64];
+
+    private int sampleRate;
+    private long duration;
+    private boolean complete;
+
+
+    /** Creates a store which keeps the features in memory. */
+    public FeatureStore() {
+        this.file = null;
+    }
+
+
+    /**
+     * Creates a store which keeps the features in the given file. The file
+     * is overwritten and is deleted when the store is closed.
+     *
+     * @param file the file to keep the features in
+     * @throws IOException if the file can't be created
+     */
+    public FeatureStore(File file) throws IOException {
+        this.file = file;
+        output = new RandomAccessFile(file, "rw");
+        output.setLength(0);
+        writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+    }
+
+
+    /**
+     * Reads the data of the given front end up to the data end.
+     *
+     * @param frontEnd the front end to read
+     * @throws DataProcessingException if the features can't be stored
+     */
+    public void extract(DataProcessor frontEnd) throws DataProcessingException {
+        Data data;
+        do {
+            data = frontEnd.getData();
+            if (data != null)
+                add(data);
+        } while (data != null && !(data instanceof DataEndSignal));
+        if (!complete)
+            add(new DataEndSignal(duration));
+    }
+
+
+    /**
+     * Adds data at the end of the store. Feature frames and speech signals
+     * are kept, the {@link DataEndSignal} completes the store.
+     *
+     * @param data the data to add
+     * @throws DataProcessingException if the frame can't be stored
+     * @throws IllegalStateException if the store is complete
+     */
+    public void add(Data data) throws DataProcessingException {
+        if (complete)
+            throw new IllegalStateException("Feature store is complete");
+
+        if (data instanceof DataStartSignal) {
+            sampleRate = ((DataStartSignal) data).getSampleRate();
+        } else if (data instanceof SpeechStartSignal) {
+            addSignal(true, ((SpeechStartSignal) data).getTime());
+        } else if (data instanceof SpeechEndSignal) {
+            addSignal(false, ((SpeechEndSignal) data).getTime());
+        } else if (data instanceof DataEndSignal) {
+            duration = Math.max(duration, ((DataEndSignal) data).getDuration());
+            complete();
+        } else if (data != null && !(data instanceof Signal)) {
+            addFrame(FloatData.toFloatData(data));
+        }
+    }
+
+
+    private void addSignal(boolean start, long time) {
+        if (signalCount == signalFrames.length) {
+            signalFrames = Arrays.copyOf(signalFrames, 2 * signalCount);
+            signalStarts = Arrays.copyOf(signalStarts, 2 * signalCount);
+            signalTimes = Arrays.copyOf(signalTimes, 2 * signalCount);
+        }
+        signalFrames[signalCount] = size;
+        signalStarts[signalCount] = start;
+        signalTimes[signalCount] = time;
+        signalCount++;
+    }
+
+
+    private void addFrame(FloatData frame) throws DataProcessingException {
+        float[] frameValues = frame.getValues();
+        if (size == 0) {
+            dimension = frameValues.length;
+            if (sampleRate == 0)
+                sampleRate = frame.getSampleRate();
+            if (file == null)
+                values = new float[1024 * dimension];
+        } else if (frameValues.length != dimension) {
+            throw new DataProcessingException("Frame " + size + " has " + frameValues.length
+                    + " values, expected " + dimension);
+        }
+
+        if (size == collectTimes.length) {
+            collectTimes = Arrays.copyOf(collectTimes, 2 * size);
+            firstSamples = Arrays.copyOf(firstSamples, 2 * size);
+        }
+        collectTimes[size] = frame.getCollectTime();
+        firstSamples[size] = frame.getFirstSampleNumber();
+
+        if (file == null) {
+            if ((size + 1) * dimension > values.length)
+                values = Arrays.copyOf(values, 2 * values.length);
+            System.arraycopy(frameValues, 0, values, size * dimension, dimension);
+        } else {
+            try {
+                for (float value : frameValues) {
+                    if (!writeBuffer.hasRemaining())
+                        flush();
+                    writeBuffer.putFloat(value);
+                }
+            } catch (IOException e) {
+                throw new DataProcessingException("Can't write features to " + file, e);
+            }
+        }
+        size++;
+        duration = Math.max(duration, frame.getCollectTime());
+    }
+
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        FileChannel channel = output.getChannel();
+        while (writeBuffer.hasRemaining())
+            channel.write(writeBuffer);
+        writeBuffer.clear();
+    }
+
+
+    private void complete() throws DataProcessingException {
+        // a speech end at the data end carries the wall clock time
+        for (int i = 0; i < signalCount; i++)
+            signalTimes[i] = Math.min(signalTimes[i], duration);
+
+        if (file == null) {
+            frames = FloatBuffer.wrap(values == null ? new float[0] : values);
+        } else {
+            try {
+                flush();
+                long length = output.length();
+                if (length > Integer.MAX_VALUE)
+                    throw new DataProcessingException("Too many features for " + file);
+                frames = output.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length)
+                        .order(ByteOrder.nativeOrder()).asFloatBuffer();
+                writeBuffer = null;
+            } catch (IOException e) {
+                throw new DataProcessingException("Can't map features from " + file, e);
+            }
+        }
+        complete = true;
+    }
+
+
+    /** @return true if the data end was added */
+    public boolean isComplete() {
+        return complete;
+    }
+
+
+    /** @return the number of stored feature frames */
+    public int size() {
+        return size;
+    }
+
+
+    /** @return the number of values of every frame */
+    public int getDimension() {
+        return dimension;
+    }
+
+
+    /** @return the sample rate of the audio the features come from */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+
+    /** @return the duration of the audio in milliseconds */
+    public long getDuration() {
+        return duration;
+    }
+
+
+    /**
+     * Returns a stored frame. The store has to be complete.
+     *
+     * @param index the index of the frame
+     * @return a copy of the frame
+     */
+    public FloatData getFrame(int index) {
+        checkComplete();
+        float[] frameValues = new float[dimension];
+        int offset = index * dimension;
+        for (int i = 0; i < dimension; i++)
+            frameValues[i] = frames.get(offset + i);
+        return new FloatData(frameValues, sampleRate, collectTimes[index], firstSamples[index]);
+    }
+
+
+    /**
+     * @param index the index of the frame
+     * @return the collect time of the frame in milliseconds
+     */
+    public long getTime(int index) {
+        return collectTimes[index];
+    }
+
+
+    /**
+     * Finds the first frame collected at or after the given time.
+     *
+     * @param time the time in milliseconds
+     * @return the index of the frame, or the number of frames if all are earlier
+     */
+    public int getFrameIndex(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (collectTimes[middle] < time)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+
+    /**
+     * Returns the speech segments found by the speech marker of the front
+     * end, as spans between speech start and speech end signals.
+     *
+     * @return the segments in time order
+     */
+    public List<TimeFrame> getSpeechSegments() {
+        checkComplete();
+        List<TimeFrame> segments = new ArrayList<TimeFrame>();
+        long start = -1;
+        for (int i = 0; i < signalCount; i++) {
+            if (signalStarts[i]) {
+                if (start < 0)
+                    start = signalTimes[i];
+            } else if (start >= 0) {
+                segments.add(new TimeFrame(start, Math.max(start, signalTimes[i])));
+                start = -1;
+            }
+        }
+        if (start >= 0)
+            segments.add(new TimeFrame(start, Math.max(start, duration)));
+        return segments;
+    }
+
+
+    int getSignalCount() {
+        return signalCount;
+    }
+
+
+    int getSignalFrame(int signal) {
+        return signalFrames[signal];
+    }
+
+
+    boolean isSpeechStart(int signal) {
+        return signalStarts[signal];
+    }
+
+
+    long getSignalTime(int signal) {
+        return signalTimes[signal];
+    }
+
+
+    /** @return the index of the first signal seen before the given frame or later */
+    int getSignalIndex(int frame) {
+        int low = 0;
+        int high = signalCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (signalFrames[middle] < frame)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+
+    private void checkComplete() {
+        if (!complete)
+            throw new IllegalStateException("Feature store is not complete");
+    }
+
+
+    /**
+     * Releases the features. A store backed by a file deletes it.
+     *
+     * @throws IOException if the file can't be closed
+     */
+    public void close() throws IOException {
+        frames = null;
+        values = null;
+        if (output != null) {
+            output.close();
+            output = null;
+            if (!file.delete())
+                file.deleteOnExit();
+        }
+    }
+}
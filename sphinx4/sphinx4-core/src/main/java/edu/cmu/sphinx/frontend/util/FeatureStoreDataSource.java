@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.frontend.util;
+
+import edu.cmu.sphinx.frontend.BaseDataProcessor;
+import edu.cmu.sphinx.frontend.Data;
+import edu.cmu.sphinx.frontend.DataEndSignal;
+import edu.cmu.sphinx.frontend.DataProcessingException;
+import edu.cmu.sphinx.frontend.DataStartSignal;
+import edu.cmu.sphinx.frontend.endpoint.SpeechEndSignal;
+import edu.cmu.sphinx.frontend.endpoint.SpeechStartSignal;
+import edu.cmu.sphinx.util.TimeFrame;
+
+/**
+ * Replays the features of a {@link FeatureStore}. One would call
+ * {@link #setFeatureStore(FeatureStore, TimeFrame) setFeatureStore} to select
+ * the frames collected within a time frame and call {@link #getData} to
+ * obtain them, framed by the data start and end signals and by the speech
+ * signals the store has recorded. If the time frame starts or ends inside a
+ * speech segment, speech signals are added so that the decoder sees a
+ * complete segment.
+ * <p>
+ * The data source has to be the first and only processor of the front end,
+ * since the stored data are features already. Every front end needs its own
+ * data source, but any number of them can replay the same store at the same
+ * time.
+ */
+public class FeatureStoreDataSource extends BaseDataProcessor {
+
+    private FeatureStore store;
+    private TimeFrame timeFrame;
+    private int frame;
+    private int lastFrame;
+    private int signal;
+    private int lastSignal;
+    private boolean inSpeech;
+    private boolean speechStartPending;
+    private boolean started;
+    private boolean ended;
+
+    public FeatureStoreDataSource() {
+        initLogger();
+    }
+
+    /**
+     * Sets the store to replay.
+     *
+     * @param store the complete store
+     * @param timeFrame the time frame to replay
+     */
+    public void setFeatureStore(FeatureStore store, TimeFrame timeFrame) {
+        if (!store.isComplete())
+            throw new IllegalArgumentException("Feature store is not complete");
+        this.store = store;
+        this.timeFrame = timeFrame;
+
+        frame = store.getFrameIndex(timeFrame.getStart());
+        lastFrame = timeFrame.getEnd() == Long.MAX_VALUE
+                ? store.size()
+                : store.getFrameIndex(timeFrame.getEnd() + 1);
+        lastFrame = Math.max(frame, lastFrame);
+
+        signal = store.getSignalIndex(frame);
+        // the end of a segment which ends before the first frame
+        while (signal < store.getSignalCount()
+                && store.getSignalFrame(signal) == frame
+                && !store.isSpeechStart(signal))
+            signal++;
+        lastSignal = Math.max(signal, store.getSignalIndex(lastFrame));
+        // the end of a segment which ends with the last frame
+        while (lastSignal < store.getSignalCount()
+                && store.getSignalFrame(lastSignal) == lastFrame
+                && !store.isSpeechStart(lastSignal))
+            lastSignal++;
+
+        speechStartPending = signal > 0 && store.isSpeechStart(signal - 1);
+        inSpeech = false;
+        started = false;
+        ended = false;
+    }
+
+    /**
+     * Returns the next stored data within the time frame.
+     *
+     * @return the next Data or <code>null</code> if the data end was returned
+     * @throws DataProcessingException if there is a data processing error
+     */
+    @Override
+    public Data getData() throws DataProcessingException {
+        if (store == null) {
+            logger.warning("Feature store is not set");
+            return null;
+        }
+
+        if (!started) {
+            started = true;
+            return new DataStartSignal(store.getSampleRate());
+        }
+
+        if (speechStartPending) {
+            speechStartPending = false;
+            inSpeech = true;
+            return new SpeechStartSignal(timeFrame.getStart());
+        }
+
+        if (signal < lastSignal && store.getSignalFrame(signal) <= frame) {
+            long time = store.getSignalTime(signal);
+            inSpeech = store.isSpeechStart(signal++);
+            return inSpeech ? new SpeechStartSignal(time) : new SpeechEndSignal(time);
+        }
+
+        if (frame < lastFrame)
+            return store.getFrame(frame++);
+
+        if (inSpeech) {
+            inSpeech = false;
+            return new SpeechEndSignal(lastFrame > 0 ? store.getTime(lastFrame - 1) : timeFrame.getStart());
+        }
+
+        if (!ended) {
+            ended = true;
+            return new DataEndSignal(Math.min(store.getDuration(), timeFrame.getEnd()));
+        }
+        return null;
+    }
+}
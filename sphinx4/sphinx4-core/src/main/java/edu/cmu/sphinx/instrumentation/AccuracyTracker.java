@@ -18,9 +18,18 @@ import edu.cmu.sphinx.recognizer.StateListener;
 import edu.cmu.sphinx.result.Result;
 import edu.cmu.sphinx.decoder.ResultListener;
 import edu.cmu.sphinx.util.NISTAlign;
+import edu.cmu.sphinx.util.metrics.Counter;
+import edu.cmu.sphinx.util.metrics.Gauge;
+import edu.cmu.sphinx.util.metrics.MetricRegistry;
 import edu.cmu.sphinx.util.props.*;
 
-/** Tracks and reports recognition accuracy */
+/**
+ * Tracks and reports recognition accuracy. Besides logging, the tracker counts the aligned sentences, reference words,
+ * substitutions, insertions and deletions in the counters {@code accuracy.sentences}, {@code accuracy.words}, {@code
+ * accuracy.substitutions}, {@code accuracy.insertions} and {@code accuracy.deletions} of the {@link MetricRegistry},
+ * and publishes the rates since the last reset as the gauges {@code accuracy.wordAccuracy}, {@code
+ * accuracy.wordErrorRate} and {@code accuracy.sentenceAccuracy}.
+ */
 abstract public class AccuracyTracker
         extends
         ConfigurableAdapter
@@ -68,6 +77,15 @@ abstract public class AccuracyTracker
 
     private final NISTAlign aligner = new NISTAlign(false, false);
 
+    private final Counter sentences = MetricRegistry.getRegistry().getCounter("accuracy.sentences");
+    private final Counter words = MetricRegistry.getRegistry().getCounter("accuracy.words");
+    private final Counter substitutions = MetricRegistry.getRegistry().getCounter("accuracy.substitutions");
+    private final Counter insertions = MetricRegistry.getRegistry().getCounter("accuracy.insertions");
+    private final Counter deletions = MetricRegistry.getRegistry().getCounter("accuracy.deletions");
+    private final Gauge wordAccuracy = MetricRegistry.getRegistry().getGauge("accuracy.wordAccuracy");
+    private final Gauge wordErrorRate = MetricRegistry.getRegistry().getGauge("accuracy.wordErrorRate");
+    private final Gauge sentenceAccuracy = MetricRegistry.getRegistry().getGauge("accuracy.sentenceAccuracy");
+
     public AccuracyTracker(Recognizer recognizer, boolean showSummary, boolean showDetails, boolean showResults, boolean showAlignedResults, boolean showRawResults) {
 
         initRecognizer(recognizer);
@@ -129,6 +147,7 @@ abstract public class AccuracyTracker
      */
     public void reset() {
         aligner.resetTotals();
+        publishRates();
     }
 
 
@@ -152,6 +171,36 @@ abstract public class AccuracyTracker
     }
 
 
+    /**
+     * Aligns a hypothesis with its reference and publishes the new totals to the metric registry.
+     *
+     * @param reference the reference text
+     * @param hypothesis the recognized text
+     */
+    protected void align(String reference, String hypothesis) {
+        int lastSentences = aligner.getTotalSentences();
+        int lastWords = aligner.getTotalWords();
+        int lastSubstitutions = aligner.getTotalSubstitutions();
+        int lastInsertions = aligner.getTotalInsertions();
+        int lastDeletions = aligner.getTotalDeletions();
+        aligner.align(reference, hypothesis);
+        sentences.add(aligner.getTotalSentences() - lastSentences);
+        words.add(aligner.getTotalWords() - lastWords);
+        substitutions.add(aligner.getTotalSubstitutions() - lastSubstitutions);
+        insertions.add(aligner.getTotalInsertions() - lastInsertions);
+        deletions.add(aligner.getTotalDeletions() - lastDeletions);
+        publishRates();
+    }
+
+
+    /** Publishes the accuracy since the last reset to the metric registry. */
+    private void publishRates() {
+        wordAccuracy.setValue(aligner.getTotalWordAccuracy());
+        wordErrorRate.setValue(aligner.getTotalWordErrorRate());
+        sentenceAccuracy.setValue(aligner.getTotalSentenceAccuracy());
+    }
+
+
     /**
      * Shows the complete details.
      *
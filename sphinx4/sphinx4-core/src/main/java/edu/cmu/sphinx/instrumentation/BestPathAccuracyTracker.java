@@ -17,7 +17,10 @@ import edu.cmu.sphinx.result.Result;
 import edu.cmu.sphinx.util.props.*;
 import edu.cmu.sphinx.recognizer.Recognizer;
 
-/** Tracks and reports recognition accuracy based upon the highest scoring path in a Result. */
+/**
+ * Tracks and reports recognition accuracy based upon the highest scoring path in a Result. The accuracy is published
+ * to the metric registry as described in {@link AccuracyTracker}.
+ */
 public class BestPathAccuracyTracker extends AccuracyTracker {
 
     /** The property that define whether the full token path is displayed */
@@ -77,7 +80,7 @@ public class BestPathAccuracyTracker extends AccuracyTracker {
         String ref = result.getReferenceText();
         if (result.isFinal() && ref != null) {
             String hyp = result.getBestResultNoFiller();
-            getAligner().align(ref, hyp);
+            align(ref, hyp);
             showFullPath(result);
             showDetails(result.toString());
         }
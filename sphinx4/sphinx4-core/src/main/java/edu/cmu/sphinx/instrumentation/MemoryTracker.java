@@ -17,11 +17,23 @@ import edu.cmu.sphinx.recognizer.Recognizer.State;
 import edu.cmu.sphinx.recognizer.StateListener;
 import edu.cmu.sphinx.result.Result;
 import edu.cmu.sphinx.decoder.ResultListener;
+import edu.cmu.sphinx.util.metrics.Gauge;
+import edu.cmu.sphinx.util.metrics.Histogram;
+import edu.cmu.sphinx.util.metrics.MetricRegistry;
+import edu.cmu.sphinx.util.metrics.ThreadUsage;
 import edu.cmu.sphinx.util.props.*;
 
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.text.DecimalFormat;
 
-/** Monitors a recognizer for memory usage */
+/**
+ * Monitors a recognizer for memory usage. Besides logging, the tracker publishes the used, average and maximum heap in
+ * megabytes as the gauges {@code memory.used}, {@code memory.average} and {@code memory.max} of the {@link
+ * MetricRegistry}. For every final result it records the number and the time in milliseconds of the garbage
+ * collections since the previous result in the histograms {@code gc.count} and {@code gc.time}, and, if the JVM can
+ * measure it, the bytes allocated by the decoding thread in the histogram {@code memory.allocated}.
+ */
 public class MemoryTracker
         extends
         ConfigurableAdapter
@@ -54,6 +66,17 @@ public class MemoryTracker
     private int numMemoryStats;
     private float avgMemoryUsed;
 
+    private final Gauge usedMemory = MetricRegistry.getRegistry().getGauge("memory.used");
+    private final Gauge averageMemory = MetricRegistry.getRegistry().getGauge("memory.average");
+    private final Gauge maxMemory = MetricRegistry.getRegistry().getGauge("memory.max");
+    private final Histogram gcCounts = MetricRegistry.getRegistry().getHistogram("gc.count");
+    private final Histogram gcTimes = MetricRegistry.getRegistry().getHistogram("gc.time");
+    private final Histogram allocatedMemory = MetricRegistry.getRegistry().getHistogram("memory.allocated");
+    private long lastGcCount;
+    private long lastGcTime;
+    private long lastAllocatedBytes = -1;
+    private long lastThreadId = -1;
+
     public MemoryTracker(Recognizer recognizer, boolean showSummary, boolean showDetails) {
         initRecognizer(recognizer);
         initLogger();
@@ -118,6 +141,9 @@ public class MemoryTracker
         numMemoryStats++;
         avgMemoryUsed = ((avgMemoryUsed * (numMemoryStats - 1)) + usedMem)
                 / numMemoryStats;
+        usedMemory.setValue(usedMem);
+        averageMemory.setValue(avgMemoryUsed);
+        maxMemory.setValue(maxMemoryUsed);
 
         if (show) {
             logger.info("   Mem  Total: " + memFormat.format(totalMem)
@@ -137,10 +163,42 @@ public class MemoryTracker
     public void newResult(Result result) {
         if (result.isFinal()) {
             calculateMemoryUsage(showDetails);
+            recordCollections(true);
         }
     }
 
+
+    /**
+     * Records the garbage collections and the allocations of the current thread since the last call.
+     *
+     * @param record false to only remember the current values
+     */
+    private void recordCollections(boolean record) {
+        long count = 0;
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+            time += Math.max(0, bean.getCollectionTime());
+        }
+        long allocatedBytes = ThreadUsage.getAllocatedBytes();
+        long threadId = Thread.currentThread().getId();
+        if (record) {
+            gcCounts.record(count - lastGcCount);
+            gcTimes.record(time - lastGcTime);
+            if (allocatedBytes >= 0 && lastAllocatedBytes >= 0 && threadId == lastThreadId)
+                allocatedMemory.record(allocatedBytes - lastAllocatedBytes);
+        }
+        lastGcCount = count;
+        lastGcTime = time;
+        lastAllocatedBytes = allocatedBytes;
+        lastThreadId = threadId;
+    }
+
+
     public void statusChanged(Recognizer.State status) {
+        if (status == State.ALLOCATED) {
+            recordCollections(false);
+        }
         if (status == State.DEALLOCATED) {
             calculateMemoryUsage(showSummary);
         }
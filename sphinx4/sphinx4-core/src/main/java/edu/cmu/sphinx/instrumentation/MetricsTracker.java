@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+package edu.cmu.sphinx.instrumentation;
+
+import edu.cmu.sphinx.recognizer.Recognizer;
+import edu.cmu.sphinx.recognizer.Recognizer.State;
+import edu.cmu.sphinx.recognizer.StateListener;
+import edu.cmu.sphinx.util.metrics.MetricRegistry;
+import edu.cmu.sphinx.util.props.*;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.logging.Level;
+
+/**
+ * Exposes the {@link MetricRegistry} of a recognizer. While the recognizer is allocated the registry is registered with
+ * the platform MBean server, so the timers, token counts, language model cache statistics and the values of the other
+ * monitors can be read by any JMX client. The current values are also available from {@link #getSnapshot()}.
+ */
+public class MetricsTracker extends ConfigurableAdapter implements StateListener, Monitor {
+
+    /** The property that defines which recognizer to monitor */
+    @S4Component(type = Recognizer.class)
+    public final static String PROP_RECOGNIZER = "recognizer";
+
+    /** The property that defines whether the metrics are registered with the platform MBean server */
+    @S4Boolean(defaultValue = true)
+    public final static String PROP_REGISTER_MBEAN = "registerMBean";
+
+    /** The property that defines the name of the MBean */
+    @S4String(defaultValue = MetricRegistry.DEFAULT_OBJECT_NAME)
+    public final static String PROP_OBJECT_NAME = "objectName";
+
+    /** The property that defines whether the metrics are logged when the recognizer is deallocated */
+    @S4Boolean(defaultValue = false)
+    public final static String PROP_SHOW_METRICS = "showMetrics";
+
+    private Recognizer recognizer;
+    private boolean registerMBean;
+    private String objectName;
+    private boolean showMetrics;
+    private ObjectName registeredName;
+
+    public MetricsTracker(Recognizer recognizer, boolean registerMBean, String objectName, boolean showMetrics) {
+        initLogger();
+        initRecognizer(recognizer);
+        this.registerMBean = registerMBean;
+        this.objectName = objectName;
+        this.showMetrics = showMetrics;
+    }
+
+    public MetricsTracker() {
+    }
+
+    /*
+    * (non-Javadoc)
+    *
+    * @see edu.cmu.sphinx.util.props.Configurable#newProperties(edu.cmu.sphinx.util.props.PropertySheet)
+    */
+    @Override
+    public void newProperties(PropertySheet ps) throws PropertyException {
+        super.newProperties(ps);
+        initRecognizer((Recognizer) ps.getComponent(PROP_RECOGNIZER));
+        registerMBean = ps.getBoolean(PROP_REGISTER_MBEAN);
+        objectName = ps.getString(PROP_OBJECT_NAME);
+        showMetrics = ps.getBoolean(PROP_SHOW_METRICS);
+    }
+
+    private void initRecognizer(Recognizer newRecognizer) {
+        if (recognizer == null) {
+            recognizer = newRecognizer;
+            recognizer.addStateListener(this);
+        } else if (recognizer != newRecognizer) {
+            recognizer.removeStateListener(this);
+            recognizer = newRecognizer;
+            recognizer.addStateListener(this);
+        }
+    }
+
+    /**
+     * Returns the current values of all metrics.
+     *
+     * @return the values, sorted by name
+     * @see MetricRegistry#getSnapshot()
+     */
+    public SortedMap<String, Double> getSnapshot() {
+        return MetricRegistry.getRegistry().getSnapshot();
+    }
+
+    public void statusChanged(Recognizer.State status) {
+        if (status == State.ALLOCATED && registerMBean && registeredName == null) {
+            try {
+                ObjectName name = new ObjectName(objectName);
+                MetricRegistry.getRegistry().unregisterMBean(name);
+                MetricRegistry.getRegistry().registerMBean(name);
+                registeredName = name;
+            } catch (JMException e) {
+                logger.log(Level.WARNING, "Can't register metrics as " + objectName, e);
+            }
+        }
+
+        if (status == State.DEALLOCATED) {
+            if (showMetrics) {
+                for (Map.Entry<String, Double> entry : getSnapshot().entrySet())
+                    logger.info("   " + entry.getKey() + ": " + entry.getValue());
+            }
+            if (registeredName != null) {
+                try {
+                    MetricRegistry.getRegistry().unregisterMBean(registeredName);
+                } catch (JMException e) {
+                    logger.log(Level.WARNING, "Can't unregister metrics " + registeredName, e);
+                }
+                registeredName = null;
+            }
+        }
+    }
+}
@@ -17,9 +17,18 @@ import edu.cmu.sphinx.recognizer.Recognizer.State;
 import edu.cmu.sphinx.recognizer.StateListener;
 import edu.cmu.sphinx.result.Result;
 import edu.cmu.sphinx.decoder.ResultListener;
+import edu.cmu.sphinx.util.metrics.Counter;
+import edu.cmu.sphinx.util.metrics.Gauge;
+import edu.cmu.sphinx.util.metrics.MetricRegistry;
 import edu.cmu.sphinx.util.props.*;
 
-/** Tracks and reports rejection accuracy. */
+/**
+ * Tracks and reports rejection accuracy. Besides printing, the tracker counts the utterances and their classification
+ * in the counters {@code rejection.utterances}, {@code rejection.outOfGrammar}, {@code rejection.correctOutOfGrammar},
+ * {@code rejection.falseOutOfGrammar}, {@code rejection.correctInGrammar} and {@code rejection.falseInGrammar} of the
+ * {@link MetricRegistry}, and publishes the rejection accuracy since the last reset as the gauge {@code
+ * rejection.accuracy}.
+ */
 public class RejectionTracker implements
         ResultListener,
         Resetable,
@@ -64,6 +73,14 @@ public class RejectionTracker implements
     /** number of out-of-grammar utterances misrecognized as in-grammar */
     private int numFalseInGrammarUtterances;
 
+    private final Counter utterances = MetricRegistry.getRegistry().getCounter("rejection.utterances");
+    private final Counter outOfGrammar = MetricRegistry.getRegistry().getCounter("rejection.outOfGrammar");
+    private final Counter correctOutOfGrammar =
+            MetricRegistry.getRegistry().getCounter("rejection.correctOutOfGrammar");
+    private final Counter falseOutOfGrammar = MetricRegistry.getRegistry().getCounter("rejection.falseOutOfGrammar");
+    private final Counter correctInGrammar = MetricRegistry.getRegistry().getCounter("rejection.correctInGrammar");
+    private final Counter falseInGrammar = MetricRegistry.getRegistry().getCounter("rejection.falseInGrammar");
+    private final Gauge accuracy = MetricRegistry.getRegistry().getGauge("rejection.accuracy");
 
     public RejectionTracker( Recognizer recognizer, boolean showSummary, boolean showDetails ) {
         initRecognizer(recognizer);
@@ -112,6 +129,7 @@ public class RejectionTracker implements
         numFalseOutOfGrammarUtterances = 0;
         numCorrectInGrammarUtterances = 0;
         numFalseInGrammarUtterances = 0;
+        accuracy.setValue(0);
     }
 
 
@@ -134,32 +152,43 @@ public class RejectionTracker implements
         String ref = result.getReferenceText();
         if (result.isFinal() && ref != null) {
             numUtterances++;
+            utterances.increment();
             String hyp = result.getBestResultNoFiller();
             if (ref.equals("<unk>")) {
                 numOutOfGrammarUtterances++;
+                outOfGrammar.increment();
                 if (hyp.equals("<unk>")) {
                     numCorrectOutOfGrammarUtterances++;
+                    correctOutOfGrammar.increment();
                 } else {
                     numFalseInGrammarUtterances++;
+                    falseInGrammar.increment();
                 }
             } else {
                 if (hyp.equals("<unk>")) {
                     numFalseOutOfGrammarUtterances++;
+                    falseOutOfGrammar.increment();
                 } else {
                     numCorrectInGrammarUtterances++;
+                    correctInGrammar.increment();
                 }
             }
+            accuracy.setValue(getAccuracy());
             printStats();
         }
     }
 
 
+    /** @return the fraction of correctly classified utterances since the last reset */
+    private float getAccuracy() {
+        return ((float) (numCorrectOutOfGrammarUtterances +
+                numCorrectInGrammarUtterances)) / ((float) numUtterances);
+    }
+
+
     private void printStats() {
         if (showSummary) {
-            float correctPercent = ((float)
-                    (numCorrectOutOfGrammarUtterances +
-                            numCorrectInGrammarUtterances)) /
-                    ((float) numUtterances) * 100f;
+            float correctPercent = getAccuracy() * 100f;
             System.out.println
                     ("   Rejection Accuracy: " + correctPercent + '%');
         }
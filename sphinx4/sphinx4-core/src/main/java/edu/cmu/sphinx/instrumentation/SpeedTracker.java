@@ -21,11 +21,19 @@ import edu.cmu.sphinx.recognizer.StateListener;
 import edu.cmu.sphinx.result.Result;
 import edu.cmu.sphinx.decoder.ResultListener;
 import edu.cmu.sphinx.util.TimerPool;
+import edu.cmu.sphinx.util.metrics.Gauge;
+import edu.cmu.sphinx.util.metrics.Histogram;
+import edu.cmu.sphinx.util.metrics.MetricRegistry;
 import edu.cmu.sphinx.util.props.*;
 
 import java.text.DecimalFormat;
 
-/** Monitors a recognizer for speed */
+/**
+ * Monitors a recognizer for speed. Besides logging, the tracker publishes the real time factor of the last utterance
+ * and of all utterances as the gauges {@code speed.realTimeFactor} and {@code speed.cumulativeRealTimeFactor}, and the
+ * processing and response times in milliseconds as the histograms {@code speed.processingTime} and {@code
+ * speed.responseTime} of the {@link MetricRegistry}.
+ */
 public class SpeedTracker
         extends
         ConfigurableAdapter
@@ -84,6 +92,12 @@ public class SpeedTracker
     private long minResponseTime = Long.MAX_VALUE;
     private long totalResponseTime;
 
+    private final Gauge realTimeFactor = MetricRegistry.getRegistry().getGauge("speed.realTimeFactor");
+    private final Gauge cumulativeRealTimeFactor =
+            MetricRegistry.getRegistry().getGauge("speed.cumulativeRealTimeFactor");
+    private final Histogram processingTimes = MetricRegistry.getRegistry().getHistogram("speed.processingTime");
+    private final Histogram responseTimes = MetricRegistry.getRegistry().getHistogram("speed.responseTime");
+
 
     public SpeedTracker(Recognizer recognizer, FrontEnd frontEnd, boolean showSummary, boolean showDetails, boolean showResponseTime, boolean showTimers) {
         initLogger();
@@ -156,9 +170,13 @@ public class SpeedTracker
     */
     public void newResult(Result result) {
         if (result.isFinal()) {
-            processingTime = (getTime() - startTime) / 1000.0f;
+            long processingMillis = getTime() - startTime;
+            processingTime = processingMillis / 1000.0f;
             totalAudioTime += audioTime;
             totalProcessingTime += processingTime;
+            processingTimes.record(processingMillis);
+            realTimeFactor.setValue(getSpeed());
+            cumulativeRealTimeFactor.setValue(getCumulativeSpeed());
             if (showDetails) {
                 showAudioUsage();
             }
@@ -243,6 +261,7 @@ public class SpeedTracker
             audioStartTime = signal.getTime();
             long responseTime = startTime - audioStartTime;
             totalResponseTime += responseTime;
+            responseTimes.record(responseTime);
             if (responseTime > maxResponseTime) {
                 maxResponseTime = responseTime;
             }
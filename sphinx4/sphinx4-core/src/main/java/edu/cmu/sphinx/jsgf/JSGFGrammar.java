@@ -15,9 +15,14 @@ package edu.cmu.sphinx.jsgf;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,6 +35,7 @@ import edu.cmu.sphinx.util.LogMath;
 import edu.cmu.sphinx.util.props.ConfigurationManagerUtils;
 import edu.cmu.sphinx.util.props.PropertyException;
 import edu.cmu.sphinx.util.props.PropertySheet;
+import edu.cmu.sphinx.util.props.S4Boolean;
 import edu.cmu.sphinx.util.props.S4String;
 
 /**
@@ -157,6 +163,11 @@ import edu.cmu.sphinx.util.props.S4String;
  * RuleGrammar.setRule). In order for these changes to take place,
  * JSGFGrammar.commitChanges must be called after all grammar changes have been
  * made.
+ * <li>If {@link #PROP_INCREMENTAL_COMMIT incrementalCommit} is set,
+ * commitChanges replaces only the parts of the grammar graph that were expanded
+ * from the rules changed by RuleGrammar.setRule, and reports the changed nodes
+ * to the linguist. Adding, deleting or publishing rules, changing imports,
+ * recursive rules and loading grammars still create the whole graph again.
  * </ul>
  * 
  * <h3>Implementation Notes</h3>
@@ -174,6 +185,15 @@ public class JSGFGrammar extends Grammar {
     @S4String(defaultValue = "default.gram")
     public final static String PROP_GRAMMAR_NAME = "grammarName";
 
+    /**
+     * The property that defines whether commitChanges replaces only the parts
+     * of the grammar graph that were expanded from the changed rules. The
+     * entry node of every rule reference is kept in the graph for this, so the
+     * graph has a few more empty nodes.
+     */
+    @S4Boolean(defaultValue = false)
+    public final static String PROP_INCREMENTAL_COMMIT = "incrementalCommit";
+
     // ---------------------
     // Configurable data
     // ---------------------
@@ -188,6 +208,13 @@ public class JSGFGrammar extends Grammar {
     protected GrammarNode firstNode;
     protected Logger logger;
 
+    private boolean incrementalCommit;
+    // the expanded rule references by full rule name, if commits are incremental
+    private Map<String, List<RuleInstance>> ruleInstances;
+    // the rule reference whose expansion is in progress
+    private RuleInstance currentInstance;
+    private boolean hasRecursion;
+
     public JSGFGrammar(String location, String grammarName,
             boolean showGrammar, boolean optimizeGrammar,
             boolean addSilenceWords, boolean addFillerWords,
@@ -202,11 +229,20 @@ public class JSGFGrammar extends Grammar {
             boolean showGrammar, boolean optimizeGrammar,
             boolean addSilenceWords, boolean addFillerWords,
             Dictionary dictionary) {
+        this(baseURL, grammarName, showGrammar, optimizeGrammar,
+                addSilenceWords, addFillerWords, dictionary, false);
+    }
+
+    public JSGFGrammar(URL baseURL, String grammarName,
+            boolean showGrammar, boolean optimizeGrammar,
+            boolean addSilenceWords, boolean addFillerWords,
+            Dictionary dictionary, boolean incrementalCommit) {
         super(showGrammar, optimizeGrammar, addSilenceWords, addFillerWords,
                 dictionary);
         logMath = LogMath.getLogMath();
         this.baseURL = baseURL;
         this.grammarName = grammarName;
+        this.incrementalCommit = incrementalCommit;
         loadGrammar = true;
         logger = Logger.getLogger(getClass().getName());
     }
@@ -229,6 +265,7 @@ public class JSGFGrammar extends Grammar {
                 ps);
         logger = ps.getLogger();
         grammarName = ps.getString(PROP_GRAMMAR_NAME);
+        incrementalCommit = ps.getBoolean(PROP_INCREMENTAL_COMMIT);
         loadGrammar = true;
     }
 
@@ -294,6 +331,7 @@ public class JSGFGrammar extends Grammar {
      */
     @Override
     protected GrammarNode createGrammar() throws IOException {
+        ruleInstances = null;
         try {
             commitChanges();
         } catch (JSGFGrammarException e) {
@@ -360,6 +398,7 @@ public class JSGFGrammar extends Grammar {
         GrammarGraph result = ruleStack.contains(initialRuleName.getRuleName());
 
         if (result != null) { // its a recursive call
+            markRecursive(result);
             return result;
         } else {
             result = new GrammarGraph();
@@ -377,19 +416,10 @@ public class JSGFGrammar extends Grammar {
                         + initialRuleName + " g "
                         + initialRuleName.getFullGrammarName());
             }
-            JSGFRuleGrammar rg = manager.retrieveGrammar(ruleName
-                    .getFullGrammarName());
-            if (rg == null) {
-                throw new JSGFGrammarException("Can't resolve grammar name "
-                        + ruleName.getFullGrammarName());
-            }
-
-            JSGFRule rule = rg.getRule(ruleName.getSimpleRuleName());
-            if (rule == null) {
-                throw new JSGFGrammarException("Can't resolve rule: "
-                        + ruleName.getRuleName());
-            }
+            JSGFRule rule = getRule(ruleName);
+            RuleInstance instance = enterRule(ruleName.getRuleName(), result);
             GrammarGraph ruleResult = processRule(rule);
+            leaveRule(instance);
             if (result != ruleResult) {
                 result.getStartNode().add(ruleResult.getStartNode(), 0.0f);
                 ruleResult.getEndNode().add(result.getEndNode(), 0.0f);
@@ -399,6 +429,31 @@ public class JSGFGrammar extends Grammar {
         return result;
     }
 
+    /**
+     * Looks up the definition of a resolved rule name.
+     * 
+     * @param ruleName
+     *            the fully resolved rule name
+     * @return the rule
+     * @throws JSGFGrammarException
+     *             if the grammar or the rule is unknown
+     */
+    private JSGFRule getRule(JSGFRuleName ruleName) throws JSGFGrammarException {
+        JSGFRuleGrammar rg = manager.retrieveGrammar(ruleName
+                .getFullGrammarName());
+        if (rg == null) {
+            throw new JSGFGrammarException("Can't resolve grammar name "
+                    + ruleName.getFullGrammarName());
+        }
+
+        JSGFRule rule = rg.getRule(ruleName.getSimpleRuleName());
+        if (rule == null) {
+            throw new JSGFGrammarException("Can't resolve rule: "
+                    + ruleName.getRuleName());
+        }
+        return rule;
+    }
+
     /**
      * Parses the given RuleCount into a network of GrammarNodes.
      * 
@@ -617,33 +672,11 @@ public class JSGFGrammar extends Grammar {
             }
 
             manager.linkGrammars();
-            ruleStack = new RuleStack();
-            newGrammar();
-
-            firstNode = createGrammarNode("<sil>");
-            GrammarNode finalNode = createGrammarNode("<sil>");
-            finalNode.setFinalNode(true);
-
-            // go through each rule and create a network of GrammarNodes
-            // for each of them
-
-            for (String ruleName : ruleGrammar.getRuleNames()) {
-                if (ruleGrammar.isRulePublic(ruleName)) {
-                    String fullName = getFullRuleName(ruleName);
-                    GrammarGraph publicRuleGraph = new GrammarGraph();
-                    ruleStack.push(fullName, publicRuleGraph);
-                    JSGFRule rule = ruleGrammar.getRule(ruleName);
-                    GrammarGraph graph = processRule(rule);
-                    ruleStack.pop();
-
-                    firstNode.add(publicRuleGraph.getStartNode(), 0.0f);
-                    publicRuleGraph.getEndNode().add(finalNode, 0.0f);
-                    publicRuleGraph.getStartNode().add(graph.getStartNode(),
-                            0.0f);
-                    graph.getEndNode().add(publicRuleGraph.getEndNode(), 0.0f);
-                }
+            if (ruleInstances == null || manager.isStructureChanged()
+                    || !replaceChangedRules()) {
+                createGrammarGraph();
             }
-            postProcessGrammar();
+            manager.clearChanges();
             if (logger.isLoggable(Level.FINEST)) {
                 dumpGrammar();
             }
@@ -652,6 +685,262 @@ public class JSGFGrammar extends Grammar {
         }
     }
 
+    /**
+     * Creates the grammar graph for all public rules of the rule grammar.
+     * 
+     * @throws JSGFGrammarException if a rule can't be resolved
+     */
+    private void createGrammarGraph() throws JSGFGrammarException {
+        ruleStack = new RuleStack();
+        newGrammar();
+        ruleInstances = incrementalCommit ? new HashMap<String, List<RuleInstance>>()
+                : null;
+        currentInstance = null;
+
+        firstNode = createGrammarNode("<sil>");
+        GrammarNode finalNode = createGrammarNode("<sil>");
+        finalNode.setFinalNode(true);
+
+        // go through each rule and create a network of GrammarNodes
+        // for each of them
+
+        for (String ruleName : ruleGrammar.getRuleNames()) {
+            if (ruleGrammar.isRulePublic(ruleName)) {
+                String fullName = getFullRuleName(ruleName);
+                GrammarGraph publicRuleGraph = new GrammarGraph();
+                ruleStack.push(fullName, publicRuleGraph);
+                RuleInstance instance = enterRule(fullName, publicRuleGraph);
+                JSGFRule rule = ruleGrammar.getRule(ruleName);
+                GrammarGraph graph = processRule(rule);
+                leaveRule(instance);
+                ruleStack.pop();
+
+                firstNode.add(publicRuleGraph.getStartNode(), 0.0f);
+                publicRuleGraph.getEndNode().add(finalNode, 0.0f);
+                publicRuleGraph.getStartNode().add(graph.getStartNode(),
+                        0.0f);
+                graph.getEndNode().add(publicRuleGraph.getEndNode(), 0.0f);
+            }
+        }
+
+        if (ruleInstances == null) {
+            postProcessGrammar();
+        } else {
+            // add the inter-word nodes to the rule references that own
+            // the words, so that they are replaced together
+            List<GrammarNode> nodes = new ArrayList<GrammarNode>();
+            for (List<RuleInstance> instances : ruleInstances.values()) {
+                for (RuleInstance instance : instances) {
+                    if (instance.parent == null) {
+                        addInterWordNodes(instance, nodes);
+                    }
+                }
+            }
+            optimizeNodes(getGrammarNodes());
+            dumpStatistics();
+        }
+    }
+
+    /**
+     * Replaces the parts of the grammar graph that were expanded from the
+     * rules changed since the last commit. The graphs of the other rules are
+     * kept and the nodes that changed are reported to the linguist.
+     * 
+     * @return false if the changes can't be applied this way and the graph
+     *         has to be created again
+     * @throws JSGFGrammarException if a rule can't be resolved
+     */
+    private boolean replaceChangedRules() throws JSGFGrammarException {
+        Set<RuleInstance> changed = new LinkedHashSet<RuleInstance>();
+        for (String name : new TreeSet<String>(manager.getChangedRuleNames())) {
+            List<RuleInstance> instances = ruleInstances.get(name);
+            if (instances != null) {
+                changed.addAll(instances);
+            }
+        }
+
+        // a reference expanded inside another changed reference is
+        // replaced together with it
+        List<RuleInstance> replaced = new ArrayList<RuleInstance>();
+        for (RuleInstance instance : changed) {
+            if (instance.isRecursive) {
+                return false;
+            }
+            RuleInstance ancestor = instance.parent;
+            while (ancestor != null && !changed.contains(ancestor)) {
+                ancestor = ancestor.parent;
+            }
+            if (ancestor == null) {
+                replaced.add(instance);
+            }
+        }
+
+        hasRecursion = false;
+        for (RuleInstance instance : replaced) {
+            replaceRuleInstance(instance);
+            if (hasRecursion) {
+                return false;
+            }
+        }
+        if (!replaced.isEmpty()) {
+            logger.info("Replaced " + replaced.size() + " rule references");
+            dumpStatistics();
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the nodes expanded for a rule reference with the expansion of
+     * the current rule definition. The start and end nodes of the reference
+     * are kept, so that the arcs of the surrounding graph stay valid.
+     * 
+     * @param instance
+     *            the rule reference to replace
+     * @throws JSGFGrammarException if a rule can't be resolved
+     */
+    private void replaceRuleInstance(RuleInstance instance)
+            throws JSGFGrammarException {
+        List<GrammarNode> removed = new ArrayList<GrammarNode>();
+        removeRuleInstance(instance, removed);
+        if (instance.parent != null) {
+            instance.parent.children.remove(instance);
+        }
+        removeGrammarNodes(removed);
+
+        GrammarGraph graph = instance.graph;
+        graph.getStartNode().clearSuccessors();
+        nodeChanged(graph.getStartNode());
+
+        ruleStack = instance.ruleStack.copy();
+        currentInstance = instance.parent;
+        RuleInstance replacement = enterRule(instance.name, graph);
+        GrammarGraph body = processRule(getRule(new JSGFRuleName(instance.name)));
+        leaveRule(replacement);
+        currentInstance = null;
+
+        graph.getStartNode().add(body.getStartNode(), 0.0f);
+        body.getEndNode().add(graph.getEndNode(), 0.0f);
+
+        List<GrammarNode> added = new ArrayList<GrammarNode>();
+        addInterWordNodes(replacement, added);
+        added.add(graph.getStartNode());
+        optimizeNodes(added);
+    }
+
+    /**
+     * Forgets the given rule reference and the references expanded inside of
+     * it.
+     * 
+     * @param instance
+     *            the rule reference
+     * @param removed
+     *            receives the nodes of the references
+     */
+    private void removeRuleInstance(RuleInstance instance,
+            List<GrammarNode> removed) {
+        ruleInstances.get(instance.name).remove(instance);
+        removed.addAll(instance.nodes);
+        for (RuleInstance child : instance.children) {
+            removeRuleInstance(child, removed);
+        }
+    }
+
+    /**
+     * Adds the inter-word nodes to the words of the given rule reference and
+     * of the references expanded inside of it.
+     * 
+     * @param instance
+     *            the rule reference
+     * @param nodes
+     *            receives the nodes of the references
+     */
+    private void addInterWordNodes(RuleInstance instance,
+            List<GrammarNode> nodes) {
+        currentInstance = instance;
+        addInterWordNodes(new ArrayList<GrammarNode>(instance.nodes));
+        currentInstance = null;
+        nodes.addAll(instance.nodes);
+        for (RuleInstance child : instance.children) {
+            addInterWordNodes(child, nodes);
+        }
+    }
+
+    /**
+     * Starts to record the nodes expanded for a reference to the given rule,
+     * if commits are incremental.
+     * 
+     * @param name
+     *            the full name of the rule
+     * @param graph
+     *            the graph the rule is expanded into
+     * @return the rule reference, or null if commits are not incremental
+     */
+    private RuleInstance enterRule(String name, GrammarGraph graph) {
+        if (ruleInstances == null) {
+            return null;
+        }
+        RuleInstance instance = new RuleInstance(name, graph,
+                currentInstance, ruleStack.copy());
+        List<RuleInstance> instances = ruleInstances.get(name);
+        if (instances == null) {
+            instances = new ArrayList<RuleInstance>();
+            ruleInstances.put(name, instances);
+        }
+        instances.add(instance);
+        if (currentInstance != null) {
+            currentInstance.children.add(instance);
+        }
+        // the arcs to the start node are not touched when the rule changes
+        graph.getStartNode().setBypassable(false);
+        currentInstance = instance;
+        return instance;
+    }
+
+    /**
+     * Stops recording the nodes for the given rule reference.
+     * 
+     * @param instance
+     *            the rule reference returned by enterRule
+     */
+    private void leaveRule(RuleInstance instance) {
+        if (instance != null) {
+            currentInstance = instance.parent;
+        }
+    }
+
+    /**
+     * Marks the rule references between the current one and the one expanded
+     * into the given graph as recursive. Their nodes are linked with the
+     * graph of an enclosing reference, so they can't be replaced alone.
+     * 
+     * @param graph
+     *            the graph of the rule referenced recursively
+     */
+    private void markRecursive(GrammarGraph graph) {
+        hasRecursion = true;
+        for (RuleInstance instance = currentInstance; instance != null; instance = instance.parent) {
+            instance.isRecursive = true;
+            if (instance.graph == graph) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Adds the given grammar node to the set of nodes for this grammar and to
+     * the rule reference that is being expanded.
+     * 
+     * @param node
+     *            the grammar node
+     */
+    @Override
+    protected void add(GrammarNode node) {
+        super.add(node);
+        if (currentInstance != null) {
+            currentInstance.nodes.add(node);
+        }
+    }
+
     /**
      * Load grammars imported by the specified RuleGrammar if they are not
      * already loaded.
@@ -822,6 +1111,42 @@ public class JSGFGrammar extends Grammar {
         }
     }
 
+    /**
+     * Records the nodes that were expanded for one reference to a rule, so
+     * that they can be replaced when the rule changes.
+     */
+    class RuleInstance {
+
+        final String name;
+        final GrammarGraph graph;
+        final RuleInstance parent;
+        final RuleStack ruleStack;
+        final List<RuleInstance> children = new ArrayList<RuleInstance>();
+        final List<GrammarNode> nodes = new ArrayList<GrammarNode>();
+        boolean isRecursive;
+
+        /**
+         * Creates a rule reference
+         * 
+         * @param name
+         *            the full name of the rule
+         * @param graph
+         *            the graph the rule is expanded into
+         * @param parent
+         *            the reference the rule is expanded in, or null for a
+         *            public rule
+         * @param ruleStack
+         *            the rule stack at the time of the expansion
+         */
+        RuleInstance(String name, GrammarGraph graph, RuleInstance parent,
+                RuleStack ruleStack) {
+            this.name = name;
+            this.graph = graph;
+            this.parent = parent;
+            this.ruleStack = ruleStack;
+        }
+    }
+
     /** Manages a stack of grammar graphs that can be accessed by grammar name */
     class RuleStack {
 
@@ -865,5 +1190,13 @@ public class JSGFGrammar extends Grammar {
             stack = new LinkedList<String>();
             map = new HashMap<String, GrammarGraph>();
         }
+
+        /** Returns a copy of this name stack */
+        public RuleStack copy() {
+            RuleStack copy = new RuleStack();
+            copy.stack.addAll(stack);
+            copy.map.putAll(map);
+            return copy;
+        }
     }
 }
@@ -47,6 +47,9 @@ public class JSGFRuleGrammar {
     private String name;
     private JSGFRuleGrammarManager manager;
 
+    /** Set when rules are made public or private or deleted, or imports change */
+    private boolean isStructureChanged;
+
     /** Storage for documentation comments for rules for JSGF doc. */
     Properties ruleDocComments = new Properties();
 
@@ -102,6 +105,7 @@ public class JSGFRuleGrammar {
     public void addImport(JSGFRuleName importName) {
         if (!imports.contains(importName)) {
             imports.add(importName);
+            isStructureChanged = true;
         }
     }
 
@@ -143,6 +147,7 @@ public class JSGFRuleGrammar {
      */
     public void deleteRule(String ruleName) throws IllegalArgumentException {
         rules.remove(getKnownRule(ruleName).ruleName);
+        isStructureChanged = true;
     }
 
     /** Retrieve the Grammar comment.
@@ -249,6 +254,7 @@ public class JSGFRuleGrammar {
     public void removeImport(JSGFRuleName importName) {
         if (imports.contains(importName)) {
             imports.remove(importName);
+            isStructureChanged = true;
         }
     }
 
@@ -544,7 +550,11 @@ public class JSGFRuleGrammar {
      */
     public void setRule(String ruleName, JSGFRule rule, boolean isPublic) throws NullPointerException, IllegalArgumentException {
         JSGFRuleState state = new JSGFRuleState(rule, true, isPublic);
-        rules.put(ruleName, state);
+        state.isChanged = true;
+        JSGFRuleState previous = rules.put(ruleName, state);
+        if (previous == null ? isPublic : previous.isPublic != isPublic) {
+            isStructureChanged = true;
+        }
     }
 
     /**
@@ -645,4 +655,39 @@ public class JSGFRuleGrammar {
         JSGFRuleState state = rules.get(ruleName);
         state.isChanged = changed;
     }
+
+    /**
+     * Returns the names of the rules that were set since the changes were
+     * last cleared.
+     * 
+     * @return the names of the changed rules
+     */
+    public Set<String> getChangedRuleNames() {
+        Set<String> changed = new HashSet<String>();
+        for (Map.Entry<String, JSGFRuleState> entry : rules.entrySet()) {
+            if (entry.getValue().isChanged) {
+                changed.add(entry.getKey());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Tests whether public rules or imports were added or removed, or rules
+     * were deleted, since the changes were last cleared. Such changes can't be
+     * applied by replacing the changed rules alone.
+     * 
+     * @return true if the structure of the grammar changed
+     */
+    public boolean isStructureChanged() {
+        return isStructureChanged;
+    }
+
+    /** Marks all rules of this grammar as unchanged. */
+    public void clearChanges() {
+        for (JSGFRuleState state : rules.values()) {
+            state.isChanged = false;
+        }
+        isStructureChanged = false;
+    }
 }
@@ -9,10 +9,13 @@ package edu.cmu.sphinx.jsgf;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 public class JSGFRuleGrammarManager {
 	protected Map<String, JSGFRuleGrammar> grammars;
+	private boolean isStructureChanged;
 
 	public JSGFRuleGrammarManager () {
 		grammars = new HashMap<String, JSGFRuleGrammar>();
@@ -24,11 +27,12 @@ public class JSGFRuleGrammarManager {
 
 	public void remove(JSGFRuleGrammar grammar) {
 		String name = grammar.getName();
-		grammars.remove(name);
+		remove(name);
 	}
 
 	public void remove(String name) {
-		grammars.remove(name);
+		if (grammars.remove(name) != null)
+			isStructureChanged = true;
 	}
 	
 	/** Add a grammar to the grammar list. 
@@ -36,6 +40,7 @@ public class JSGFRuleGrammarManager {
 	 **/
 	protected void storeGrammar(JSGFRuleGrammar grammar) {
 		grammars.put(grammar.getName(), grammar);
+		isStructureChanged = true;
 	}
 
 	/** Retrieve a grammar from the grammar list.
@@ -55,4 +60,38 @@ public class JSGFRuleGrammarManager {
                     grammar.resolveAllRules();
             }
 	}
+
+	/** Returns the full names of the rules that were set in any grammar
+	 * since the changes were last cleared.
+	 * @return the changed rule names, qualified with the grammar name
+	 */
+	public Set<String> getChangedRuleNames() {
+		Set<String> changed = new HashSet<String>();
+		for (JSGFRuleGrammar grammar : grammars.values()) {
+			for (String ruleName : grammar.getChangedRuleNames())
+				changed.add(grammar.getName() + '.' + ruleName);
+		}
+		return changed;
+	}
+
+	/** Tests whether grammars were added or removed, or the structure of
+	 * any grammar changed, since the changes were last cleared.
+	 * @return true if the changes can't be applied rule by rule
+	 */
+	public boolean isStructureChanged() {
+		if (isStructureChanged)
+			return true;
+		for (JSGFRuleGrammar grammar : grammars.values()) {
+			if (grammar.isStructureChanged())
+				return true;
+		}
+		return false;
+	}
+
+	/** Marks all grammars as unchanged. */
+	public void clearChanges() {
+		for (JSGFRuleGrammar grammar : grammars.values())
+			grammar.clearChanges();
+		isStructureChanged = false;
+	}
 }
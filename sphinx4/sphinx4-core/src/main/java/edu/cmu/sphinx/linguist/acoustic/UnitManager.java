@@ -15,8 +15,8 @@ import edu.cmu.sphinx.util.props.Configurable;
 import edu.cmu.sphinx.util.props.PropertyException;
 import edu.cmu.sphinx.util.props.PropertySheet;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,7 +30,7 @@ public class UnitManager implements Configurable {
     /** The silence unit */
     public final static Unit SILENCE = new Unit(SILENCE_NAME, true, SILENCE_ID);
 
-    private final Map<String, Unit> ciMap = new HashMap<String, Unit>();
+    private final Map<String, Unit> ciMap = new ConcurrentHashMap<String, Unit>();
     {
         ciMap.put(SILENCE_NAME, SILENCE);
     }
@@ -58,11 +58,7 @@ public class UnitManager implements Configurable {
         Unit unit = ciMap.get(name);
         if (context == Context.EMPTY_CONTEXT) {
             if (unit == null) {
-                unit = new Unit(name, filler, nextID++);
-                ciMap.put(name, unit);
-                if (logger != null && logger.isLoggable(Level.INFO)) {
-                    logger.info("CI Unit: " + unit);
-                }
+                unit = createCIUnit(name, filler);
             }
         } else {
             unit = new Unit(unit, filler, context);
@@ -70,6 +66,19 @@ public class UnitManager implements Configurable {
         return unit;
     }
 
+    /* Units are created under the lock, the manager may be shared by several recognizers */
+    private synchronized Unit createCIUnit(String name, boolean filler) {
+        Unit unit = ciMap.get(name);
+        if (unit == null) {
+            unit = new Unit(name, filler, nextID++);
+            ciMap.put(name, unit);
+            if (logger != null && logger.isLoggable(Level.INFO)) {
+                logger.info("CI Unit: " + unit);
+            }
+        }
+        return unit;
+    }
+
     /**
      * Gets or creates a unit from the unit pool
      *
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.acoustic.tiedstate;
+
+import static edu.cmu.sphinx.linguist.acoustic.tiedstate.Pool.Feature.NUM_GAUSSIANS_PER_STATE;
+import static edu.cmu.sphinx.linguist.acoustic.tiedstate.Pool.Feature.NUM_SENONES;
+import static edu.cmu.sphinx.linguist.acoustic.tiedstate.Pool.Feature.NUM_STREAMS;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import edu.cmu.sphinx.linguist.acoustic.Context;
+import edu.cmu.sphinx.linguist.acoustic.HMMPosition;
+import edu.cmu.sphinx.linguist.acoustic.LeftRightContext;
+import edu.cmu.sphinx.linguist.acoustic.Unit;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+
+/**
+ * Loads an acoustic model compiled by {@link CompiledModelWriter}.
+ * <p>
+ * A compiled model is a single file holding the acoustic model after all
+ * post-processing of the original loader: floored and normalized mixture
+ * weights and transition matrices in log domain, the precomputed precisions
+ * and Gaussian factors of every mixture component and the tables of units
+ * and HMMs. Loading it does not parse text or compute logarithms, the float
+ * blocks are copied in bulk from a memory mapped file.
+ * <p>
+ * The <b>location</b> property refers to the compiled model file. The floors
+ * are baked into the file, the floor properties of this loader are ignored.
+ * Only continuous single-stream models can be compiled.
+ */
+public class CompiledModelLoader extends Sphinx3Loader {
+
+    /** Magic number of a compiled model file, "S4AM" */
+    public final static int MAGIC = 0x5334414D;
+
+    /** Version of the compiled model format */
+    public final static int VERSION = 1;
+
+    final static Charset UTF8 = Charset.forName("UTF-8");
+
+    public CompiledModelLoader(URL location, UnitManager unitManager,
+            boolean useCDUnits) {
+        init(location, unitManager, 0f, 0f, 0f, 0, useCDUnits,
+                Logger.getLogger(getClass().getName()));
+    }
+
+    public CompiledModelLoader() {
+    }
+
+    @Override
+    public boolean hasTiedMixtures() {
+        return false;
+    }
+
+    @Override
+    protected void loadModelFiles() throws IOException, URISyntaxException {
+        ByteBuffer buffer = map(location);
+
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC)
+            throw new IOException("Not a compiled acoustic model: " + location);
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported compiled model version "
+                    + version + " in " + location);
+
+        modelProps = new Properties();
+        int numProps = buffer.getInt();
+        for (int i = 0; i < numProps; i++)
+            modelProps.setProperty(getString(buffer), getString(buffer));
+
+        loadGaussians(buffer);
+        loadTransitionMatrices(buffer);
+
+        int numRows = buffer.getInt();
+        if (numRows > 0) {
+            int numColumns = buffer.getInt();
+            transformMatrix = new float[numRows][numColumns];
+            for (float[] row : transformMatrix)
+                getFloats(buffer, row);
+        }
+
+        loadHMMs(buffer);
+
+        if (buffer.hasRemaining())
+            throw new IOException("Trailing data in compiled model " + location);
+    }
+
+    private void loadGaussians(ByteBuffer buffer) {
+        numStates = buffer.getInt();
+        numStreams = 1;
+        numGaussiansPerState = buffer.getInt();
+        int dimension = buffer.getInt();
+        vectorLength = new int[] {dimension};
+        float logDistFloor = buffer.getFloat();
+        float varianceFloor = buffer.getFloat();
+
+        mixtureWeights = new GaussianWeights("mixture_weights", numStates,
+                numGaussiansPerState, numStreams);
+        int numComponents = numStates * numGaussiansPerState;
+        float[] weights = getFloats(buffer, new float[numComponents]);
+        for (int i = 0; i < numStates; i++) {
+            int start = i * numGaussiansPerState;
+            mixtureWeights.put(i, 0, Arrays.copyOfRange(weights, start,
+                    start + numGaussiansPerState));
+        }
+
+        float[] factors = getFloats(buffer, new float[numComponents]);
+
+        // every block is copied in bulk and then split into vectors
+        meansPool = createDensityPool("means");
+        variancePool = createDensityPool("variances");
+        float[] block = new float[numComponents * dimension];
+        getFloats(buffer, block);
+        for (int i = 0; i < numComponents; i++)
+            meansPool.put(i, Arrays.copyOfRange(block, i * dimension, (i + 1) * dimension));
+        getFloats(buffer, block);
+        for (int i = 0; i < numComponents; i++)
+            variancePool.put(i, Arrays.copyOfRange(block, i * dimension, (i + 1) * dimension));
+        getFloats(buffer, block);
+        float[][] precisions = new float[numComponents][];
+        for (int i = 0; i < numComponents; i++)
+            precisions[i] = Arrays.copyOfRange(block, i * dimension, (i + 1) * dimension);
+
+        MixtureComponent[][] components = new MixtureComponent[numStates][numGaussiansPerState];
+        for (int i = 0; i < numStates; i++) {
+            for (int j = 0; j < numGaussiansPerState; j++) {
+                int which = i * numGaussiansPerState + j;
+                components[i][j] = new MixtureComponent(meansPool.get(which),
+                        variancePool.get(which), precisions[which],
+                        factors[which], logDistFloor, varianceFloor);
+            }
+        }
+
+        senonePool = new Pool<Senone>("senones");
+        if (usePackedGaussians) {
+            packedGaussianPool = new PackedGaussianPool(components, mixtureWeights, vectorLength);
+            for (int i = 0; i < numStates; i++)
+                senonePool.put(i, new PackedGaussianMixture(mixtureWeights, packedGaussianPool, i));
+        } else {
+            for (int i = 0; i < numStates; i++)
+                senonePool.put(i, new GaussianMixture(mixtureWeights, components[i], i));
+        }
+    }
+
+    private Pool<float[]> createDensityPool(String name) {
+        Pool<float[]> pool = new Pool<float[]>(name);
+        pool.setFeature(NUM_SENONES, numStates);
+        pool.setFeature(NUM_STREAMS, numStreams);
+        pool.setFeature(NUM_GAUSSIANS_PER_STATE, numGaussiansPerState);
+        return pool;
+    }
+
+    private void loadTransitionMatrices(ByteBuffer buffer) {
+        int numMatrices = buffer.getInt();
+        int numStates = buffer.getInt();
+        transitionsPool = new Pool<float[][]>("transition_matrices");
+        for (int i = 0; i < numMatrices; i++) {
+            float[][] tmat = new float[numStates][numStates];
+            for (float[] row : tmat)
+                getFloats(buffer, row);
+            transitionsPool.put(i, tmat);
+        }
+    }
+
+    private void loadHMMs(ByteBuffer buffer) throws IOException {
+        Map<String, Unit> ciUnits = getContextIndependentUnits();
+        int numUnits = buffer.getInt();
+        for (int i = 0; i < numUnits; i++) {
+            String name = getString(buffer);
+            Unit unit = unitManager.getUnit(name, buffer.get() != 0);
+            ciUnits.put(unit.getName(), unit);
+        }
+
+        HMMManager hmmManager = getHmmManager();
+        int numHMMs = buffer.getInt();
+        String lastUnitName = null;
+        Unit lastUnit = null;
+        int[] lastStid = null;
+        SenoneSequence lastSenoneSequence = null;
+
+        for (int i = 0; i < numHMMs; i++) {
+            String name = getString(buffer);
+            boolean filler = buffer.get() != 0;
+            Unit[] left = getUnits(buffer, ciUnits);
+            Unit[] right = getUnits(buffer, ciUnits);
+            HMMPosition position = HMMPosition.lookup(String.valueOf((char) buffer.get()));
+            float[][] transitionMatrix = transitionsPool.get(buffer.getInt());
+            int[] stid = new int[buffer.getInt()];
+            for (int j = 0; j < stid.length; j++)
+                stid[j] = buffer.getInt();
+
+            boolean contextDependent = left != null || right != null;
+            if (contextDependent && !useCDUnits)
+                continue;
+
+            Unit unit;
+            if (!contextDependent) {
+                unit = unitManager.getUnit(name, filler);
+            } else {
+                String unitName = name + ' ' + LeftRightContext.getContextName(left)
+                        + ' ' + LeftRightContext.getContextName(right);
+                if (unitName.equals(lastUnitName)) {
+                    unit = lastUnit;
+                } else {
+                    Context context = LeftRightContext.get(left, right);
+                    unit = unitManager.getUnit(name, filler, context);
+                }
+                lastUnitName = unitName;
+                lastUnit = unit;
+            }
+
+            SenoneSequence ss = lastSenoneSequence;
+            if (ss == null || !sameSenoneSequence(stid, lastStid))
+                ss = getSenoneSequence(stid);
+            lastSenoneSequence = ss;
+            lastStid = stid;
+
+            hmmManager.put(new SenoneHMM(unit, ss, transitionMatrix, position));
+        }
+
+        if (hmmManager.get(HMMPosition.UNDEFINED, UnitManager.SILENCE) == null)
+            throw new IOException("Could not find SIL unit in acoustic model");
+    }
+
+    private static Unit[] getUnits(ByteBuffer buffer, Map<String, Unit> ciUnits)
+            throws IOException {
+        int size = buffer.getInt();
+        if (size < 0)
+            return null;
+        Unit[] units = new Unit[size];
+        for (int i = 0; i < size; i++) {
+            String name = getString(buffer);
+            units[i] = ciUnits.get(name);
+            if (units[i] == null)
+                throw new IOException("Unknown context unit " + name);
+        }
+        return units;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static float[] getFloats(ByteBuffer buffer, float[] data) {
+        buffer.asFloatBuffer().get(data);
+        buffer.position(buffer.position() + data.length * 4);
+        return data;
+    }
+
+    /**
+     * Maps the model file into memory, models from other locations such as
+     * jar resources are read into a heap buffer.
+     */
+    private static ByteBuffer map(URL location) throws IOException {
+        if ("file".equals(location.getProtocol())) {
+            File file;
+            try {
+                file = new File(location.toURI());
+            } catch (URISyntaxException e) {
+                file = new File(location.getPath());
+            }
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                raf.close();
+            }
+        }
+
+        InputStream stream = location.openStream();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[1 << 16];
+            int n;
+            while ((n = stream.read(chunk)) > 0)
+                bytes.write(chunk, 0, n);
+            return ByteBuffer.wrap(bytes.toByteArray());
+        } finally {
+            stream.close();
+        }
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.acoustic.tiedstate;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import edu.cmu.sphinx.linguist.acoustic.Context;
+import edu.cmu.sphinx.linguist.acoustic.HMM;
+import edu.cmu.sphinx.linguist.acoustic.LeftRightContext;
+import edu.cmu.sphinx.linguist.acoustic.Unit;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+
+/**
+ * Compiles a loaded acoustic model into the single file format read by
+ * {@link CompiledModelLoader}.
+ * <p>
+ * The writer only relies on the {@link Loader} interface, so a model loaded
+ * by any loader may be compiled as long as its senones are plain
+ * {@link GaussianMixture GaussianMixtures} of a single stream without
+ * adaptation transforms. The model is written as it is after loading, with
+ * all floors applied and all Gaussian factors precomputed.
+ * <p>
+ * Usage: <code>CompiledModelWriter &lt;model location&gt; &lt;output file&gt;</code>
+ * compiles a Sphinx-3 model with the default floors.
+ */
+public class CompiledModelWriter {
+
+    private final DataOutputStream out;
+
+    private CompiledModelWriter(OutputStream stream) {
+        out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+    }
+
+    /**
+     * Writes the loaded model to the given stream.
+     *
+     * @param loader loader the model was loaded with
+     * @param stream stream to write to, it is flushed but not closed
+     * @throws IOException if the stream can't be written or the model can't
+     *         be compiled
+     */
+    public static void write(Loader loader, OutputStream stream) throws IOException {
+        CompiledModelWriter writer = new CompiledModelWriter(stream);
+        writer.writeModel(loader);
+        writer.out.flush();
+    }
+
+    /**
+     * Writes the loaded model to the given file.
+     *
+     * @param loader loader the model was loaded with
+     * @param file file to write to
+     * @throws IOException if the file can't be written or the model can't be
+     *         compiled
+     */
+    public static void write(Loader loader, File file) throws IOException {
+        OutputStream stream = new FileOutputStream(file);
+        try {
+            write(loader, stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private void writeModel(Loader loader) throws IOException {
+        out.writeInt(CompiledModelLoader.MAGIC);
+        out.writeInt(CompiledModelLoader.VERSION);
+
+        Map<Object, Object> props = loader.getProperties();
+        out.writeInt(props.size());
+        for (Map.Entry<Object, Object> entry : props.entrySet()) {
+            writeString(entry.getKey().toString());
+            writeString(entry.getValue().toString());
+        }
+
+        Map<Senone, Integer> senoneIds = writeGaussians(loader);
+        Map<float[][], Integer> matrixIds = writeTransitionMatrices(loader);
+
+        float[][] transform = loader.getTransformMatrix();
+        if (transform == null || transform.length == 0) {
+            out.writeInt(0);
+        } else {
+            out.writeInt(transform.length);
+            out.writeInt(transform[0].length);
+            for (float[] row : transform)
+                writeFloats(row);
+        }
+
+        writeHMMs(loader, senoneIds, matrixIds);
+    }
+
+    private Map<Senone, Integer> writeGaussians(Loader loader) throws IOException {
+        Pool<Senone> senonePool = loader.getSenonePool();
+        GaussianWeights weights = loader.getMixtureWeights();
+        if (weights.getStreamsNum() != 1)
+            throw new IOException("Only single-stream models can be compiled");
+
+        int numSenones = senonePool.size();
+        int numGaussians = weights.getGauPerState();
+        MixtureComponent[] components = new MixtureComponent[numSenones * numGaussians];
+        Map<Senone, Integer> senoneIds = new IdentityHashMap<Senone, Integer>();
+        for (int i = 0; i < numSenones; i++) {
+            Senone senone = senonePool.get(i);
+            if (senone.getClass() != GaussianMixture.class
+                    && senone.getClass() != PackedGaussianMixture.class)
+                throw new IOException("Senones of type "
+                        + senone.getClass().getSimpleName() + " can't be compiled");
+            MixtureComponent[] mixture = senone.getMixtureComponents();
+            if (mixture.length != numGaussians)
+                throw new IOException("Senone " + i + " has " + mixture.length
+                        + " components instead of " + numGaussians);
+            for (MixtureComponent component : mixture) {
+                if (component.isTransformed())
+                    throw new IOException("Adapted models can't be compiled");
+            }
+            System.arraycopy(mixture, 0, components, i * numGaussians, numGaussians);
+            senoneIds.put(senone, i);
+        }
+
+        int dimension = components[0].getMean().length;
+        out.writeInt(numSenones);
+        out.writeInt(numGaussians);
+        out.writeInt(dimension);
+        out.writeFloat(components[0].distFloor);
+        out.writeFloat(components[0].getVarianceFloor());
+
+        for (int i = 0; i < numSenones; i++)
+            writeFloats(senonePool.get(i).getLogMixtureWeights());
+        for (MixtureComponent component : components)
+            out.writeFloat(component.logPreComputedGaussianFactor);
+        for (MixtureComponent component : components)
+            writeFloats(component.getMean());
+        for (MixtureComponent component : components)
+            writeFloats(component.getVariance());
+        for (MixtureComponent component : components)
+            writeFloats(component.getPrecision());
+
+        return senoneIds;
+    }
+
+    private Map<float[][], Integer> writeTransitionMatrices(Loader loader)
+            throws IOException {
+        Pool<float[][]> pool = loader.getTransitionMatrixPool();
+        Map<float[][], Integer> matrixIds = new IdentityHashMap<float[][], Integer>();
+        int numStates = pool.get(0).length;
+        out.writeInt(pool.size());
+        out.writeInt(numStates);
+        for (int i = 0; i < pool.size(); i++) {
+            float[][] tmat = pool.get(i);
+            for (float[] row : tmat) {
+                if (row.length != numStates)
+                    throw new IOException("Transition matrices of different sizes");
+                writeFloats(row);
+            }
+            matrixIds.put(tmat, i);
+        }
+        return matrixIds;
+    }
+
+    private void writeHMMs(Loader loader, Map<Senone, Integer> senoneIds,
+            Map<float[][], Integer> matrixIds) throws IOException {
+        Map<String, Unit> ciUnits = loader.getContextIndependentUnits();
+        out.writeInt(ciUnits.size());
+        for (Unit unit : ciUnits.values()) {
+            writeString(unit.getName());
+            out.writeByte(unit.isFiller() ? 1 : 0);
+        }
+
+        int numHMMs = 0;
+        for (HMM hmm : loader.getHMMManager())
+            numHMMs++;
+        out.writeInt(numHMMs);
+
+        for (HMM hmm : loader.getHMMManager()) {
+            if (!(hmm instanceof SenoneHMM))
+                throw new IOException("HMMs of type "
+                        + hmm.getClass().getSimpleName() + " can't be compiled");
+            SenoneHMM senoneHMM = (SenoneHMM) hmm;
+            Unit unit = hmm.getUnit();
+            writeString(unit.getName());
+            out.writeByte(unit.isFiller() ? 1 : 0);
+
+            Context context = unit.getContext();
+            if (context instanceof LeftRightContext) {
+                writeUnits(((LeftRightContext) context).getLeftContext());
+                writeUnits(((LeftRightContext) context).getRightContext());
+            } else {
+                writeUnits(null);
+                writeUnits(null);
+            }
+
+            out.writeByte(hmm.getPosition().toString().charAt(0));
+            Integer tmat = matrixIds.get(senoneHMM.getTransitionMatrix());
+            if (tmat == null)
+                throw new IOException("Transition matrix of " + hmm + " is not pooled");
+            out.writeInt(tmat);
+
+            Senone[] senones = senoneHMM.getSenoneSequence().getSenones();
+            out.writeInt(senones.length);
+            for (Senone senone : senones) {
+                Integer id = senoneIds.get(senone);
+                if (id == null)
+                    throw new IOException("Senone of " + hmm + " is not pooled");
+                out.writeInt(id);
+            }
+        }
+    }
+
+    private void writeUnits(Unit[] units) throws IOException {
+        if (units == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(units.length);
+        for (Unit unit : units)
+            writeString(unit.getName());
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(CompiledModelLoader.UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeFloats(float[] values) throws IOException {
+        for (float value : values)
+            out.writeFloat(value);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: CompiledModelWriter <model location> <output file>");
+            System.exit(1);
+        }
+        Sphinx3Loader loader = new Sphinx3Loader(args[0], new UnitManager(),
+                0.0f, 1e-7f, 1e-4f, 4, true);
+        loader.load();
+        write(loader, new File(args[1]));
+    }
+}
@@ -35,6 +35,8 @@ public class GaussianMixture extends ScoreCachingSenone {
 
     protected LogMath logMath;
 
+    private GaussianSelector gaussianSelector;
+
 
     /**
      * Creates a new senone from the given components.
@@ -113,6 +115,9 @@ public class GaussianMixture extends ScoreCachingSenone {
         if (feature instanceof DoubleData)
             System.err.println("DoubleData conversion required on mixture level!");
 
+        if (gaussianSelector != null)
+            return calculateSelectedScore(feature);
+
         float[] featureVector = FloatData.toFloatData(feature).getValues();
 
         float logTotal = LogMath.LOG_ZERO;
@@ -128,6 +133,60 @@ public class GaussianMixture extends ScoreCachingSenone {
     }
 
 
+    /**
+     * Calculates the score using only the components shortlisted by the
+     * Gaussian selector for the codeword nearest to the feature. The other
+     * components contribute their floor score.
+     *
+     * @param feature the feature to score
+     * @return the score for this senone in LogMath log base
+     */
+    protected float calculateSelectedScore(Data feature) {
+        float[] featureVector = FloatData.toFloatData(feature).getValues();
+
+        short[] shortlists = gaussianSelector.getShortlists();
+        int shortlistSize = gaussianSelector.getShortlistSize();
+        int offset = gaussianSelector.getShortlistOffset(
+                gaussianSelector.getCodeword(feature), id);
+
+        float logTotal = LogMath.LOG_ZERO;
+        for (int i = 0; i < shortlistSize; i++) {
+            int component = shortlists[offset + i];
+            logTotal = logMath.addAsLinear(logTotal,
+                    mixtureComponents[component].getScore(featureVector) + mixtureWeights.get(id, 0, component));
+        }
+
+        // floor scores of all other components
+        if (shortlistSize < mixtureComponents.length && mixtureComponents[0].distFloor > LogMath.LOG_ZERO) {
+            for (int i = 0; i < mixtureComponents.length; i++) {
+                if (GaussianSelector.isShortlisted(shortlists, offset, shortlistSize, i))
+                    continue;
+                logTotal = logMath.addAsLinear(logTotal,
+                        mixtureComponents[i].distFloor + mixtureWeights.get(id, 0, i));
+            }
+        }
+
+        return logTotal;
+    }
+
+
+    /**
+     * Sets the Gaussian selector used to shortlist components during
+     * scoring. Passing <code>null</code> turns selection off.
+     *
+     * @param gaussianSelector the selector built over this model
+     */
+    public void setGaussianSelector(GaussianSelector gaussianSelector) {
+        this.gaussianSelector = gaussianSelector;
+    }
+
+
+    /** @return the Gaussian selector or <code>null</code> if all components are scored */
+    public GaussianSelector getGaussianSelector() {
+        return gaussianSelector;
+    }
+
+
     /**
      * Calculates the scores for each component in the senone.
      *
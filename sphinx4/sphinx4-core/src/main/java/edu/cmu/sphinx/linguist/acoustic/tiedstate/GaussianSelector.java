@@ -0,0 +1,316 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.acoustic.tiedstate;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import edu.cmu.sphinx.frontend.Data;
+import edu.cmu.sphinx.frontend.FloatData;
+
+/**
+ * Gaussian selection for continuous models.
+ * <p>
+ * At load time a vector-quantized codebook is trained over the means of all
+ * mixture components. For every codeword and senone a shortlist of the
+ * components which are most likely around that codeword is stored. At
+ * runtime the nearest codeword of each frame is found once, and senones only
+ * evaluate the components on its shortlist, the rest of the components get
+ * the floor score. After the means change, for example by adaptation, the
+ * shortlists are rebuilt with {@link #update()} against the same codebook,
+ * retraining the codebook is the explicit and more expensive
+ * {@link #retrain()}.
+ * <p>
+ * See Bocchieri, "Vector quantization for the efficient computation of
+ * continuous density likelihoods", ICASSP 1993.
+ */
+public class GaussianSelector {
+
+    private final static int KMEANS_ITERATIONS = 8;
+    private final static int MAX_TRAINING_VECTORS = 20000;
+    /** Number of frames whose codewords are cached */
+    private final static int CACHED_FRAMES = 32;
+
+    private final MixtureComponent[][] components;
+    private final int codebookSize;
+    private final int shortlistSize;
+    private final int numSenones;
+    private final int dimension;
+
+    private volatile Codebook codebook;
+    // the codewords of the last frames, most recent first
+    private volatile Codeword[] lastCodewords = new Codeword[0];
+
+    /**
+     * The codewords and shortlists trained over the means at one time. It is
+     * replaced as a whole, so senones scored during an update see either the
+     * old or the new one.
+     */
+    private static class Codebook {
+        // [codeword][dimension]
+        private final float[] codewords;
+        // inverse of the variance of the means in each dimension
+        private final float[] weights;
+        // [codeword][senone][rank] component index
+        private final short[] shortlists;
+
+        Codebook(float[] codewords, float[] weights, short[] shortlists) {
+            this.codewords = codewords;
+            this.weights = weights;
+            this.shortlists = shortlists;
+        }
+    }
+
+    private static class Codeword {
+        private final Data feature;
+        private final float[] codewords;
+        private final int index;
+
+        Codeword(Data feature, float[] codewords, int index) {
+            this.feature = feature;
+            this.codewords = codewords;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Trains the codebook and builds the shortlists.
+     *
+     * @param components the components of every senone indexed by senone id
+     * @param codebookSize the number of codewords
+     * @param shortlistSize the number of components evaluated per senone
+     */
+    public GaussianSelector(MixtureComponent[][] components, int codebookSize, int shortlistSize) {
+        this.components = components;
+        this.numSenones = components.length;
+        this.dimension = components[0][0].getMean().length;
+
+        int numComponents = 0;
+        int minComponents = Integer.MAX_VALUE;
+        for (MixtureComponent[] senone : components) {
+            numComponents += senone.length;
+            minComponents = Math.min(minComponents, senone.length);
+        }
+        this.codebookSize = Math.min(codebookSize, numComponents);
+        this.shortlistSize = Math.min(shortlistSize, minComponents);
+
+        retrain();
+    }
+
+    /**
+     * Rebuilds the shortlists of the current codebook from the current means
+     * of the components. Must be called whenever the components were
+     * modified, for example after adaptation.
+     */
+    public void update() {
+        Codebook current = codebook;
+        codebook = new Codebook(current.codewords, current.weights,
+                buildShortlists(current.codewords));
+    }
+
+    /**
+     * Trains the codebook over the current means of the components and
+     * rebuilds the shortlists. Unlike {@link #update()} this runs k-means over
+     * all means, it is meant for means which moved far from the codebook.
+     */
+    public void retrain() {
+        int numComponents = 0;
+        for (MixtureComponent[] senone : components)
+            numComponents += senone.length;
+        float[][] means = new float[numComponents][];
+        int n = 0;
+        for (MixtureComponent[] senone : components)
+            for (MixtureComponent component : senone)
+                means[n++] = component.meanTransformed;
+
+        float[] weights = computeWeights(means);
+        float[] codewords = trainCodebook(means, weights);
+        codebook = new Codebook(codewords, weights, buildShortlists(codewords));
+    }
+
+    private float[] computeWeights(float[][] means) {
+        double[] sum = new double[dimension];
+        double[] sumSquares = new double[dimension];
+        for (float[] mean : means) {
+            for (int d = 0; d < dimension; d++) {
+                sum[d] += mean[d];
+                sumSquares[d] += mean[d] * mean[d];
+            }
+        }
+        float[] result = new float[dimension];
+        for (int d = 0; d < dimension; d++) {
+            double average = sum[d] / means.length;
+            double variance = sumSquares[d] / means.length - average * average;
+            result[d] = variance > 0 ? (float) (1.0 / variance) : 1.0f;
+        }
+        return result;
+    }
+
+    /**
+     * Runs k-means over an evenly spaced sample of the means. Codewords are
+     * initialized from evenly spaced vectors so the result is deterministic.
+     */
+    private float[] trainCodebook(float[][] means, float[] weights) {
+        int step = Math.max(1, means.length / MAX_TRAINING_VECTORS);
+        int numVectors = (means.length + step - 1) / step;
+
+        float[] result = new float[codebookSize * dimension];
+        for (int c = 0; c < codebookSize; c++)
+            System.arraycopy(means[(int) ((long) c * means.length / codebookSize)], 0,
+                    result, c * dimension, dimension);
+
+        double[] sums = new double[codebookSize * dimension];
+        int[] counts = new int[codebookSize];
+        for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < numVectors; i++) {
+                float[] mean = means[i * step];
+                int c = nearest(result, weights, mean);
+                counts[c]++;
+                for (int d = 0; d < dimension; d++)
+                    sums[c * dimension + d] += mean[d];
+            }
+            for (int c = 0; c < codebookSize; c++) {
+                // empty cells keep their previous codeword
+                if (counts[c] == 0)
+                    continue;
+                for (int d = 0; d < dimension; d++)
+                    result[c * dimension + d] = (float) (sums[c * dimension + d] / counts[c]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * For every codeword keeps the components of each senone with the highest
+     * likelihood of the codeword.
+     */
+    private short[] buildShortlists(float[] codewords) {
+        short[] shortlists = new short[codebookSize * numSenones * shortlistSize];
+        float[] codeword = new float[dimension];
+        float[] scores = new float[0];
+        for (int c = 0; c < codebookSize; c++) {
+            System.arraycopy(codewords, c * dimension, codeword, 0, dimension);
+            for (int s = 0; s < numSenones; s++) {
+                MixtureComponent[] senone = components[s];
+                if (scores.length < senone.length)
+                    scores = new float[senone.length];
+                for (int k = 0; k < senone.length; k++)
+                    scores[k] = senone[k].getScore(codeword);
+                int offset = (c * numSenones + s) * shortlistSize;
+                for (int i = 0; i < shortlistSize; i++) {
+                    // selected components are marked with negative infinity
+                    int best = -1;
+                    for (int k = 0; k < senone.length; k++)
+                        if (scores[k] != Float.NEGATIVE_INFINITY
+                                && (best < 0 || scores[k] > scores[best]))
+                            best = k;
+                    shortlists[offset + i] = (short) best;
+                    scores[best] = Float.NEGATIVE_INFINITY;
+                }
+            }
+        }
+        return shortlists;
+    }
+
+    private int nearest(float[] codewords, float[] weights, float[] vector) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < codebookSize; c++) {
+            float distance = 0;
+            int offset = c * dimension;
+            for (int d = 0; d < dimension; d++) {
+                float diff = vector[d] - codewords[offset + d];
+                distance += diff * diff * weights[d];
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the nearest codeword of the given feature. The results for the
+     * last {@value #CACHED_FRAMES} features are cached, so all senones scored
+     * against the same frame share the search, also when a scorer scores a
+     * senone on several frames in a row or several recognizers share the
+     * model.
+     *
+     * @param feature the feature
+     * @return index of the nearest codeword
+     */
+    public int getCodeword(Data feature) {
+        Codebook current = codebook;
+        Codeword[] cached = lastCodewords;
+        for (Codeword codeword : cached)
+            if (codeword.feature == feature && codeword.codewords == current.codewords)
+                return codeword.index;
+
+        Codeword codeword = new Codeword(feature, current.codewords, nearest(current.codewords,
+                current.weights, FloatData.toFloatData(feature).getValues()));
+        Codeword[] updated = new Codeword[Math.min(cached.length + 1, CACHED_FRAMES)];
+        updated[0] = codeword;
+        System.arraycopy(cached, 0, updated, 1, updated.length - 1);
+        lastCodewords = updated;
+        return codeword.index;
+    }
+
+    /**
+     * Checks whether a component is on a shortlist.
+     *
+     * @param shortlists the component indices of all shortlists
+     * @param offset the offset of the shortlist
+     * @param size the number of components on the shortlist
+     * @param component the index of the component
+     * @return <code>true</code> if the component is on the shortlist
+     */
+    public static boolean isShortlisted(short[] shortlists, int offset, int size, int component) {
+        for (int i = 0; i < size; i++)
+            if (shortlists[offset + i] == component)
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns the offset of the shortlist of the given senone for the given
+     * codeword in the array returned by {@link #getShortlists()}.
+     *
+     * @param codeword codeword index
+     * @param senone the id of the senone
+     * @return offset of the first entry of the shortlist
+     */
+    public int getShortlistOffset(int codeword, int senone) {
+        return (codeword * numSenones + senone) * shortlistSize;
+    }
+
+    /** @return component indices of all shortlists */
+    public short[] getShortlists() {
+        return codebook.shortlists;
+    }
+
+    /** @return the number of components evaluated per senone */
+    public int getShortlistSize() {
+        return shortlistSize;
+    }
+
+    /** @return the number of codewords */
+    public int getCodebookSize() {
+        return codebookSize;
+    }
+
+    public void logInfo(Logger logger) {
+        logger.info("Gaussian selection codewords: " + codebookSize
+                + " shortlist size: " + shortlistSize);
+    }
+}
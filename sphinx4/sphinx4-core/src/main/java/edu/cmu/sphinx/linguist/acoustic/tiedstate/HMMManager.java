@@ -17,6 +17,7 @@ import edu.cmu.sphinx.linguist.acoustic.HMMPosition;
 import edu.cmu.sphinx.linguist.acoustic.Unit;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 
@@ -31,15 +32,16 @@ public class HMMManager implements Iterable<HMM> {
 
     public HMMManager () {
         for (HMMPosition pos : HMMPosition.values())
-            hmmsPerPosition.put(pos, new HashMap<Unit, HMM>());
+            hmmsPerPosition.put(pos, new ConcurrentHashMap<Unit, HMM>());
     }
 
     /**
-     * Put an HMM into this manager
+     * Put an HMM into this manager. Composite HMMs are added while the model
+     * is used, so the manager can be read from other threads meanwhile.
      *
      * @param hmm the hmm to manage
      */
-    public void put(HMM hmm) {
+    public synchronized void put(HMM hmm) {
         hmmsPerPosition.get(hmm.getPosition()).put(hmm.getUnit(), hmm);
         allHMMs.add(hmm);
     }
@@ -58,12 +60,12 @@ public class HMMManager implements Iterable<HMM> {
 
 
     /**
-     * Gets an iterator that iterates through all HMMs
+     * Gets an iterator that iterates through all HMMs put so far
      *
      * @return an iterator that iterates through all HMMs
      */
-    public Iterator<HMM> iterator() {
-        return allHMMs.iterator();
+    public synchronized Iterator<HMM> iterator() {
+        return new ArrayList<HMM>(allHMMs).iterator();
     }
 
 
@@ -18,10 +18,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -117,37 +114,7 @@ public class KaldiLoader implements Loader {
 
     private void loadTransform() throws IOException {
         URL transformUrl = new URL(new File(location, "final.mat").getPath());
-        Reader reader = new InputStreamReader(transformUrl.openStream());
-        BufferedReader br = new BufferedReader(reader);
-        List<Float> values = new ArrayList<Float>();
-        int numRows = 0;
-        int numCols = 0;
-        String line;
-
-        while (null != (line = br.readLine())) {
-            int colCount = 0;
-
-            for (String word : line.split("\\s+")) {
-                if (word.isEmpty() || "[".equals(word) || "]".equals(word))
-                    continue;
-
-                values.add(Float.parseFloat(word));
-                ++colCount;
-            }
-
-            if (colCount > 0)
-                ++numRows;
-
-            numCols = colCount;
-        }
-
-        transform = new float[numRows][numCols];
-        Iterator<Float> valueIterator = values.iterator();
-
-        for (int i = 0; i < numRows; ++i) {
-            for (int j = 0; j < numCols; ++j)
-                transform[i][j] = valueIterator.next();
-        }
+        transform = new KaldiTextParser(transformUrl.openStream()).getFloatMatrix();
     }
 
     private void loadProperties() throws IOException {
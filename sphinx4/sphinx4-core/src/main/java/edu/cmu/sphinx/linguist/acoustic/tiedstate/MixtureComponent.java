@@ -125,6 +125,38 @@ public class MixtureComponent implements Cloneable, Serializable {
     }
 
 
+    /**
+     * Create a MixtureComponent from statistics which were already
+     * precomputed, e.g. by a compiled model. No adaptation parameters are
+     * applied.
+     *
+     * @param mean                         the mean vector for this PDF
+     * @param variance                     the variance for this PDF
+     * @param precision                    the precomputed precision, see {@link #transformStats()}
+     * @param logPreComputedGaussianFactor the precomputed factor, see {@link #precomputeDistance()}
+     * @param logDistFloor                 the lowest score value (in log domain)
+     * @param varianceFloor                the lowest value for the variance
+     */
+    public MixtureComponent(
+            float[] mean,
+            float[] variance,
+            float[] precision,
+            float logPreComputedGaussianFactor,
+            float logDistFloor,
+            float varianceFloor) {
+
+        assert variance.length == mean.length && precision.length == mean.length;
+
+        this.mean = mean;
+        this.meanTransformed = mean;
+        this.variance = variance;
+        this.precisionTransformed = precision;
+        this.logPreComputedGaussianFactor = logPreComputedGaussianFactor;
+        this.distFloor = logDistFloor;
+        this.varianceFloor = varianceFloor;
+    }
+
+
     /**
      * Returns the mean for this component.
      *
@@ -145,6 +177,29 @@ public class MixtureComponent implements Cloneable, Serializable {
     }
 
 
+    /**
+     * Returns the precision after the adaptation parameters are applied.
+     *
+     * @return the precision
+     */
+    public float[] getPrecision() {
+        return precisionTransformed;
+    }
+
+
+    /** @return the variance floor applied to this component */
+    public float getVarianceFloor() {
+        return varianceFloor;
+    }
+
+
+    /** @return <code>true</code> if the mean or variance is adapted by transformation parameters */
+    public boolean isTransformed() {
+        return meanTransformed != mean || meanTransformationVector != null
+                || varianceTransformationMatrix != null || varianceTransformationVector != null;
+    }
+
+
     /**
      * Calculate the score for this mixture against the given feature.
      * <p>
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.acoustic.tiedstate;
+
+import edu.cmu.sphinx.frontend.Data;
+import edu.cmu.sphinx.frontend.DoubleData;
+import edu.cmu.sphinx.frontend.FloatData;
+
+/**
+ * Gaussian mixture which delegates scoring to a {@link PackedGaussianPool}
+ * shared by all senones of the model.
+ * <p>
+ * All scores and weights are maintained in LogMath log base.
+ */
+@SuppressWarnings("serial")
+public class PackedGaussianMixture extends GaussianMixture {
+
+    private final PackedGaussianPool gaussianPool;
+
+    public PackedGaussianMixture(GaussianWeights mixtureWeights,
+            PackedGaussianPool gaussianPool, int id) {
+        super(mixtureWeights, gaussianPool.getMixtureComponents(id), id);
+        this.gaussianPool = gaussianPool;
+    }
+
+    @Override
+    public float calculateScore(Data feature) {
+        if (feature instanceof DoubleData)
+            System.err.println("DoubleData conversion required on mixture level!");
+
+        if (getGaussianSelector() != null)
+            return calculateSelectedScore(feature);
+
+        return gaussianPool.calculateScore(id, FloatData.toFloatData(feature).getValues());
+    }
+
+    @Override
+    protected float calculateSelectedScore(Data feature) {
+        GaussianSelector selector = getGaussianSelector();
+        int offset = selector.getShortlistOffset(selector.getCodeword(feature), id);
+        return gaussianPool.calculateSelectedScore(id,
+                FloatData.toFloatData(feature).getValues(),
+                selector.getShortlists(), offset, selector.getShortlistSize());
+    }
+
+    @Override
+    public float[] calculateComponentScore(Data feature) {
+        if (feature instanceof DoubleData)
+            System.err.println("DoubleData conversion required on mixture level!");
+
+        return gaussianPool.calculateComponentScore(id, FloatData.toFloatData(feature).getValues());
+    }
+
+    /** @return the pool holding the parameters of this senone */
+    public PackedGaussianPool getGaussianPool() {
+        return gaussianPool;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.acoustic.tiedstate;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import edu.cmu.sphinx.util.LogMath;
+
+/**
+ * Structure-of-arrays storage for the Gaussian parameters of a continuous
+ * acoustic model.
+ * <p>
+ * Means, precisions, precomputed Gaussian factors and mixture weights of all
+ * senones are packed into a few contiguous primitive arrays. Within a senone
+ * and stream the parameters are stored dimension-major, so the innermost
+ * scoring loop walks all the Gaussians of a mixture for one feature dimension
+ * with unit stride. Such loops do not chase pointers and can be vectorized by
+ * the JIT. The active senones of a frame are scored in one call to
+ * {@link #calculateScores}.
+ * <p>
+ * The scores computed here are identical to those of
+ * {@link GaussianMixture#calculateScore}, the per-component arithmetic is
+ * performed in the same order.
+ * <p>
+ * The packed arrays are a copy of the parameters of the mixture components,
+ * which are kept for adaptation and Gaussian selection. The pool therefore
+ * adds the size of the means and precisions of the model to the memory
+ * footprint, it trades memory for scoring speed.
+ * <p>
+ * Note that all scores and weights are in LogMath log base
+ */
+public class PackedGaussianPool {
+
+    private final MixtureComponent[][] components;
+    private final int numSenones;
+    private final int numStreams;
+    private final int numGaussians;
+    private final int[] vectorLength;
+    private final int[] featureOffset;
+    private final int[] streamOffset;
+    private final int senoneStride;
+
+    // [senone][stream][dimension][gaussian]
+    private final float[] means;
+    private final float[] precisions;
+    // [senone][stream][gaussian]
+    private final float[] gaussianFactors;
+    private final float[] distFloors;
+    private final float[] logWeights;
+
+    private final LogMath logMath;
+    private final ThreadLocal<float[]> scratch;
+
+    /**
+     * Creates the packed pool from the already initialized mixture components.
+     * Components of senone <code>i</code> are expected in
+     * <code>components[i]</code>, ordered by stream and then by Gaussian.
+     *
+     * @param components the mixture components of every senone
+     * @param mixtureWeights the mixture weights of the model
+     * @param vectorLength the feature vector length of every stream
+     */
+    public PackedGaussianPool(MixtureComponent[][] components,
+            GaussianWeights mixtureWeights, int[] vectorLength) {
+        this.components = components;
+        this.numSenones = components.length;
+        this.numStreams = mixtureWeights.getStreamsNum();
+        this.numGaussians = mixtureWeights.getGauPerState();
+        this.vectorLength = vectorLength.clone();
+
+        assert vectorLength.length == numStreams;
+
+        featureOffset = new int[numStreams];
+        streamOffset = new int[numStreams];
+        int dimension = 0;
+        for (int i = 0; i < numStreams; i++) {
+            featureOffset[i] = dimension;
+            streamOffset[i] = dimension * numGaussians;
+            dimension += vectorLength[i];
+        }
+        senoneStride = dimension * numGaussians;
+
+        means = new float[numSenones * senoneStride];
+        precisions = new float[numSenones * senoneStride];
+        gaussianFactors = new float[numSenones * numStreams * numGaussians];
+        distFloors = new float[numSenones * numStreams * numGaussians];
+        logWeights = new float[numSenones * numStreams * numGaussians];
+
+        for (int i = 0; i < numSenones; i++)
+            for (int j = 0; j < numStreams; j++)
+                for (int k = 0; k < numGaussians; k++)
+                    logWeights[(i * numStreams + j) * numGaussians + k] =
+                            mixtureWeights.get(i, j, k);
+
+        logMath = LogMath.getLogMath();
+        scratch = new ThreadLocal<float[]>() {
+            @Override
+            protected float[] initialValue() {
+                return new float[numGaussians];
+            }
+        };
+
+        update();
+    }
+
+    /**
+     * Copies the current parameters of the mixture components into the packed
+     * arrays. Must be called whenever the components were modified, for
+     * example after adaptation.
+     */
+    public void update() {
+        for (int i = 0; i < numSenones; i++) {
+            for (int j = 0; j < numStreams; j++) {
+                int base = i * senoneStride + streamOffset[j];
+                for (int k = 0; k < numGaussians; k++) {
+                    MixtureComponent component = components[i][j * numGaussians + k];
+                    int idx = (i * numStreams + j) * numGaussians + k;
+                    gaussianFactors[idx] = component.logPreComputedGaussianFactor;
+                    distFloors[idx] = component.distFloor;
+                    for (int d = 0; d < vectorLength[j]; d++) {
+                        means[base + d * numGaussians + k] = component.meanTransformed[d];
+                        precisions[base + d * numGaussians + k] = component.precisionTransformed[d];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates the score of the given senone against a feature vector.
+     *
+     * @param senone the id of the senone
+     * @param feature the feature vector
+     * @return the score in LogMath log base
+     */
+    public float calculateScore(int senone, float[] feature) {
+        float[] acc = scratch.get();
+        float score = 0;
+        for (int j = 0; j < numStreams; j++) {
+            computeComponents(senone, j, feature, acc, 0);
+            int idx = (senone * numStreams + j) * numGaussians;
+            float logTotal = LogMath.LOG_ZERO;
+            for (int k = 0; k < numGaussians; k++) {
+                // In linear form, this would be:
+                //
+                // Total += Mixture[i].score * MixtureWeight[i]
+                logTotal = logMath.addAsLinear(logTotal,
+                        floorScore(acc[k], idx + k) + logWeights[idx + k]);
+            }
+            score += logTotal;
+        }
+        return score;
+    }
+
+    /**
+     * Scores a batch of senones against a single feature vector. The densities
+     * of all Gaussians of the batch are computed first in one pass over the
+     * packed arrays, then they are combined with the mixture weights. The
+     * scores are the same as the ones of {@link #calculateScore}.
+     *
+     * @param senones the ids of the senones to score
+     * @param count the number of valid entries in <code>senones</code>
+     * @param feature the feature vector
+     * @param scores receives the score of <code>senones[i]</code> at index
+     *        <code>i</code>
+     */
+    public void calculateScores(int[] senones, int count, float[] feature,
+            float[] scores) {
+        float[] acc = scratch.get();
+        if (acc.length < count * numGaussians) {
+            acc = new float[count * numGaussians];
+            scratch.set(acc);
+        }
+        Arrays.fill(scores, 0, count, 0);
+        for (int j = 0; j < numStreams; j++) {
+            for (int i = 0; i < count; i++)
+                computeComponents(senones[i], j, feature, acc, i * numGaussians);
+            for (int i = 0; i < count; i++) {
+                int idx = (senones[i] * numStreams + j) * numGaussians;
+                int offset = i * numGaussians;
+                float logTotal = LogMath.LOG_ZERO;
+                for (int k = 0; k < numGaussians; k++)
+                    logTotal = logMath.addAsLinear(logTotal,
+                            floorScore(acc[offset + k], idx + k) + logWeights[idx + k]);
+                scores[i] += logTotal;
+            }
+        }
+    }
+
+    /**
+     * Calculates the score of the given senone from the components on a
+     * shortlist of a {@link GaussianSelector}, the other components
+     * contribute their floor score. Like the selector, only single stream
+     * models are supported.
+     *
+     * @param senone the id of the senone
+     * @param feature the feature vector
+     * @param shortlists the component indices of all shortlists
+     * @param offset the offset of the shortlist of the senone
+     * @param size the number of components on the shortlist
+     * @return the score in LogMath log base
+     */
+    public float calculateSelectedScore(int senone, float[] feature,
+            short[] shortlists, int offset, int size) {
+        assert numStreams == 1;
+        int base = senone * senoneStride;
+        int idx = senone * numGaussians;
+        float logTotal = LogMath.LOG_ZERO;
+        for (int i = 0; i < size; i++) {
+            int k = shortlists[offset + i];
+            float logDval = gaussianFactors[idx + k];
+            for (int d = 0; d < vectorLength[0]; d++) {
+                float logDiff = feature[d] - means[base + d * numGaussians + k];
+                logDval += logDiff * logDiff * precisions[base + d * numGaussians + k];
+            }
+            logTotal = logMath.addAsLinear(logTotal,
+                    floorScore(logDval, idx + k) + logWeights[idx + k]);
+        }
+
+        // floor scores of all other components
+        if (size < numGaussians && distFloors[idx] > LogMath.LOG_ZERO) {
+            for (int k = 0; k < numGaussians; k++) {
+                if (GaussianSelector.isShortlisted(shortlists, offset, size, k))
+                    continue;
+                logTotal = logMath.addAsLinear(logTotal,
+                        distFloors[idx + k] + logWeights[idx + k]);
+            }
+        }
+        return logTotal;
+    }
+
+    /**
+     * Calculates the weighted scores of every component of the given senone.
+     *
+     * @param senone the id of the senone
+     * @param feature the feature vector
+     * @return the LogMath log scores, one for each component
+     */
+    public float[] calculateComponentScore(int senone, float[] feature) {
+        float[] acc = scratch.get();
+        float[] scores = new float[numStreams * numGaussians];
+        for (int j = 0; j < numStreams; j++) {
+            computeComponents(senone, j, feature, acc, 0);
+            int idx = (senone * numStreams + j) * numGaussians;
+            for (int k = 0; k < numGaussians; k++)
+                scores[j * numGaussians + k] =
+                        floorScore(acc[k], idx + k) + logWeights[idx + k];
+        }
+        return scores;
+    }
+
+    /**
+     * Computes the natural log densities of all Gaussians of one stream of a
+     * senone into <code>acc</code> from the given offset. The inner loop runs
+     * over Gaussians with unit stride.
+     */
+    private void computeComponents(int senone, int stream, float[] feature,
+            float[] acc, int accOffset) {
+        System.arraycopy(gaussianFactors, (senone * numStreams + stream)
+                * numGaussians, acc, accOffset, numGaussians);
+        int base = senone * senoneStride + streamOffset[stream];
+        int offset = featureOffset[stream];
+        for (int d = 0; d < vectorLength[stream]; d++) {
+            float x = feature[offset + d];
+            int row = base + d * numGaussians;
+            for (int k = 0; k < numGaussians; k++) {
+                float logDiff = x - means[row + k];
+                acc[accOffset + k] += logDiff * logDiff * precisions[row + k];
+            }
+        }
+    }
+
+    private float floorScore(float logDval, int idx) {
+        logDval = logMath.lnToLog(logDval);
+        if (Float.isNaN(logDval))
+            logDval = LogMath.LOG_ZERO;
+        if (logDval < distFloors[idx])
+            logDval = distFloors[idx];
+        return logDval;
+    }
+
+    public int getNumSenones() {
+        return numSenones;
+    }
+
+    public int getNumStreams() {
+        return numStreams;
+    }
+
+    public int getGauPerState() {
+        return numGaussians;
+    }
+
+    public MixtureComponent[] getMixtureComponents(int senone) {
+        return components[senone];
+    }
+
+    public void logInfo(Logger logger) {
+        logger.info("Packed Gaussian pool. Senones: " + numSenones
+                + " Gaussians: " + numSenones * numStreams * numGaussians);
+    }
+}
@@ -11,6 +11,11 @@ import edu.cmu.sphinx.frontend.Data;
  * <p>
  * Note: this implementation is thread-safe and can be safely used
  * across different threads without external synchronization.
+ * <p>
+ * The cache holds a single entry, recognizers sharing the model overwrite the
+ * entries of each other. The scorers therefore keep their own cache of the
+ * scores of Gaussian mixtures, see
+ * {@link edu.cmu.sphinx.decoder.scorer.SimpleAcousticScorer}.
  *
  * @author Yaniv Kunda
  */
@@ -94,6 +94,14 @@ public class Sphinx3Loader implements Loader {
     @S4Integer(defaultValue = 4)
     public final static String PROP_TOPN = "topGaussiansNum";
 
+    /**
+     * The property specifying whether Gaussians of a continuous model should
+     * be stored in a packed structure-of-arrays pool for faster scoring. The
+     * pool holds a second copy of the means and precisions.
+     */
+    @S4Boolean(defaultValue = false)
+    public final static String PROP_PACKED_GAUSSIANS = "packedGaussians";
+
     protected final static String FILLER = "filler";
     protected final static String SILENCE_CIPHONE = "SIL";
     protected final static int BYTE_ORDER_MAGIC = 0x11223344;
@@ -109,11 +117,11 @@ public class Sphinx3Loader implements Loader {
     protected Pool<float[]> variancePool;
     protected Pool<float[][]> transitionsPool;
     protected GaussianWeights mixtureWeights;
-    private int numStates;
-    private int numStreams;
+    protected int numStates;
+    protected int numStreams;
     private int numBase;
-    private int numGaussiansPerState;
-    private int[] vectorLength;
+    protected int numGaussiansPerState;
+    protected int[] vectorLength;
     private int[] senone2ci;
 
     protected Pool<float[][]> meanTransformationMatrixPool;
@@ -124,11 +132,12 @@ public class Sphinx3Loader implements Loader {
     protected float[][] transformMatrix;
     private MixtureComponentSet[] phoneticTiedMixtures;
     protected Pool<Senone> senonePool;
+    protected PackedGaussianPool packedGaussianPool;
 
     private Map<String, Unit> contextIndependentUnits;
     private HMMManager hmmManager;
     protected LogMath logMath;
-    private UnitManager unitManager;
+    protected UnitManager unitManager;
     private boolean swap;
 
     private final static String DENSITY_FILE_VERSION = "1.0";
@@ -139,12 +148,13 @@ public class Sphinx3Loader implements Loader {
     // Configuration variables
     // --------------------------------------
     protected Logger logger;
-    private URL location;
+    protected URL location;
     protected float distFloor;
     protected float mixtureWeightFloor;
     protected float varianceFloor;
     private int topGauNum;
     protected boolean useCDUnits;
+    protected boolean usePackedGaussians;
     private boolean loaded;
 
     public Sphinx3Loader(URL location,
@@ -222,6 +232,18 @@ public class Sphinx3Loader implements Loader {
                 ps.getFloat(PROP_VARIANCE_FLOOR),
                 ps.getInt(PROP_TOPN),
                 ps.getBoolean(PROP_USE_CD_UNITS), ps.getLogger());
+        usePackedGaussians = ps.getBoolean(PROP_PACKED_GAUSSIANS);
+    }
+
+    /**
+     * Enables the packed Gaussian pool for continuous models. Must be called
+     * before the model is loaded.
+     *
+     * @param usePackedGaussians true to score senones from a
+     *        {@link PackedGaussianPool}
+     */
+    public void setUsePackedGaussians(boolean usePackedGaussians) {
+        this.usePackedGaussians = usePackedGaussians;
     }
 
     // This function is a bit different from the
@@ -308,6 +330,9 @@ public class Sphinx3Loader implements Loader {
             getSenoneToCIPhone();
             //create tied senone pool
             senonePool = createTiedSenonePool(distFloor, varianceFloor);
+        } else if (usePackedGaussians) {
+            //create senone pool backed by packed gaussians
+            senonePool = createPackedSenonePool(distFloor, varianceFloor);
         } else {
             //create regular senone poll
             senonePool = createSenonePool(distFloor, varianceFloor);
@@ -440,6 +465,63 @@ public class Sphinx3Loader implements Loader {
         return pool;
     }
     
+    /**
+     * Creates the senone pool with all Gaussian parameters packed into a
+     * single {@link PackedGaussianPool}. Unlike
+     * {@link #createSenonePool(float, float)} all feature streams are taken
+     * into account.
+     * 
+     * @param distFloor
+     *            the lowest allowed score
+     * @param varianceFloor
+     *            the lowest allowed variance
+     * @return the senone pool
+     */
+    protected Pool<Senone> createPackedSenonePool(float distFloor, float varianceFloor) {
+        Pool<Senone> pool = new Pool<Senone>("senones");
+
+        int numGaussiansPerSenone = mixtureWeights.getGauPerState();
+        int numSenones = mixtureWeights.getStatesNum();
+        int numStreams = mixtureWeights.getStreamsNum();
+        int whichGaussian = 0;
+
+        logger.fine("Senones " + numSenones);
+        logger.fine("Gaussians Per Senone " + numGaussiansPerSenone);
+
+        assert numGaussiansPerSenone > 0;
+        assert meansPool.size() == numSenones * numGaussiansPerSenone * numStreams;
+        assert variancePool.size() == numSenones * numGaussiansPerSenone * numStreams;
+
+        float[][] meansTransformationMatrix = meanTransformationMatrixPool == null ? null
+                : meanTransformationMatrixPool.get(0);
+        float[] meansTransformationVector = meanTransformationVectorPool == null ? null
+                : meanTransformationVectorPool.get(0);
+        float[][] varianceTransformationMatrix = varianceTransformationMatrixPool == null ? null
+                : varianceTransformationMatrixPool.get(0);
+        float[] varianceTransformationVector = varianceTransformationVectorPool == null ? null
+                : varianceTransformationVectorPool.get(0);
+
+        MixtureComponent[][] components = new MixtureComponent[numSenones][];
+        for (int i = 0; i < numSenones; i++) {
+            components[i] = new MixtureComponent[numGaussiansPerSenone * numStreams];
+            for (int j = 0; j < components[i].length; j++) {
+                components[i][j] = new MixtureComponent(
+                        meansPool.get(whichGaussian),
+                        meansTransformationMatrix, meansTransformationVector,
+                        variancePool.get(whichGaussian),
+                        varianceTransformationMatrix,
+                        varianceTransformationVector, distFloor, varianceFloor);
+
+                whichGaussian++;
+            }
+        }
+
+        packedGaussianPool = new PackedGaussianPool(components, mixtureWeights, vectorLength);
+        for (int i = 0; i < numSenones; i++)
+            pool.put(i, new PackedGaussianMixture(mixtureWeights, packedGaussianPool, i));
+        return pool;
+    }
+
     /**
      * Creates the tied senone pool from the rest of the pools.
      * 
@@ -1189,6 +1271,14 @@ public class Sphinx3Loader implements Loader {
         return senonePool;
     }
 
+    /**
+     * @return the packed Gaussian pool or <code>null</code> if the model was
+     *         loaded without one
+     */
+    public PackedGaussianPool getPackedGaussianPool() {
+        return packedGaussianPool;
+    }
+
     public int getLeftContextSize() {
         return CONTEXT_SIZE;
     }
@@ -1207,6 +1297,8 @@ public class Sphinx3Loader implements Loader {
         variancePool.logInfo(logger);
         transitionsPool.logInfo(logger);
         senonePool.logInfo(logger);
+        if (packedGaussianPool != null)
+            packedGaussianPool.logInfo(logger);
 
         if (meanTransformationMatrixPool != null)
             meanTransformationMatrixPool.logInfo(logger);
@@ -1259,5 +1351,16 @@ public class Sphinx3Loader implements Loader {
                 System.arraycopy(tmean, 0, mean, 0, tmean.length);
             }
         }
+        if (packedGaussianPool != null)
+            packedGaussianPool.update();
+
+        // the shortlists were built for the means before the transform, the
+        // codebook is kept
+        Senone senone = senonePool.get(0);
+        if (senone instanceof GaussianMixture) {
+            GaussianSelector selector = ((GaussianMixture) senone).getGaussianSelector();
+            if (selector != null)
+                selector.update();
+        }
     }
 }
@@ -15,10 +15,12 @@ package edu.cmu.sphinx.linguist.acoustic.tiedstate;
 // Placeholder for a package import
 
 import edu.cmu.sphinx.linguist.acoustic.*;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.tiedmixture.SetBasedGaussianMixture;
 import edu.cmu.sphinx.util.props.*;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -69,6 +71,18 @@ public class TiedStateAcousticModel implements AcousticModel {
     @S4Boolean(defaultValue = true)
     public final static String PROP_USE_COMPOSITES = "useComposites";
 
+    /**
+     * The number of codewords used for Gaussian selection in continuous models. If positive, a codebook of this
+     * size is built over all component means when the model is allocated, and senones only evaluate the components
+     * shortlisted for the codeword nearest to the frame. Zero disables Gaussian selection.
+     */
+    @S4Integer(defaultValue = 0)
+    public final static String PROP_GS_CODEBOOK_SIZE = "gaussianSelectionCodebookSize";
+
+    /** The number of components evaluated per senone when Gaussian selection is enabled. */
+    @S4Integer(defaultValue = 4)
+    public final static String PROP_GS_SHORTLIST_SIZE = "gaussianSelectionShortlistSize";
+
 
     // -----------------------------
     // Configured variables
@@ -78,12 +92,14 @@ public class TiedStateAcousticModel implements AcousticModel {
     protected Loader loader;
     protected UnitManager unitManager;
     private boolean useComposites;
+    private int gsCodebookSize;
+    private int gsShortlistSize;
     private Properties properties;
 
     // ----------------------------
     // internal variables
     // -----------------------------
-    final transient private Map<String, SenoneSequence> compositeSenoneSequenceCache = new HashMap<String, SenoneSequence>();
+    final transient private Map<String, SenoneSequence> compositeSenoneSequenceCache = new ConcurrentHashMap<String, SenoneSequence>();
     private boolean allocated;
 
     public TiedStateAcousticModel( Loader loader, UnitManager unitManager, boolean useComposites) {
@@ -101,6 +117,8 @@ public class TiedStateAcousticModel implements AcousticModel {
         loader = (Loader) ps.getComponent(PROP_LOADER);
         unitManager = (UnitManager) ps.getComponent(PROP_UNIT_MANAGER);
         useComposites = ps.getBoolean(PROP_USE_COMPOSITES);
+        gsCodebookSize = ps.getInt(PROP_GS_CODEBOOK_SIZE);
+        gsShortlistSize = ps.getInt(PROP_GS_SHORTLIST_SIZE);
         logger = ps.getLogger();
     }
 
@@ -112,12 +130,43 @@ public class TiedStateAcousticModel implements AcousticModel {
     public void allocate() throws IOException {
         if (!allocated) {
             loader.load();
+            if (gsCodebookSize > 0)
+                createGaussianSelector();
             logInfo();
             allocated = true;
         }
     }
 
 
+    /**
+     * Builds the Gaussian selection codebook over the senones of a continuous model and attaches it to every
+     * senone.
+     */
+    private void createGaussianSelector() {
+        Pool<Senone> senonePool = loader.getSenonePool();
+        if (loader.getMixtureWeights().getStreamsNum() != 1) {
+            logger.warning("Gaussian selection is not supported for multi-stream models");
+            return;
+        }
+        GaussianMixture[] senones = new GaussianMixture[senonePool.size()];
+        MixtureComponent[][] components = new MixtureComponent[senones.length][];
+        for (int i = 0; i < senones.length; i++) {
+            Senone senone = senonePool.get(i);
+            if (!(senone instanceof GaussianMixture) || senone instanceof SetBasedGaussianMixture) {
+                logger.warning("Gaussian selection is only supported for continuous models");
+                return;
+            }
+            senones[i] = (GaussianMixture) senone;
+            components[i] = senones[i].getMixtureComponents();
+        }
+
+        GaussianSelector selector = new GaussianSelector(components, gsCodebookSize, gsShortlistSize);
+        for (GaussianMixture senone : senones)
+            senone.setGaussianSelector(selector);
+        selector.logInfo(logger);
+    }
+
+
     /* (non-Javadoc)
     * @see edu.cmu.sphinx.linguist.acoustic.AcousticModel#deallocate()
     */
@@ -3,66 +3,187 @@ package edu.cmu.sphinx.linguist.acoustic.tiedstate.kaldi;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.SequenceInputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.InputMismatchException;
 import java.util.List;
-import java.util.Scanner;
+import java.util.NoSuchElementException;
 
 
+/**
+ * Parser of Kaldi model files.
+ *
+ * Reads both the text and the binary encoding of Kaldi objects. The mode is
+ * detected for every file from the <code>\0B</code> header Kaldi writes at
+ * the beginning of binary files, so the model and the tree may even be
+ * encoded differently. Input is read through a byte buffer and numbers are
+ * parsed from it directly, neither tokens of numbers nor boxed values are
+ * created.
+ */
 public class KaldiTextParser {
 
-    private final Scanner scanner;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final InputStream[] streams;
+    private int currentStream;
+    private boolean headerPending;
+    private boolean binary;
+
+    private final byte[] buffer = new byte[1 << 16];
+    private int position;
+    private int limit;
+
+    private byte[] token = new byte[64];
+    private int tokenLength;
+    private boolean lineBreak;
 
     public KaldiTextParser(String path)
         throws IOException, MalformedURLException
     {
-        // TODO: rewrite with StreamTokenizer, see ExtendedStreamTokenizer.
-        File modelFile = new File(path, "final.mdl");
-        InputStream modelStream = new URL(modelFile.getPath()).openStream();
-        File treeFile = new File(path, "tree");
-        InputStream treeStream = new URL(treeFile.getPath()).openStream();
+        this(new URL(new File(path, "final.mdl").getPath()).openStream(),
+             new URL(new File(path, "tree").getPath()).openStream());
+    }
+
+    /**
+     * Constructs a parser reading the given streams one after another. The
+     * streams are closed when they are consumed.
+     *
+     * @param streams streams of Kaldi objects in text or binary encoding
+     */
+    public KaldiTextParser(InputStream... streams) {
+        this.streams = streams;
+        headerPending = true;
+    }
 
-        InputStream stream = new SequenceInputStream(modelStream, treeStream);
-        scanner = new Scanner(stream);
+    /**
+     * @return true if the current file is in Kaldi binary encoding
+     */
+    public boolean isBinary() {
+        if (position == limit)
+            fill();
+        return binary;
     }
 
     public String getToken() {
-        return scanner.next();
+        readToken();
+        return new String(token, 0, tokenLength, ASCII);
     }
 
     public int getInt() {
-        return scanner.nextInt();
+        if (isBinary()) {
+            int size = next();
+            if (size == 4 || size == 252)
+                return readInt();
+            if (size == 8 || size == 248)
+                return (int) readLong();
+            throw new InputMismatchException("Unexpected integer size " + size);
+        }
+
+        readToken();
+        return parseInt();
     }
 
     public float parseFloat() {
-        return scanner.nextFloat();
+        if (isBinary()) {
+            int size = next();
+            if (size == 4)
+                return Float.intBitsToFloat(readInt());
+            if (size == 8)
+                return (float) Double.longBitsToDouble(readLong());
+            throw new InputMismatchException("Unexpected float size " + size);
+        }
+
+        readToken();
+        return parseFloatToken();
     }
 
     public int[] getIntArray() {
-        List<Integer> ints = new ArrayList<Integer>();
-        for (String token : getTokenList("[", "]"))
-            ints.add(Integer.parseInt(token));
+        if (isBinary()) {
+            int size = next();
+            int length = readInt();
+            int[] result = new int[length];
+            for (int i = 0; i < length; ++i)
+                result[i] = size == 8 ? (int) readLong() : readInt();
+            return result;
+        }
 
-        int[] result = new int[ints.size()];
-        for (int i = 0 ; i < result.length; ++i)
-            result[i] = ints.get(i);
-        
-        return result;
+        expectToken("[");
+        int[] result = new int[16];
+        int length = 0;
+        while (!readTokenOrClose()) {
+            if (length == result.length)
+                result = Arrays.copyOf(result, length * 2);
+            result[length++] = parseInt();
+        }
+        return Arrays.copyOf(result, length);
     }
 
+    /**
+     * Reads a vector or a matrix of floats. Rows of a matrix are
+     * concatenated.
+     *
+     * @return the values
+     */
     public float[] getFloatArray() {
-        List<Float> floats = new ArrayList<Float>();
-        for (String token : getTokenList("[", "]"))
-            floats.add(Float.parseFloat(token));
+        if (isBinary()) {
+            readToken();
+            boolean isDouble = token[0] == 'D';
+            int length = getInt();
+            if (token[1] == 'M')
+                length *= getInt();
+            return readFloats(new float[length], isDouble);
+        }
+
+        expectToken("[");
+        float[] result = new float[256];
+        int length = 0;
+        while (!readTokenOrClose()) {
+            if (length == result.length)
+                result = Arrays.copyOf(result, length * 2);
+            result[length++] = parseFloatToken();
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    /**
+     * Reads a matrix of floats. In text encoding every line is a row.
+     *
+     * @return the rows of the matrix
+     */
+    public float[][] getFloatMatrix() {
+        if (isBinary()) {
+            readToken();
+            boolean isDouble = token[0] == 'D';
+            float[][] matrix = new float[getInt()][getInt()];
+            for (float[] row : matrix)
+                readFloats(row, isDouble);
+            return matrix;
+        }
 
-        float[] result = new float[floats.size()];
-        for (int i = 0; i < result.length; ++i)
-            result[i] = floats.get(i);
-        
-        return result;
+        expectToken("[");
+        List<float[]> rows = new ArrayList<float[]>();
+        float[] row = new float[256];
+        int length = 0;
+        while (!readTokenOrClose()) {
+            if (lineBreak && length > 0) {
+                rows.add(Arrays.copyOf(row, length));
+                length = 0;
+            }
+            if (length == row.length)
+                row = Arrays.copyOf(row, length * 2);
+            row[length++] = parseFloatToken();
+        }
+        if (length > 0)
+            rows.add(Arrays.copyOf(row, length));
+        return rows.toArray(new float[rows.size()][]);
     }
 
     public List<String> getTokenList(String openToken, String closeToken) {
@@ -70,15 +191,16 @@ public class KaldiTextParser {
         List<String> tokens = new ArrayList<String>();
         String token;
 
-        while (!closeToken.equals(token = scanner.next()))
+        while (!closeToken.equals(token = getToken()))
             tokens.add(token);
 
         return tokens;
     }
 
     public void expectToken(String expected) {
-        String actual = scanner.next();
-        assertToken(expected, actual);
+        readToken();
+        if (!tokenEquals(expected))
+            assertToken(expected, new String(token, 0, tokenLength, ASCII));
     }
 
     public void assertToken(String expected, String actual) {
@@ -89,4 +211,247 @@ public class KaldiTextParser {
         msg = String.format("'%s' expected, '%s' got", expected, actual);
         throw new InputMismatchException(msg);
     }
+
+    private boolean tokenEquals(String expected) {
+        if (expected.length() != tokenLength)
+            return false;
+        for (int i = 0; i < tokenLength; i++)
+            if (token[i] != expected.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Reads the next token of a text array.
+     *
+     * @return true if the token closes the array
+     */
+    private boolean readTokenOrClose() {
+        readToken();
+        return tokenLength == 1 && token[0] == ']';
+    }
+
+    /**
+     * Reads the next whitespace delimited token. In binary encoding the
+     * single space following a token is consumed as well.
+     */
+    private void readToken() {
+        lineBreak = false;
+        int c;
+        while (isWhitespace(c = next()))
+            if (c == '\n')
+                lineBreak = true;
+        if (c < 0)
+            throw new NoSuchElementException();
+
+        // a token never continues into the next file
+        int stream = currentStream;
+        tokenLength = 0;
+        do {
+            if (tokenLength == token.length)
+                token = Arrays.copyOf(token, tokenLength * 2);
+            token[tokenLength++] = (byte) c;
+        } while ((c = peek()) >= 0 && stream == currentStream
+                 && !isWhitespace(c) && next() >= 0);
+
+        if (binary && c == ' ')
+            next();
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+    }
+
+    private int parseInt() {
+        int i = 0;
+        boolean negative = token[0] == '-';
+        if (negative || token[0] == '+')
+            i++;
+        if (i == tokenLength)
+            throw new InputMismatchException(getTokenString());
+
+        int value = 0;
+        for (; i < tokenLength; i++) {
+            int digit = token[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw new InputMismatchException(getTokenString());
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses the current token as a float. Plain decimal literals of up to
+     * 15 significant digits are converted exactly through a double, other
+     * literals are passed to {@link Float#parseFloat}.
+     */
+    private float parseFloatToken() {
+        int i = 0;
+        boolean negative = token[0] == '-';
+        if (negative || token[0] == '+')
+            i++;
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean fraction = false;
+        boolean valid = i < tokenLength;
+        for (; i < tokenLength; i++) {
+            int c = token[i];
+            if (c == '.' && !fraction) {
+                fraction = true;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9)
+                break;
+            if (mantissa == 0 && digit == 0) {
+                if (fraction)
+                    exponent--;
+                continue;
+            }
+            if (digits == 18) {
+                valid = false;
+                continue;
+            }
+            mantissa = mantissa * 10 + digit;
+            digits++;
+            if (fraction)
+                exponent--;
+        }
+
+        if (i < tokenLength && (token[i] == 'e' || token[i] == 'E')) {
+            i++;
+            boolean negativeExponent = i < tokenLength && token[i] == '-';
+            if (i < tokenLength && (token[i] == '-' || token[i] == '+'))
+                i++;
+            int value = 0;
+            valid &= i < tokenLength;
+            for (; i < tokenLength; i++) {
+                int digit = token[i] - '0';
+                if (digit < 0 || digit > 9 || value > 1000)
+                    break;
+                value = value * 10 + digit;
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+
+        if (!valid || i < tokenLength || digits > 15
+                || exponent < -22 || exponent > 22) {
+            if (valid && i == tokenLength && mantissa == 0)
+                return negative ? -0.0f : 0.0f;
+            return parseSpecialFloat();
+        }
+
+        double value = mantissa;
+        if (exponent < 0)
+            value /= POWERS_OF_TEN[-exponent];
+        else
+            value *= POWERS_OF_TEN[exponent];
+        return (float) (negative ? -value : value);
+    }
+
+    /** Parses the literals C++ streams write for infinities and NaN too. */
+    private float parseSpecialFloat() {
+        String value = getTokenString();
+        String lower = value.toLowerCase();
+        if (lower.equals("inf") || lower.equals("+inf"))
+            return Float.POSITIVE_INFINITY;
+        if (lower.equals("-inf"))
+            return Float.NEGATIVE_INFINITY;
+        if (lower.endsWith("nan"))
+            return Float.NaN;
+        return Float.parseFloat(value);
+    }
+
+    private String getTokenString() {
+        return new String(token, 0, tokenLength, ASCII);
+    }
+
+    private float[] readFloats(float[] values, boolean isDouble) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = isDouble
+                      ? (float) Double.longBitsToDouble(readLong())
+                      : Float.intBitsToFloat(readInt());
+        }
+        return values;
+    }
+
+    /** Reads a little-endian 32 bit integer as written by Kaldi on x86. */
+    private int readInt() {
+        if (limit - position >= 4) {
+            int value = (buffer[position] & 0xff)
+                      | (buffer[position + 1] & 0xff) << 8
+                      | (buffer[position + 2] & 0xff) << 16
+                      | (buffer[position + 3] & 0xff) << 24;
+            position += 4;
+            return value;
+        }
+        return nextByte() | nextByte() << 8 | nextByte() << 16
+                | nextByte() << 24;
+    }
+
+    private long readLong() {
+        long low = readInt() & 0xffffffffL;
+        return low | (long) readInt() << 32;
+    }
+
+    private int nextByte() {
+        int c = next();
+        if (c < 0)
+            throw new NoSuchElementException();
+        return c;
+    }
+
+    private int next() {
+        if (position == limit && !fill())
+            return -1;
+        return buffer[position++] & 0xff;
+    }
+
+    private int peek() {
+        if (position == limit && !fill())
+            return -1;
+        return buffer[position] & 0xff;
+    }
+
+    /**
+     * Refills the buffer from the current stream, moving to the next stream
+     * at the end of the current one.
+     */
+    private boolean fill() {
+        try {
+            while (currentStream < streams.length) {
+                InputStream stream = streams[currentStream];
+                int n = stream.read(buffer, 0, buffer.length);
+                if (n > 0) {
+                    position = 0;
+                    limit = n;
+                    if (headerPending)
+                        readHeader(stream);
+                    if (position < limit)
+                        return true;
+                    continue;
+                }
+                stream.close();
+                currentStream++;
+                headerPending = true;
+            }
+            return false;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void readHeader(InputStream stream) throws IOException {
+        headerPending = false;
+        if (limit == 1) {
+            int c = stream.read();
+            if (c >= 0)
+                buffer[limit++] = (byte) c;
+        }
+        binary = limit >= 2 && buffer[0] == 0 && buffer[1] == 'B';
+        if (binary)
+            position = 2;
+    }
 }
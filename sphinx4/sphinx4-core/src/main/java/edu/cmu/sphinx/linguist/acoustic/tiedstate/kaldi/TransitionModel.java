@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.InputMismatchException;
 import java.util.List;
 import java.util.Map;
 
@@ -127,6 +128,11 @@ public class TransitionModel {
         parser.expectToken("<Topology>");
 
         phoneStates = new HashMap<Integer, List<HmmState>>();
+        if (parser.isBinary()) {
+            parseBinaryTopology(parser);
+            return;
+        }
+
         String token;
 
         while ("<TopologyEntry>".equals(token = parser.getToken())) {
@@ -164,6 +170,44 @@ public class TransitionModel {
         parser.assertToken("</Topology>", token);
     }
 
+    /**
+     * Parses the binary topology, a table of topology entries indexed by
+     * phone. The final state of an entry has no pdf-class and is skipped as
+     * in the text encoding.
+     */
+    private void parseBinaryTopology(KaldiTextParser parser) {
+        int[] phones = parser.getIntArray();
+        int[] phoneToEntry = parser.getIntArray();
+        int numEntries = parser.getInt();
+        if (numEntries < 0)
+            throw new InputMismatchException(
+                    "Topologies with self-loop pdf-classes are not supported");
+
+        List<List<HmmState>> entries = new ArrayList<List<HmmState>>(numEntries);
+        for (int i = 0; i < numEntries; ++i) {
+            int numStates = parser.getInt();
+            List<HmmState> states = new ArrayList<HmmState>(numStates);
+            for (int id = 0; id < numStates; ++id) {
+                int pdfClass = parser.getInt();
+                int numTransitions = parser.getInt();
+                List<Integer> transitions = new ArrayList<Integer>(numTransitions);
+                for (int j = 0; j < numTransitions; ++j) {
+                    transitions.add(parser.getInt());
+                    // Skip initial probability.
+                    parser.parseFloat();
+                }
+                if (pdfClass >= 0)
+                    states.add(new HmmState(id, pdfClass, transitions));
+            }
+            entries.add(states);
+        }
+
+        for (int phone : phones)
+            phoneStates.put(phone, entries.get(phoneToEntry[phone]));
+
+        parser.expectToken("</Topology>");
+    }
+
     /**
      * Returns transition matrix for the given context.
      *
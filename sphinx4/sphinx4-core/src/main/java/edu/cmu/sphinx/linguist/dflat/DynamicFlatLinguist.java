@@ -228,6 +228,8 @@ public class DynamicFlatLinguist implements Linguist, Configurable {
     public void startRecognition() {
         if (grammarHasChanged()) {
             compileGrammar();
+        } else if (!grammar.getChangedNodes().isEmpty()) {
+            updateGrammar();
         }
     }
 
@@ -258,6 +260,7 @@ public class DynamicFlatLinguist implements Linguist, Configurable {
 
     private void compileGrammar() {
         initialGrammarState = grammar.getInitialNode();
+        grammar.clearChangedNodes();
 
         for (GrammarNode node : grammar.getGrammarNodes()) {
             initUnitMaps(node);
@@ -267,6 +270,67 @@ public class DynamicFlatLinguist implements Linguist, Configurable {
     }
 
 
+    /**
+     * Updates the search graph after parts of the grammar were replaced. Only the unit maps and the cached successors
+     * of the grammar nodes that can lead to a changed node without passing a word are dropped, the search states built
+     * for the rest of the grammar are kept.
+     */
+    private void updateGrammar() {
+        Set<GrammarNode> affectedNodes = getAffectedNodes(grammar.getChangedNodes());
+        grammar.clearChangedNodes();
+
+        nodeToNextUnitArrayMap.keySet().removeAll(affectedNodes);
+        nodeToUnitSetMap.keySet().removeAll(affectedNodes);
+        for (Iterator<SearchState> i = successorCache.keySet().iterator(); i.hasNext();) {
+            if (affectedNodes.contains(((FlatSearchState) i.next()).getGrammarNode())) {
+                i.remove();
+            }
+        }
+
+        for (GrammarNode node : grammar.getGrammarNodes()) {
+            initUnitMaps(node);
+        }
+        logger.info("Updated " + affectedNodes.size() + " grammar nodes");
+    }
+
+
+    /**
+     * Collects the grammar nodes whose unit maps or successor states depend on the given changed nodes. These are the
+     * changed nodes, the empty nodes from which a changed node can be reached through empty nodes only, and the
+     * predecessors of all of them.
+     *
+     * @param changedNodes the nodes whose successors changed or that were removed
+     * @return the affected nodes
+     */
+    private Set<GrammarNode> getAffectedNodes(Set<GrammarNode> changedNodes) {
+        Map<GrammarNode, List<GrammarNode>> predecessors = new HashMap<GrammarNode, List<GrammarNode>>();
+        for (GrammarNode node : grammar.getGrammarNodes()) {
+            for (GrammarArc arc : node.getSuccessors()) {
+                List<GrammarNode> list = predecessors.get(arc.getGrammarNode());
+                if (list == null) {
+                    list = new ArrayList<GrammarNode>();
+                    predecessors.put(arc.getGrammarNode(), list);
+                }
+                list.add(node);
+            }
+        }
+
+        Set<GrammarNode> affectedNodes = new HashSet<GrammarNode>(changedNodes);
+        List<GrammarNode> queue = new ArrayList<GrammarNode>(changedNodes);
+        while (!queue.isEmpty()) {
+            List<GrammarNode> list = predecessors.get(queue.remove(queue.size() - 1));
+            if (list != null) {
+                for (GrammarNode node : list) {
+                    if (affectedNodes.add(node) && node.isEmpty()) {
+                        queue.add(node);
+                    }
+                }
+            }
+        }
+        return affectedNodes;
+    }
+
+
     /**
      * Initializes the unit maps for this linguist. There are two unit maps: (a) nodeToNextUnitArrayMap contains an
      * array of unit ids for all possible units that immediately follow the given grammar node. This is used to
@@ -493,6 +557,16 @@ public class DynamicFlatLinguist implements Linguist, Configurable {
         void cacheSuccessors(SearchStateArc[] successors) {
             successorCache.put(this, successors);
         }
+
+
+        /**
+         * Returns the grammar node this state was built for
+         *
+         * @return the grammar node or null if the state does not belong to a node
+         */
+        GrammarNode getGrammarNode() {
+            return null;
+        }
     }
 
     /**
@@ -793,6 +867,7 @@ public class DynamicFlatLinguist implements Linguist, Configurable {
          *
          * @return the grammar node
          */
+        @Override
         GrammarNode getGrammarNode() {
             return node;
         }
@@ -1032,6 +1107,17 @@ public class DynamicFlatLinguist implements Linguist, Configurable {
         }
 
 
+        /**
+         * Returns the grammar node of the word
+         *
+         * @return the grammar node
+         */
+        @Override
+        GrammarNode getGrammarNode() {
+            return gs.getGrammarNode();
+        }
+
+
         /**
          * Returns true if this WordSearchState indicates the start of a word. Returns false if this WordSearchState
          * indicates the end of a word.
@@ -1261,6 +1347,17 @@ public class DynamicFlatLinguist implements Linguist, Configurable {
         }
 
 
+        /**
+         * Returns the grammar node of the word
+         *
+         * @return the grammar node
+         */
+        @Override
+        GrammarNode getGrammarNode() {
+            return pState.getGrammarNode();
+        }
+
+
         /**
          * Returns the next set of arcs after this state and all substates have been processed
          *
@@ -1426,6 +1523,17 @@ public class DynamicFlatLinguist implements Linguist, Configurable {
         }
 
 
+        /**
+         * Returns the grammar node of the word
+         *
+         * @return the grammar node
+         */
+        @Override
+        GrammarNode getGrammarNode() {
+            return fullHMMSearchState.getGrammarNode();
+        }
+
+
         /**
          * Returns the hmm state for this search state
          *
@@ -30,6 +30,8 @@ import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 /**
@@ -85,7 +87,7 @@ public class TextDictionary implements Dictionary {
     // working data
     // -------------------------------
     protected Map<String, String> dictionary;
-    protected Map<String, Word> wordDictionary;
+    protected ConcurrentMap<String, Word> wordDictionary;
     protected G2PConverter g2pDecoder;
 
     protected final static String FILLER_TAG = "-F-";
@@ -168,7 +170,7 @@ public class TextDictionary implements Dictionary {
     public void allocate() throws IOException {
         if (!allocated) {
             dictionary = new HashMap<String, String>();
-            wordDictionary = new HashMap<String, Word>();
+            wordDictionary = new ConcurrentHashMap<String, Word>();
 
             Timer loadTimer = TimerPool.getTimer(this, "Load Dictionary");
             fillerWords = new HashSet<String>();
@@ -331,7 +333,9 @@ public class TextDictionary implements Dictionary {
             } else if (g2pModelFile != null && !g2pModelFile.getPath().equals("")) {
                 logger.info("Generating phonetic transcription(s) for the word '" + text + "' using g2p model");
                 wordObject = extractPronunciation(text);
-                wordDictionary.put(text, wordObject);
+                Word existing = wordDictionary.putIfAbsent(text, wordObject);
+                if (existing != null)
+                    wordObject = existing;
             }
         } else { // first lookup for this string
             wordObject = processEntry(text);
@@ -422,9 +426,10 @@ public class TextDictionary implements Dictionary {
         for (Pronunciation pronunciation : pronunciationsArray) {
             pronunciation.setWord(wordObject);
         }
-        wordDictionary.put(word, wordObject);
+        // another thread may have processed the entry meanwhile
+        Word existing = wordDictionary.putIfAbsent(word, wordObject);
 
-        return wordObject;
+        return existing != null ? existing : wordObject;
     }
 
     /**
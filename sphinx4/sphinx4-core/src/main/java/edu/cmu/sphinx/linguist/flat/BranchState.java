@@ -19,6 +19,17 @@ public class BranchState extends SentenceHMMState {
     }
 
 
+    /**
+     * Creates a branch state with the name of a state restored from a saved search graph
+     *
+     * @param name the name of the state, without the node id
+     * @param nodeID the grammar node id
+     */
+    BranchState(String name, int nodeID) {
+        super(name, null, nodeID);
+    }
+
+
     /**
      * Retrieves a short label describing the type of this state. Typically, subclasses of SentenceHMMState will
      * implement this method and return a short (5 chars or less) label
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.flat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cmu.sphinx.linguist.SearchStateArc;
+import edu.cmu.sphinx.linguist.acoustic.AcousticModel;
+import edu.cmu.sphinx.linguist.acoustic.Context;
+import edu.cmu.sphinx.linguist.acoustic.HMM;
+import edu.cmu.sphinx.linguist.acoustic.LeftRightContext;
+import edu.cmu.sphinx.linguist.acoustic.Unit;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import edu.cmu.sphinx.linguist.language.grammar.GrammarNode;
+import edu.cmu.sphinx.util.Cache;
+
+/**
+ * The compiled sentence HMM of the flat linguist in compressed sparse row
+ * form. States are numbered so that the parent of a state comes before it and
+ * all their attributes are kept in parallel arrays, the arcs of state
+ * <code>i</code> are <code>arcStates[arcStarts[i]]</code> up to
+ * <code>arcStates[arcStarts[i + 1] - 1]</code>. Words, grammar nodes, units
+ * and HMM states are referenced by spelling, ID, name and index and are
+ * resolved against the grammar, the unit manager and the acoustic model when
+ * the graph is restored.
+ * <p>
+ * The graph is saved with the key of the grammar, dictionary and acoustic
+ * model it was compiled from, so a saved graph is only used for the same
+ * models.
+ */
+class CompactSearchGraph {
+
+    final static int MAGIC = 0x53344647;
+    final static int VERSION = 1;
+
+    final static byte PRONUNCIATION_STATE = 0;
+    final static byte UNIT_STATE = 1;
+    final static byte HMM_STATE = 2;
+    final static byte NON_EMITTING_HMM_STATE = 3;
+    final static byte BRANCH_STATE = 4;
+    final static byte GRAMMAR_STATE = 5;
+
+    String key;
+
+    /** Names, spellings and unit names referenced by the graph */
+    String[] strings;
+
+    /** Base unit names and filler flags of the units in context */
+    int[] unitNames;
+    byte[] unitFillers;
+    /** Left and right contexts of the units as unit names */
+    int[] leftStarts;
+    int[] leftUnits;
+    int[] rightStarts;
+    int[] rightUnits;
+
+    byte[] kinds;
+    int[] parents;
+    int[] whiches;
+    /**
+     * Name of a pronunciation or branch state, unit of a unit state, grammar
+     * node ID of a grammar state
+     */
+    int[] labels;
+    /** Spelling of the word of a pronunciation state */
+    int[] references;
+    int[] arcStarts;
+    int[] arcStates;
+    float[] arcLanguageProbabilities;
+    float[] arcInsertionProbabilities;
+
+    int initialState;
+
+
+    /** @return the number of states in the graph */
+    int getStateCount() {
+        return kinds.length;
+    }
+
+
+    /** @return the number of arcs in the graph */
+    int getArcCount() {
+        return arcStates.length;
+    }
+
+
+    /**
+     * Converts a compiled sentence HMM into compact form.
+     *
+     * @param initial the initial state of the sentence HMM
+     * @return the compact graph, without key
+     * @throws IOException if the graph contains states that can't be saved
+     */
+    static CompactSearchGraph fromSentenceHMM(SentenceHMMState initial) throws IOException {
+        // number the states breadth first, then order them by depth so
+        // that parents are created first
+        List<SentenceHMMState> reached = new ArrayList<SentenceHMMState>();
+        Map<SentenceHMMState, Integer> reachedIds = new IdentityHashMap<SentenceHMMState, Integer>();
+        reachedIds.put(initial, 0);
+        reached.add(initial);
+        for (int i = 0; i < reached.size(); i++) {
+            for (SearchStateArc arc : reached.get(i).getSuccessors()) {
+                SentenceHMMState state = (SentenceHMMState) arc.getState();
+                if (!reachedIds.containsKey(state)) {
+                    reachedIds.put(state, reached.size());
+                    reached.add(state);
+                }
+            }
+        }
+        final Map<SentenceHMMState, Integer> depths = new IdentityHashMap<SentenceHMMState, Integer>();
+        for (SentenceHMMState state : reached)
+            depths.put(state, getDepth(state));
+        List<SentenceHMMState> states = new ArrayList<SentenceHMMState>(reached);
+        Collections.sort(states, new Comparator<SentenceHMMState>() {
+            public int compare(SentenceHMMState s1, SentenceHMMState s2) {
+                return depths.get(s1) - depths.get(s2);
+            }
+        });
+        Map<SentenceHMMState, Integer> ids = new IdentityHashMap<SentenceHMMState, Integer>();
+        for (SentenceHMMState state : states)
+            ids.put(state, ids.size());
+
+        CompactSearchGraph graph = new CompactSearchGraph();
+        Map<String, Integer> stringIds = new HashMap<String, Integer>();
+        Map<String, Integer> unitIds = new HashMap<String, Integer>();
+        List<String> strings = new ArrayList<String>();
+        List<Unit> units = new ArrayList<Unit>();
+
+        int numStates = states.size();
+        graph.kinds = new byte[numStates];
+        graph.parents = new int[numStates];
+        graph.whiches = new int[numStates];
+        graph.labels = new int[numStates];
+        graph.references = new int[numStates];
+        graph.arcStarts = new int[numStates + 1];
+        int numArcs = 0;
+        for (int i = 0; i < numStates; i++) {
+            SentenceHMMState state = states.get(i);
+            graph.parents[i] = state.getParent() == null ? -1 : ids.get(state.getParent());
+            graph.whiches[i] = state.getWhich();
+            graph.labels[i] = -1;
+            graph.references[i] = -1;
+            if (state.getClass() == PronunciationState.class) {
+                graph.kinds[i] = PRONUNCIATION_STATE;
+                graph.labels[i] = getId(getBaseName(state), stringIds, strings);
+                String spelling = ((PronunciationState) state).getPronunciation().getWord().getSpelling();
+                graph.references[i] = getId(spelling, stringIds, strings);
+            } else if (state.getClass() == ExtendedUnitState.class) {
+                graph.kinds[i] = UNIT_STATE;
+                graph.labels[i] = getUnitId(((UnitState) state).getUnit(), unitIds, units);
+            } else if (state.getClass() == HMMStateState.class) {
+                graph.kinds[i] = HMM_STATE;
+            } else if (state.getClass() == NonEmittingHMMState.class) {
+                graph.kinds[i] = NON_EMITTING_HMM_STATE;
+            } else if (state.getClass() == BranchState.class) {
+                graph.kinds[i] = BRANCH_STATE;
+                graph.labels[i] = getId(getBaseName(state), stringIds, strings);
+            } else if (state.getClass() == GrammarState.class) {
+                graph.kinds[i] = GRAMMAR_STATE;
+                graph.labels[i] = ((GrammarState) state).getGrammarNode().getID();
+            } else {
+                throw new IOException("Can't save search state " + state);
+            }
+            graph.arcStarts[i] = numArcs;
+            numArcs += state.getNumSuccessors();
+        }
+        graph.arcStarts[numStates] = numArcs;
+
+        graph.arcStates = new int[numArcs];
+        graph.arcLanguageProbabilities = new float[numArcs];
+        graph.arcInsertionProbabilities = new float[numArcs];
+        int arc = 0;
+        for (SentenceHMMState state : states) {
+            for (SearchStateArc successor : state.getSuccessors()) {
+                SentenceHMMStateArc sentenceArc = (SentenceHMMStateArc) successor;
+                graph.arcStates[arc] = ids.get(sentenceArc.getNextState());
+                graph.arcLanguageProbabilities[arc] = sentenceArc.getLanguageProbability();
+                graph.arcInsertionProbabilities[arc] = sentenceArc.getInsertionProbability();
+                arc++;
+            }
+        }
+        graph.initialState = ids.get(initial);
+
+        int numUnits = units.size();
+        graph.unitNames = new int[numUnits];
+        graph.unitFillers = new byte[numUnits];
+        graph.leftStarts = new int[numUnits + 1];
+        graph.rightStarts = new int[numUnits + 1];
+        List<Integer> leftUnits = new ArrayList<Integer>();
+        List<Integer> rightUnits = new ArrayList<Integer>();
+        for (int i = 0; i < numUnits; i++) {
+            Unit unit = units.get(i);
+            LeftRightContext context = (LeftRightContext) unit.getContext();
+            graph.unitNames[i] = getId(unit.getName(), stringIds, strings);
+            graph.unitFillers[i] = (byte) (unit.isFiller() ? 1 : 0);
+            graph.leftStarts[i] = leftUnits.size();
+            for (Unit left : context.getLeftContext())
+                leftUnits.add(getId(left.getName(), stringIds, strings));
+            graph.rightStarts[i] = rightUnits.size();
+            for (Unit right : context.getRightContext())
+                rightUnits.add(getId(right.getName(), stringIds, strings));
+        }
+        graph.leftStarts[numUnits] = leftUnits.size();
+        graph.rightStarts[numUnits] = rightUnits.size();
+        graph.leftUnits = toArray(leftUnits);
+        graph.rightUnits = toArray(rightUnits);
+        graph.strings = strings.toArray(new String[strings.size()]);
+        return graph;
+    }
+
+
+    /** Returns the name the state was created with, the name of a state ends with its index. */
+    private static String getBaseName(SentenceHMMState state) {
+        String name = state.getName();
+        return name.substring(0, name.length() - String.valueOf(state.getWhich()).length());
+    }
+
+
+    private static int getDepth(SentenceHMMState state) {
+        int depth = 0;
+        for (SentenceHMMState parent = state.getParent(); parent != null; parent = parent.getParent())
+            depth++;
+        return depth;
+    }
+
+
+    private static int getId(String s, Map<String, Integer> ids, List<String> strings) {
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = strings.size();
+            ids.put(s, id);
+            strings.add(s);
+        }
+        return id;
+    }
+
+
+    private static int getUnitId(Unit unit, Map<String, Integer> ids, List<Unit> units) throws IOException {
+        Context context = unit.getContext();
+        if (!(context instanceof LeftRightContext))
+            throw new IOException("Can't save unit " + unit);
+        LeftRightContext lrContext = (LeftRightContext) context;
+        if (lrContext.getLeftContext() == null || lrContext.getRightContext() == null)
+            throw new IOException("Can't save unit " + unit);
+        String key = unit.getName() + ' ' + unit.isFiller() + ' ' + context;
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = units.size();
+            ids.put(key, id);
+            units.add(unit);
+        }
+        return id;
+    }
+
+
+    private static int[] toArray(List<Integer> list) {
+        int[] values = new int[list.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = list.get(i);
+        return values;
+    }
+
+
+    /**
+     * Creates the sentence HMM of the graph.
+     *
+     * @param grammarNodes  the nodes of the grammar the graph was compiled from
+     * @param unitManager   the unit manager
+     * @param acousticModel the acoustic model
+     * @param arcPool       the pool to share arcs through
+     * @return the initial state of the sentence HMM
+     * @throws IOException if the graph references words or grammar nodes the
+     *         grammar doesn't have
+     */
+    SentenceHMMState toSentenceHMM(Collection<GrammarNode> grammarNodes,
+                                   UnitManager unitManager, AcousticModel acousticModel,
+                                   Cache<SentenceHMMStateArc> arcPool) throws IOException {
+        Map<Integer, GrammarNode> nodes = new HashMap<Integer, GrammarNode>();
+        Map<String, Word> words = new HashMap<String, Word>();
+        for (GrammarNode node : grammarNodes) {
+            nodes.put(node.getID(), node);
+            for (Word[] alternative : node.getAlternatives())
+                for (Word word : alternative)
+                    words.put(word.getSpelling(), word);
+        }
+
+        Unit[] units = new Unit[unitNames.length];
+        for (int i = 0; i < units.length; i++) {
+            Unit[] left = new Unit[leftStarts[i + 1] - leftStarts[i]];
+            for (int j = 0; j < left.length; j++)
+                left[j] = unitManager.getUnit(strings[leftUnits[leftStarts[i] + j]]);
+            Unit[] right = new Unit[rightStarts[i + 1] - rightStarts[i]];
+            for (int j = 0; j < right.length; j++)
+                right[j] = unitManager.getUnit(strings[rightUnits[rightStarts[i] + j]]);
+            units[i] = unitManager.getUnit(strings[unitNames[i]], unitFillers[i] != 0,
+                    LeftRightContext.get(left, right));
+        }
+
+        SentenceHMMState[] states = new SentenceHMMState[kinds.length];
+        Map<SentenceHMMState, HMM> hmms = new IdentityHashMap<SentenceHMMState, HMM>();
+        for (int i = 0; i < states.length; i++) {
+            SentenceHMMState parent = parents[i] < 0 ? null : states[parents[i]];
+            switch (kinds[i]) {
+                case PRONUNCIATION_STATE:
+                    Word word = words.get(strings[references[i]]);
+                    if (word == null)
+                        throw new IOException("No word " + strings[references[i]] + " in grammar");
+                    states[i] = new PronunciationState(strings[labels[i]],
+                            word.getPronunciations()[whiches[i]], whiches[i]);
+                    break;
+                case UNIT_STATE:
+                    states[i] = new ExtendedUnitState((PronunciationState) parent,
+                            whiches[i], units[labels[i]]);
+                    break;
+                case HMM_STATE:
+                case NON_EMITTING_HMM_STATE:
+                    HMM hmm = hmms.get(parent);
+                    if (hmm == null) {
+                        UnitState unitState = (UnitState) parent;
+                        hmm = acousticModel.lookupNearestHMM(unitState.getUnit(),
+                                unitState.getPosition(), false);
+                        hmms.put(parent, hmm);
+                    }
+                    states[i] = kinds[i] == HMM_STATE
+                            ? new HMMStateState(parent, hmm.getState(whiches[i]))
+                            : new NonEmittingHMMState(parent, hmm.getState(whiches[i]));
+                    break;
+                case BRANCH_STATE:
+                    states[i] = new BranchState(strings[labels[i]], whiches[i]);
+                    break;
+                case GRAMMAR_STATE:
+                    GrammarNode node = nodes.get(labels[i]);
+                    if (node == null)
+                        throw new IOException("No node " + labels[i] + " in grammar");
+                    states[i] = new GrammarState(node);
+                    break;
+                default:
+                    throw new IOException("Unknown state kind " + kinds[i]);
+            }
+        }
+
+        for (int i = 0; i < states.length; i++) {
+            for (int j = arcStarts[i]; j < arcStarts[i + 1]; j++) {
+                SentenceHMMStateArc arc = new SentenceHMMStateArc(states[arcStates[j]],
+                        arcLanguageProbabilities[j], arcInsertionProbabilities[j]);
+                SentenceHMMStateArc pooledArc = arcPool.cache(arc);
+                states[i].connect(pooledArc == null ? arc : pooledArc);
+            }
+        }
+        return states[initialState];
+    }
+
+
+    /**
+     * Saves the graph.
+     *
+     * @param file the file to write to
+     * @throws IOException if the file can't be written
+     */
+    void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+
+            out.writeInt(strings.length);
+            for (String s : strings)
+                out.writeUTF(s);
+
+            writeInts(out, unitNames);
+            out.write(unitFillers);
+            writeInts(out, leftStarts);
+            writeInts(out, leftUnits);
+            writeInts(out, rightStarts);
+            writeInts(out, rightUnits);
+
+            out.writeInt(kinds.length);
+            out.write(kinds);
+            writeInts(out, parents);
+            writeInts(out, whiches);
+            writeInts(out, labels);
+            writeInts(out, references);
+            writeInts(out, arcStarts);
+            writeInts(out, arcStates);
+            for (float probability : arcLanguageProbabilities)
+                out.writeFloat(probability);
+            for (float probability : arcInsertionProbabilities)
+                out.writeFloat(probability);
+
+            out.writeInt(initialState);
+        } finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * Loads a saved graph.
+     *
+     * @param file the file to read
+     * @param key  the key of the models the graph must have been compiled from
+     * @return the graph
+     * @throws IOException if the file can't be read or was saved for other
+     *         models
+     */
+    static CompactSearchGraph load(File file, String key) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a search graph file: " + file);
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported search graph version "
+                        + version + " in " + file);
+
+            CompactSearchGraph graph = new CompactSearchGraph();
+            graph.key = in.readUTF();
+            if (!graph.key.equals(key))
+                throw new IOException("Search graph " + file
+                        + " was compiled for other models");
+
+            graph.strings = new String[in.readInt()];
+            for (int i = 0; i < graph.strings.length; i++)
+                graph.strings[i] = in.readUTF();
+
+            graph.unitNames = readInts(in);
+            graph.unitFillers = new byte[graph.unitNames.length];
+            in.readFully(graph.unitFillers);
+            graph.leftStarts = readInts(in);
+            graph.leftUnits = readInts(in);
+            graph.rightStarts = readInts(in);
+            graph.rightUnits = readInts(in);
+
+            graph.kinds = new byte[in.readInt()];
+            in.readFully(graph.kinds);
+            graph.parents = readInts(in);
+            graph.whiches = readInts(in);
+            graph.labels = readInts(in);
+            graph.references = readInts(in);
+            graph.arcStarts = readInts(in);
+            graph.arcStates = readInts(in);
+            graph.arcLanguageProbabilities = new float[graph.arcStates.length];
+            for (int i = 0; i < graph.arcLanguageProbabilities.length; i++)
+                graph.arcLanguageProbabilities[i] = in.readFloat();
+            graph.arcInsertionProbabilities = new float[graph.arcStates.length];
+            for (int i = 0; i < graph.arcInsertionProbabilities.length; i++)
+                graph.arcInsertionProbabilities[i] = in.readFloat();
+
+            graph.initialState = in.readInt();
+            return graph;
+        } finally {
+            in.close();
+        }
+    }
+
+
+    private static void writeInts(DataOutputStream out, int[] values)
+            throws IOException {
+        out.writeInt(values.length);
+        for (int value : values)
+            out.writeInt(value);
+    }
+
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = in.readInt();
+        return values;
+    }
+}
@@ -28,8 +28,19 @@ import edu.cmu.sphinx.util.StatisticsVariable;
 import edu.cmu.sphinx.util.TimerPool;
 import edu.cmu.sphinx.util.props.*;
 
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
 
 /**
  * A simple form of the linguist.
@@ -109,6 +120,20 @@ public class FlatLinguist implements Linguist, Configurable {
     public final static String PROP_SPREAD_WORD_PROBABILITIES_ACROSS_PRONUNCIATIONS =
             "spreadWordProbabilitiesAcrossPronunciations";
 
+    /**
+     * The property that defines a directory to save the compiled search graph in. When the grammar is compiled again
+     * with the same dictionary and acoustic model, the graph is loaded from there instead of being compiled. If the
+     * property is not set, the graph is always compiled.
+     */
+    @S4String(mandatory = false)
+    public final static String PROP_GRAPH_CACHE = "graphCache";
+
+    /**
+     * The property for the number of threads the grammar nodes are expanded and connected on.
+     */
+    @S4Integer(defaultValue = 1)
+    public final static String PROP_COMPILATION_THREADS = "compilationThreads";
+
     protected final static float logOne = LogMath.LOG_ONE;
 
     // note: some fields are protected to allow to override FlatLinguist.compileGrammar()
@@ -142,6 +167,9 @@ public class FlatLinguist implements Linguist, Configurable {
     private boolean spreadWordProbabilitiesAcrossPronunciations;
     private boolean dumpGStates;
     private float languageWeight;
+    private File graphCache;
+    private int compilationThreads = 1;
+    private Logger logger;
 
     // -----------------------------------
     // Data for monitoring performance
@@ -179,7 +207,20 @@ public class FlatLinguist implements Linguist, Configurable {
             double unitInsertionProbability, float languageWeight, boolean dumpGStates, boolean showCompilationProgress,
             boolean spreadWordProbabilitiesAcrossPronunciations, boolean addOutOfGrammarBranch,
             double outOfGrammarBranchProbability, double phoneInsertionProbability, AcousticModel phoneLoopAcousticModel    ) {
+        this(acousticModel, grammar, unitManager, wordInsertionProbability, silenceInsertionProbability,
+                fillerInsertionProbability, unitInsertionProbability, languageWeight, dumpGStates,
+                showCompilationProgress, spreadWordProbabilitiesAcrossPronunciations, addOutOfGrammarBranch,
+                outOfGrammarBranchProbability, phoneInsertionProbability, phoneLoopAcousticModel, null, 1);
+    }
 
+    public FlatLinguist(AcousticModel acousticModel, Grammar grammar, UnitManager unitManager,
+            double wordInsertionProbability, double silenceInsertionProbability, double fillerInsertionProbability,
+            double unitInsertionProbability, float languageWeight, boolean dumpGStates, boolean showCompilationProgress,
+            boolean spreadWordProbabilitiesAcrossPronunciations, boolean addOutOfGrammarBranch,
+            double outOfGrammarBranchProbability, double phoneInsertionProbability, AcousticModel phoneLoopAcousticModel,
+            File graphCache, int compilationThreads) {
+
+        this.logger = Logger.getLogger(getClass().getName());
         this.acousticModel = acousticModel;
         this.logMath = LogMath.getLogMath();
         this.grammar = grammar;
@@ -203,6 +244,8 @@ public class FlatLinguist implements Linguist, Configurable {
             this.phoneLoopAcousticModel = phoneLoopAcousticModel;
         }
 
+        this.graphCache = graphCache;
+        this.compilationThreads = compilationThreads;
         this.name = null;
     }
 
@@ -217,6 +260,7 @@ public class FlatLinguist implements Linguist, Configurable {
     */
     public void newProperties(PropertySheet ps) throws PropertyException {
         logMath = LogMath.getLogMath();
+        logger = ps.getLogger();
 
         acousticModel = (AcousticModel) ps.getComponent(PROP_ACOUSTIC_MODEL);
         grammar = (Grammar) ps.getComponent(PROP_GRAMMAR);
@@ -240,6 +284,10 @@ public class FlatLinguist implements Linguist, Configurable {
             phoneLoopAcousticModel = (AcousticModel)ps.getComponent(PROP_PHONE_LOOP_ACOUSTIC_MODEL);
         }
 
+        String graphCacheDirectory = ps.getString(PROP_GRAPH_CACHE);
+        graphCache = graphCacheDirectory != null ? new File(graphCacheDirectory) : null;
+        compilationThreads = ps.getInt(PROP_COMPILATION_THREADS);
+
         name = ps.getInstanceName();
     }
 
@@ -331,13 +379,64 @@ public class FlatLinguist implements Linguist, Configurable {
      */
     protected Collection<SentenceHMMState> compileGrammar() {
         initialGrammarState = grammar.getInitialNode();
+        // the whole graph is compiled again when parts of the grammar change
+        grammar.clearChangedNodes();
 
         nodeStateMap = new HashMap<GrammarNode, GState>();
         arcPool = new Cache<SentenceHMMStateArc>();
 
-        List<GState> gstateList = new ArrayList<GState>();
         TimerPool.getTimer(this, "Compile").start();
 
+        // load the graph if it has been compiled for the same models before
+        SentenceHMMState initialState = null;
+        String key = null;
+        File file = null;
+        if (graphCache != null) {
+            key = computeKey();
+            file = new File(graphCache, "graph-" + key + ".bin");
+            if (file.isFile())
+                initialState = loadSearchGraph(file, key);
+        }
+
+        if (initialState == null) {
+            initialState = compileSentenceHMM();
+            if (file != null)
+                saveSearchGraph(initialState, file, key);
+        }
+
+        // add an out-of-grammar branch if configured to do so
+        if (addOutOfGrammarBranch) {
+            CIPhoneLoop phoneLoop = new CIPhoneLoop(phoneLoopAcousticModel, logPhoneInsertionProbability);
+            SentenceHMMState firstBranchState = (SentenceHMMState)
+                    phoneLoop.getSearchGraph().getInitialState();
+            initialState.connect(getArc(firstBranchState, logOne, logOutOfGrammarBranchProbability));
+        }
+
+        searchGraph = new FlatSearchGraph(initialState);
+        TimerPool.getTimer(this, "Compile").stop();
+        // Now that we are all done, dump out some interesting
+        // information about the process
+        if (dumpGStates) {
+            for (GrammarNode grammarNode : grammar.getGrammarNodes()) {
+                GState gstate = getGState(grammarNode);
+                if (gstate != null)
+                    gstate.dumpInfo();
+            }
+        }
+        nodeStateMap = null;
+        arcPool = null;
+        return SentenceHMMState.collectStates(initialState);
+    }
+
+
+    /**
+     * Expands the grammar nodes into sentence HMM states and connects them.
+     *
+     * @return the initial state of the sentence HMM
+     */
+    private SentenceHMMState compileSentenceHMM() {
+        List<GState> gstateList = new ArrayList<GState>();
+
         // get the nodes from the grammar and create states
         // for them. Add the non-empty gstates to the gstate list.
         TimerPool.getTimer(this, "Create States").start();
@@ -360,40 +459,207 @@ public class FlatLinguist implements Linguist, Configurable {
         // now all gstates know all about their contexts, we can
         // expand them fully
         TimerPool.getTimer(this, "Expand States").start();
+        // the starting contexts are computed lazily, gather them in the
+        // order the expansion would before the gstates are expanded on
+        // several threads
         for (GState gstate : gstateList)
-            gstate.expand();
+            gstate.getStartingContexts();
+        compileGStates(gstateList, false);
         TimerPool.getTimer(this, "Expand States").stop();
 
         // now that all states are expanded fully, we can connect all
         // the states up
         TimerPool.getTimer(this, "Connect Nodes").start();
-        for (GState gstate : gstateList)
-            gstate.connect();
+        compileGStates(gstateList, true);
         TimerPool.getTimer(this, "Connect Nodes").stop();
 
-        SentenceHMMState initialState = findStartingState();
+        return findStartingState();
+    }
 
-        // add an out-of-grammar branch if configured to do so
-        if (addOutOfGrammarBranch) {
-            CIPhoneLoop phoneLoop = new CIPhoneLoop(phoneLoopAcousticModel, logPhoneInsertionProbability);
-            SentenceHMMState firstBranchState = (SentenceHMMState)
-                    phoneLoop.getSearchGraph().getInitialState();
-            initialState.connect(getArc(firstBranchState, logOne, logOutOfGrammarBranchProbability));
+
+    /**
+     * Expands or connects the given gstates. Each gstate only changes the states it creates, so with more than one
+     * compilation thread the gstates are divided among the threads.
+     *
+     * @param gstateList the gstates
+     * @param connect    if true the gstates are connected, otherwise they are expanded
+     */
+    private void compileGStates(List<GState> gstateList, final boolean connect) {
+        if (compilationThreads <= 1 || gstateList.size() < 2) {
+            for (GState gstate : gstateList) {
+                if (connect)
+                    gstate.connect();
+                else
+                    gstate.expand();
+            }
+            return;
         }
 
-        searchGraph = new FlatSearchGraph(initialState);
-        TimerPool.getTimer(this, "Compile").stop();
-        // Now that we are all done, dump out some interesting
-        // information about the process
-        if (dumpGStates) {
-            for (GrammarNode grammarNode : grammar.getGrammarNodes()) {
-                GState gstate = getGState(grammarNode);
-                gstate.dumpInfo();
+        ExecutorService executor = Executors.newFixedThreadPool(compilationThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            int numTasks = Math.min(gstateList.size(), compilationThreads * 4);
+            for (int i = 0; i < numTasks; i++) {
+                final List<GState> part = gstateList.subList(
+                        i * gstateList.size() / numTasks, (i + 1) * gstateList.size() / numTasks);
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        for (GState gstate : part) {
+                            if (connect)
+                                gstate.connect();
+                            else
+                                gstate.expand();
+                        }
+                    }
+                }));
             }
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while compiling the grammar", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdown();
         }
-        nodeStateMap = null;
-        arcPool = null;
-        return SentenceHMMState.collectStates(initialState);
+    }
+
+
+    /**
+     * Loads a saved search graph.
+     *
+     * @param file the file the graph was saved to
+     * @param key  the key of the grammar, dictionary and acoustic model
+     * @return the initial state of the graph, or null if the graph can't be loaded
+     */
+    private SentenceHMMState loadSearchGraph(File file, String key) {
+        try {
+            CompactSearchGraph graph = CompactSearchGraph.load(file, key);
+            SentenceHMMState initialState = graph.toSentenceHMM(grammar.getGrammarNodes(),
+                    unitManager, acousticModel, arcPool);
+            actualArcs.value = arcPool.getMisses();
+            totalArcs.value = arcPool.getHits() + arcPool.getMisses();
+            logger.info("Loaded search graph from " + file);
+            return initialState;
+        } catch (IOException e) {
+            logger.warning("Can't load search graph " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * Saves the compiled search graph, before the out-of-grammar branch is added.
+     *
+     * @param initialState the initial state of the graph
+     * @param file         the file to save the graph to
+     * @param key          the key of the grammar, dictionary and acoustic model
+     */
+    private void saveSearchGraph(SentenceHMMState initialState, File file, String key) {
+        try {
+            CompactSearchGraph graph = CompactSearchGraph.fromSentenceHMM(initialState);
+            graph.key = key;
+            graphCache.mkdirs();
+            graph.save(file);
+            logger.info("Saved search graph with " + graph.getStateCount() + " states and "
+                    + graph.getArcCount() + " arcs to " + file);
+        } catch (IOException e) {
+            logger.warning("Can't save search graph " + file + ": " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Computes the key of the models the search graph is compiled from. It covers the grammar, the pronunciations of
+     * its words, the topology and transition probabilities of the HMMs in the acoustic model and the probabilities
+     * configured for the linguist.
+     *
+     * @return the key as hex string
+     */
+    private String computeKey() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }, digest));
+
+        try {
+            out.writeFloat(logWordInsertionProbability);
+            out.writeFloat(logSilenceInsertionProbability);
+            out.writeFloat(logFillerInsertionProbability);
+            out.writeFloat(logUnitInsertionProbability);
+            out.writeFloat(languageWeight);
+            out.writeBoolean(spreadWordProbabilitiesAcrossPronunciations);
+
+            List<GrammarNode> nodes = new ArrayList<GrammarNode>(grammar.getGrammarNodes());
+            Collections.sort(nodes, new Comparator<GrammarNode>() {
+                public int compare(GrammarNode n1, GrammarNode n2) {
+                    return n1.getID() - n2.getID();
+                }
+            });
+            out.writeInt(grammar.getInitialNode().getID());
+            for (GrammarNode node : nodes) {
+                out.writeInt(node.getID());
+                out.writeBoolean(node.isFinalNode());
+                for (Word[] alternative : node.getAlternatives()) {
+                    out.writeInt(alternative.length);
+                    for (Word word : alternative) {
+                        out.writeUTF(word.getSpelling());
+                        for (Pronunciation pronunciation : word.getPronunciations()) {
+                            out.writeInt(pronunciation.getUnits().length);
+                            for (Unit unit : pronunciation.getUnits()) {
+                                out.writeUTF(unit.getName());
+                                out.writeBoolean(unit.isFiller());
+                            }
+                        }
+                    }
+                }
+                out.writeInt(node.getSuccessors().length);
+                for (GrammarArc arc : node.getSuccessors()) {
+                    out.writeInt(arc.getGrammarNode().getID());
+                    out.writeFloat(arc.getProbability());
+                }
+            }
+
+            out.writeInt(acousticModel.getLeftContextSize());
+            out.writeInt(acousticModel.getRightContextSize());
+            List<String> hmms = new ArrayList<String>();
+            for (Iterator<HMM> i = acousticModel.getHMMIterator(); i.hasNext();) {
+                HMM hmm = i.next();
+                StringBuilder description = new StringBuilder();
+                description.append(hmm.getUnit()).append(' ').append(hmm.getPosition());
+                for (int state = 0; state <= hmm.getOrder(); state++) {
+                    for (HMMStateArc arc : hmm.getState(state).getSuccessors()) {
+                        description.append(' ').append(state).append('>').append(arc.getHMMState().getState())
+                                .append(':').append(arc.getLogProbability());
+                    }
+                }
+                hmms.add(description.toString());
+            }
+            Collections.sort(hmms);
+            for (String hmm : hmms)
+                out.writeUTF(hmm);
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest())
+            key.append(String.format("%02x", b & 0xff));
+        return key.toString();
     }
 
 
@@ -436,7 +702,8 @@ public class FlatLinguist implements Linguist, Configurable {
      */
     protected boolean grammarHasChanged() {
         return initialGrammarState == null ||
-                initialGrammarState != grammar.getInitialNode();
+                initialGrammarState != grammar.getInitialNode() ||
+                !grammar.getChangedNodes().isEmpty();
     }
 
 
@@ -466,10 +733,13 @@ public class FlatLinguist implements Linguist, Configurable {
         SentenceHMMStateArc arc = new SentenceHMMStateArc(nextState,
                 logLanguageProbability * languageWeight,
                 logInsertionProbability);
-        SentenceHMMStateArc pooledArc = arcPool.cache(arc);
-        actualArcs.value = arcPool.getMisses();
-        totalArcs.value = arcPool.getHits() + arcPool.getMisses();
-        return pooledArc == null ? arc : pooledArc;
+        // the pool is shared by the compilation threads
+        synchronized (arcPool) {
+            SentenceHMMStateArc pooledArc = arcPool.cache(arc);
+            actualArcs.value = arcPool.getMisses();
+            totalArcs.value = arcPool.getHits() + arcPool.getMisses();
+            return pooledArc == null ? arc : pooledArc;
+        }
     }
 
 
@@ -1158,7 +1428,11 @@ public class FlatLinguist implements Linguist, Configurable {
             HMMStateState finalState;
             Unit unit = unitState.getUnit();
             HMMPosition position = unitState.getPosition();
-            HMM hmm = acousticModel.lookupNearestHMM(unit, position, false);
+            HMM hmm;
+            // the acoustic model may add composite HMMs during the lookup
+            synchronized (acousticModel) {
+                hmm = acousticModel.lookupNearestHMM(unit, position, false);
+            }
             HMMState initialState = hmm.getInitialState();
             hmmTree = new HMMStateState(unitState, initialState);
             attachState(unitState, hmmTree, logOne, logOne);
@@ -1461,7 +1735,7 @@ class UnitContext {
      * @param units the units of interest
      * @return the unit context.
      */
-    static UnitContext get(Unit[] units) {
+    static synchronized UnitContext get(Unit[] units) {
         UnitContext newUC = new UnitContext(units);
         UnitContext cachedUC = unitContextCache.cache(newUC);
         return cachedUC == null ? newUC :  cachedUC;
@@ -1571,7 +1845,7 @@ class ContextPair {
      * @param right the right context
      * @return the unit context.
      */
-    static ContextPair get(UnitContext left, UnitContext right) {
+    static synchronized ContextPair get(UnitContext left, UnitContext right) {
         ContextPair newCP = new ContextPair(left, right);
         ContextPair cachedCP = contextPairCache.cache(newCP);
         return cachedCP == null ? newCP : cachedCP;
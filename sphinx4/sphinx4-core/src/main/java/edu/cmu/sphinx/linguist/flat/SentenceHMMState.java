@@ -20,6 +20,7 @@ import edu.cmu.sphinx.linguist.dictionary.Word;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /** Represents a single state in an SentenceHMM */
@@ -38,7 +39,8 @@ public abstract class SentenceHMMState implements Serializable, SearchState {
     /** A Color is used to tag SentenceHMM nodes */
     public static enum Color { RED, GREEN }
 
-    private static int globalStateNumber = -1000;
+    // states may be created on several threads when the grammar is compiled in parallel
+    private static final AtomicInteger globalStateNumber = new AtomicInteger(-1000);
 
     private int stateNumber;
 
@@ -74,7 +76,7 @@ public abstract class SentenceHMMState implements Serializable, SearchState {
 
     /** Empty contructor */
     protected SentenceHMMState() {
-        stateNumber = globalStateNumber--;
+        stateNumber = globalStateNumber.getAndDecrement();
         this.arcs = new LinkedHashMap<String, SentenceHMMStateArc>();
     }
 
@@ -67,6 +67,7 @@ public abstract class Grammar implements Configurable, GrammarInterface {
     protected Dictionary dictionary;
     protected GrammarNode initialNode;
     private Set<GrammarNode> grammarNodes;
+    private final Set<GrammarNode> changedNodes = new HashSet<GrammarNode>();
 
     private final static Word[][] EMPTY_ALTERNATIVE = new Word[0][0];
     private final Random randomizer = new Random(56); // use fixed initial to make get deterministic random value for testing
@@ -137,16 +138,36 @@ public abstract class Grammar implements Configurable, GrammarInterface {
      * inserting silence nodes and optimizing out empty nodes
      */
     protected void postProcessGrammar() {
+        addInterWordNodes(getGrammarNodes());
+        optimizeNodes(getGrammarNodes());
+        dumpStatistics();
+    }
+
+
+    /**
+     * Adds the optional filler or silence words after the non-filler words among the given nodes, as configured.
+     *
+     * @param nodes the nodes to process
+     */
+    protected void addInterWordNodes(Collection<GrammarNode> nodes) {
         if (addFillerWords) {
-            addFillerWords();
+            addFillerWords(nodes);
         } else if (addSilenceWords) {
-            addSilenceWords();
+            addSilenceWords(nodes);
         }
+    }
+
 
+    /**
+     * Bypasses the unnecessary empty successors of the given nodes if the grammar is configured to be optimized.
+     *
+     * @param nodes the nodes to optimize
+     */
+    protected void optimizeNodes(Collection<GrammarNode> nodes) {
         if (optimizeGrammar) {
-            optimizeGrammar();
+            for (GrammarNode node : nodes)
+                node.optimize();
         }
-        dumpStatistics();
     }
 
 
@@ -302,14 +323,55 @@ public abstract class Grammar implements Configurable, GrammarInterface {
     }
 
 
+    /**
+     * Returns the nodes whose successors changed, or that were removed from the grammar, since the changes were last
+     * cleared. Grammars that replace parts of their graph keep the initial node, so linguists check these nodes to
+     * update the search states that were built from them.
+     *
+     * @return the changed nodes
+     */
+    public Set<GrammarNode> getChangedNodes() {
+        return changedNodes;
+    }
+
+
+    /** Forgets the changed nodes, typically after the search graph was updated */
+    public void clearChangedNodes() {
+        changedNodes.clear();
+    }
+
+
     /** Prepare to create a new grammar */
     protected void newGrammar() {
         maxIdentity = 0;
         grammarNodes = new HashSet<GrammarNode>();
+        changedNodes.clear();
         initialNode = null;
     }
 
 
+    /**
+     * Removes the given nodes from this grammar. The caller has to remove the arcs to them.
+     *
+     * @param nodes the nodes to remove
+     */
+    protected void removeGrammarNodes(Collection<GrammarNode> nodes) {
+        for (GrammarNode node : nodes)
+            grammarNodes.remove(node);
+        changedNodes.addAll(nodes);
+    }
+
+
+    /**
+     * Records that the successors of the given node were changed after the grammar was created
+     *
+     * @param node the changed node
+     */
+    protected void nodeChanged(GrammarNode node) {
+        changedNodes.add(node);
+    }
+
+
     /**
      * Creates a grammar. Subclasses of grammar should implement this method.
      *
@@ -447,7 +509,7 @@ public abstract class Grammar implements Configurable, GrammarInterface {
      * @param node the grammar node
      * @throws Error
      */
-    private void add(GrammarNode node) throws Error {
+    protected void add(GrammarNode node) throws Error {
         if (node.getID() > maxIdentity) {
             maxIdentity = node.getID();
         }
@@ -468,19 +530,12 @@ public abstract class Grammar implements Configurable, GrammarInterface {
 
 
     /**
-     * Eliminate unnecessary nodes from the grammar. This method goes through the grammar and looks for branches to
-     * nodes that have no words and have only a single exit and bypasses these nodes.
+     * Adds an optional silence word after every non-filler word among the given nodes
+     *
+     * @param grammarNodes the nodes to process
      */
-    private void optimizeGrammar() {
-        Set<GrammarNode> nodes = getGrammarNodes();
-        for (GrammarNode node : nodes)
-            node.optimize();
-    }
-
-
-    /** Adds an optional silence word after every non-filler word in the grammar */
-    private void addSilenceWords() {
-        HashSet<GrammarNode> nodes = new HashSet<GrammarNode>(getGrammarNodes());
+    private void addSilenceWords(Collection<GrammarNode> grammarNodes) {
+        HashSet<GrammarNode> nodes = new HashSet<GrammarNode>(grammarNodes);
         for (GrammarNode g : nodes) {
             if (!g.isEmpty() && !g.getWord().isFiller()) {
                 GrammarNode silNode = createGrammarNode(maxIdentity + 1,
@@ -497,9 +552,13 @@ public abstract class Grammar implements Configurable, GrammarInterface {
     }
 
 
-    /** Adds an optional filler word loop after every non-filler word in the grammar */
-    private void addFillerWords() {
-        Set<GrammarNode> nodes = new HashSet<GrammarNode>(getGrammarNodes());
+    /**
+     * Adds an optional filler word loop after every non-filler word among the given nodes
+     *
+     * @param grammarNodes the nodes to process
+     */
+    private void addFillerWords(Collection<GrammarNode> grammarNodes) {
+        Set<GrammarNode> nodes = new HashSet<GrammarNode>(grammarNodes);
 
         Word[] fillers = getInterWordFillers();
 
@@ -33,6 +33,7 @@ public class GrammarNode {
 
     private final int identity;            // the node id
     private boolean isFinal;            // is this the final node?
+    private boolean isBypassable = true; // may the optimizer skip this node?
 
     private Word[][] alternatives;              // ordered words at this node
     private List<GrammarArc> arcList = new ArrayList<GrammarArc>();      // arcs to successors
@@ -116,7 +117,8 @@ public class GrammarNode {
      */
     GrammarArc optimizeArc(GrammarArc arc) {
         GrammarNode nextNode = arc.getGrammarNode();
-        while (nextNode.isEmpty() && nextNode.arcList.size() == 1) {
+        while (nextNode.isEmpty() && nextNode.arcList.size() == 1
+                && nextNode.isBypassable) {
             GrammarArc nextArc = nextNode.arcList.get(0);
             arc = new GrammarArc(nextArc.getGrammarNode(),
                     arc.getProbability() + nextArc.getProbability());
@@ -198,6 +200,33 @@ public class GrammarNode {
     }
 
 
+    /**
+     * Determines if arcs to this node may be redirected to its successor when the grammar is optimized
+     *
+     * @return <code>true</code> if the node may be bypassed
+     */
+    public boolean isBypassable() {
+        return isBypassable;
+    }
+
+
+    /**
+     * Sets whether arcs to this node may be redirected to its successor when the grammar is optimized. Grammars that
+     * replace parts of the graph later keep the entry nodes of the parts so that the arcs to them stay valid.
+     *
+     * @param isBypassable if <code>false</code> the optimizer keeps all arcs to this node
+     */
+    public void setBypassable(boolean isBypassable) {
+        this.isBypassable = isBypassable;
+    }
+
+
+    /** Removes all arcs from this node */
+    public void clearSuccessors() {
+        arcList.clear();
+    }
+
+
     /**
      * Adds an arc to the given node
      *
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.language.ngram;
+
+import java.util.Collection;
+
+import edu.cmu.sphinx.linguist.WordSequence;
+
+/**
+ * A language model which answers many queries at once much faster than one
+ * by one, for example a model served by another host. The search manager
+ * collects the word sequences it is about to score and passes them to
+ * {@link #prefetch(Collection)} before it expands the tokens.
+ */
+public interface BatchLanguageModel extends LanguageModel {
+
+    /**
+     * Computes the probabilities of the given word sequences, so that the
+     * following calls to {@link #getProbability(WordSequence)} for them
+     * return without waiting.
+     *
+     * @param wordSequences the word sequences to score, may contain
+     *        duplicates and sequences scored already
+     */
+    public void prefetch(Collection<WordSequence> wordSequences);
+}
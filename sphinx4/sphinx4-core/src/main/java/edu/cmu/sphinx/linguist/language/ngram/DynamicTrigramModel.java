@@ -12,25 +12,74 @@ import edu.cmu.sphinx.util.props.PropertySheet;
 
 /**
  * 3-gram language model that can change its content at runtime.
- * 
+ * <p>
+ * Words are interned to integer ids, the text is kept as an array of ids and
+ * the n-grams are counted in primitive hash tables. The probabilities are
+ * stored in arrays: unigrams are indexed by word id, bigrams and trigrams by
+ * their position in sorted arrays of ids packed into longs, so that lookups
+ * are binary searches which allocate nothing.
+ * <p>
+ * Text can be appended with {@link #addText(List)} and a range of sentences
+ * can be selected with {@link #setRange(int, int)}. The next
+ * {@link #allocate()} only counts the sentences which were not counted yet,
+ * unless the selection has shrunk, and doesn't do anything if the text has
+ * not changed.
+ *
  * @author Alexander Solovets
- * 
+ *
  */
 public class DynamicTrigramModel implements LanguageModel {
 
+    /** Number of bits per word id in packed n-grams */
+    private static final int ID_BITS = 21;
+    private static final long ID_MASK = (1L << ID_BITS) - 1;
+    private static final long BIGRAM_MASK = (1L << 2 * ID_BITS) - 1;
+
     private Dictionary dictionary;
     private final Set<String> vocabulary;
     private int maxDepth;
     private float unigramWeight;
 
-    private List<String> sentences;
-    private Map<WordSequence, Float> logProbs;
-    private Map<WordSequence, Float> logBackoffs;
+    // interned spellings of the text and of the model words
+    private final Map<String, Integer> ids;
+    private final List<String> spellings;
+    // model word id of every interned spelling resolved so far
+    private int[] wordIds;
+    private int resolvedCount;
+
+    // text as spelling ids, sentence i is tokens[sentenceStarts[i]..sentenceStarts[i + 1])
+    private int[] tokens;
+    private int tokenCount;
+    private int[] sentenceStarts;
+    private int sentenceCount;
+
+    // selected sentences and the sentences counted so far
+    private int rangeStart;
+    private int rangeEnd;
+    private int countedStart;
+    private int countedEnd;
+    private boolean dirty;
+
+    private int[] unigramCounts;
+    private int wordCount;
+    private final CountTable bigramCounts;
+    private final CountTable trigramCounts;
+
+    private float[] unigramProbs;
+    private float[] unigramBackoffs;
+    private long[] bigrams;
+    private float[] bigramProbs;
+    private float[] bigramBackoffs;
+    private long[] trigrams;
+    private float[] trigramProbs;
 
     public DynamicTrigramModel() {
         vocabulary = new HashSet<String>();
-        logProbs = new HashMap<WordSequence, Float>();
-        logBackoffs = new HashMap<WordSequence, Float>();
+        ids = new HashMap<String, Integer>();
+        spellings = new ArrayList<String>();
+        bigramCounts = new CountTable();
+        trigramCounts = new CountTable();
+        clearText();
     }
 
     public DynamicTrigramModel(Dictionary dictionary) {
@@ -42,129 +91,133 @@ public class DynamicTrigramModel implements LanguageModel {
         dictionary = (Dictionary) ps.getComponent(PROP_DICTIONARY);
         maxDepth = ps.getInt(PROP_MAX_DEPTH);
         unigramWeight = ps.getFloat(PROP_UNIGRAM_WEIGHT);
+        dirty = true;
     }
 
     public void allocate() throws IOException {
-        vocabulary.clear();
-        logProbs.clear();
-        logBackoffs.clear();
-        HashMap<WordSequence, Integer> unigrams = new HashMap<WordSequence, Integer>();
-        HashMap<WordSequence, Integer> bigrams = new HashMap<WordSequence, Integer>();
-        HashMap<WordSequence, Integer> trigrams = new HashMap<WordSequence, Integer>();
-        int wordCount = 0;
-
-        for (String sentence : sentences) {
-            String[] textWords = sentence.split("\\s+");
-            List<Word> words = new ArrayList<Word>();
-            words.add(dictionary.getSentenceStartWord());
-            for (String wordString : textWords) {
-        	if (wordString.length() == 0) {
-        	    continue;
-        	}
-                vocabulary.add(wordString);
-                Word word = dictionary.getWord(wordString);
-                if (word == null) {
-                    words.add(Word.UNKNOWN);
-                } else {
-                    words.add(word);
-                }
-            }
-            words.add(dictionary.getSentenceEndWord());
+        if (!dirty)
+            return;
 
-            if (words.size() > 0) {
-                addSequence(unigrams, new WordSequence(words.get(0)));
-                wordCount++;
-            }
+        int sentenceStart = intern(dictionary.getSentenceStartWord().getSpelling());
+        int sentenceEnd = intern(dictionary.getSentenceEndWord().getSpelling());
+        resolveWords();
+        if (rangeStart != countedStart || rangeEnd < countedEnd)
+            clearCounts();
+        unigramCounts = ensureCapacity(unigramCounts, spellings.size());
+        for (int i = countedEnd; i < rangeEnd; i++)
+            countSentence(i, wordIds[sentenceStart], wordIds[sentenceEnd]);
+        countedEnd = rangeEnd;
 
-            if (words.size() > 1) {
-                wordCount++;
-                addSequence(unigrams, new WordSequence(words.get(1)));
-                addSequence(bigrams, new WordSequence(words.get(0), words.get(1)));
-            }
+        computeProbabilities();
+        dirty = false;
+    }
 
-            for (int i = 2; i < words.size(); ++i) {
-                wordCount++;
-                addSequence(unigrams, new WordSequence(words.get(i)));
-                addSequence(bigrams, new WordSequence(words.get(i - 1), words.get(i)));
-                addSequence(trigrams, new WordSequence(words.get(i - 2), words.get(i - 1), words.get(i)));
+    /** Resolves the spellings interned since the last allocation to dictionary words. */
+    private void resolveWords() {
+        // resolution interns the spellings of the dictionary words
+        while (resolvedCount < spellings.size()) {
+            Word word = dictionary.getWord(spellings.get(resolvedCount));
+            if (word == null)
+                word = Word.UNKNOWN;
+            int wordId = intern(word.getSpelling());
+            wordIds = ensureCapacity(wordIds, spellings.size());
+            wordIds[resolvedCount++] = wordId;
+        }
+    }
+
+    private void clearCounts() {
+        vocabulary.clear();
+        if (unigramCounts != null)
+            Arrays.fill(unigramCounts, 0);
+        wordCount = 0;
+        bigramCounts.clear();
+        trigramCounts.clear();
+        countedStart = countedEnd = rangeStart;
+    }
+
+    private void countSentence(int sentence, int sentenceStartId, int sentenceEndId) {
+        int w1 = -1;
+        int w2 = sentenceStartId;
+        unigramCounts[w2]++;
+        wordCount++;
+        for (int i = sentenceStarts[sentence]; i <= sentenceStarts[sentence + 1]; i++) {
+            int w3;
+            if (i < sentenceStarts[sentence + 1]) {
+                vocabulary.add(spellings.get(tokens[i]));
+                w3 = wordIds[tokens[i]];
+            } else {
+                w3 = sentenceEndId;
             }
+            unigramCounts[w3]++;
+            wordCount++;
+            bigramCounts.add(pack(w2, w3));
+            if (w1 >= 0)
+                trigramCounts.add(pack(w1, w2, w3));
+            w1 = w2;
+            w2 = w3;
         }
+    }
 
+    private void computeProbabilities() {
         float discount = .5f;
         float deflate = 1 - discount;
-        Map<WordSequence, Float> uniprobs = new HashMap<WordSequence, Float>();
-        for (Map.Entry<WordSequence, Integer> e : unigrams.entrySet()) {
-            uniprobs.put(e.getKey(), (float) e.getValue() * deflate / wordCount);
-        }
-
         LogMath lmath = LogMath.getLogMath();
         float logUnigramWeight = lmath.linearToLog(unigramWeight);
         float invLogUnigramWeight = lmath.linearToLog(1 - unigramWeight);
-        float logUniformProb = -lmath.linearToLog(uniprobs.size());
-
-        Set<WordSequence> sorted1grams = new TreeSet<WordSequence>(unigrams.keySet());
-        Iterator<WordSequence> iter = new TreeSet<WordSequence>(bigrams.keySet()).iterator();
-        WordSequence ws = iter.hasNext() ? iter.next() : null;
-        for (WordSequence unigram : sorted1grams) {
-            float p = lmath.linearToLog(uniprobs.get(unigram));
-            p += logUnigramWeight;
-            p = lmath.addAsLinear(p, logUniformProb + invLogUnigramWeight);
-            logProbs.put(unigram, p);
 
-            float sum = 0.f;
-            while (ws != null) {
-                int cmp = ws.getOldest().compareTo(unigram);
-                if (cmp > 0) {
-                    break;
-                }
-                if (cmp == 0) {
-                    sum += uniprobs.get(ws.getNewest());
-                }
-                ws = iter.hasNext() ? iter.next() : null;
+        int size = unigramCounts.length;
+        float[] uniprobs = new float[size];
+        int numberUnigrams = 0;
+        for (int i = 0; i < size; i++) {
+            if (unigramCounts[i] > 0) {
+                uniprobs[i] = (float) unigramCounts[i] * deflate / wordCount;
+                numberUnigrams++;
             }
-
-            logBackoffs.put(unigram, lmath.linearToLog(discount / (1 - sum)));
         }
+        float logUniformProb = -lmath.linearToLog(numberUnigrams);
 
-        Map<WordSequence, Float> biprobs = new HashMap<WordSequence, Float>();
-        for (Map.Entry<WordSequence, Integer> entry : bigrams.entrySet()) {
-            int unigramCount = unigrams.get(entry.getKey().getOldest());
-            biprobs.put(entry.getKey(), entry.getValue() * deflate / unigramCount);
+        bigrams = bigramCounts.getSortedKeys();
+        float[] biprobs = new float[bigrams.length];
+        float[] unigramSums = new float[size];
+        for (int i = 0; i < bigrams.length; i++) {
+            int w1 = (int) (bigrams[i] >>> ID_BITS);
+            int w2 = (int) (bigrams[i] & ID_MASK);
+            unigramSums[w1] += uniprobs[w2];
+            biprobs[i] = bigramCounts.get(bigrams[i]) * deflate / unigramCounts[w1];
         }
 
-        Set<WordSequence> sorted2grams = new TreeSet<WordSequence>(bigrams.keySet());
-        iter = new TreeSet<WordSequence>(trigrams.keySet()).iterator();
-        ws = iter.hasNext() ? iter.next() : null;
-        for (WordSequence biword : sorted2grams) {
-            logProbs.put(biword, lmath.linearToLog(biprobs.get(biword)));
-
-            float sum = 0.f;
-            while (ws != null) {
-                int cmp = ws.getOldest().compareTo(biword);
-                if (cmp > 0) {
-                    break;
-                }
-                if (cmp == 0) {
-                    sum += biprobs.get(ws.getNewest());
-                }
-                ws = iter.hasNext() ? iter.next() : null;
+        unigramProbs = new float[size];
+        unigramBackoffs = new float[size];
+        for (int i = 0; i < size; i++) {
+            if (unigramCounts[i] == 0) {
+                unigramProbs[i] = LogMath.LOG_ZERO;
+                unigramBackoffs[i] = LogMath.LOG_ONE;
+                continue;
             }
-            logBackoffs.put(biword, lmath.linearToLog(discount / (1 - sum)));
+            float p = lmath.linearToLog(uniprobs[i]);
+            p += logUnigramWeight;
+            p = lmath.addAsLinear(p, logUniformProb + invLogUnigramWeight);
+            unigramProbs[i] = p;
+            unigramBackoffs[i] = lmath.linearToLog(discount / (1 - unigramSums[i]));
         }
 
-        for (Map.Entry<WordSequence, Integer> e : trigrams.entrySet()) {
-            float p = e.getValue() * deflate;
-            p /= bigrams.get(e.getKey().getOldest());
-            logProbs.put(e.getKey(), lmath.linearToLog(p));
+        trigrams = trigramCounts.getSortedKeys();
+        trigramProbs = new float[trigrams.length];
+        float[] bigramSums = new float[bigrams.length];
+        for (int i = 0; i < trigrams.length; i++) {
+            int history = Arrays.binarySearch(bigrams, trigrams[i] >>> ID_BITS);
+            int newest = Arrays.binarySearch(bigrams, trigrams[i] & BIGRAM_MASK);
+            bigramSums[history] += biprobs[newest];
+            float p = trigramCounts.get(trigrams[i]) * deflate;
+            p /= bigramCounts.get(bigrams[history]);
+            trigramProbs[i] = lmath.linearToLog(p);
         }
-    }
 
-    private void addSequence(HashMap<WordSequence, Integer> grams, WordSequence wordSequence) {
-        Integer count = grams.get(wordSequence);
-        if (count != null) {
-            grams.put(wordSequence, count + 1);
-        } else {
-            grams.put(wordSequence, 1);
+        bigramProbs = new float[bigrams.length];
+        bigramBackoffs = new float[bigrams.length];
+        for (int i = 0; i < bigrams.length; i++) {
+            bigramProbs[i] = lmath.linearToLog(biprobs[i]);
+            bigramBackoffs[i] = lmath.linearToLog(discount / (1 - bigramSums[i]));
         }
     }
 
@@ -172,20 +225,54 @@ public class DynamicTrigramModel implements LanguageModel {
     }
 
     public float getProbability(WordSequence wordSequence) {
-        float prob;
-        if (logProbs.containsKey(wordSequence)) {
-            prob = logProbs.get(wordSequence);
-        } else if (wordSequence.size() > 1) {
-            Float backoff = logBackoffs.get(wordSequence.getOldest());
-            if (backoff == null) {
-                prob = LogMath.LOG_ONE + getProbability(wordSequence.getNewest());
-            } else {
-                prob = backoff + getProbability(wordSequence.getNewest());
+        int size = wordSequence.size();
+        if (size == 0 || unigramProbs == null)
+            return LogMath.LOG_ZERO;
+        // the backoff weight of longer histories is one
+        int w3 = getWordId(wordSequence.getWord(size - 1));
+        if (size == 1)
+            return getUnigramProbability(w3);
+        int w2 = getWordId(wordSequence.getWord(size - 2));
+        if (size == 2)
+            return getBigramProbability(w2, w3);
+        int w1 = getWordId(wordSequence.getWord(size - 3));
+        return getTrigramProbability(w1, w2, w3);
+    }
+
+    private int getWordId(Word word) {
+        Integer id = ids.get(word.getSpelling());
+        return id == null || id >= unigramProbs.length ? -1 : id;
+    }
+
+    private float getUnigramProbability(int w) {
+        return w < 0 ? LogMath.LOG_ZERO : unigramProbs[w];
+    }
+
+    private float getBigramProbability(int w1, int w2) {
+        if (w1 < 0)
+            return LogMath.LOG_ONE + getUnigramProbability(w2);
+        if (w2 >= 0) {
+            int i = Arrays.binarySearch(bigrams, pack(w1, w2));
+            if (i >= 0)
+                return bigramProbs[i];
+        }
+        return unigramBackoffs[w1] + getUnigramProbability(w2);
+    }
+
+    private float getTrigramProbability(int w1, int w2, int w3) {
+        float backoff = LogMath.LOG_ONE;
+        if (w1 >= 0 && w2 >= 0) {
+            long bigram = pack(w1, w2);
+            if (w3 >= 0) {
+                int i = Arrays.binarySearch(trigrams, pack(bigram, w3));
+                if (i >= 0)
+                    return trigramProbs[i];
             }
-        } else {
-            prob = LogMath.LOG_ZERO;
+            int i = Arrays.binarySearch(bigrams, bigram);
+            if (i >= 0)
+                backoff = bigramBackoffs[i];
         }
-        return prob;
+        return backoff + getBigramProbability(w2, w3);
     }
 
     public float getSmear(WordSequence wordSequence) {
@@ -206,7 +293,187 @@ public class DynamicTrigramModel implements LanguageModel {
         //TODO not implemented
     }
 
+    /**
+     * Replaces the text of the model and selects all of it.
+     *
+     * @param sentences sentences of words separated by whitespace
+     */
     public void setText(List<String> sentences) {
-        this.sentences = sentences;
+        clearText();
+        addText(sentences);
+    }
+
+    /**
+     * Appends sentences to the text of the model. If the selected range ends
+     * at the end of the text, it is extended to the appended sentences.
+     *
+     * @param sentences sentences of words separated by whitespace
+     */
+    public void addText(List<String> sentences) {
+        boolean extend = rangeEnd == sentenceCount;
+        for (String sentence : sentences)
+            addSentence(sentence);
+        if (extend)
+            rangeEnd = sentenceCount;
+        dirty = true;
+    }
+
+    /**
+     * Selects the sentences the model is built from.
+     *
+     * @param start index of the first sentence
+     * @param end index after the last sentence
+     */
+    public void setRange(int start, int end) {
+        if (start < 0 || end > sentenceCount || start > end)
+            throw new IndexOutOfBoundsException("Range " + start + ":" + end
+                    + " of " + sentenceCount + " sentences");
+        rangeStart = start;
+        rangeEnd = end;
+        dirty = true;
+    }
+
+    /**
+     * Returns the number of sentences of the text.
+     *
+     * @return the number of sentences
+     */
+    public int getSentenceCount() {
+        return sentenceCount;
+    }
+
+    private void clearText() {
+        ids.clear();
+        spellings.clear();
+        wordIds = new int[0];
+        resolvedCount = 0;
+        tokens = new int[1024];
+        tokenCount = 0;
+        sentenceStarts = new int[64];
+        sentenceCount = 0;
+        rangeStart = rangeEnd = 0;
+        clearCounts();
+        unigramProbs = null;
+        dirty = true;
+    }
+
+    private void addSentence(String sentence) {
+        int length = sentence.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && isSpace(sentence.charAt(i)))
+                i++;
+            int start = i;
+            while (i < length && !isSpace(sentence.charAt(i)))
+                i++;
+            if (i > start) {
+                tokens = ensureCapacity(tokens, tokenCount + 1);
+                tokens[tokenCount++] = intern(sentence.substring(start, i));
+            }
+        }
+        sentenceStarts = ensureCapacity(sentenceStarts, sentenceCount + 2);
+        sentenceStarts[++sentenceCount] = tokenCount;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+                || c == '\f' || c == '\r';
+    }
+
+    private int intern(String spelling) {
+        Integer id = ids.get(spelling);
+        if (id == null) {
+            id = spellings.size();
+            if (id > ID_MASK)
+                throw new IllegalStateException("Too many words: " + id);
+            ids.put(spelling, id);
+            spellings.add(spelling);
+        }
+        return id;
+    }
+
+    private static int[] ensureCapacity(int[] array, int size) {
+        if (array == null)
+            return new int[size];
+        if (array.length >= size)
+            return array;
+        return Arrays.copyOf(array, Math.max(size, 2 * array.length));
+    }
+
+    private static long pack(long history, int w) {
+        return history << ID_BITS | w;
+    }
+
+    private static long pack(int w1, int w2, int w3) {
+        return pack(pack(w1, w2), w3);
+    }
+
+    /** Open addressing hash table of counts with non-negative long keys. */
+    private static class CountTable {
+
+        private long[] keys;
+        private int[] counts;
+        private int size;
+
+        CountTable() {
+            clear();
+        }
+
+        void clear() {
+            keys = new long[64];
+            Arrays.fill(keys, -1);
+            counts = new int[64];
+            size = 0;
+        }
+
+        void add(long key) {
+            int i = find(key);
+            if (keys[i] < 0) {
+                keys[i] = key;
+                if (++size * 2 > keys.length) {
+                    rehash();
+                    i = find(key);
+                }
+            }
+            counts[i]++;
+        }
+
+        int get(long key) {
+            int i = find(key);
+            return keys[i] < 0 ? 0 : counts[i];
+        }
+
+        long[] getSortedKeys() {
+            long[] result = new long[size];
+            int n = 0;
+            for (long key : keys)
+                if (key >= 0)
+                    result[n++] = key;
+            Arrays.sort(result);
+            return result;
+        }
+
+        private int find(long key) {
+            int mask = keys.length - 1;
+            int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+            while (keys[i] >= 0 && keys[i] != key)
+                i = (i + 1) & mask;
+            return i;
+        }
+
+        private void rehash() {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            Arrays.fill(keys, -1);
+            counts = new int[keys.length];
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] >= 0) {
+                    int i = find(oldKeys[j]);
+                    keys[i] = oldKeys[j];
+                    counts[i] = oldCounts[j];
+                }
+            }
+        }
     }
 }
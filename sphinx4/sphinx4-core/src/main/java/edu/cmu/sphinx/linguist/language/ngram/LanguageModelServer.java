@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.language.ngram;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.cmu.sphinx.linguist.WordSequence;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.dictionary.Dictionary;
+import edu.cmu.sphinx.linguist.dictionary.TextDictionary;
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import edu.cmu.sphinx.linguist.language.ngram.large.LargeTrigramModel;
+import edu.cmu.sphinx.util.LogMath;
+
+/**
+ * Serves a language model over the protocol of the SRILM probserver, so that
+ * {@link NetworkLanguageModel} can be tested and benchmarked without SRILM.
+ * After the greeting line the server reads queries, one word sequence per
+ * line, and answers each of them with the log10 probability of its last word
+ * or with "-inf", also for words the model does not know. Answers are
+ * flushed when no more queries are buffered, so pipelined queries get their
+ * answers in a few packets.
+ * <p>
+ * Every connection is served by its own thread, the model is accessed by one
+ * thread at a time.
+ */
+public class LanguageModelServer implements Closeable {
+
+    /** The line the server greets a client with. */
+    public final static String GREETING = "probserver ready";
+
+    private final LanguageModel model;
+    private final ServerSocket serverSocket;
+    private final List<Socket> sockets = new ArrayList<Socket>();
+    private final Logger logger = Logger.getLogger(getClass().getName());
+    private final LogMath logMath = LogMath.getLogMath();
+    private volatile boolean closed;
+
+    /**
+     * Creates a server for the language model. The model should be allocated
+     * already.
+     *
+     * @param model the model to serve
+     * @param port the port to listen on, 0 for any free port
+     * @throws IOException if the port can't be opened
+     */
+    public LanguageModelServer(LanguageModel model, int port) throws IOException {
+        this.model = model;
+        serverSocket = new ServerSocket(port);
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return the local port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** Starts accepting connections in a daemon thread. */
+    public void start() {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                acceptConnections();
+            }
+        }, "LanguageModelServer-" + getPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stops accepting connections and closes the connections open. */
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets)
+                socket.close();
+            sockets.clear();
+        }
+    }
+
+    private void acceptConnections() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!closed)
+                    logger.log(Level.WARNING, "Can't accept connection", e);
+                return;
+            }
+            synchronized (sockets) {
+                sockets.add(socket);
+            }
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    serve(socket);
+                }
+            }, "LanguageModelServer-" + socket.getPort());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader reader =
+                new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            Writer writer =
+                new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+            writer.write(GREETING);
+            writer.write('\n');
+            writer.flush();
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write(getAnswer(line));
+                writer.write('\n');
+                if (!reader.ready())
+                    writer.flush();
+            }
+        } catch (SocketException e) {
+            // closed by the client or by close()
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Can't serve connection", e);
+        } finally {
+            synchronized (sockets) {
+                sockets.remove(socket);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    private String getAnswer(String query) {
+        String[] spellings = query.trim().split("\\s+");
+        if (spellings.length == 0 || spellings[0].isEmpty())
+            return "0";
+        Word[] words = new Word[spellings.length];
+        for (int i = 0; i < words.length; i++)
+            words[i] = new Word(spellings[i], null, false);
+        WordSequence wordSequence =
+            new WordSequence(words).trim(model.getMaxDepth());
+
+        float probability;
+        try {
+            synchronized (model) {
+                probability = model.getProbability(wordSequence);
+            }
+        } catch (IllegalArgumentException e) {
+            // a word not in the vocabulary of the model
+            return "-inf";
+        }
+        if (probability <= LogMath.LOG_ZERO)
+            return "-inf";
+        return Float.toString(LogMath.logToLog(probability,
+                logMath.getLogBase(), 10.0f));
+    }
+
+    /**
+     * Serves a binary trigram model until the process is killed.
+     *
+     * @param args the model, the dictionary, the filler dictionary and the
+     *        port
+     * @throws Exception if the model can't be loaded or the port can't be
+     *         opened
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4) {
+            System.err.println("Usage: LanguageModelServer <model.dmp> "
+                    + "<dictionary> <filler dictionary> <port>");
+            return;
+        }
+        Dictionary dictionary =
+            new TextDictionary(new File(args[1]).toURI().toURL(),
+                    new File(args[2]).toURI().toURL(), null, null,
+                    new UnitManager());
+        LanguageModel model =
+            new LargeTrigramModel("", new File(args[0]).toURI().toURL(), null,
+                    100000, 100000, false, 3, dictionary, false, 1.0f, 1.0f,
+                    1.0f, false);
+        dictionary.allocate();
+        model.allocate();
+
+        LanguageModelServer server =
+            new LanguageModelServer(model, Integer.parseInt(args[3]));
+        System.out.println("Serving " + args[0] + " on port " + server.getPort());
+        server.acceptConnections();
+    }
+}
@@ -3,7 +3,10 @@ package edu.cmu.sphinx.linguist.language.ngram;
 import java.io.*;
 import java.net.Socket;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import edu.cmu.sphinx.linguist.WordSequence;
@@ -16,8 +19,19 @@ import edu.cmu.sphinx.util.props.*;
 /*
  * The client of the SRILM language model server. It needs to read the
  * vocabulary from a vocabulary file though.
+ *
+ * The server answers every line with a query by a line with the log10
+ * probability, so queries given to prefetch are pipelined: up to
+ * maxPendingQueries lines are sent before the answers are read, which turns
+ * the round trip per word sequence into a round trip per batch. The lines
+ * sent ahead are also limited to maxPendingBytes, the server stops reading
+ * queries while its answers are not read, so both directions together have
+ * to fit into the socket buffers.
+ *
+ * If a query fails, the answers still on their way can't be matched with
+ * the queries any more, so the connection is closed and opened again.
  */
-public class NetworkLanguageModel implements LanguageModel {
+public class NetworkLanguageModel implements BatchLanguageModel {
 
     /** The property specifying the host of the language model server. */
     @S4String(defaultValue = "localhost")
@@ -27,17 +41,45 @@ public class NetworkLanguageModel implements LanguageModel {
     @S4Integer(defaultValue = 2525)
     public final static String PROP_PORT = "port";
 
+    /**
+     * The property specifying the number of probabilities to keep. It should
+     * hold all the queries of a frame.
+     */
+    @S4Integer(defaultValue = 100000)
+    public final static String PROP_CACHE_SIZE = "cacheSize";
+
+    /**
+     * The property specifying the number of queries sent to the server before
+     * their answers are read.
+     */
+    @S4Integer(defaultValue = 1000)
+    public final static String PROP_MAX_PENDING_QUERIES = "maxPendingQueries";
+
+    /**
+     * The property specifying the number of characters of the queries sent to
+     * the server before their answers are read, the bytes for ASCII
+     * spellings. The default stays below the smallest common socket buffer
+     * sizes.
+     */
+    @S4Integer(defaultValue = 16384)
+    public final static String PROP_MAX_PENDING_BYTES = "maxPendingBytes";
+
     LogMath logMath;
 
     private String host;
     private int port;
     private URL location;
     int maxDepth;
+    private int cacheSize;
+    private int maxPendingQueries;
+    private int maxPendingBytes;
 
     Socket socket;
     private BufferedReader inReader;
-    private PrintWriter outWriter;
+    private Writer outWriter;
     LRUCache<WordSequence, Float> cache;
+    private final List<WordSequence> queries = new ArrayList<WordSequence>();
+    private final Set<WordSequence> queued = new HashSet<WordSequence>();
 
     private boolean allocated;
 
@@ -52,10 +94,33 @@ public class NetworkLanguageModel implements LanguageModel {
      */
     public NetworkLanguageModel(String host, int port, URL location,
             int maxDepth) {
+        this(host, port, location, maxDepth, 100000, 1000, 16384);
+    }
+
+    /**
+     * Creates network language model client
+     *
+     * @param host server host
+     * @param port server port
+     * @param location URL of the file with vocabulary (only needed for 1-stage
+     *        model)
+     * @param maxDepth depth of the model
+     * @param cacheSize number of probabilities to keep
+     * @param maxPendingQueries number of queries sent before the answers are
+     *        read
+     * @param maxPendingBytes number of characters of the queries sent before
+     *        the answers are read
+     */
+    public NetworkLanguageModel(String host, int port, URL location,
+            int maxDepth, int cacheSize, int maxPendingQueries,
+            int maxPendingBytes) {
         this.host = host;
         this.port = port;
         this.maxDepth = maxDepth;
         this.location = location;
+        this.cacheSize = cacheSize;
+        this.maxPendingQueries = maxPendingQueries;
+        this.maxPendingBytes = maxPendingBytes;
         logMath = LogMath.getLogMath();
     }
 
@@ -80,20 +145,46 @@ public class NetworkLanguageModel implements LanguageModel {
         maxDepth = ps.getInt(PROP_MAX_DEPTH);
         if (maxDepth == -1)
             maxDepth = 3;
+        cacheSize = ps.getInt(PROP_CACHE_SIZE);
+        maxPendingQueries = ps.getInt(PROP_MAX_PENDING_QUERIES);
+        maxPendingBytes = ps.getInt(PROP_MAX_PENDING_BYTES);
+        logMath = LogMath.getLogMath();
     }
 
     public void allocate() throws IOException {
         allocated = true;
+        connect();
+        cache = new LRUCache<WordSequence, Float>(cacheSize);
+    }
 
+    private void connect() throws IOException {
         socket = new Socket(host, port);
         inReader =
             new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        outWriter = new PrintWriter(socket.getOutputStream(), true);
+        outWriter =
+            new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
         String greeting = inReader.readLine();
-        if (!greeting.equals("probserver ready")) {
+        if (!"probserver ready".equals(greeting)) {
             throw new IOException("Incorrect input");
         }
-        cache = new LRUCache<WordSequence, Float>(1000);
+    }
+
+    /**
+     * Replaces the connection after a failed query, the answers of the
+     * queries sent before can't be told apart from the following ones.
+     */
+    private void reconnect(Exception cause) {
+        cause.printStackTrace();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // the connection is dropped anyway
+        }
+        try {
+            connect();
+        } catch (IOException e) {
+            throw new RuntimeException("Can't reconnect to " + host + ':' + port, e);
+        }
     }
 
     public void deallocate() {
@@ -117,32 +208,98 @@ public class NetworkLanguageModel implements LanguageModel {
             return probability.floatValue();
         }
 
-        StringBuilder builder = new StringBuilder();
         if (wordSequence.size() == 0)
             return 0.0f;
-        for (Word w : wordSequence.getWords()) {
-            builder.append(w.toString());
-            builder.append(' ');
-        }
-        outWriter.println(builder.toString());
-        String result = "0";
         try {
-            result = inReader.readLine();
-            if (result.charAt(0) == 0)
-                result = result.substring(1);
+            writeQuery(wordSequence);
+            outWriter.flush();
+            probability = readProbability();
         } catch (IOException e) {
-            e.printStackTrace();
+            reconnect(e);
+            return 0.0f;
+        } catch (NumberFormatException e) {
+            reconnect(e);
+            return 0.0f;
         }
 
-        if (!result.equals("-inf"))
-            probability = logMath.log10ToLog(Float.parseFloat(result));
-        else
-            probability = LogMath.LOG_ZERO;
-
         cache.put(wordSequence, probability);
         return probability.floatValue();
     }
 
+    /**
+     * Sends the queries not in the cache to the server and caches the
+     * answers. At most maxPendingQueries queries and maxPendingBytes
+     * characters are sent ahead of the answers read, more queries are sent as
+     * soon as half of the window is answered. If a query fails, the
+     * connection is opened again and the queries not answered are left to
+     * {@link #getProbability(WordSequence)}.
+     */
+    public void prefetch(Collection<WordSequence> wordSequences) {
+        for (WordSequence wordSequence : wordSequences) {
+            if (wordSequence.size() > 0 && !cache.containsKey(wordSequence)
+                    && queued.add(wordSequence))
+                queries.add(wordSequence);
+        }
+
+        int sent = 0;
+        int received = 0;
+        int pendingBytes = 0;
+        try {
+            while (received < queries.size()) {
+                if (sent < queries.size()
+                        && sent - received <= maxPendingQueries / 2
+                        && pendingBytes <= maxPendingBytes / 2) {
+                    // at least one query, even if it exceeds the window
+                    do {
+                        pendingBytes += writeQuery(queries.get(sent++));
+                    } while (sent < queries.size()
+                            && sent - received < maxPendingQueries
+                            && pendingBytes + getLength(queries.get(sent)) <= maxPendingBytes);
+                    outWriter.flush();
+                }
+                WordSequence wordSequence = queries.get(received++);
+                cache.put(wordSequence, readProbability());
+                pendingBytes -= getLength(wordSequence);
+            }
+        } catch (IOException e) {
+            reconnect(e);
+        } catch (NumberFormatException e) {
+            reconnect(e);
+        } finally {
+            queries.clear();
+            queued.clear();
+        }
+    }
+
+    /** @return the number of characters of the query line */
+    private static int getLength(WordSequence wordSequence) {
+        int length = 1;
+        for (Word w : wordSequence.getWords())
+            length += w.getSpelling().length() + 1;
+        return length;
+    }
+
+    /** @return the number of characters written */
+    private int writeQuery(WordSequence wordSequence) throws IOException {
+        for (Word w : wordSequence.getWords()) {
+            outWriter.write(w.getSpelling());
+            outWriter.write(' ');
+        }
+        outWriter.write('\n');
+        return getLength(wordSequence);
+    }
+
+    private float readProbability() throws IOException {
+        String result = inReader.readLine();
+        if (result == null)
+            throw new IOException("Connection closed by server");
+        if (result.length() > 0 && result.charAt(0) == 0)
+            result = result.substring(1);
+        if (result.equals("-inf"))
+            return LogMath.LOG_ZERO;
+        return logMath.log10ToLog(Float.parseFloat(result));
+    }
+
     public float getSmear(WordSequence wordSequence) {
         return 0.0f;
     }
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.language.ngram;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import edu.cmu.sphinx.linguist.WordSequence;
+import edu.cmu.sphinx.linguist.dictionary.Word;
+
+/**
+ * Caches n-gram probabilities of a language model. The key of a word
+ * sequence is made of the ids of its words packed into one long, or into two
+ * longs if the vocabulary is too large for that, so a lookup neither
+ * allocates nor compares word sequences. With 16 bit ids four words fit into
+ * one long.
+ * <p>
+ * Entries are kept in a fixed size open addressing table. A key is searched
+ * in a small window of slots after its home slot. When the window is full an
+ * entry is evicted with the CLOCK algorithm: entries are marked as referenced
+ * when they are read, and the first entry of the window which was not
+ * referenced since the last sweep is replaced. This approximates the least
+ * recently used order of an <code>LRUCache</code> without its linked list.
+ * <p>
+ * The cache is safe to share between threads without locking. Every slot
+ * has a version which is odd while the slot is written, readers retry the
+ * slot as a miss if the version changed during the read. A writer that
+ * finds the slot busy simply does not cache its value.
+ */
+public class NgramProbabilityCache {
+
+    /** Maps words to the ids packed into the keys. */
+    public interface WordIds {
+
+        /**
+         * @param word the word
+         * @return the id of the word between 0 and the vocabulary size, or a
+         *         negative value if the word is not known
+         */
+        int getWordId(Word word);
+    }
+
+    private final static int WINDOW = 8;
+
+    private final WordIds wordIds;
+    private final int bitsPerWord;
+    private final int wordsPerKey;
+    private final boolean twoKeys;
+    private final int maxWords;
+    private final int mask;
+
+    private final AtomicIntegerArray versions;
+    private final AtomicLongArray keys;
+    private final AtomicIntegerArray values;
+    private final byte[] referenced;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Creates the cache
+     *
+     * @param maxSize the number of entries to keep, nothing is cached if zero
+     * @param vocabularySize the number of word ids
+     * @param maxDepth the longest word sequence which is cached, nothing is
+     *            cached if the ids of that many words do not fit into two longs
+     * @param wordIds the mapping of words to ids
+     */
+    public NgramProbabilityCache(int maxSize, int vocabularySize, int maxDepth, WordIds wordIds) {
+        this.wordIds = wordIds;
+        // id zero marks a missing word, so keys of shorter sequences differ
+        bitsPerWord = 32 - Integer.numberOfLeadingZeros(Math.max(vocabularySize, 1));
+        wordsPerKey = 64 / bitsPerWord;
+        twoKeys = maxDepth > wordsPerKey;
+        maxWords = twoKeys ? 2 * wordsPerKey : wordsPerKey;
+
+        int capacity = 0;
+        if (maxSize > 0 && maxDepth <= maxWords) {
+            // keep the table at most half full
+            capacity = Math.max(Integer.highestOneBit(maxSize - 1) << 2, WINDOW);
+        }
+        mask = capacity - 1;
+        versions = new AtomicIntegerArray(capacity);
+        keys = new AtomicLongArray(twoKeys ? capacity * 2 : capacity);
+        values = new AtomicIntegerArray(capacity);
+        referenced = new byte[capacity];
+    }
+
+    /**
+     * Returns the cached probability of a word sequence.
+     *
+     * @param wordSequence the word sequence
+     * @return the probability or <code>NaN</code> if it is not cached
+     */
+    public float get(WordSequence wordSequence) {
+        if (mask < 0 || wordSequence.size() > maxWords)
+            return Float.NaN;
+        long key = packKey(wordSequence, 0);
+        long key2 = twoKeys ? packKey(wordSequence, wordsPerKey) : 0;
+        if (key == 0 || (key2 == 0 && wordSequence.size() > wordsPerKey))
+            return Float.NaN;
+
+        int home = mix(key, key2);
+        for (int j = 0; j < WINDOW; j++) {
+            int i = (home + j) & mask;
+            int version = versions.get(i);
+            long slotKey = keys.get(twoKeys ? 2 * i : i);
+            if (slotKey == 0 && (version & 1) == 0)
+                return Float.NaN;
+            if (slotKey != key || (twoKeys && keys.get(2 * i + 1) != key2))
+                continue;
+            int value = values.get(i);
+            if ((version & 1) != 0 || versions.get(i) != version)
+                return Float.NaN;
+            if (referenced[i] == 0)
+                referenced[i] = 1;
+            return Float.intBitsToFloat(value);
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * Caches the probability of a word sequence. Sequences with words
+     * without id or which are too long for a key are not cached.
+     *
+     * @param wordSequence the word sequence
+     * @param probability the probability
+     */
+    public void put(WordSequence wordSequence, float probability) {
+        if (mask < 0 || wordSequence.size() > maxWords)
+            return;
+        long key = packKey(wordSequence, 0);
+        long key2 = twoKeys ? packKey(wordSequence, wordsPerKey) : 0;
+        if (key == 0 || (key2 == 0 && wordSequence.size() > wordsPerKey))
+            return;
+
+        int home = mix(key, key2);
+        int victim = -1;
+        for (int j = 0; j < WINDOW; j++) {
+            int i = (home + j) & mask;
+            long slotKey = keys.get(twoKeys ? 2 * i : i);
+            if (slotKey == 0) {
+                if (write(i, key, key2, probability))
+                    size.incrementAndGet();
+                return;
+            }
+            if (slotKey == key && (!twoKeys || keys.get(2 * i + 1) == key2))
+                return;
+            // second chance for referenced entries
+            if (referenced[i] != 0)
+                referenced[i] = 0;
+            else if (victim < 0)
+                victim = i;
+        }
+        write(victim < 0 ? home & mask : victim, key, key2, probability);
+    }
+
+    private boolean write(int i, long key, long key2, float probability) {
+        int version = versions.get(i);
+        if ((version & 1) != 0 || !versions.compareAndSet(i, version, version + 1))
+            return false;
+        if (twoKeys) {
+            keys.set(2 * i, key);
+            keys.set(2 * i + 1, key2);
+        } else {
+            keys.set(i, key);
+        }
+        values.set(i, Float.floatToRawIntBits(probability));
+        referenced[i] = 0;
+        versions.set(i, version + 2);
+        return true;
+    }
+
+    /**
+     * Removes all entries. The table is kept.
+     */
+    public void clear() {
+        for (int i = 0; i <= mask; i++) {
+            // retry slots which are written right now
+            while (!write(i, 0, 0, 0))
+                Thread.yield();
+        }
+        size.set(0);
+    }
+
+    /**
+     * Packs the ids of the words starting at the given position, the first
+     * word is put into the lowest bits.
+     *
+     * @return the key, zero if a word has no id or there are no words
+     *         after the start
+     */
+    private long packKey(WordSequence wordSequence, int start) {
+        int end = Math.min(wordSequence.size(), start + wordsPerKey);
+        long key = 0;
+        for (int i = end - 1; i >= start; i--) {
+            int id = wordIds.getWordId(wordSequence.getWord(i));
+            if (id < 0)
+                return 0;
+            key = (key << bitsPerWord) | (id + 1);
+        }
+        return key;
+    }
+
+    private static int mix(long key, long key2) {
+        long hash = (key ^ (key2 * 0x9E3779B97F4A7C15L)) * 0xC2B2AE3D27D4EB4FL;
+        hash ^= hash >>> 29;
+        hash *= 0x165667B19E3779F9L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /** @return the number of cached entries, approximately while other threads write */
+    public int size() {
+        return size.get();
+    }
+
+    /** @return the number of slots of the table */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /** @return the number of bits taken by the id of a word in a key */
+    public int getBitsPerWord() {
+        return bitsPerWord;
+    }
+}
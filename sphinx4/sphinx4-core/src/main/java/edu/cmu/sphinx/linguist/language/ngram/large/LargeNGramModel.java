@@ -25,9 +25,12 @@ import edu.cmu.sphinx.linguist.WordSequence;
 import edu.cmu.sphinx.linguist.dictionary.Dictionary;
 import edu.cmu.sphinx.linguist.dictionary.Word;
 import edu.cmu.sphinx.linguist.language.ngram.LanguageModel;
-import edu.cmu.sphinx.linguist.util.LRUCache;
+import edu.cmu.sphinx.linguist.language.ngram.NgramProbabilityCache;
 import edu.cmu.sphinx.util.LogMath;
 import edu.cmu.sphinx.util.TimerPool;
+import edu.cmu.sphinx.util.metrics.Counter;
+import edu.cmu.sphinx.util.metrics.Histogram;
+import edu.cmu.sphinx.util.metrics.MetricRegistry;
 import edu.cmu.sphinx.util.props.*;
 
 /**
@@ -109,6 +112,9 @@ public class LargeNGramModel implements LanguageModel {
     // -------------------------------
     private int ngramMisses;
     private int ngramHits;
+    private final Counter cacheHits = MetricRegistry.getRegistry().getCounter("lm.cacheHits");
+    private final Counter cacheMisses = MetricRegistry.getRegistry().getCounter("lm.cacheMisses");
+    private final Histogram lookupTime = MetricRegistry.getRegistry().getHistogram("lm.lookupTime");
     private int smearTermCount;
     protected String ngramLogFile;
 
@@ -123,7 +129,7 @@ public class LargeNGramModel implements LanguageModel {
     // --------------------------------
     private Map<Word, UnigramProbability> unigramIDMap;
     private Map<WordSequence, NGramBuffer>[] loadedNGramBuffers;
-    private LRUCache<WordSequence, Float> ngramProbCache;
+    private NgramProbabilityCache ngramProbCache;
     private Map<Long, Float> bigramSmearMap;
 
     private NGramBuffer[] loadedBigramBuffers;
@@ -232,7 +238,6 @@ public class LargeNGramModel implements LanguageModel {
             }
         }
 
-        ngramProbCache = new LRUCache<WordSequence, Float>(ngramCacheSize);
         if (dictionary != null)
             buildUnigramIDMap(dictionary);
         else
@@ -241,6 +246,13 @@ public class LargeNGramModel implements LanguageModel {
 
         if (maxDepth <= 0 || maxDepth > loader.getMaxDepth())
             maxDepth = loader.getMaxDepth();
+        ngramProbCache = new NgramProbabilityCache(ngramCacheSize, unigrams.length, maxDepth,
+                new NgramProbabilityCache.WordIds() {
+                    public int getWordId(Word word) {
+                        UnigramProbability unigram = getUnigram(word);
+                        return unigram == null ? -1 : unigram.getWordID();
+                    }
+                });
 
         for (int i = 1; i <= loader.getMaxDepth(); i++)
             logger.info(Integer.toString(i) + "-grams: "
@@ -342,7 +354,7 @@ public class LargeNGramModel implements LanguageModel {
         logger.info("LM Cache Size: " + ngramProbCache.size() + " Hits: "
                 + ngramHits + " Misses: " + ngramMisses);
         if (clearCacheAfterUtterance) {
-            ngramProbCache = new LRUCache<WordSequence, Float>(ngramCacheSize);
+            ngramProbCache.clear();
         }
     }
 
@@ -364,16 +376,20 @@ public class LargeNGramModel implements LanguageModel {
         }
 
         if (numberWords == maxDepth) {
-            probability = ngramProbCache.get(wordSequence);
+            float cached = ngramProbCache.get(wordSequence);
 
-            if (probability != null) {
+            if (!Float.isNaN(cached)) {
                 ngramHits++;
-                return probability;
+                cacheHits.increment();
+                return cached;
             }
             ngramMisses++;
+            cacheMisses.increment();
         }
 
+        long startTime = System.nanoTime();
         probability = getNGramProbability(wordSequence);
+        lookupTime.record(System.nanoTime() - startTime);
 
         if (numberWords == maxDepth)
             ngramProbCache.put(wordSequence, probability);
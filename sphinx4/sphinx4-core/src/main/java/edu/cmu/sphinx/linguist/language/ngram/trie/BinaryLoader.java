@@ -1,14 +1,15 @@
 package edu.cmu.sphinx.linguist.language.ngram.trie;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 
 import edu.cmu.sphinx.linguist.language.ngram.trie.NgramTrieModel.TrieUnigram;
 import edu.cmu.sphinx.util.Utilities;
@@ -22,7 +23,7 @@ import edu.cmu.sphinx.util.Utilities;
  *     <li>readCounts</li>
  *     <li>readQuant</li>
  *     <li>readUnigrams</li>
- *     <li>readTrieByteArr</li>
+ *     <li>readTrieByteArr or mapTrie</li>
  *     <li>readWords</li>
  * </ul>
  */
@@ -32,21 +33,42 @@ public class BinaryLoader {
     private static final String TRIE_HEADER = "Trie Language Model";
 
     private DataInputStream inStream;
+    private FileChannel channel;
+    private long position;
 
     public BinaryLoader(File location) throws IOException {
-        inStream = new DataInputStream(new FileInputStream(location));
+        FileInputStream fileStream = new FileInputStream(location);
+        channel = fileStream.getChannel();
+        loadModelData(fileStream);
     }
 
     private void loadModelData(InputStream stream) throws IOException {
-	DataInputStream dataStream = new DataInputStream(new BufferedInputStream(stream));
-	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-	byte[] buffer = new byte[4096];
-	while (true) {
-	    if (dataStream.read(buffer) < 0)
-		break;
-	    bytes.write(buffer);
-	}
-	inStream = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        // the position is counted after buffering, so it matches the file
+        // offset of the next byte returned to the loader
+        inStream = new DataInputStream(new FilterInputStream(new BufferedInputStream(stream)) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0)
+                    position++;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0)
+                    position += n;
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                position += skipped;
+                return skipped;
+            }
+        });
     }
 
     public BinaryLoader(URL location) throws IOException {
@@ -124,7 +146,40 @@ public class BinaryLoader {
      * @throws IOException if reading from stream failed
      */
     public void readTrieByteArr(byte[] arr) throws IOException {
-        inStream.read(arr);
+        inStream.readFully(arr);
+    }
+
+    /**
+     * Checks if trie can be memory mapped, which is possible
+     * if model is loaded from a file
+     * @return true if {@link #mapTrie} can be used
+     */
+    public boolean canMapTrie() {
+        return channel != null;
+    }
+
+    /**
+     * Maps trie from model file instead of reading it,
+     * see {@link MappedNgramTrieBitarr}. Can be used instead of 
+     * {@link #readTrieByteArr} if {@link #canMapTrie} is true
+     * @param length - size of trie in bytes, see {@link NgramTrie#getMemLen}
+     * @return trie bit array backed by model file
+     * @throws IOException if mapping failed
+     */
+    public NgramTrieBitarr mapTrie(long length) throws IOException {
+        if (channel == null)
+            throw new IOException("Only model files can be memory mapped");
+        if (position + length > channel.size())
+            throw new Error("Bad binary LM file: trie exceeds end of file");
+        NgramTrieBitarr bitArr = new MappedNgramTrieBitarr(channel, position, length);
+        long remaining = length;
+        while (remaining > 0) {
+            long skipped = inStream.skip(remaining);
+            if (skipped <= 0)
+                throw new EOFException();
+            remaining -= skipped;
+        }
+        return bitArr;
     }
 
     /**
@@ -140,7 +195,7 @@ public class BinaryLoader {
         }
         String[] words = new String[unigramNum];
         byte[] bytes = new byte[len];
-        inStream.read(bytes);
+        inStream.readFully(bytes);
 
         int s = 0;
         int wordStart = 0;
@@ -203,7 +258,7 @@ public class BinaryLoader {
             throws IOException {
         StringBuilder builder = new StringBuilder();
         byte[] bytes = new byte[length];
-        stream.read(bytes);
+        stream.readFully(bytes);
         for (int i = 0; i < length; i++) {
             builder.append((char) bytes[i]);
         }
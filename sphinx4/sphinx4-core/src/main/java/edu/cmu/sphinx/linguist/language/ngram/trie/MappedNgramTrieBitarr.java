@@ -0,0 +1,86 @@
+package edu.cmu.sphinx.linguist.language.ngram.trie;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Ngram trie bit array which reads the trie directly from a read-only memory
+ * mapping of the binary model file. Nothing is copied to the heap and all
+ * processes which map the same file share the pages in the page cache.
+ * <p>
+ * A single mapping is limited to 2 GB, so the trie is mapped in chunks.
+ * Neighbouring chunks overlap by a few bytes, so every value can be read from
+ * a single chunk.
+ */
+
+public class MappedNgramTrieBitarr extends NgramTrieBitarr {
+
+    private static final int CHUNK_BITS = 30;
+    // the longest value read is an int
+    private static final int CHUNK_OVERLAP = 8;
+
+    private final MappedByteBuffer[] chunks;
+    private final int chunkBits;
+    private final long chunkMask;
+    private final long length;
+
+    /**
+     * Maps the trie from the given file channel
+     * @param channel - channel of the binary model file
+     * @param position - position of the trie in the file
+     * @param length - size of the trie in bytes
+     * @throws IOException if mapping failed
+     */
+    public MappedNgramTrieBitarr(FileChannel channel, long position, long length) throws IOException {
+        this(channel, position, length, CHUNK_BITS);
+    }
+
+    MappedNgramTrieBitarr(FileChannel channel, long position, long length, int chunkBits) throws IOException {
+        this.chunkBits = chunkBits;
+        this.chunkMask = (1L << chunkBits) - 1;
+        this.length = length;
+        int numChunks = (int) ((length + chunkMask) >>> chunkBits);
+        chunks = new MappedByteBuffer[Math.max(numChunks, 1)];
+        for (int i = 0; i < chunks.length; i++) {
+            long start = (long) i << chunkBits;
+            long size = Math.min(length - start, (1L << chunkBits) + CHUNK_OVERLAP);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + start, Math.max(size, 0));
+            chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Reads integer from mapped trie for specified memory pointer,
+     * offset from this pointer and mask of value that is read.
+     * @param memPtr - memory pointer for specific ngram order
+     * @param bitOffset - offset from memPtr that is calculated
+     *                    according to ngram index and type of value that is read.
+     * @param mask - bit mask of value that is read
+     * @return requested integer
+     */
+    @Override
+    public int readInt(long memPtr, long bitOffset, int mask) {
+        long idx = memPtr + (bitOffset >> 3);
+        int value = chunks[(int) (idx >>> chunkBits)].getInt((int) (idx & chunkMask));
+        return (value >>> (int) (bitOffset & 7)) & mask;
+    }
+
+    /**
+     * Mapped trie has no backing array
+     * @return null
+     */
+    @Override
+    public byte[] getArr() {
+        return null;
+    }
+
+    /**
+     * @return size of the mapped trie in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+}
@@ -17,8 +17,60 @@ public class NgramTrie {
     private int quantProbLen;
 
     public NgramTrie(int[] counts, int quantProbBoLen, int quantProbLen) {
-        int memLen = 0;
-        int[] ngramMemSize = new int[counts.length - 1];
+        this(counts, quantProbBoLen, quantProbLen, null);
+    }
+
+    /**
+     * Creates trie on top of provided bit array, for example
+     * one mapped from the model file, see {@link MappedNgramTrieBitarr}.
+     * @param counts - ngram counts
+     * @param quantProbBoLen - bits of quantized probability and backoff
+     * @param quantProbLen - bits of quantized probability
+     * @param bitArr - bit array of {@link #getMemLen} bytes with the trie,
+     *                 null to allocate a heap array
+     */
+    public NgramTrie(int[] counts, int quantProbBoLen, int quantProbLen, NgramTrieBitarr bitArr) {
+        long[] ngramMemSize = getNgramMemSizes(counts, quantProbBoLen, quantProbLen);
+        if (bitArr == null) {
+            long memLen = getMemLen(counts, quantProbBoLen, quantProbLen);
+            if (memLen > Integer.MAX_VALUE)
+                throw new Error("Trie of " + memLen + " bytes does not fit into array, use memory mapping");
+            bitArr = new NgramTrieBitarr((int) memLen);
+        }
+        this.bitArr = bitArr;
+        this.quantProbLen = quantProbLen;
+        this.quantProbBoLen = quantProbBoLen;
+        middles = new MiddleNgramSet[counts.length - 2];
+        long[] startPtrs = new long[counts.length - 2];
+        long startPtr = 0;
+        for (int i = 0; i < counts.length - 2; i++) {
+            startPtrs[i] = startPtr;
+            startPtr += ngramMemSize[i];
+        }
+        // Crazy backwards thing so we initialize using pointers to ones that have already been initialized
+        for (int i = counts.length - 1; i >= 2; --i) {
+            middles[i - 2] = new MiddleNgramSet(startPtrs[i - 2], quantProbBoLen, counts[i-1], counts[0], counts[i]);
+        }
+        longest = new LongestNgramSet(startPtr, quantProbLen, counts[0]);
+        ordersNum = middles.length + 1;
+    }
+
+    /**
+     * Calculates size of memory required for trie
+     * @param counts - ngram counts
+     * @param quantProbBoLen - bits of quantized probability and backoff
+     * @param quantProbLen - bits of quantized probability
+     * @return size of trie in bytes
+     */
+    public static long getMemLen(int[] counts, int quantProbBoLen, int quantProbLen) {
+        long memLen = 0;
+        for (long size : getNgramMemSizes(counts, quantProbBoLen, quantProbLen))
+            memLen += size;
+        return memLen;
+    }
+
+    private static long[] getNgramMemSizes(int[] counts, int quantProbBoLen, int quantProbLen) {
+        long[] ngramMemSize = new long[counts.length - 1];
         for (int i = 1; i <= counts.length - 1; i++) {
             int entryLen = requiredBits(counts[0]);
             if (i == counts.length - 1) {
@@ -33,26 +85,9 @@ public class NgramTrie {
             // +7 then / 8 to round up bits and convert to bytes
             // +8 (or +sizeof(uint64))so that reading bit array doesn't exceed bounds 
             // Note that this waste is O(order), not O(number of ngrams).
-            int tmpLen = ((1 + counts[i]) * entryLen + 7) / 8 + 8; 
-            ngramMemSize[i - 1] = tmpLen;
-            memLen += tmpLen;
-        }
-        bitArr = new NgramTrieBitarr(memLen);
-        this.quantProbLen = quantProbLen;
-        this.quantProbBoLen = quantProbBoLen;
-        middles = new MiddleNgramSet[counts.length - 2];
-        int[] startPtrs = new int[counts.length - 2];
-        int startPtr = 0;
-        for (int i = 0; i < counts.length - 2; i++) {
-            startPtrs[i] = startPtr;
-            startPtr += ngramMemSize[i];
+            ngramMemSize[i - 1] = ((1L + counts[i]) * entryLen + 7) / 8 + 8;
         }
-        // Crazy backwards thing so we initialize using pointers to ones that have already been initialized
-        for (int i = counts.length - 1; i >= 2; --i) {
-            middles[i - 2] = new MiddleNgramSet(startPtrs[i - 2], quantProbBoLen, counts[i-1], counts[0], counts[i]);
-        }
-        longest = new LongestNgramSet(startPtr, quantProbLen, counts[0]);
-        ordersNum = middles.length + 1;
+        return ngramMemSize;
     }
 
     /**
@@ -161,7 +196,7 @@ public class NgramTrie {
     /**
      * Calculates minimum amount of bits to store provided int
      */
-    private int requiredBits(int maxValue) {
+    private static int requiredBits(int maxValue) {
         if (maxValue == 0) return 0;
         int res = 1;
         while ((maxValue >>= 1) != 0) res++;
@@ -172,13 +207,13 @@ public class NgramTrie {
      * Gives access to set of ngram of certain order (trie layer)
      */
     abstract class NgramSet {
-        int memPtr;
+        long memPtr;
         int wordBits;
         int wordMask;
         int totalBits;
         int insertIdx;
         int maxVocab;
-        NgramSet(int memPtr, int maxVocab, int remainingBits) {
+        NgramSet(long memPtr, int maxVocab, int remainingBits) {
             this.maxVocab = maxVocab;
             this.memPtr = memPtr;
             wordBits = requiredBits(maxVocab);
@@ -190,12 +225,12 @@ public class NgramTrie {
         }
 
         int readNgramWord(int ngramIdx) {
-            int offset = ngramIdx * totalBits;
+            long offset = (long) ngramIdx * totalBits;
             return bitArr.readInt(memPtr, offset, wordMask);
         }
 
-        int getNgramWeightsOffset(int ngramIdx) {
-            return ngramIdx * totalBits + wordBits;
+        long getNgramWeightsOffset(int ngramIdx) {
+            return (long) ngramIdx * totalBits + wordBits;
         }
 
         abstract int getQuantBits();
@@ -208,7 +243,7 @@ public class NgramTrie {
     class MiddleNgramSet extends NgramSet {
         int nextMask;
         int nextOrderMemPtr;
-        MiddleNgramSet(int memPtr, int quantBits, int entries, int maxVocab, int maxNext) {
+        MiddleNgramSet(long memPtr, int quantBits, int entries, int maxVocab, int maxNext) {
             super(memPtr, maxVocab, quantBits + requiredBits(maxNext));
             nextMask = (1 << requiredBits(maxNext)) - 1;
             if (entries + 1 >= (1 << 25) || (maxNext >= (1 << 25)))
@@ -216,7 +251,7 @@ public class NgramTrie {
         }
 
         void readNextRange(int ngramIdx, TrieRange range) {
-            int offset = ngramIdx * totalBits;
+            long offset = (long) ngramIdx * totalBits;
             offset += wordBits;
             offset += getQuantBits();
             range.begin = bitArr.readInt(memPtr, offset, nextMask);
@@ -234,7 +269,7 @@ public class NgramTrie {
      * Implementation of NgramSet for ngrams of maximum order
      */
     class LongestNgramSet extends NgramSet {
-        LongestNgramSet(int memPtr, int quantBits, int maxVocab) {
+        LongestNgramSet(long memPtr, int quantBits, int maxVocab) {
             super(memPtr, maxVocab, quantBits);
         }
 
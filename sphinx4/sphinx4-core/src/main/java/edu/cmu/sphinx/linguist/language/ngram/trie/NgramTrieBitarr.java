@@ -12,6 +12,12 @@ public class NgramTrieBitarr {
         mem = new byte[memLen];
     }
 
+    /**
+     * Constructor for subclasses which keep the trie elsewhere
+     */
+    protected NgramTrieBitarr() {
+    }
+
     /**
      * Getter for byte array, so it can be filled with actual data
      * @return data array
@@ -29,13 +35,13 @@ public class NgramTrieBitarr {
      * @param mask - bit mask of value that is read
      * @return requested integer
      */
-    public int readInt(int memPtr, int bitOffset, int mask) {
-        int idx = memPtr + (bitOffset >> 3);
+    public int readInt(long memPtr, long bitOffset, int mask) {
+        int idx = (int) (memPtr + (bitOffset >> 3));
         int value = mem[idx++] & 0xFF;
         value |= (mem[idx++] << 8) & 0xFFFF;
         value |= (mem[idx++] << 16) & 0xFFFFFF;
         value |= (mem[idx++] << 24) & 0xFFFFFFFF;
-        value >>= (bitOffset & 7);
+        value >>= (int) (bitOffset & 7);
         value &= mask;
         return value;
     }
@@ -48,7 +54,7 @@ public class NgramTrieBitarr {
      * @param bitOffset - offset from memPtr
      * @return float that was read from specified position
      */
-    public float readNegativeFloat(int memPtr, int bitOffset) {
+    public float readNegativeFloat(long memPtr, long bitOffset) {
         //TODO cap
         return 0.0f;
     }
@@ -61,7 +67,7 @@ public class NgramTrieBitarr {
      * @param bitOffset - offset from memPtr
      * @return float that was read from specified position
      */
-    public float readFloat(int memPtr, int bitOffset) {
+    public float readFloat(long memPtr, long bitOffset) {
         //TODO cap
         return 0.0f;
     }
@@ -18,9 +18,12 @@ import edu.cmu.sphinx.linguist.WordSequence;
 import edu.cmu.sphinx.linguist.dictionary.Dictionary;
 import edu.cmu.sphinx.linguist.dictionary.Word;
 import edu.cmu.sphinx.linguist.language.ngram.LanguageModel;
-import edu.cmu.sphinx.linguist.util.LRUCache;
+import edu.cmu.sphinx.linguist.language.ngram.NgramProbabilityCache;
 import edu.cmu.sphinx.util.LogMath;
 import edu.cmu.sphinx.util.TimerPool;
+import edu.cmu.sphinx.util.metrics.Counter;
+import edu.cmu.sphinx.util.metrics.Histogram;
+import edu.cmu.sphinx.util.metrics.MetricRegistry;
 import edu.cmu.sphinx.util.props.ConfigurationManagerUtils;
 import edu.cmu.sphinx.util.props.PropertyException;
 import edu.cmu.sphinx.util.props.PropertySheet;
@@ -70,6 +73,14 @@ public class NgramTrieModel implements LanguageModel {
     @S4Double(defaultValue = 1.0f)
     public final static String PROP_WORD_INSERTION_PROBABILITY = "wordInsertionProbability";
 
+    /**
+     * The property that controls whether the trie is memory mapped from the
+     * model file instead of being read into the heap. Mapping requires the
+     * model to be a file, the model is read into the heap otherwise.
+     */
+    @S4Boolean(defaultValue = false)
+    public final static String PROP_MEMORY_MAPPED = "memoryMapped";
+
     // ------------------------------
     // Configuration data
     // ------------------------------
@@ -77,7 +88,6 @@ public class NgramTrieModel implements LanguageModel {
     protected Logger logger;
     protected LogMath logMath;
     protected int maxDepth;
-    protected int curDepth;
     protected int[] counts;
 
     protected int ngramCacheSize;
@@ -89,6 +99,7 @@ public class NgramTrieModel implements LanguageModel {
     protected float languageWeight;
     protected float unigramWeight;
     protected float logWip;
+    protected boolean memoryMapped;
 
     // -------------------------------
     // Statistics
@@ -96,6 +107,9 @@ public class NgramTrieModel implements LanguageModel {
     protected String ngramLogFile;
     private int ngramMisses;
     private int ngramHits;
+    private final Counter cacheHits = MetricRegistry.getRegistry().getCounter("lm.cacheHits");
+    private final Counter cacheMisses = MetricRegistry.getRegistry().getCounter("lm.cacheMisses");
+    private final Histogram lookupTime = MetricRegistry.getRegistry().getHistogram("lm.lookupTime");
 
     // -------------------------------
     // subcomponents
@@ -114,7 +128,7 @@ public class NgramTrieModel implements LanguageModel {
     // Working data
     //-----------------------------
     protected Map<Word, Integer> unigramIDMap;
-    private LRUCache<WordSequence, Float> ngramProbCache;
+    private NgramProbabilityCache ngramProbCache;
     
     public NgramTrieModel(String format, URL location, String ngramLogFile,
             int maxNGramCacheSize, boolean clearCacheAfterUtterance,
@@ -136,6 +150,16 @@ public class NgramTrieModel implements LanguageModel {
         this.unigramWeight = unigramWeight;
     }
 
+    public NgramTrieModel(String format, URL location, String ngramLogFile,
+            int maxNGramCacheSize, boolean clearCacheAfterUtterance,
+            int maxDepth, Dictionary dictionary,
+            boolean applyLanguageWeightAndWip, float languageWeight,
+            double wip, float unigramWeight, boolean memoryMapped) {
+        this(format, location, ngramLogFile, maxNGramCacheSize, clearCacheAfterUtterance,
+                maxDepth, dictionary, applyLanguageWeightAndWip, languageWeight, wip, unigramWeight);
+        this.memoryMapped = memoryMapped;
+    }
+
     public NgramTrieModel() {
     }
 
@@ -161,6 +185,7 @@ public class NgramTrieModel implements LanguageModel {
         languageWeight = ps.getFloat(PROP_LANGUAGE_WEIGHT);
         logWip = logMath.linearToLog(ps.getDouble(PROP_WORD_INSERTION_PROBABILITY));
         unigramWeight = ps.getFloat(PROP_UNIGRAM_WEIGHT);
+        memoryMapped = ps.getBoolean(PROP_MEMORY_MAPPED);
     }
 
     /**
@@ -226,13 +251,28 @@ public class NgramTrieModel implements LanguageModel {
         }
         unigrams = loader.readUnigrams(counts[0]);
         if (maxDepth > 1) {
-            trie = new NgramTrie(counts, quant.getProbBoSize(), quant.getProbSize());
-            loader.readTrieByteArr(trie.getMem());
+            if (memoryMapped && loader.canMapTrie()) {
+                long memLen = NgramTrie.getMemLen(counts, quant.getProbBoSize(), quant.getProbSize());
+                trie = new NgramTrie(counts, quant.getProbBoSize(), quant.getProbSize(),
+                        loader.mapTrie(memLen));
+                logger.info("Mapped " + memLen + " bytes of n-gram trie");
+            } else {
+                if (memoryMapped)
+                    logger.warning("Language model is not a file, reading trie into memory");
+                trie = new NgramTrie(counts, quant.getProbBoSize(), quant.getProbSize());
+                loader.readTrieByteArr(trie.getMem());
+            }
         }
         //string words can be read here
         words = loader.readWords(counts[0]);
         buildUnigramIDMap();
-        ngramProbCache = new LRUCache<WordSequence, Float>(ngramCacheSize);
+        ngramProbCache = new NgramProbabilityCache(ngramCacheSize, words.length, maxDepth,
+                new NgramProbabilityCache.WordIds() {
+                    public int getWordId(Word word) {
+                        Integer id = unigramIDMap.get(word);
+                        return id == null ? -1 : id;
+                    }
+                });
         loader.close();
         TimerPool.getTimer(this, "Load LM").stop();
     }
@@ -249,37 +289,14 @@ public class NgramTrieModel implements LanguageModel {
         }
     }
 
-    /**
-     * Selects ngram of highest order available for specified word sequence
-     * and extracts probability for it
-     * @param wordSequence - word sequence to score
-     * @param range - range to look bigram in
-     * @param prob - probability of unigram
-     * @return probability of of highest order ngram available
-     */
-    private float getAvailableProb(WordSequence wordSequence, TrieRange range, float prob) {
-        if (!range.isSearchable()) return prob;
-        for (int reverseOrderMinusTwo = wordSequence.size() - 2; reverseOrderMinusTwo >= 0; reverseOrderMinusTwo--) {
-            int orderMinusTwo = wordSequence.size() - 2 - reverseOrderMinusTwo;
-            if (orderMinusTwo + 1 == maxDepth) break;
-            int wordId = unigramIDMap.get(wordSequence.getWord(reverseOrderMinusTwo));
-            float updatedProb = trie.readNgramProb(wordId, orderMinusTwo, range, quant);
-            if (!range.getFound()) break;
-            prob = updatedProb;
-            curDepth++;
-            if (!range.isSearchable()) break;
-        }
-        return prob;
-    }
-
     /**
      * Selects backoffs for part of word sequence 
-     * unused in {@link #getAvailableProb(WordSequence, TrieRange, float) getAvailableProb}
-     * Amount of unused words is specified by local variable curDepth
+     * unused in {@link #getProbabilityRaw(WordSequence) getProbabilityRaw}
      * @param wordSequence - full word sequence that is scored
+     * @param curDepth - amount of words the probability was found for
      * @return backoff
      */
-    private float getAvailableBackoff(WordSequence wordSequence) {
+    private float getAvailableBackoff(WordSequence wordSequence, int curDepth) {
         float backoff = 0.0f;
         int wordsNum = wordSequence.size();
         int wordId = unigramIDMap.get(wordSequence.getWord(wordsNum - 2));
@@ -309,14 +326,26 @@ public class NgramTrieModel implements LanguageModel {
         int wordId = unigramIDMap.get(wordSequence.getWord(wordsNum - 1));
         TrieRange range = new TrieRange(unigrams[wordId].next, unigrams[wordId + 1].next);
         float prob = unigrams[wordId].prob;
-        curDepth = 1;
+        // a local, the model may be used by several threads
+        int curDepth = 1;
         if (wordsNum == 1)
             return prob;
-        //find prob of ngrams of higher order if any
-        prob = getAvailableProb(wordSequence, range, prob);
+        //find prob of ngrams of highest order available
+        if (range.isSearchable()) {
+            for (int reverseOrderMinusTwo = wordsNum - 2; reverseOrderMinusTwo >= 0; reverseOrderMinusTwo--) {
+                int orderMinusTwo = wordsNum - 2 - reverseOrderMinusTwo;
+                if (orderMinusTwo + 1 == maxDepth) break;
+                wordId = unigramIDMap.get(wordSequence.getWord(reverseOrderMinusTwo));
+                float updatedProb = trie.readNgramProb(wordId, orderMinusTwo, range, quant);
+                if (!range.getFound()) break;
+                prob = updatedProb;
+                curDepth++;
+                if (!range.isSearchable()) break;
+            }
+        }
         if (curDepth < wordsNum) {
             //use backoff for rest of ngram
-            prob += getAvailableBackoff(wordSequence);
+            prob += getAvailableBackoff(wordSequence, curDepth);
         }
         return prob;
     }
@@ -349,15 +378,19 @@ public class NgramTrieModel implements LanguageModel {
         }
 
         if (numberWords == maxDepth) {
-            Float probability = ngramProbCache.get(wordSequence);
+            float probability = ngramProbCache.get(wordSequence);
 
-            if (probability != null) {
+            if (!Float.isNaN(probability)) {
                 ngramHits++;
+                cacheHits.increment();
                 return probability;
             }
             ngramMisses++;
+            cacheMisses.increment();
         }
+        long startTime = System.nanoTime();
         float probability = applyWeights(getProbabilityRaw(wordSequence));
+        lookupTime.record(System.nanoTime() - startTime);
         if (numberWords == maxDepth)
             ngramProbCache.put(wordSequence, probability);
         if (logFile != null)
@@ -423,7 +456,7 @@ public class NgramTrieModel implements LanguageModel {
         logger.info("LM Cache Size: " + ngramProbCache.size() + " Hits: "
                 + ngramHits + " Misses: " + ngramMisses);
         if (clearCacheAfterUtterance) {
-            ngramProbCache = new LRUCache<WordSequence, Float>(ngramCacheSize);
+            ngramProbCache.clear();
         }
     }
 
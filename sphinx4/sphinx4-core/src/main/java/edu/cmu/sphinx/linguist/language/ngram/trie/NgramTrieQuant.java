@@ -117,7 +117,7 @@ public class NgramTrieQuant {
      * @param orderMinusTwo - order of ngram minus two
      * @return probability of ngram
      */
-    public float readProb(NgramTrieBitarr bitArr, int memPtr, int bitOffset, int orderMinusTwo) {
+    public float readProb(NgramTrieBitarr bitArr, long memPtr, long bitOffset, int orderMinusTwo) {
         switch (quantType) {
         case NO_QUANT:
             return bitArr.readNegativeFloat(memPtr, bitOffset);
@@ -141,7 +141,7 @@ public class NgramTrieQuant {
      * @param orderMinusTwo - order of ngram minus two
      * @return backoffs of ngram
      */
-    public float readBackoff(NgramTrieBitarr bitArr, int memPtr, int bitOffset, int orderMinusTwo) {
+    public float readBackoff(NgramTrieBitarr bitArr, long memPtr, long bitOffset, int orderMinusTwo) {
         switch (quantType) {
         case NO_QUANT:
             bitOffset += 31;
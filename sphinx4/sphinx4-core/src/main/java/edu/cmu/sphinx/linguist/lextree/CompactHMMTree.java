@@ -0,0 +1,234 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.lextree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The frozen HMM tree in compressed sparse row form. Nodes are numbered and
+ * all their attributes are kept in parallel arrays, the successors of node
+ * <code>i</code> are <code>successors[successorStarts[i]]</code> up to
+ * <code>successors[successorStarts[i + 1] - 1]</code>. HMMs, units and
+ * pronunciations are referenced through small tables that are resolved
+ * against the acoustic model and the dictionary when the tree is restored.
+ * <p>
+ * The tree is saved with the key of the dictionary, language model and
+ * acoustic model it was built from, so a saved tree is only used for the
+ * same models.
+ */
+class CompactHMMTree {
+
+    final static int MAGIC = 0x53344C54;
+    final static int VERSION = 1;
+
+    /** A node only holding successors, such as an entry point node */
+    final static byte PLAIN_NODE = 0;
+    final static byte HMM_NODE = 1;
+    final static byte WORD_NODE = 2;
+    final static byte END_NODE = 3;
+
+    String key;
+
+    /** Names of the CI units referenced by the tree */
+    String[] units;
+    /** Unit IDs and positions in the HMM pool of the referenced HMMs */
+    int[] hmmIds;
+    byte[] hmmPositions;
+    /** Spellings and pronunciation indices of the referenced pronunciations */
+    String[] words;
+    int[] pronunciations;
+
+    byte[] kinds;
+    float[] probabilities;
+    /** HMM of an HMM node, pronunciation of a word node, base unit of an end node */
+    int[] references;
+    /** Left context unit of an end node */
+    int[] leftContexts;
+    int[] successorStarts;
+    int[] successors;
+    /** Right contexts of HMM nodes */
+    int[] rcStarts;
+    int[] rcUnits;
+
+    /** Entry points as base unit, left context and node */
+    int[] entryBases;
+    int[] entryLeftContexts;
+    int[] entryNodes;
+
+    /** Pronunciation and parent node of the initial word, -1 if there is none */
+    int initialPronunciation;
+    int initialParent;
+    /** Node of the sentence end word, -1 if there is none */
+    int sentenceEndNode;
+
+
+    /** @return the number of nodes in the tree */
+    int getNodeCount() {
+        return kinds.length;
+    }
+
+
+    /**
+     * Saves the tree. It is written to a temporary file in the same directory
+     * first and renamed, so that other processes never load a partial tree.
+     *
+     * @param file the file to write to
+     * @throws IOException if the file can't be written
+     */
+    void save(File file) throws IOException {
+        File temp = File.createTempFile(file.getName(), ".tmp",
+                file.getAbsoluteFile().getParentFile());
+        try {
+            write(temp);
+            // a concurrent writer may have saved the same tree already
+            if (!temp.renameTo(file) && !file.isFile())
+                throw new IOException("Can't rename " + temp + " to " + file);
+        } finally {
+            temp.delete();
+        }
+    }
+
+
+    private void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+
+            writeStrings(out, units);
+            writeInts(out, hmmIds);
+            out.write(hmmPositions);
+            writeStrings(out, words);
+            writeInts(out, pronunciations);
+
+            out.writeInt(kinds.length);
+            out.write(kinds);
+            for (float probability : probabilities)
+                out.writeFloat(probability);
+            writeInts(out, references);
+            writeInts(out, leftContexts);
+            writeInts(out, successorStarts);
+            writeInts(out, successors);
+            writeInts(out, rcStarts);
+            writeInts(out, rcUnits);
+
+            writeInts(out, entryBases);
+            writeInts(out, entryLeftContexts);
+            writeInts(out, entryNodes);
+
+            out.writeInt(initialPronunciation);
+            out.writeInt(initialParent);
+            out.writeInt(sentenceEndNode);
+        } finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * Loads a saved tree.
+     *
+     * @param file the file to read
+     * @param key  the key of the models the tree must have been built from
+     * @return the tree
+     * @throws IOException if the file can't be read or was saved for other
+     *         models
+     */
+    static CompactHMMTree load(File file, String key) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a lex tree file: " + file);
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported lex tree version "
+                        + version + " in " + file);
+
+            CompactHMMTree tree = new CompactHMMTree();
+            tree.key = in.readUTF();
+            if (!tree.key.equals(key))
+                throw new IOException("Lex tree " + file
+                        + " was built for other models");
+
+            tree.units = readStrings(in);
+            tree.hmmIds = readInts(in);
+            tree.hmmPositions = new byte[tree.hmmIds.length];
+            in.readFully(tree.hmmPositions);
+            tree.words = readStrings(in);
+            tree.pronunciations = readInts(in);
+
+            tree.kinds = new byte[in.readInt()];
+            in.readFully(tree.kinds);
+            tree.probabilities = new float[tree.kinds.length];
+            for (int i = 0; i < tree.probabilities.length; i++)
+                tree.probabilities[i] = in.readFloat();
+            tree.references = readInts(in);
+            tree.leftContexts = readInts(in);
+            tree.successorStarts = readInts(in);
+            tree.successors = readInts(in);
+            tree.rcStarts = readInts(in);
+            tree.rcUnits = readInts(in);
+
+            tree.entryBases = readInts(in);
+            tree.entryLeftContexts = readInts(in);
+            tree.entryNodes = readInts(in);
+
+            tree.initialPronunciation = in.readInt();
+            tree.initialParent = in.readInt();
+            tree.sentenceEndNode = in.readInt();
+            return tree;
+        } finally {
+            in.close();
+        }
+    }
+
+
+    private static void writeStrings(DataOutputStream out, String[] strings)
+            throws IOException {
+        out.writeInt(strings.length);
+        for (String s : strings)
+            out.writeUTF(s);
+    }
+
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++)
+            strings[i] = in.readUTF();
+        return strings;
+    }
+
+
+    private static void writeInts(DataOutputStream out, int[] values)
+            throws IOException {
+        out.writeInt(values.length);
+        for (int value : values)
+            out.writeInt(value);
+    }
+
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = in.readInt();
+        return values;
+    }
+}
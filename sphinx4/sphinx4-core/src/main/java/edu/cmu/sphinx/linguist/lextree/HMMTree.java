@@ -24,6 +24,13 @@ import edu.cmu.sphinx.linguist.language.ngram.LanguageModel;
 import edu.cmu.sphinx.util.LogMath;
 import edu.cmu.sphinx.util.Utilities;
 
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.logging.Logger;
 
@@ -114,6 +121,17 @@ class Node {
     }
 
 
+    /**
+     * Sets the successors of a node restored from a compact tree. The node is frozen afterwards.
+     *
+     * @param successors the successor nodes
+     */
+    void setSuccessors(Node[] successors) {
+        this.successors = successors;
+        successorCount += successors.length;
+    }
+
+
     /**
      * Gets the successor map for this node
      *
@@ -567,6 +585,16 @@ class HMMNode extends UnitNode {
     }
 
 
+    /**
+     * Sets the right contexts of a node restored from a compact tree.
+     *
+     * @param rc the right contexts
+     */
+    void setRC(Unit[] rc) {
+        rcSet = rc;
+    }
+
+
     /**
      * returns the set of right contexts for this node
      *
@@ -659,6 +687,10 @@ class EndNode extends UnitNode {
 /**
  * Represents the vocabulary as a lex tree with nodes in the tree representing either words (WordNode) or units
  * (HMMNode). HMMNodes may be shared.
+ * <p>
+ * If a cache directory is given, the frozen tree is saved there as a {@link CompactHMMTree} named after the key of the
+ * dictionary, language model and acoustic model. When the tree is created again for the same models, it is restored
+ * from the saved arrays instead of being built word by word.
  */
 class HMMTree {
 
@@ -682,6 +714,9 @@ class HMMTree {
     private WordNode sentenceEndWordNode;
     private Logger logger;
 
+    private final File cacheDirectory;
+    private Map<HMM, Integer> hmmReferences;
+
 
     /**
      * Creates the HMMTree
@@ -694,6 +729,22 @@ class HMMTree {
      */
     HMMTree(HMMPool pool, Dictionary dictionary, LanguageModel lm,
             boolean addFillerWords, float languageWeight) {
+        this(pool, dictionary, lm, addFillerWords, languageWeight, null);
+    }
+
+
+    /**
+     * Creates the HMMTree, restoring it from or saving it to the given cache directory
+     *
+     * @param pool           the pool of HMMs and units
+     * @param dictionary     the dictionary containing the pronunciations
+     * @param lm             the source of the set of words to add to the lex tree
+     * @param addFillerWords if <code>false</code> add filler words
+     * @param languageWeight the languageWeight
+     * @param cacheDirectory directory of the saved trees, or null to always build the tree
+     */
+    HMMTree(HMMPool pool, Dictionary dictionary, LanguageModel lm,
+            boolean addFillerWords, float languageWeight, File cacheDirectory) {
         this.hmmPool = pool;
         this.dictionary = dictionary;
         this.lm = lm;
@@ -701,6 +752,7 @@ class HMMTree {
         this.wordNodeMap = new HashMap<Pronunciation, WordNode>();
         this.addFillerWords = addFillerWords;
         this.languageWeight = languageWeight;
+        this.cacheDirectory = cacheDirectory;
         
         logger = Logger.getLogger(HMMTree.class.getSimpleName());
         compile();
@@ -721,12 +773,14 @@ class HMMTree {
 
 
     /**
-     * Gets the  set of hmm nodes associated with the given end node
+     * Gets the  set of hmm nodes associated with the given end node. The
+     * nodes are created on first use, so the cache is synchronized and the
+     * nodes are frozen before they are shared with other threads.
      *
      * @param endNode the end node
      * @return an array of associated hmm nodes
      */
-    public HMMNode[] getHMMNodes(EndNode endNode) {
+    public synchronized HMMNode[] getHMMNodes(EndNode endNode) {
         HMMNode[] results = endNodeMap.get(endNode.getKey());
         if (results == null) {
             // System.out.println("Filling cache for " + endNode.getKey()
@@ -750,6 +804,8 @@ class HMMTree {
 
             // cache it
             results = resultMap.values().toArray(new HMMNode[resultMap.size()]);
+            for (HMMNode hmmNode : results)
+                hmmNode.freeze();
             endNodeMap.put(endNode.getKey(), results);
         }
 
@@ -779,13 +835,359 @@ class HMMTree {
     /** Compiles the vocabulary into an HMM Tree */
     private void compile() {
         collectEntryAndExitUnits();
+
+        File file = null;
+        String key = null;
+        if (cacheDirectory != null) {
+            collectHMMReferences();
+            key = computeKey();
+            file = new File(cacheDirectory, "lextree-" + key + ".bin");
+            if (file.isFile()) {
+                try {
+                    restore(CompactHMMTree.load(file, key));
+                    logger.info("Loaded lex tree from " + file);
+                    freeze();
+                    return;
+                } catch (IOException e) {
+                    logger.warning("Can't load lex tree " + file + ": " + e.getMessage());
+                }
+            }
+        }
+
         entryPointTable = new EntryPointTable(entryPoints);
         addWords();
         entryPointTable.createEntryPointMaps();
+
+        if (file != null) {
+            try {
+                cacheDirectory.mkdirs();
+                CompactHMMTree tree = toCompactTree();
+                tree.key = key;
+                tree.save(file);
+                logger.info("Saved lex tree with " + tree.getNodeCount() + " nodes to " + file);
+            } catch (IOException e) {
+                logger.warning("Can't save lex tree " + file + ": " + e.getMessage());
+            }
+        }
         freeze();
     }
 
 
+    /** Numbers all HMMs of the pool by the unit ID and position they are first found at. */
+    private void collectHMMReferences() {
+        hmmReferences = new IdentityHashMap<HMM, Integer>();
+        HMMPosition[] positions = HMMPosition.values();
+        int numUnits = hmmPool.getNumCIUnits();
+        numUnits *= numUnits * numUnits;
+        for (int id = 0; id < numUnits; id++) {
+            for (HMMPosition position : positions) {
+                HMM hmm = hmmPool.getHMM(id, position);
+                if (hmm != null && !hmmReferences.containsKey(hmm))
+                    hmmReferences.put(hmm, id * positions.length + position.ordinal());
+            }
+        }
+    }
+
+
+    /**
+     * Computes the key of the models the tree is built from. It covers the pronunciations and unigram probabilities of
+     * all words in the tree and the way HMMs of the acoustic model are shared between units in context.
+     *
+     * @return the key as hex string
+     */
+    private String computeKey() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }, digest));
+
+        try {
+            List<Word> words = new ArrayList<Word>(getAllWords());
+            Collections.sort(words);
+            for (Word word : words) {
+                out.writeUTF(word.getSpelling());
+                out.writeFloat(getWordUnigramProbability(word));
+                for (Pronunciation pronunciation : word.getPronunciations()) {
+                    out.writeInt(pronunciation.getUnits().length);
+                    for (Unit unit : pronunciation.getUnits())
+                        out.writeUTF(unit.getName());
+                }
+            }
+            out.writeBoolean(addFillerWords);
+
+            HMMPosition[] positions = HMMPosition.values();
+            int numUnits = hmmPool.getNumCIUnits();
+            out.writeInt(numUnits);
+            numUnits *= numUnits * numUnits;
+            for (int id = 0; id < numUnits; id++) {
+                for (HMMPosition position : positions) {
+                    HMM hmm = hmmPool.getHMM(id, position);
+                    out.writeInt(hmm == null ? -1 : hmmReferences.get(hmm));
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest())
+            key.append(String.format("%02x", b & 0xff));
+        return key.toString();
+    }
+
+
+    /**
+     * Converts the built tree into its compact form.
+     *
+     * @return the compact tree, without key
+     */
+    private CompactHMMTree toCompactTree() {
+        Map<Node, Integer> nodeIds = new IdentityHashMap<Node, Integer>();
+        List<Node> nodes = new ArrayList<Node>();
+        List<Node> roots = new ArrayList<Node>();
+        List<Unit> entryBases = new ArrayList<Unit>();
+        List<Unit> entryLeftContexts = new ArrayList<Unit>();
+        for (EntryPoint ep : entryPointTable.entryPoints.values()) {
+            for (Map.Entry<Unit, Node> entry : ep.unitToEntryPointMap.entrySet()) {
+                entryBases.add(ep.baseUnit);
+                entryLeftContexts.add(entry.getKey());
+                roots.add(entry.getValue());
+            }
+        }
+        if (initialNode != null)
+            roots.add(initialNode.getParent());
+        if (sentenceEndWordNode != null)
+            roots.add(sentenceEndWordNode);
+
+        // number the nodes breadth first
+        for (Node root : roots) {
+            if (!nodeIds.containsKey(root)) {
+                nodeIds.put(root, nodes.size());
+                nodes.add(root);
+            }
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            if (node instanceof WordNode)
+                continue;
+            for (Node successor : node.getSuccessors()) {
+                if (!nodeIds.containsKey(successor)) {
+                    nodeIds.put(successor, nodes.size());
+                    nodes.add(successor);
+                }
+            }
+        }
+
+        Map<Unit, Integer> unitIds = new HashMap<Unit, Integer>();
+        List<Unit> units = new ArrayList<Unit>();
+        Map<HMM, Integer> hmmIds = new IdentityHashMap<HMM, Integer>();
+        List<HMM> hmms = new ArrayList<HMM>();
+        Map<Pronunciation, Integer> pronunciationIds = new IdentityHashMap<Pronunciation, Integer>();
+        List<Pronunciation> pronunciations = new ArrayList<Pronunciation>();
+
+        CompactHMMTree tree = new CompactHMMTree();
+        int count = nodes.size();
+        tree.kinds = new byte[count];
+        tree.probabilities = new float[count];
+        tree.references = new int[count];
+        tree.leftContexts = new int[count];
+        tree.successorStarts = new int[count + 1];
+        tree.rcStarts = new int[count + 1];
+        List<Integer> successors = new ArrayList<Integer>();
+        List<Integer> rcUnits = new ArrayList<Integer>();
+
+        for (int i = 0; i < count; i++) {
+            Node node = nodes.get(i);
+            tree.probabilities[i] = node.getUnigramProbability();
+            tree.leftContexts[i] = -1;
+            tree.references[i] = -1;
+            if (node instanceof HMMNode) {
+                HMMNode hmmNode = (HMMNode) node;
+                tree.kinds[i] = CompactHMMTree.HMM_NODE;
+                tree.references[i] = getId(hmmNode.getHMM(), hmmIds, hmms);
+                Unit[] rc = hmmNode.getRC();
+                if (rc != null) {
+                    for (Unit unit : rc)
+                        rcUnits.add(getId(unit, unitIds, units));
+                }
+            } else if (node instanceof WordNode) {
+                tree.kinds[i] = CompactHMMTree.WORD_NODE;
+                tree.references[i] = getId(((WordNode) node).getPronunciation(),
+                        pronunciationIds, pronunciations);
+            } else if (node instanceof EndNode) {
+                EndNode endNode = (EndNode) node;
+                tree.kinds[i] = CompactHMMTree.END_NODE;
+                tree.references[i] = getId(endNode.getBaseUnit(), unitIds, units);
+                tree.leftContexts[i] = getId(endNode.getLeftContext(), unitIds, units);
+            } else {
+                tree.kinds[i] = CompactHMMTree.PLAIN_NODE;
+            }
+            if (!(node instanceof WordNode)) {
+                for (Node successor : node.getSuccessors())
+                    successors.add(nodeIds.get(successor));
+            }
+            tree.successorStarts[i + 1] = successors.size();
+            tree.rcStarts[i + 1] = rcUnits.size();
+        }
+        tree.successors = toArray(successors);
+        tree.rcUnits = toArray(rcUnits);
+
+        int entryCount = roots.size() - (initialNode != null ? 1 : 0) - (sentenceEndWordNode != null ? 1 : 0);
+        tree.entryBases = new int[entryCount];
+        tree.entryLeftContexts = new int[entryCount];
+        tree.entryNodes = new int[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            tree.entryBases[i] = getId(entryBases.get(i), unitIds, units);
+            tree.entryLeftContexts[i] = getId(entryLeftContexts.get(i), unitIds, units);
+            tree.entryNodes[i] = nodeIds.get(roots.get(i));
+        }
+
+        tree.initialPronunciation = -1;
+        tree.initialParent = -1;
+        if (initialNode != null) {
+            tree.initialPronunciation = getId(initialNode.getPronunciation(), pronunciationIds, pronunciations);
+            tree.initialParent = nodeIds.get(initialNode.getParent());
+        }
+        tree.sentenceEndNode = sentenceEndWordNode != null ? nodeIds.get(sentenceEndWordNode) : -1;
+
+        tree.units = new String[units.size()];
+        for (int i = 0; i < units.size(); i++)
+            tree.units[i] = units.get(i).getName();
+        tree.hmmIds = new int[hmms.size()];
+        tree.hmmPositions = new byte[hmms.size()];
+        int numPositions = HMMPosition.values().length;
+        for (int i = 0; i < hmms.size(); i++) {
+            int reference = hmmReferences.get(hmms.get(i));
+            tree.hmmIds[i] = reference / numPositions;
+            tree.hmmPositions[i] = (byte) (reference % numPositions);
+        }
+        tree.words = new String[pronunciations.size()];
+        tree.pronunciations = new int[pronunciations.size()];
+        for (int i = 0; i < pronunciations.size(); i++) {
+            Pronunciation pronunciation = pronunciations.get(i);
+            Word word = pronunciation.getWord();
+            tree.words[i] = word.getSpelling();
+            tree.pronunciations[i] = Arrays.asList(word.getPronunciations()).indexOf(pronunciation);
+        }
+        return tree;
+    }
+
+
+    private static <T> int getId(T object, Map<T, Integer> ids, List<T> objects) {
+        Integer id = ids.get(object);
+        if (id == null) {
+            id = objects.size();
+            ids.put(object, id);
+            objects.add(object);
+        }
+        return id;
+    }
+
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = list.get(i);
+        return array;
+    }
+
+
+    /**
+     * Restores the tree from its compact form. The nodes are created frozen, no maps are needed.
+     *
+     * @param tree the compact tree
+     * @throws IOException if the tree refers to units, HMMs or words that don't exist
+     */
+    private void restore(CompactHMMTree tree) throws IOException {
+        Map<String, Unit> unitsByName = new HashMap<String, Unit>();
+        Map<String, Word> wordsBySpelling = new HashMap<String, Word>();
+        for (Word word : getAllWords()) {
+            wordsBySpelling.put(word.getSpelling(), word);
+            for (Pronunciation pronunciation : word.getPronunciations())
+                for (Unit unit : pronunciation.getUnits())
+                    unitsByName.put(unit.getName(), unit);
+        }
+
+        Unit[] units = new Unit[tree.units.length];
+        for (int i = 0; i < units.length; i++) {
+            units[i] = unitsByName.get(tree.units[i]);
+            if (units[i] == null)
+                throw new IOException("Unknown unit " + tree.units[i]);
+        }
+        HMMPosition[] positions = HMMPosition.values();
+        HMM[] hmms = new HMM[tree.hmmIds.length];
+        for (int i = 0; i < hmms.length; i++) {
+            hmms[i] = hmmPool.getHMM(tree.hmmIds[i], positions[tree.hmmPositions[i]]);
+            if (hmms[i] == null)
+                throw new IOException("Missing HMM for unit ID " + tree.hmmIds[i]);
+        }
+        Pronunciation[] pronunciations = new Pronunciation[tree.words.length];
+        for (int i = 0; i < pronunciations.length; i++) {
+            Word word = wordsBySpelling.get(tree.words[i]);
+            if (word == null || tree.pronunciations[i] >= word.getPronunciations().length)
+                throw new IOException("Unknown pronunciation of " + tree.words[i]);
+            pronunciations[i] = word.getPronunciations()[tree.pronunciations[i]];
+        }
+
+        int count = tree.getNodeCount();
+        Node[] nodes = new Node[count];
+        for (int i = 0; i < count; i++) {
+            float probability = tree.probabilities[i];
+            switch (tree.kinds[i]) {
+                case CompactHMMTree.HMM_NODE:
+                    HMMNode hmmNode = new HMMNode(hmms[tree.references[i]], probability);
+                    if (tree.rcStarts[i + 1] > tree.rcStarts[i]) {
+                        Unit[] rc = new Unit[tree.rcStarts[i + 1] - tree.rcStarts[i]];
+                        for (int j = 0; j < rc.length; j++)
+                            rc[j] = units[tree.rcUnits[tree.rcStarts[i] + j]];
+                        hmmNode.setRC(rc);
+                    }
+                    nodes[i] = hmmNode;
+                    break;
+                case CompactHMMTree.WORD_NODE:
+                    nodes[i] = new WordNode(pronunciations[tree.references[i]], probability);
+                    break;
+                case CompactHMMTree.END_NODE:
+                    nodes[i] = new EndNode(units[tree.references[i]], units[tree.leftContexts[i]], probability);
+                    break;
+                default:
+                    nodes[i] = new Node(probability);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (tree.kinds[i] == CompactHMMTree.WORD_NODE)
+                continue;
+            Node[] successors = new Node[tree.successorStarts[i + 1] - tree.successorStarts[i]];
+            for (int j = 0; j < successors.length; j++)
+                successors[j] = nodes[tree.successors[tree.successorStarts[i] + j]];
+            nodes[i].setSuccessors(successors);
+        }
+
+        EntryPointTable table = new EntryPointTable(entryPoints);
+        for (int i = 0; i < tree.entryNodes.length; i++) {
+            EntryPoint ep = table.getEntryPoint(units[tree.entryBases[i]]);
+            if (ep == null)
+                throw new IOException("Unknown entry point " + units[tree.entryBases[i]]);
+            ep.unitToEntryPointMap.put(units[tree.entryLeftContexts[i]], nodes[tree.entryNodes[i]]);
+        }
+
+        entryPointTable = table;
+        if (tree.initialPronunciation >= 0)
+            initialNode = new InitialWordNode(pronunciations[tree.initialPronunciation],
+                    (HMMNode) nodes[tree.initialParent]);
+        if (tree.sentenceEndNode >= 0)
+            sentenceEndWordNode = (WordNode) nodes[tree.sentenceEndNode];
+    }
+
+
     /** Dumps the tree */
     void dumpTree() {
         System.out.println("Dumping Tree ...");
@@ -845,6 +1247,7 @@ class HMMTree {
         lm = null;
         exitPoints = null;
         allWords = null;
+        hmmReferences = null;
         wordNodeMap.clear();
         endNodeMap.clear();
     }
@@ -12,8 +12,10 @@
 
 package edu.cmu.sphinx.linguist.lextree;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -48,6 +50,7 @@ import edu.cmu.sphinx.util.props.S4Boolean;
 import edu.cmu.sphinx.util.props.S4Component;
 import edu.cmu.sphinx.util.props.S4Double;
 import edu.cmu.sphinx.util.props.S4Integer;
+import edu.cmu.sphinx.util.props.S4String;
 
 /**
  * A linguist that can represent large vocabularies efficiently. This class implements the Linguist interface. The main
@@ -140,6 +143,13 @@ import edu.cmu.sphinx.util.props.S4Integer;
  * used (i.e. accounting explicitly for backoff), then this reduces <b>tremendously</b>.
  * Most bigrams dont have corresponding trigrams.  Not all 10^10 bigrams have trigrams. We only
  * need to store as many explicit tokens as the number of bigrams that have trigrams.
+ *
+ * <p>
+ * <b>Concurrency </b>
+ * <p>
+ * The successors of search states may be requested from several threads at once, for example by the {@link
+ * edu.cmu.sphinx.decoder.search.ShardedSearchManager}. The arc cache, the language model lookups and the HMM nodes of
+ * the EndNodes, which are created during the search, are synchronized for that.
  */
 public class LexTreeLinguist implements Linguist {
 
@@ -208,6 +218,15 @@ public class LexTreeLinguist implements Linguist {
     public final static String PROP_UNIGRAM_SMEAR_WEIGHT = "unigramSmearWeight";
 
 
+    /**
+     * The property that defines a directory to save the compiled lex tree in. When the linguist is allocated again with
+     * the same dictionary, language model and acoustic model, the tree is loaded from there instead of being built. If
+     * the property is not set, the tree is always built.
+     */
+    @S4String(mandatory = false)
+    public final static String PROP_TREE_CACHE = "treeCache";
+
+
     // just for detailed debugging
     private final static SearchStateArc[] EMPTY_ARC = new SearchStateArc[0];
 
@@ -232,6 +251,7 @@ public class LexTreeLinguist implements Linguist {
     private float unigramSmearWeight = 1.0f;
     private boolean cacheEnabled;
     private int maxArcCacheSize;
+    private File treeCache;
 
     protected float languageWeight;
     private float logWordInsertionProbability;
@@ -261,6 +281,17 @@ public class LexTreeLinguist implements Linguist {
             double wordInsertionProbability, double silenceInsertionProbability, double fillerInsertionProbability,
             double unitInsertionProbability, float languageWeight, boolean addFillerWords, boolean generateUnitStates,
             float unigramSmearWeight, int maxArcCacheSize) {
+        this(acousticModel, unitManager, languageModel, dictionary, fullWordHistories, wantUnigramSmear,
+                wordInsertionProbability, silenceInsertionProbability, fillerInsertionProbability,
+                unitInsertionProbability, languageWeight, addFillerWords, generateUnitStates, unigramSmearWeight,
+                maxArcCacheSize, null);
+    }
+
+    public LexTreeLinguist(AcousticModel acousticModel, UnitManager unitManager,
+            LanguageModel languageModel, Dictionary dictionary, boolean fullWordHistories, boolean wantUnigramSmear,
+            double wordInsertionProbability, double silenceInsertionProbability, double fillerInsertionProbability,
+            double unitInsertionProbability, float languageWeight, boolean addFillerWords, boolean generateUnitStates,
+            float unigramSmearWeight, int maxArcCacheSize, File treeCache) {
 
         logger = Logger.getLogger(getClass().getName());
 
@@ -280,6 +311,7 @@ public class LexTreeLinguist implements Linguist {
         this.generateUnitStates = generateUnitStates;
         this.unigramSmearWeight = unigramSmearWeight;
         this.maxArcCacheSize = maxArcCacheSize;
+        this.treeCache = treeCache;
 
         cacheEnabled = maxArcCacheSize > 0;
         if( cacheEnabled ) {
@@ -315,6 +347,8 @@ public class LexTreeLinguist implements Linguist {
         generateUnitStates = (ps.getBoolean(PROP_GENERATE_UNIT_STATES));
         unigramSmearWeight = ps.getFloat(PROP_UNIGRAM_SMEAR_WEIGHT);
         maxArcCacheSize = ps.getInt(PROP_CACHE_SIZE);
+        String treeCacheDirectory = ps.getString(PROP_TREE_CACHE);
+        treeCache = treeCacheDirectory != null ? new File(treeCacheDirectory) : null;
 
         cacheEnabled = maxArcCacheSize > 0;
         if(cacheEnabled) {
@@ -383,6 +417,36 @@ public class LexTreeLinguist implements Linguist {
     }
 
 
+    /**
+     * Adds the word sequences the language model is asked for when the
+     * successors of the given state are expanded. Only the exit states of
+     * units lead to words, other states add nothing. It allows to query a
+     * {@link edu.cmu.sphinx.linguist.language.ngram.BatchLanguageModel} for
+     * all the tokens of a frame at once.
+     *
+     * @param state the state to be expanded
+     * @param wordSequences collection to add the word sequences to
+     */
+    public void collectWordSequences(SearchState state,
+                                     Collection<WordSequence> wordSequences) {
+        if (!(state instanceof LexTreeHMMState))
+            return;
+        LexTreeHMMState hmmState = (LexTreeHMMState) state;
+        if (!hmmState.getHMMState().isExitState())
+            return;
+        Node node = hmmState.parentNode == null ? hmmState.getNode()
+                : hmmState.parentNode;
+        WordSequence wordSequence = hmmState.getWordHistory();
+        for (Node nextNode : node.getSuccessors()) {
+            if (!(nextNode instanceof WordNode))
+                continue;
+            Word word = ((WordNode) nextNode).getWord();
+            if (!word.isFiller() || word == sentenceEndWord)
+                wordSequences.add(wordSequence.addWord(word, maxDepth));
+        }
+    }
+
+
     public Dictionary getDictionary() {
         return dictionary;
     }
@@ -426,7 +490,7 @@ public class LexTreeLinguist implements Linguist {
     protected void generateHmmTree() {
         hmmPool = new HMMPool(acousticModel, logger, unitManager);
         hmmTree = new HMMTree(hmmPool, dictionary, languageModel,
-                              addFillerWords, languageWeight);
+                              addFillerWords, languageWeight, treeCache);
 
         hmmPool.dumpInfo();
     }
@@ -709,8 +773,12 @@ public class LexTreeLinguist implements Linguist {
             }
 
             WordSequence nextWordSequence = wordSequence.addWord(nextWord, maxDepth);
-            float probability = languageModel.getProbability(nextWordSequence) * languageWeight;
-            smearTerm = getSmearTermFromLanguageModel(nextWordSequence);
+            float probability;
+            // language models cache their probabilities without synchronization
+            synchronized (languageModel) {
+                probability = languageModel.getProbability(nextWordSequence) * languageWeight;
+                smearTerm = getSmearTermFromLanguageModel(nextWordSequence);
+            }
             // System.out.println("LP " + nextWordSequence + " " +
             // logProbability);
             // subtract off the previously applied smear probability
@@ -807,16 +875,18 @@ public class LexTreeLinguist implements Linguist {
          */
         SearchStateArc[] getCachedArcs() {
             if (cacheEnabled) {
-                SearchStateArc[] arcs = arcCache.get(this);
-                if (arcs != null) {
-                    cacheHits++;
-                }
-                if (++cacheTrys % 1000000 == 0) {
-                    System.out.println("Hits: " + cacheHits
-                            + " of " + cacheTrys + ' ' +
-                            ((float) cacheHits) / cacheTrys * 100f);
+                synchronized (arcCache) {
+                    SearchStateArc[] arcs = arcCache.get(this);
+                    if (arcs != null) {
+                        cacheHits++;
+                    }
+                    if (++cacheTrys % 1000000 == 0) {
+                        System.out.println("Hits: " + cacheHits
+                                + " of " + cacheTrys + ' ' +
+                                ((float) cacheHits) / cacheTrys * 100f);
+                    }
+                    return arcs;
                 }
-                return arcs;
             } else {
                 return null;
             }
@@ -830,7 +900,9 @@ public class LexTreeLinguist implements Linguist {
          */
         void putCachedArcs(SearchStateArc[] arcs) {
             if (cacheEnabled) {
-                arcCache.put(this, arcs);
+                synchronized (arcCache) {
+                    arcCache.put(this, arcs);
+                }
             }
         }
 
@@ -0,0 +1,843 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.result;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import edu.cmu.sphinx.util.LogMath;
+
+/**
+ * A lattice kept in primitive arrays. Nodes and edges are numbered from zero; the words and times of the nodes and the
+ * endpoints and scores of the edges are stored in parallel arrays. The leaving and entering edges of every node and a
+ * topological order of the nodes are indexed on demand and kept until the lattice changes.
+ * <p>
+ * The algorithms are the ones of {@link Lattice#computeNodePosteriors(float, boolean)}, {@link Nbest} and {@link
+ * LatticeOptimizer}, but they don't create objects per node, edge or partial path and they accumulate the scores in
+ * double precision. A compact lattice is created from a {@link Lattice} and converted back with {@link #toLattice()}.
+ */
+public class CompactLattice {
+
+    private final LogMath logMath;
+
+    private int numNodes;
+    private String[] ids;
+    private Word[] words;
+    private long[] beginTimes;
+    private long[] endTimes;
+
+    private int numEdges;
+    private int[] edgeFrom;
+    private int[] edgeTo;
+    private double[] acousticScores;
+    private double[] lmScores;
+
+    private int initialNode = -1;
+    private int terminalNode = -1;
+
+    // the edges sorted by their start and by their end node, built on demand
+    private int[] leavingStarts;
+    private int[] leavingEdges;
+    private int[] enteringStarts;
+    private int[] enteringEdges;
+    private int[] sortedNodes;
+
+    // computed by computeNodePosteriors
+    private double[] forwardScores;
+    private double[] backwardScores;
+    private double[] posteriors;
+    private double[] viterbiScores;
+    private int[] bestPredecessors;
+
+
+    /** Creates an empty lattice. */
+    public CompactLattice() {
+        logMath = LogMath.getLogMath();
+        ids = new String[16];
+        words = new Word[16];
+        beginTimes = new long[16];
+        endTimes = new long[16];
+        edgeFrom = new int[16];
+        edgeTo = new int[16];
+        acousticScores = new double[16];
+        lmScores = new double[16];
+    }
+
+
+    /**
+     * Creates a compact copy of a lattice.
+     *
+     * @param lattice the lattice to copy
+     */
+    public CompactLattice(Lattice lattice) {
+        this();
+        Map<Node, Integer> indices = new HashMap<Node, Integer>();
+        for (Node node : lattice.getNodes())
+            indices.put(node, addNode(node.getId(), node.getWord(), node.getBeginTime(), node.getEndTime()));
+        for (Edge edge : lattice.getEdges())
+            addEdge(indices.get(edge.getFromNode()), indices.get(edge.getToNode()), edge.getAcousticScore(),
+                    edge.getLMScore());
+        if (lattice.getInitialNode() != null)
+            initialNode = indices.get(lattice.getInitialNode());
+        if (lattice.getTerminalNode() != null)
+            terminalNode = indices.get(lattice.getTerminalNode());
+    }
+
+
+    /**
+     * Adds a node without an id. The node gets a new unique id when the lattice is converted to a {@link Lattice}.
+     *
+     * @param word      the word of the node
+     * @param beginTime the start time of the word
+     * @param endTime   the end time of the word
+     * @return the index of the node
+     */
+    public int addNode(Word word, long beginTime, long endTime) {
+        return addNode(null, word, beginTime, endTime);
+    }
+
+
+    /**
+     * Adds a node.
+     *
+     * @param id        the id of the node, kept for the conversion to a {@link Lattice}
+     * @param word      the word of the node
+     * @param beginTime the start time of the word
+     * @param endTime   the end time of the word
+     * @return the index of the node
+     */
+    public int addNode(String id, Word word, long beginTime, long endTime) {
+        if (numNodes == ids.length) {
+            int capacity = numNodes * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            words = Arrays.copyOf(words, capacity);
+            beginTimes = Arrays.copyOf(beginTimes, capacity);
+            endTimes = Arrays.copyOf(endTimes, capacity);
+        }
+        ids[numNodes] = id;
+        words[numNodes] = word;
+        beginTimes[numNodes] = beginTime;
+        endTimes[numNodes] = endTime;
+        invalidate();
+        return numNodes++;
+    }
+
+
+    /**
+     * Adds an edge.
+     *
+     * @param fromNode      the index of the node the edge leaves
+     * @param toNode        the index of the node the edge enters
+     * @param acousticScore the acoustic score of the edge
+     * @param lmScore       the language model score of the edge
+     * @return the index of the edge
+     */
+    public int addEdge(int fromNode, int toNode, double acousticScore, double lmScore) {
+        if (fromNode < 0 || fromNode >= numNodes || toNode < 0 || toNode >= numNodes)
+            throw new IndexOutOfBoundsException("No node " + (fromNode < 0 || fromNode >= numNodes ? fromNode : toNode));
+        if (numEdges == edgeFrom.length) {
+            int capacity = numEdges * 2;
+            edgeFrom = Arrays.copyOf(edgeFrom, capacity);
+            edgeTo = Arrays.copyOf(edgeTo, capacity);
+            acousticScores = Arrays.copyOf(acousticScores, capacity);
+            lmScores = Arrays.copyOf(lmScores, capacity);
+        }
+        edgeFrom[numEdges] = fromNode;
+        edgeTo[numEdges] = toNode;
+        acousticScores[numEdges] = acousticScore;
+        lmScores[numEdges] = lmScore;
+        invalidate();
+        return numEdges++;
+    }
+
+
+    /** Drops the index and the scores computed for the previous state of the lattice. */
+    private void invalidate() {
+        leavingStarts = null;
+        leavingEdges = null;
+        enteringStarts = null;
+        enteringEdges = null;
+        sortedNodes = null;
+        forwardScores = null;
+        backwardScores = null;
+        posteriors = null;
+        viterbiScores = null;
+        bestPredecessors = null;
+    }
+
+
+    /** @return the number of nodes */
+    public int getNumNodes() {
+        return numNodes;
+    }
+
+
+    /** @return the number of edges */
+    public int getNumEdges() {
+        return numEdges;
+    }
+
+
+    /**
+     * @param node the index of a node
+     * @return the id of the node, or null if it has none
+     */
+    public String getNodeId(int node) {
+        return ids[node];
+    }
+
+
+    /**
+     * @param node the index of a node
+     * @return the word of the node
+     */
+    public Word getWord(int node) {
+        return words[node];
+    }
+
+
+    /**
+     * @param node the index of a node
+     * @return the begin time of the node
+     */
+    public long getBeginTime(int node) {
+        return beginTimes[node];
+    }
+
+
+    /**
+     * @param node the index of a node
+     * @return the end time of the node
+     */
+    public long getEndTime(int node) {
+        return endTimes[node];
+    }
+
+
+    /**
+     * @param edge the index of an edge
+     * @return the index of the node the edge leaves
+     */
+    public int getFromNode(int edge) {
+        return edgeFrom[edge];
+    }
+
+
+    /**
+     * @param edge the index of an edge
+     * @return the index of the node the edge enters
+     */
+    public int getToNode(int edge) {
+        return edgeTo[edge];
+    }
+
+
+    /**
+     * @param edge the index of an edge
+     * @return the acoustic score of the edge
+     */
+    public double getAcousticScore(int edge) {
+        return acousticScores[edge];
+    }
+
+
+    /**
+     * @param edge the index of an edge
+     * @return the language model score of the edge
+     */
+    public double getLMScore(int edge) {
+        return lmScores[edge];
+    }
+
+
+    /** @return the index of the initial node, or -1 if it is not set */
+    public int getInitialNode() {
+        return initialNode;
+    }
+
+
+    /** @param node the index of the initial node */
+    public void setInitialNode(int node) {
+        initialNode = node;
+        invalidate();
+    }
+
+
+    /** @return the index of the terminal node, or -1 if it is not set */
+    public int getTerminalNode() {
+        return terminalNode;
+    }
+
+
+    /** @param node the index of the terminal node */
+    public void setTerminalNode(int node) {
+        terminalNode = node;
+        invalidate();
+    }
+
+
+    /**
+     * Returns the edges leaving a node.
+     *
+     * @param node the index of a node
+     * @return the indices of the edges
+     */
+    public int[] getLeavingEdges(int node) {
+        index();
+        return Arrays.copyOfRange(leavingEdges, leavingStarts[node], leavingStarts[node + 1]);
+    }
+
+
+    /**
+     * Returns the edges entering a node.
+     *
+     * @param node the index of a node
+     * @return the indices of the edges
+     */
+    public int[] getEnteringEdges(int node) {
+        index();
+        return Arrays.copyOfRange(enteringEdges, enteringStarts[node], enteringStarts[node + 1]);
+    }
+
+
+    /** Sorts the edges by their start and their end node, keeping the order in which they were added. */
+    private void index() {
+        if (leavingStarts != null)
+            return;
+        leavingStarts = new int[numNodes + 1];
+        leavingEdges = new int[numEdges];
+        sortEdges(edgeFrom, leavingStarts, leavingEdges);
+        enteringStarts = new int[numNodes + 1];
+        enteringEdges = new int[numEdges];
+        sortEdges(edgeTo, enteringStarts, enteringEdges);
+    }
+
+
+    private void sortEdges(int[] nodes, int[] starts, int[] sorted) {
+        for (int edge = 0; edge < numEdges; edge++)
+            starts[nodes[edge] + 1]++;
+        for (int node = 0; node < numNodes; node++)
+            starts[node + 1] += starts[node];
+        int[] next = Arrays.copyOf(starts, numNodes);
+        for (int edge = 0; edge < numEdges; edge++)
+            sorted[next[nodes[edge]]++] = edge;
+    }
+
+
+    /**
+     * Returns the nodes in topological order, starting with the initial node. The order is computed once and kept until
+     * the lattice changes; the returned array must not be modified.
+     *
+     * @return the indices of all nodes, each node after its predecessors
+     */
+    public int[] sortNodes() {
+        if (sortedNodes != null)
+            return sortedNodes;
+        index();
+        int[] inDegrees = new int[numNodes];
+        for (int edge = 0; edge < numEdges; edge++)
+            inDegrees[edgeTo[edge]]++;
+        int[] order = new int[numNodes];
+        int size = 0;
+        if (initialNode >= 0 && inDegrees[initialNode] == 0)
+            order[size++] = initialNode;
+        for (int node = 0; node < numNodes; node++)
+            if (inDegrees[node] == 0 && node != initialNode)
+                order[size++] = node;
+        for (int i = 0; i < size; i++) {
+            int node = order[i];
+            for (int j = leavingStarts[node]; j < leavingStarts[node + 1]; j++) {
+                int to = edgeTo[leavingEdges[j]];
+                if (--inDegrees[to] == 0)
+                    order[size++] = to;
+            }
+        }
+        if (size < numNodes)
+            throw new Error("Lattice has a cycle");
+        sortedNodes = order;
+        return sortedNodes;
+    }
+
+
+    /**
+     * Computes the forward, backward, Viterbi and posterior scores of all nodes. The posterior of a node is the
+     * probability of all paths through the node divided by the probability of all paths of the lattice.
+     *
+     * @param languageModelWeightAdjustment the weight multiplier that will be applied to language score already scaled
+     *                                      by language weight
+     */
+    public void computeNodePosteriors(float languageModelWeightAdjustment) {
+        computeNodePosteriors(languageModelWeightAdjustment, false);
+    }
+
+
+    /**
+     * Computes the forward, backward, Viterbi and posterior scores of all nodes, like {@link
+     * Lattice#computeNodePosteriors(float, boolean)}.
+     *
+     * @param languageModelWeightAdjustment the weight multiplier that will be applied to language score already scaled
+     *                                      by language weight
+     * @param useAcousticScoresOnly         use only the acoustic scores to compute the posteriors, ignoring the
+     *                                      language weight and scores
+     */
+    public void computeNodePosteriors(float languageModelWeightAdjustment, boolean useAcousticScoresOnly) {
+        if (initialNode < 0)
+            return;
+        int[] order = sortNodes();
+        double[] edgeScores = new double[numEdges];
+        for (int edge = 0; edge < numEdges; edge++)
+            edgeScores[edge] = useAcousticScoresOnly ? acousticScores[edge]
+                    : acousticScores[edge] + lmScores[edge] * languageModelWeightAdjustment;
+
+        // forward
+        double[] forward = new double[numNodes];
+        double[] viterbi = new double[numNodes];
+        int[] best = new int[numNodes];
+        Arrays.fill(forward, LogMath.LOG_ZERO);
+        Arrays.fill(viterbi, LogMath.LOG_ZERO);
+        Arrays.fill(best, -1);
+        forward[initialNode] = LogMath.LOG_ONE;
+        viterbi[initialNode] = LogMath.LOG_ONE;
+        for (int node : order) {
+            for (int i = leavingStarts[node]; i < leavingStarts[node + 1]; i++) {
+                int edge = leavingEdges[i];
+                int to = edgeTo[edge];
+                forward[to] = logMath.addAsLinear(forward[node] + edgeScores[edge], forward[to]);
+                double score = viterbi[node] + edgeScores[edge];
+                if (best[to] < 0 || score > viterbi[to]) {
+                    best[to] = node;
+                    viterbi[to] = score;
+                }
+            }
+        }
+
+        // backward
+        double[] backward = new double[numNodes];
+        Arrays.fill(backward, LogMath.LOG_ZERO);
+        if (terminalNode >= 0)
+            backward[terminalNode] = LogMath.LOG_ONE;
+        for (int i = order.length - 1; i >= 0; i--) {
+            int node = order[i];
+            if (node == terminalNode)
+                continue;
+            double score = backward[node];
+            for (int j = leavingStarts[node]; j < leavingStarts[node + 1]; j++) {
+                int edge = leavingEdges[j];
+                score = logMath.addAsLinear(backward[edgeTo[edge]] + edgeScores[edge], score);
+            }
+            backward[node] = score;
+        }
+
+        // inner
+        double normalizationFactor = terminalNode >= 0 ? forward[terminalNode] : LogMath.LOG_ZERO;
+        double[] posterior = new double[numNodes];
+        for (int node = 0; node < numNodes; node++)
+            posterior[node] = forward[node] + backward[node] - normalizationFactor;
+
+        forwardScores = forward;
+        backwardScores = backward;
+        viterbiScores = viterbi;
+        bestPredecessors = best;
+        posteriors = posterior;
+    }
+
+
+    /**
+     * @param node the index of a node
+     * @return the forward score of the node, computed by {@link #computeNodePosteriors(float, boolean)}
+     */
+    public double getForwardScore(int node) {
+        return forwardScores[node];
+    }
+
+
+    /**
+     * @param node the index of a node
+     * @return the backward score of the node, computed by {@link #computeNodePosteriors(float, boolean)}
+     */
+    public double getBackwardScore(int node) {
+        return backwardScores[node];
+    }
+
+
+    /**
+     * @param node the index of a node
+     * @return the posterior of the node, computed by {@link #computeNodePosteriors(float, boolean)}
+     */
+    public double getPosterior(int node) {
+        return posteriors[node];
+    }
+
+
+    /**
+     * @param node the index of a node
+     * @return the score of the best path to the node, computed by {@link #computeNodePosteriors(float, boolean)}
+     */
+    public double getViterbiScore(int node) {
+        return viterbiScores[node];
+    }
+
+
+    /**
+     * @param node the index of a node
+     * @return the predecessor of the node on the best path, or -1 if there is none
+     */
+    public int getBestPredecessor(int node) {
+        return bestPredecessors[node];
+    }
+
+
+    /**
+     * Retrieves the MAP path from this lattice. Only works once computeNodePosteriors has been called.
+     *
+     * @return the indices of the nodes from the initial to the terminal node
+     */
+    public int[] getViterbiPath() {
+        int length = 1;
+        for (int node = terminalNode; node != initialNode; node = bestPredecessors[node]) {
+            if (node < 0)
+                throw new Error("Terminal node is not reachable");
+            length++;
+        }
+        int[] path = new int[length];
+        for (int node = terminalNode; length > 0; node = bestPredecessors[node])
+            path[--length] = node;
+        return path;
+    }
+
+
+    /**
+     * Finds the best paths through the lattice with A*, like {@link Nbest}. The partial paths are kept as back
+     * pointers in arrays; the word strings are only created for the paths that reach the terminal node. Needs the
+     * backward scores computed by {@link #computeNodePosteriors(float, boolean)}.
+     *
+     * @param n the number of paths to return
+     * @return the distinct word strings of up to n best paths
+     */
+    public Collection<String> getNbest(int n) {
+        Collection<String> result = new HashSet<String>();
+        if (initialNode < 0 || n <= 0)
+            return result;
+        index();
+
+        // partial paths: last node, previous path and forward score
+        int[] pathNodes = new int[64];
+        int[] pathParents = new int[64];
+        double[] pathScores = new double[64];
+        double[] pathForwardScores = new double[64];
+        int numPaths = 0;
+        // the slots of paths dropped from the queue before being expanded
+        int[] free = new int[n + 1];
+        int numFree = 0;
+
+        // up to n paths, sorted by ascending score
+        int[] queue = new int[n + 1];
+        int queueSize = 0;
+
+        pathNodes[0] = initialNode;
+        pathParents[0] = -1;
+        queue[queueSize++] = numPaths++;
+
+        while (result.size() < n && queueSize > 0) {
+            int path = queue[--queueSize];
+            int node = pathNodes[path];
+            if (node == terminalNode) {
+                result.add(getPathString(path, pathNodes, pathParents));
+                continue;
+            }
+            for (int i = leavingStarts[node]; i < leavingStarts[node + 1]; i++) {
+                int edge = leavingEdges[i];
+                int to = edgeTo[edge];
+                double forward = pathForwardScores[path] + acousticScores[edge] + lmScores[edge];
+                double score = forward + backwardScores[to];
+                if (queueSize == n && score <= pathScores[queue[0]])
+                    continue;
+
+                int newPath;
+                if (numFree > 0) {
+                    newPath = free[--numFree];
+                } else {
+                    if (numPaths == pathNodes.length) {
+                        int capacity = numPaths * 2;
+                        pathNodes = Arrays.copyOf(pathNodes, capacity);
+                        pathParents = Arrays.copyOf(pathParents, capacity);
+                        pathScores = Arrays.copyOf(pathScores, capacity);
+                        pathForwardScores = Arrays.copyOf(pathForwardScores, capacity);
+                    }
+                    newPath = numPaths++;
+                }
+                pathNodes[newPath] = to;
+                pathParents[newPath] = path;
+                pathScores[newPath] = score;
+                pathForwardScores[newPath] = forward;
+
+                int position = queueSize;
+                while (position > 0 && pathScores[queue[position - 1]] > score)
+                    position--;
+                System.arraycopy(queue, position, queue, position + 1, queueSize - position);
+                queue[position] = newPath;
+                if (++queueSize > n) {
+                    free[numFree++] = queue[0];
+                    System.arraycopy(queue, 1, queue, 0, --queueSize);
+                }
+            }
+        }
+        return result;
+    }
+
+
+    /** Builds the words of a path the way {@link Nbest} does, skipping fillers. */
+    private String getPathString(int path, int[] pathNodes, int[] pathParents) {
+        int length = 0;
+        for (int p = path; pathParents[p] >= 0; p = pathParents[p])
+            length++;
+        int[] nodes = new int[length];
+        for (int p = path; pathParents[p] >= 0; p = pathParents[p])
+            nodes[--length] = pathNodes[p];
+        StringBuilder string = new StringBuilder("<s>");
+        for (int node : nodes) {
+            Word word = words[node];
+            if (word.isSentenceEndWord())
+                string.append(" </s>");
+            else if (!word.isFiller())
+                string.append(' ').append(word);
+        }
+        return string.toString();
+    }
+
+
+    /**
+     * Merges equivalent nodes, like {@link LatticeOptimizer#optimize()}. A forward pass merges nodes with the same
+     * word and times that are entered from the same set of nodes, a backward pass merges such nodes that are left to
+     * the same set of nodes. Each pass visits the nodes once, in topological order, and merges a node into the first
+     * equivalent node found; the edges of merged nodes are merged as well, keeping the maximum of the scores.
+     */
+    public void optimize() {
+        mergeNodes(true);
+        mergeNodes(false);
+    }
+
+
+    private void mergeNodes(boolean forward) {
+        int[] order = sortNodes();
+        // for the forward pass the nodes are identified by their predecessors, for the backward pass by their
+        // successors, so the roles of the edge ends are swapped
+        int[] source = forward ? edgeFrom : edgeTo;
+        int[] target = forward ? edgeTo : edgeFrom;
+
+        // the edges of each node as linked lists that can be changed while merging
+        int[] firstIn = new int[numNodes];
+        int[] firstOut = new int[numNodes];
+        int[] nextIn = new int[numEdges];
+        int[] nextOut = new int[numEdges];
+        Arrays.fill(firstIn, -1);
+        Arrays.fill(firstOut, -1);
+        Map<Long, Integer> edgeMap = new HashMap<Long, Integer>();
+        for (int edge = numEdges - 1; edge >= 0; edge--) {
+            nextIn[edge] = firstIn[target[edge]];
+            firstIn[target[edge]] = edge;
+            nextOut[edge] = firstOut[source[edge]];
+            firstOut[source[edge]] = edge;
+            edgeMap.put(edgeKey(source[edge], target[edge]), edge);
+        }
+
+        boolean[] removedNodes = new boolean[numNodes];
+        boolean[] removedEdges = new boolean[numEdges];
+        Map<NodeKey, Integer> representatives = new HashMap<NodeKey, Integer>();
+        int[] sources = new int[8];
+        boolean merged = false;
+
+        for (int i = 0; i < numNodes; i++) {
+            int node = order[forward ? i : numNodes - 1 - i];
+            int count = 0;
+            for (int edge = firstIn[node]; edge >= 0; edge = nextIn[edge]) {
+                if (removedEdges[edge])
+                    continue;
+                if (count == sources.length)
+                    sources = Arrays.copyOf(sources, count * 2);
+                sources[count++] = source[edge];
+            }
+            if (count == 0)
+                continue;
+            Arrays.sort(sources, 0, count);
+            int unique = 1;
+            for (int j = 1; j < count; j++)
+                if (sources[j] != sources[unique - 1])
+                    sources[unique++] = sources[j];
+            NodeKey key = new NodeKey(words[node], beginTimes[node], endTimes[node], sources, unique);
+            Integer representative = representatives.get(key);
+            if (representative == null) {
+                representatives.put(key, node);
+                continue;
+            }
+
+            int into = representative;
+            for (int edge = firstIn[node]; edge >= 0; edge = nextIn[edge]) {
+                if (removedEdges[edge])
+                    continue;
+                Integer existing = edgeMap.get(edgeKey(source[edge], into));
+                mergeEdge(existing, edge);
+                removedEdges[edge] = true;
+            }
+            for (int edge = firstOut[node], next; edge >= 0; edge = next) {
+                next = nextOut[edge];
+                if (removedEdges[edge])
+                    continue;
+                Integer existing = edgeMap.get(edgeKey(into, target[edge]));
+                if (existing != null) {
+                    mergeEdge(existing, edge);
+                    removedEdges[edge] = true;
+                } else {
+                    // move the edge to the node it is merged into
+                    edgeMap.remove(edgeKey(node, target[edge]));
+                    source[edge] = into;
+                    edgeMap.put(edgeKey(into, target[edge]), edge);
+                    nextOut[edge] = firstOut[into];
+                    firstOut[into] = edge;
+                }
+            }
+            removedNodes[node] = true;
+            if (node == initialNode)
+                initialNode = into;
+            if (node == terminalNode)
+                terminalNode = into;
+            merged = true;
+        }
+
+        if (merged)
+            compact(removedNodes, removedEdges);
+    }
+
+
+    private long edgeKey(int from, int to) {
+        return (long) from * numNodes + to;
+    }
+
+
+    /** Keeps the maximum of the scores of two merged edges in the first one. */
+    private void mergeEdge(int into, int edge) {
+        acousticScores[into] = Math.max(acousticScores[into], acousticScores[edge]);
+        lmScores[into] = Math.max(lmScores[into], lmScores[edge]);
+    }
+
+
+    /** Removes merged nodes and edges from the arrays. */
+    private void compact(boolean[] removedNodes, boolean[] removedEdges) {
+        int[] newIndices = new int[numNodes];
+        int size = 0;
+        for (int node = 0; node < numNodes; node++) {
+            if (removedNodes[node])
+                continue;
+            newIndices[node] = size;
+            ids[size] = ids[node];
+            words[size] = words[node];
+            beginTimes[size] = beginTimes[node];
+            endTimes[size] = endTimes[node];
+            size++;
+        }
+        Arrays.fill(ids, size, numNodes, null);
+        Arrays.fill(words, size, numNodes, null);
+        numNodes = size;
+
+        size = 0;
+        for (int edge = 0; edge < numEdges; edge++) {
+            if (removedEdges[edge])
+                continue;
+            edgeFrom[size] = newIndices[edgeFrom[edge]];
+            edgeTo[size] = newIndices[edgeTo[edge]];
+            acousticScores[size] = acousticScores[edge];
+            lmScores[size] = lmScores[edge];
+            size++;
+        }
+        numEdges = size;
+
+        if (initialNode >= 0)
+            initialNode = newIndices[initialNode];
+        if (terminalNode >= 0)
+            terminalNode = newIndices[terminalNode];
+        invalidate();
+    }
+
+
+    /**
+     * Creates a {@link Lattice} with the nodes and edges of this lattice. The scores computed by {@link
+     * #computeNodePosteriors(float, boolean)} are copied to the nodes.
+     *
+     * @return the new lattice
+     */
+    public Lattice toLattice() {
+        Lattice lattice = new Lattice();
+        Node[] nodes = new Node[numNodes];
+        for (int node = 0; node < numNodes; node++) {
+            nodes[node] = ids[node] != null ? new Node(ids[node], words[node], beginTimes[node], endTimes[node])
+                    : new Node(words[node], beginTimes[node], endTimes[node]);
+            lattice.addNode(nodes[node]);
+        }
+        for (int edge = 0; edge < numEdges; edge++)
+            lattice.addEdge(nodes[edgeFrom[edge]], nodes[edgeTo[edge]], acousticScores[edge], lmScores[edge]);
+        if (initialNode >= 0)
+            lattice.setInitialNode(nodes[initialNode]);
+        if (terminalNode >= 0)
+            lattice.setTerminalNode(nodes[terminalNode]);
+        if (posteriors != null) {
+            for (int node = 0; node < numNodes; node++) {
+                nodes[node].setForwardScore(forwardScores[node]);
+                nodes[node].setBackwardScore(backwardScores[node]);
+                nodes[node].setPosterior(posteriors[node]);
+                nodes[node].setViterbiScore(viterbiScores[node]);
+                if (bestPredecessors[node] >= 0)
+                    nodes[node].setBestPredecessor(nodes[bestPredecessors[node]]);
+            }
+        }
+        return lattice;
+    }
+
+
+    /** The label and the neighbours that make two nodes equivalent. */
+    private static class NodeKey {
+
+        private final Word word;
+        private final long beginTime;
+        private final long endTime;
+        private final int[] neighbours;
+        private final int hashCode;
+
+
+        NodeKey(Word word, long beginTime, long endTime, int[] neighbours, int count) {
+            this.word = word;
+            this.beginTime = beginTime;
+            this.endTime = endTime;
+            this.neighbours = Arrays.copyOf(neighbours, count);
+            this.hashCode = ((word.hashCode() * 31 + (int) beginTime) * 31 + (int) endTime) * 31
+                    + Arrays.hashCode(this.neighbours);
+        }
+
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof NodeKey))
+                return false;
+            NodeKey other = (NodeKey) object;
+            return word.equals(other.word) && beginTime == other.beginTime && endTime == other.endTime
+                    && Arrays.equals(neighbours, other.neighbours);
+        }
+    }
+}
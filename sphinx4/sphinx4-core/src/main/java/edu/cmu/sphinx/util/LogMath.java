@@ -161,6 +161,28 @@ public final class LogMath {
         return logHighestValue + addTable(logDifference);
     }
 
+    /**
+     * Returns the summation of two numbers in the log domain, like {@link #addAsLinear(float, float)}, but keeps the
+     * arguments and the result in double precision. Long sums, like the forward and backward scores of a large
+     * lattice, don't accumulate float rounding errors this way.
+     *
+     * @param logVal1 value in log domain (i.e. log(val1)) to add
+     * @param logVal2 value in log domain (i.e. log(val2)) to add
+     * @return sum of val1 and val2 in the log domain
+     */
+    public final double addAsLinear(double logVal1, double logVal2) {
+        double logHighestValue = logVal1;
+        double logDifference = logVal1 - logVal2;
+        if (logDifference < 0) {
+            logHighestValue = logVal2;
+            logDifference = -logDifference;
+        }
+        // the difference of two values near LOG_ZERO may not fit into a float
+        if (logDifference > Float.MAX_VALUE)
+            return logHighestValue;
+        return logHighestValue + addTable((float) logDifference);
+    }
+
     /**
      * Method used by add() internally. It returns the difference between the highest number and the total summation of
      * two numbers. <p> Considering the expression (in which we assume natural log) <p>  <b>log(a + b) = log(a) +
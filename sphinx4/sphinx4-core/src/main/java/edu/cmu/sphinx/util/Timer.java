@@ -13,14 +13,22 @@
 package edu.cmu.sphinx.util;
 
 import java.text.DecimalFormat;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import edu.cmu.sphinx.util.metrics.Histogram;
+import edu.cmu.sphinx.util.metrics.MetricRegistry;
+
 /**
  * Keeps track of execution times. This class provides methods that can be used for timing processes. The process to be
  * timed should be bracketed by calls to timer.start() and timer.stop().  Repeated operations can be timed more than
  * once. The timer will report the minimum, maximum, average and last time executed for all start/stop pairs when the
  * timer.dump is called.
  * <p>
+ * Times are measured with {@link System#nanoTime()}. Every measured time is also recorded, in nanoseconds, in the
+ * histogram {@code timer.<name>} of the {@link MetricRegistry}, which aggregates all timers with the same name. A
+ * timer itself must only be started and stopped by one thread at a time.
+ * <p>
  * Timer instances can be obtained from a global cache implemented in {@code TimerPool}.
  *
  * @see TimerPool
@@ -30,9 +38,11 @@ public class Timer {
     private final static DecimalFormat timeFormatter = new DecimalFormat("###0.0000");
 
     private final String name;
+    private final Histogram histogram;
 
     private double sum;
     private long count;
+    private boolean started;
     private long startTime;
     private long curTime;
     private long minTime = Long.MAX_VALUE;
@@ -48,6 +58,7 @@ public class Timer {
     Timer(String name) {
         assert name != null : "timers must have a name!";
         this.name = name;
+        this.histogram = MetricRegistry.getRegistry().getHistogram("timer." + name);
         reset();
     }
 
@@ -64,6 +75,7 @@ public class Timer {
 
     /** Resets the timer as if it has never run before. */
     public void reset() {
+        started = false;
         startTime = 0L;
         count = 0L;
         sum = 0L;
@@ -79,37 +91,40 @@ public class Timer {
      * @return true if the timer has started; false otherwise
      */
     public boolean isStarted() {
-        return (startTime > 0L);
+        return started;
     }
 
 
     /** Starts the timer running. */
     public void start() {
-        if (startTime != 0L) {
+        if (started) {
             notReliable = true; // start called while timer already running
             System.out.println
                     (getName() + " timer.start() called without a stop()");
         }
-        startTime = System.currentTimeMillis();
+        started = true;
+        startTime = System.nanoTime();
     }
 
 
     /**
      * Starts the timer at the given time.
      *
-     * @param time the starting time
+     * @param time the starting time, in milliseconds since the epoch
      */
     public void start(long time) {
-        if (startTime != 0L) {
+        if (started) {
             notReliable = true; // start called while timer already running
             System.out.println
                     (getName() + " timer.start() called without a stop()");
         }
-        if (time > System.currentTimeMillis()) {
+        long elapsed = System.currentTimeMillis() - time;
+        if (elapsed < 0) {
             throw new IllegalStateException
                     ("Start time is later than current time");
         }
-        startTime = time;
+        started = true;
+        startTime = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(elapsed);
     }
 
 
@@ -119,13 +134,15 @@ public class Timer {
      * @return the duration since start in milliseconds
      */
     public long stop() {
-        if (startTime == 0L) {
+        long now = System.nanoTime();
+        if (!started) {
             notReliable = true;        // stop called, but start never called
             System.out.println
                     (getName() + " timer.stop() called without a start()");
+            startTime = now;
         }
-        curTime = System.currentTimeMillis() - startTime;
-        startTime = 0L;
+        started = false;
+        curTime = now - startTime;
         if (curTime > maxTime) {
             maxTime = curTime;
         }
@@ -134,7 +151,8 @@ public class Timer {
         }
         count++;
         sum += curTime;
-        return curTime;
+        histogram.record(curTime);
+        return TimeUnit.NANOSECONDS.toMillis(curTime);
     }
 
 
@@ -163,7 +181,7 @@ public class Timer {
      * @return the time in milliseconds
      */
     public long getCurTime() {
-        return curTime;
+        return TimeUnit.NANOSECONDS.toMillis(curTime);
     }
 
 
@@ -176,7 +194,7 @@ public class Timer {
         if (count == 0) {
             return 0.0;
         }
-        return sum / count;
+        return sum / count / 1e6;
     }
 
 
@@ -186,7 +204,7 @@ public class Timer {
      * @return the min time
      */
     public long getMinTime() {
-        return minTime;
+        return minTime == Long.MAX_VALUE ? minTime : TimeUnit.NANOSECONDS.toMillis(minTime);
     }
 
 
@@ -196,18 +214,18 @@ public class Timer {
      * @return the max time in milliseconds
      */
     public long getMaxTime() {
-        return maxTime;
+        return TimeUnit.NANOSECONDS.toMillis(maxTime);
     }
 
 
     /**
      * Formats times into a standard format.
      *
-     * @param time the time (in milliseconds) to be formatted
+     * @param time the time (in nanoseconds) to be formatted
      * @return a string representation of the time.
      */
     private String fmtTime(long time) {
-        return fmtTime(time / 1000.0);
+        return fmtTime(time / 1e9);
     }
 
 
@@ -232,7 +250,7 @@ public class Timer {
         }
 
         if (count > 0) {
-            avgTime = sum / count / 1000.0;
+            avgTime = sum / count / 1e9;
         }
 
         if (notReliable) {
@@ -244,8 +262,7 @@ public class Timer {
                     + fmtTime(minTime)
                     + fmtTime(maxTime)
                     + fmtTime(avgTime)
-                    + fmtTime(sum / 1000.0));
+                    + fmtTime(sum / 1e9));
         }
     }
 }
-
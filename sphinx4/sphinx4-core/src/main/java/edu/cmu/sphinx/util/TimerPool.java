@@ -8,6 +8,8 @@ import java.util.logging.Logger;
 
 /**
  * Keeps references to a list of timers which can be referenced by a key-pair consisting of an owner and a timer name.
+ * Components should look their timers up once and keep them, since the lookup is synchronized; the measured times
+ * are also aggregated by name in the {@link edu.cmu.sphinx.util.metrics.MetricRegistry}.
  *
  * @author Holger Brandl
  */
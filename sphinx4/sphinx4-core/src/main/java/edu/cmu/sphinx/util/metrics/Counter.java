@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A counter that can be incremented from several threads without locking.
+ *
+ * @see MetricRegistry#getCounter(String)
+ */
+public class Counter {
+
+    private final AtomicLong value = new AtomicLong();
+
+
+    /** Increments the counter by one. */
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+
+    /**
+     * Adds to the counter.
+     *
+     * @param delta the amount to add
+     */
+    public void add(long delta) {
+        value.addAndGet(delta);
+    }
+
+
+    /** @return the current value of the counter */
+    public long getValue() {
+        return value.get();
+    }
+
+
+    /** Sets the counter to zero. */
+    public void reset() {
+        value.set(0);
+    }
+}
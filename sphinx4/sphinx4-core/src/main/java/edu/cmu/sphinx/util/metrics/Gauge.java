@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The last value of a measurement, like the memory in use or the speed of the last utterance. The value can be set
+ * and read from several threads without locking.
+ *
+ * @see MetricRegistry#getGauge(String)
+ */
+public class Gauge {
+
+    private final AtomicLong bits = new AtomicLong(Double.doubleToLongBits(0.0));
+
+
+    /**
+     * Sets the value of the gauge.
+     *
+     * @param value the new value
+     */
+    public void setValue(double value) {
+        bits.set(Double.doubleToLongBits(value));
+    }
+
+
+    /** @return the last value set */
+    public double getValue() {
+        return Double.longBitsToDouble(bits.get());
+    }
+}
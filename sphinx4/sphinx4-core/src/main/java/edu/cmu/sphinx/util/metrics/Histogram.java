@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The distribution of recorded values, like the time to score a frame in nanoseconds. Values are counted in buckets of
+ * logarithmic size: values below 32 have their own bucket, larger values share one of 32 buckets per power of two, so
+ * percentiles are reported with a relative error below 3% over the whole range of long. Recording a value only
+ * increments atomic counters, so several threads can record without locking.
+ *
+ * @see MetricRegistry#getHistogram(String)
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+
+    /**
+     * Records a value. Negative values are counted as zero.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(getBucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+        }
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+        }
+    }
+
+
+    static int getBucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int block = exponent - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (value >>> (block - 1)) - SUB_BUCKETS;
+        return block * SUB_BUCKETS + subBucket;
+    }
+
+
+    /** @return the largest value counted in the bucket */
+    static long getBucketLimit(int bucket) {
+        int block = bucket / SUB_BUCKETS;
+        if (block == 0)
+            return bucket;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (block - 1);
+        return lowest + (1L << (block - 1)) - 1;
+    }
+
+
+    /** @return the number of recorded values */
+    public long getCount() {
+        return count.get();
+    }
+
+
+    /** @return the sum of the recorded values */
+    public long getSum() {
+        return sum.get();
+    }
+
+
+    /** @return the mean of the recorded values, or 0 if there are none */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0.0 : (double) sum.get() / n;
+    }
+
+
+    /** @return the smallest recorded value, or 0 if there are none */
+    public long getMin() {
+        long value = min.get();
+        return value == Long.MAX_VALUE ? 0 : value;
+    }
+
+
+    /** @return the largest recorded value, or 0 if there are none */
+    public long getMax() {
+        long value = max.get();
+        return value == Long.MIN_VALUE ? 0 : value;
+    }
+
+
+    /**
+     * Returns an upper bound of the given percentile of the recorded values.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the value below or at which the given percentage of the values lies, or 0 if there are none
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length(); bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank)
+                return Math.min(getBucketLimit(bucket), getMax());
+        }
+        return getMax();
+    }
+
+
+    /** Forgets all recorded values. */
+    public void reset() {
+        for (int bucket = 0; bucket < counts.length(); bucket++)
+            counts.set(bucket, 0);
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+}
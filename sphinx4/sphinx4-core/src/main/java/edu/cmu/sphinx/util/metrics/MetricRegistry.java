@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.util.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Keeps named counters, gauges and histograms. Components look their metrics up once and update them while decoding
+ * without any locking; monitoring code pulls the current values with {@link #getSnapshot()} or through JMX after
+ * {@link #registerMBean(ObjectName)}.
+ * <p>
+ * Metric names are dotted, starting with the part of the recognizer that records them, like {@code timer.Score},
+ * {@code search.activeTokens} or {@code lm.cacheHits}. Metrics with the same name are shared, so the values of all
+ * components of one kind are aggregated.
+ */
+public class MetricRegistry {
+
+    /** The name under which {@link #registerMBean()} registers the default registry */
+    public final static String DEFAULT_OBJECT_NAME = "edu.cmu.sphinx:type=Metrics";
+
+    /** The percentiles that a snapshot reports for every histogram */
+    private final static int[] PERCENTILES = {50, 90, 99};
+
+    private final static MetricRegistry registry = new MetricRegistry();
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+
+    /** @return the registry shared by all components */
+    public static MetricRegistry getRegistry() {
+        return registry;
+    }
+
+
+    /**
+     * Retrieves (or creates) a counter.
+     *
+     * @param name the name of the counter
+     * @return the counter
+     */
+    public Counter getCounter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter();
+            Counter existing = counters.putIfAbsent(name, counter);
+            if (existing != null)
+                counter = existing;
+        }
+        return counter;
+    }
+
+
+    /**
+     * Retrieves (or creates) a gauge.
+     *
+     * @param name the name of the gauge
+     * @return the gauge
+     */
+    public Gauge getGauge(String name) {
+        Gauge gauge = gauges.get(name);
+        if (gauge == null) {
+            gauge = new Gauge();
+            Gauge existing = gauges.putIfAbsent(name, gauge);
+            if (existing != null)
+                gauge = existing;
+        }
+        return gauge;
+    }
+
+
+    /**
+     * Retrieves (or creates) a histogram.
+     *
+     * @param name the name of the histogram
+     * @return the histogram
+     */
+    public Histogram getHistogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            Histogram existing = histograms.putIfAbsent(name, histogram);
+            if (existing != null)
+                histogram = existing;
+        }
+        return histogram;
+    }
+
+
+    /**
+     * Returns the current values of all metrics, sorted by name. Counters and gauges are reported under their names;
+     * every histogram is reported as its count, mean, min, max and percentiles, with the names suffixed by {@code
+     * .count}, {@code .mean}, {@code .min}, {@code .max}, {@code .p50}, {@code .p90} and {@code .p99}.
+     *
+     * @return the values of all metrics
+     */
+    public SortedMap<String, Double> getSnapshot() {
+        SortedMap<String, Double> snapshot = new TreeMap<String, Double>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet())
+            snapshot.put(entry.getKey(), (double) entry.getValue().getValue());
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet())
+            snapshot.put(entry.getKey(), entry.getValue().getValue());
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            String name = entry.getKey();
+            Histogram histogram = entry.getValue();
+            snapshot.put(name + ".count", (double) histogram.getCount());
+            snapshot.put(name + ".mean", histogram.getMean());
+            snapshot.put(name + ".min", (double) histogram.getMin());
+            snapshot.put(name + ".max", (double) histogram.getMax());
+            for (int percentile : PERCENTILES)
+                snapshot.put(name + ".p" + percentile, (double) histogram.getPercentile(percentile));
+        }
+        return snapshot;
+    }
+
+
+    /** Resets all counters and histograms. Gauges keep their last value. */
+    public void reset() {
+        for (Counter counter : counters.values())
+            counter.reset();
+        for (Histogram histogram : histograms.values())
+            histogram.reset();
+    }
+
+
+    /**
+     * Registers the registry with the platform MBean server under {@link #DEFAULT_OBJECT_NAME}, unless it is already
+     * registered.
+     *
+     * @throws JMException if the registration fails
+     */
+    public void registerMBean() throws JMException {
+        ObjectName name = new ObjectName(DEFAULT_OBJECT_NAME);
+        if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+            registerMBean(name);
+    }
+
+
+    /**
+     * Registers the registry with the platform MBean server. Every value of the snapshot becomes a read-only
+     * attribute; the operation {@code reset} resets the registry.
+     *
+     * @param name the name of the MBean
+     * @throws JMException if the registration fails
+     */
+    public void registerMBean(ObjectName name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(this), name);
+    }
+
+
+    /**
+     * Removes the registry from the platform MBean server, if it is registered.
+     *
+     * @param name the name of the MBean
+     * @throws JMException if the MBean can not be removed
+     */
+    public void unregisterMBean(ObjectName name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name))
+            server.unregisterMBean(name);
+    }
+}
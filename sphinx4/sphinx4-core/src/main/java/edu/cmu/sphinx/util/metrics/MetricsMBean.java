@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.util.metrics;
+
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+
+/** Exposes the snapshot of a {@link MetricRegistry} as read-only MBean attributes. */
+class MetricsMBean implements DynamicMBean {
+
+    private final MetricRegistry registry;
+
+
+    MetricsMBean(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Double value = registry.getSnapshot().get(attribute);
+        if (value == null)
+            throw new AttributeNotFoundException("No metric " + attribute);
+        return value;
+    }
+
+
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Double> snapshot = registry.getSnapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Double value = snapshot.get(attribute);
+            if (value != null)
+                list.add(new Attribute(attribute, value));
+        }
+        return list;
+    }
+
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metric " + attribute.getName() + " is read-only");
+    }
+
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if (!actionName.equals("reset"))
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        registry.reset();
+        return null;
+    }
+
+
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Double> snapshot = registry.getSnapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+        int i = 0;
+        for (String name : snapshot.keySet())
+            attributes[i++] = new MBeanAttributeInfo(name, Double.class.getName(), name, true, false, false);
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Resets all counters and histograms",
+                new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "Sphinx-4 metrics", attributes, null,
+                new MBeanOperationInfo[] {reset}, null);
+    }
+}
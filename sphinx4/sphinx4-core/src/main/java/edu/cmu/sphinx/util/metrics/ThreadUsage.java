@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.util.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the CPU time and the memory allocated by the current thread. Both values are only available on JVMs which
+ * support them, like HotSpot, so every method returns -1 if the JVM can't tell. Callers measure a piece of work by
+ * the difference of two values taken on the same thread.
+ */
+public final class ThreadUsage {
+
+    private final static ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+
+    private ThreadUsage() {
+    }
+
+
+    /** @return the CPU time of the current thread in nanoseconds, or -1 if the JVM can't tell */
+    public static long getCpuTime() {
+        try {
+            if (threadBean.isCurrentThreadCpuTimeSupported())
+                return threadBean.getCurrentThreadCpuTime();
+        } catch (UnsupportedOperationException e) {
+            // disabled in this JVM
+        }
+        return -1;
+    }
+
+
+    /** @return the bytes allocated by the current thread, or -1 if the JVM can't tell */
+    public static long getAllocatedBytes() {
+        try {
+            if (threadBean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+                if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled())
+                    return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        } catch (LinkageError e) {
+            // not a HotSpot JVM
+        } catch (UnsupportedOperationException e) {
+            // not supported
+        }
+        return -1;
+    }
+
+
+    /**
+     * Computes the usage between two values of the same thread.
+     *
+     * @param start the value before the work
+     * @param end the value after the work
+     * @return the difference, or 0 if one of the values is unknown
+     */
+    public static long getDifference(long start, long end) {
+        if (start < 0 || end < 0)
+            return 0;
+        return end - start;
+    }
+}
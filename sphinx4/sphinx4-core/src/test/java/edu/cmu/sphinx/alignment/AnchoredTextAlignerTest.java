@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.alignment;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+import org.hamcrest.Matcher;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.util.Range;
+import edu.cmu.sphinx.util.Utilities;
+
+/**
+ * Checks that the anchored aligner gives the results of
+ * {@link LongTextAligner} on the small transcription and aligns long,
+ * repetitive texts with errors.
+ */
+public class AnchoredTextAlignerTest {
+
+    private AnchoredTextAligner smallAligner;
+    private List<String> database;
+    private AnchoredTextAligner largeAligner;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        URL url = getClass().getResource("transcription-small.txt");
+        List<String> words = new ArrayList<String>();
+        Scanner scanner = new Scanner(url.openStream());
+        while (scanner.hasNext())
+            words.add(scanner.next());
+        scanner.close();
+        smallAligner = new AnchoredTextAligner(words, 2);
+
+        Random rng = new Random(42);
+        database = new ArrayList<String>();
+        String[] dictionary = new String[] {"foo", "bar", "baz", "quz"};
+        for (int i = 0; i < 100000; ++i)
+            database.add(dictionary[rng.nextInt(dictionary.length)]);
+        largeAligner = new AnchoredTextAligner(database, 3);
+    }
+
+    @DataProvider(name = "words")
+    public static Object[][] createWords() {
+        return TextAlignerSmallTest.createWords();
+    }
+
+    @Test(dataProvider = "words")
+    public void align(List<String> words, Matcher<List<Integer>> matcher) {
+        assertThat(Utilities.asList(smallAligner.align(words)), matcher);
+    }
+
+    @Test
+    public void alignRange() {
+        // the words occur four times
+        List<String> words = Arrays.asList("could", "and", "would", "chuck");
+        assertThat(Utilities.asList(smallAligner.align(words, new Range(0, 25))), contains(20, 21, 22, 23));
+        int[] later = smallAligner.align(words, new Range(30, 73));
+        Assert.assertTrue(later[0] >= 30);
+        for (int i = 1; i < later.length; i++)
+            Assert.assertEquals(later[i], later[0] + i);
+    }
+
+    @Test
+    public void suffixArray() {
+        Random rng = new Random(1);
+        int[] text = new int[500];
+        for (int i = 0; i < text.length; i++)
+            text[i] = rng.nextInt(3);
+        int[] suffixes = AnchoredTextAligner.getSuffixArray(text, 3);
+        for (int i = 1; i < suffixes.length; i++) {
+            int a = suffixes[i - 1];
+            int b = suffixes[i];
+            int k = 0;
+            while (a + k < text.length && b + k < text.length && text[a + k] == text[b + k])
+                k++;
+            Assert.assertTrue(a + k == text.length || b + k < text.length && text[a + k] < text[b + k]);
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void alignShortSequence() {
+        List<String> query = database.subList(100, 200);
+        Integer[] ids = new Integer[query.size()];
+        for (int i = 0; i < query.size(); ++i)
+            ids[i] = 100 + i;
+        assertThat(Utilities.asList(largeAligner.align(query)), contains(ids));
+    }
+
+    @Test(timeOut = 30000)
+    public void alignLongSequenceWithErrors() {
+        List<String> query = new ArrayList<String>();
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 2000; i < 42000; i++) {
+            if (i % 70 == 0)
+                continue;
+            if (i % 50 == 0) {
+                query.add("qux");
+                expected.add(-1);
+            } else {
+                query.add(database.get(i));
+                expected.add(i);
+            }
+        }
+
+        int[] alignment = largeAligner.align(query);
+        Assert.assertEquals(alignment.length, query.size());
+        int correct = 0;
+        int last = -1;
+        for (int i = 0; i < alignment.length; i++) {
+            if (alignment[i] < 0)
+                continue;
+            Assert.assertTrue(alignment[i] > last);
+            last = alignment[i];
+            if (alignment[i] == expected.get(i))
+                correct++;
+        }
+        Assert.assertTrue(correct > 0.9 * query.size(), correct + " of " + query.size());
+    }
+}
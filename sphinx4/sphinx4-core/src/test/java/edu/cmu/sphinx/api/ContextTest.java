@@ -0,0 +1,231 @@
+package edu.cmu.sphinx.api;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.decoder.adaptation.ClusteredDensityFileData;
+import edu.cmu.sphinx.decoder.adaptation.Transform;
+import edu.cmu.sphinx.linguist.acoustic.AcousticModel;
+import edu.cmu.sphinx.linguist.acoustic.HMM;
+import edu.cmu.sphinx.linguist.acoustic.HMMPosition;
+import edu.cmu.sphinx.linguist.acoustic.Unit;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianWeights;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.HMMManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Loader;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Pool;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Senone;
+import edu.cmu.sphinx.linguist.dictionary.Dictionary;
+import edu.cmu.sphinx.util.props.Configurable;
+import edu.cmu.sphinx.util.props.PropertySheet;
+import edu.cmu.sphinx.util.props.S4Component;
+import edu.cmu.sphinx.util.props.S4String;
+
+public class ContextTest {
+
+    private static final String CONFIG =
+        "resource:/edu/cmu/sphinx/api/shared-models.config.xml";
+
+    /** Uses the models like the recognizer does. */
+    public static class ModelUser implements Configurable {
+        @S4Component(type = AcousticModel.class)
+        public static final String PROP_ACOUSTIC_MODEL = "acousticModel";
+        @S4Component(type = Dictionary.class)
+        public static final String PROP_DICTIONARY = "dictionary";
+
+        AcousticModel acousticModel;
+        Dictionary dictionary;
+
+        public void newProperties(PropertySheet ps) {
+            acousticModel = (AcousticModel) ps.getComponent(PROP_ACOUSTIC_MODEL);
+            dictionary = (Dictionary) ps.getComponent(PROP_DICTIONARY);
+        }
+    }
+
+    /** An acoustic model which counts how often it is loaded. */
+    public static class StubAcousticModel implements AcousticModel {
+        @S4Component(type = Loader.class)
+        public static final String PROP_LOADER = "loader";
+
+        static int allocated;
+        static int loaded;
+
+        public void newProperties(PropertySheet ps) {
+        }
+
+        public void allocate() {
+            allocated++;
+            loaded++;
+        }
+
+        public void deallocate() {
+            allocated--;
+        }
+
+        public String getName() {
+            return "stub";
+        }
+
+        public HMM lookupNearestHMM(Unit unit, HMMPosition position, boolean exactMatch) {
+            return null;
+        }
+
+        public Iterator<HMM> getHMMIterator() {
+            return null;
+        }
+
+        public Iterator<Unit> getContextIndependentUnitIterator() {
+            return null;
+        }
+
+        public int getLeftContextSize() {
+            return 1;
+        }
+
+        public int getRightContextSize() {
+            return 1;
+        }
+
+        public Properties getProperties() {
+            return new Properties();
+        }
+    }
+
+    /** A loader which loads nothing. */
+    public static class StubLoader implements Loader {
+        @S4String(defaultValue = "")
+        public static final String PROP_LOCATION = "location";
+
+        public void newProperties(PropertySheet ps) {
+        }
+
+        public void load() {
+        }
+
+        public Pool<float[]> getMeansPool() {
+            return null;
+        }
+
+        public Pool<float[][]> getMeansTransformationMatrixPool() {
+            return null;
+        }
+
+        public Pool<float[]> getMeansTransformationVectorPool() {
+            return null;
+        }
+
+        public Pool<float[]> getVariancePool() {
+            return null;
+        }
+
+        public Pool<float[][]> getVarianceTransformationMatrixPool() {
+            return null;
+        }
+
+        public Pool<float[]> getVarianceTransformationVectorPool() {
+            return null;
+        }
+
+        public GaussianWeights getMixtureWeights() {
+            return null;
+        }
+
+        public Pool<float[][]> getTransitionMatrixPool() {
+            return null;
+        }
+
+        public float[][] getTransformMatrix() {
+            return null;
+        }
+
+        public Pool<Senone> getSenonePool() {
+            return null;
+        }
+
+        public HMMManager getHMMManager() {
+            return null;
+        }
+
+        public Map<String, Unit> getContextIndependentUnits() {
+            return null;
+        }
+
+        public void logInfo() {
+        }
+
+        public int getLeftContextSize() {
+            return 1;
+        }
+
+        public int getRightContextSize() {
+            return 1;
+        }
+
+        public Properties getProperties() {
+            return new Properties();
+        }
+
+        public void update(Transform transform, ClusteredDensityFileData clusters) {
+        }
+    }
+
+    private static Configuration createConfiguration(boolean shared) {
+        Configuration configuration = new Configuration();
+        configuration.setAcousticModelPath("resource:/edu/cmu/sphinx/models/en-us/en-us");
+        configuration.setDictionaryPath("resource:/edu/cmu/sphinx/linguist/language/ngram/trie/100.dict");
+        configuration.setUseSharedModels(shared);
+        return configuration;
+    }
+
+    @Test
+    public void testSharedModels() throws IOException {
+        StubAcousticModel.allocated = 0;
+        StubAcousticModel.loaded = 0;
+
+        Context first = new Context(CONFIG, createConfiguration(true));
+        Context second = new Context(CONFIG, createConfiguration(true));
+        assertTrue(first.isSharingModels());
+        assertTrue(second.isSharingModels());
+        assertSame(second.getLoader(), first.getLoader());
+        assertSame(second.getInstance(UnitManager.class), first.getInstance(UnitManager.class));
+        assertEquals(StubAcousticModel.loaded, 1);
+
+        // the recognizer uses the shared models
+        ModelUser user = first.getInstance(ModelUser.class);
+        assertTrue(user.acousticModel instanceof SharedAcousticModel);
+        assertTrue(user.dictionary instanceof SharedDictionary);
+        assertEquals(second.getInstance(ModelUser.class).dictionary.getWord("david").getSpelling(), "david");
+
+        first.close();
+        assertFalse(first.isSharingModels());
+        assertEquals(StubAcousticModel.allocated, 1);
+        second.close();
+        assertEquals(StubAcousticModel.allocated, 0);
+
+        // the released models are created again
+        Context third = new Context(CONFIG, createConfiguration(true));
+        assertNotSame(third.getLoader(), first.getLoader());
+        assertEquals(StubAcousticModel.loaded, 2);
+        third.close();
+        assertEquals(StubAcousticModel.allocated, 0);
+    }
+
+    @Test
+    public void testUnsharedModels() throws IOException {
+        Context first = new Context(CONFIG, createConfiguration(false));
+        Context second = new Context(CONFIG, createConfiguration(false));
+        assertFalse(first.isSharingModels());
+        assertNotSame(second.getLoader(), first.getLoader());
+        assertFalse(first.getInstance(ModelUser.class).acousticModel instanceof SharedAcousticModel);
+    }
+}
@@ -0,0 +1,72 @@
+package edu.cmu.sphinx.api;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.testng.annotations.Test;
+
+public class ModelRegistryTest {
+
+    static class Model implements Closeable {
+        boolean closed;
+
+        public void close() {
+            closed = true;
+        }
+    }
+
+    static class CountingFactory implements ModelRegistry.Factory<Model> {
+        int created;
+
+        public Model create() {
+            created++;
+            return new Model();
+        }
+    }
+
+    @Test
+    public void testReferenceCounting() throws IOException {
+        ModelRegistry registry = ModelRegistry.getInstance();
+        CountingFactory factory = new CountingFactory();
+
+        Model first = registry.acquire("test:model", factory);
+        Model second = registry.acquire("test:model", factory);
+        assertSame(second, first);
+        assertEquals(factory.created, 1);
+        assertEquals(registry.getReferenceCount("test:model"), 2);
+
+        registry.release("test:model");
+        assertFalse(first.closed);
+        registry.release("test:model");
+        assertTrue(first.closed);
+        assertEquals(registry.getReferenceCount("test:model"), 0);
+
+        Model third = registry.acquire("test:model", factory);
+        assertNotSame(third, first);
+        assertEquals(factory.created, 2);
+        registry.release("test:model");
+    }
+
+    @Test
+    public void testFailedCreation() {
+        ModelRegistry registry = ModelRegistry.getInstance();
+        try {
+            registry.acquire("test:failing", new ModelRegistry.Factory<Model>() {
+                public Model create() throws IOException {
+                    throw new IOException("missing");
+                }
+            });
+            fail("creation should fail");
+        } catch (IOException e) {
+            assertEquals(e.getMessage(), "missing");
+        }
+        assertEquals(registry.getReferenceCount("test:failing"), 0);
+    }
+}
@@ -0,0 +1,102 @@
+package edu.cmu.sphinx.api;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+
+import org.testng.annotations.Test;
+
+public class RecognitionSessionTest {
+
+    @Test
+    public void testBuffering() throws Exception {
+        final RecognitionSession session = new RecognitionSession(1, 7, null);
+        final byte[] audio = new byte[100];
+        for (int i = 0; i < audio.length; i++)
+            audio[i] = (byte) i;
+
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    session.feed(audio, 0, 60);
+                    session.feed(audio, 60, 40);
+                    session.finish();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        producer.start();
+
+        InputStream stream = session.getInputStream();
+        byte[] read = new byte[200];
+        int total = 0;
+        int n;
+        while ((n = stream.read(read, total, 5)) >= 0)
+            total += n;
+        producer.join();
+
+        assertEquals(total, audio.length);
+        for (int i = 0; i < audio.length; i++)
+            assertEquals(read[i], audio[i]);
+        assertEquals(session.getAudioBytes(), audio.length);
+        assertEquals(session.getBufferedBytes(), 0);
+    }
+
+    @Test
+    public void testCancel() throws IOException, InterruptedException {
+        RecognitionSession session = new RecognitionSession(2, 16, null);
+        FutureTask<List<SpeechResult>> task =
+            new FutureTask<List<SpeechResult>>(new Runnable() {
+                public void run() {
+                }
+            }, null);
+        session.setResults(task);
+        session.feed(new byte[10]);
+        session.cancel();
+
+        assertTrue(session.isCancelled());
+        assertTrue(task.isCancelled());
+        assertEquals(session.getBufferedBytes(), 0);
+        assertEquals(session.getInputStream().read(), -1);
+        try {
+            session.feed(new byte[1]);
+            assertTrue(false);
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCancelledFeedCountsBufferedBytes() throws Exception {
+        final RecognitionSession session = new RecognitionSession(3, 16, null);
+        session.setResults(new FutureTask<List<SpeechResult>>(new Runnable() {
+            public void run() {
+            }
+        }, null));
+
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    session.feed(new byte[40]);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        producer.start();
+        // the feed blocks once the buffer is full
+        while (session.getBufferedBytes() < 16)
+            Thread.sleep(10);
+        session.cancel();
+        producer.join();
+
+        assertEquals(session.getAudioBytes(), 16);
+    }
+}
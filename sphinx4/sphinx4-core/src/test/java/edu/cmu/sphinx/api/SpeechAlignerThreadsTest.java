@@ -0,0 +1,148 @@
+package edu.cmu.sphinx.api;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import edu.cmu.sphinx.result.WordResult;
+import edu.cmu.sphinx.util.TimeFrame;
+
+public class SpeechAlignerThreadsTest {
+
+    /**
+     * Recognizes the first word of the text. Later parts are decoded faster,
+     * so they finish before the earlier ones.
+     */
+    static class StubDecoder implements SpeechAligner.PartDecoder {
+        static final AtomicInteger running = new AtomicInteger();
+        static final AtomicInteger maxRunning = new AtomicInteger();
+
+        final AtomicBoolean busy = new AtomicBoolean();
+        final AtomicInteger parts = new AtomicInteger();
+        final Set<Thread> threads =
+            Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        volatile boolean sharedByThreads;
+
+        public List<WordResult> decode(List<String> text, TimeFrame frame) throws IOException {
+            if (!busy.compareAndSet(false, true))
+                sharedByThreads = true;
+            int now = running.incrementAndGet();
+            if (now > maxRunning.get())
+                maxRunning.set(now);
+            try {
+                threads.add(Thread.currentThread());
+                parts.incrementAndGet();
+                if (text.get(0).equals("error"))
+                    throw new IOException("can't read " + frame);
+                Thread.sleep(5 * (12 - frame.getStart() / 100));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                running.decrementAndGet();
+                busy.set(false);
+            }
+            Word word = new Word(text.get(0), null, false);
+            return Collections.singletonList(new WordResult(word, frame, 0, 0));
+        }
+    }
+
+    private static List<TimeFrame> frames(long... bounds) {
+        List<TimeFrame> frames = new ArrayList<TimeFrame>();
+        for (int i = 0; i < bounds.length; i += 2)
+            frames.add(new TimeFrame(bounds[i], bounds[i + 1]));
+        return frames;
+    }
+
+    private static void assertFrames(List<TimeFrame> actual, List<TimeFrame> expected) {
+        assertEquals(actual.toString(), expected.toString());
+    }
+
+    @Test
+    public void testSplitSpeech() {
+        List<TimeFrame> segments = frames(0, 10, 20, 30, 40, 50, 60, 70);
+        assertFrames(SpeechAligner.splitSpeech(segments, 1), frames(0, 70));
+        assertFrames(SpeechAligner.splitSpeech(segments, 2), frames(0, 30, 40, 70));
+        assertFrames(SpeechAligner.splitSpeech(segments, 4), segments);
+        assertFrames(SpeechAligner.splitSpeech(segments, 8), segments);
+
+        // a long segment makes a part of its own
+        segments = frames(0, 30, 40, 45, 50, 55, 60, 65);
+        assertFrames(SpeechAligner.splitSpeech(segments, 2), frames(0, 30, 40, 65));
+        assertFrames(SpeechAligner.splitSpeech(segments, 3), frames(0, 30, 40, 65));
+        assertFrames(SpeechAligner.splitSpeech(segments, 6), frames(0, 30, 40, 55, 60, 65));
+
+        assertFrames(SpeechAligner.splitSpeech(new ArrayList<TimeFrame>(), 4),
+                     Collections.singletonList(TimeFrame.INFINITE));
+    }
+
+    @Test
+    public void testDecodesPartsInOrder() throws IOException {
+        StubDecoder.maxRunning.set(0);
+        List<StubDecoder> decoders = asList(new StubDecoder(), new StubDecoder(), new StubDecoder());
+        List<List<String>> texts = new ArrayList<List<String>>();
+        List<TimeFrame> frames = new ArrayList<TimeFrame>();
+        for (int i = 0; i < 12; i++) {
+            texts.add(asList("word" + i, "next"));
+            frames.add(new TimeFrame(i * 100, i * 100 + 50));
+        }
+
+        List<List<WordResult>> hypotheses = SpeechAligner.decode(decoders, texts, frames);
+
+        assertEquals(hypotheses.size(), 12);
+        for (int i = 0; i < 12; i++) {
+            assertEquals(hypotheses.get(i).get(0).getWord().getSpelling(), "word" + i);
+            assertSame(hypotheses.get(i).get(0).getTimeFrame(), frames.get(i));
+        }
+        // every decoder is used, but only by one thread at a time
+        int parts = 0;
+        for (StubDecoder decoder : decoders) {
+            assertTrue(decoder.parts.get() > 0);
+            assertTrue(!decoder.sharedByThreads);
+            assertTrue(!decoder.threads.contains(Thread.currentThread()));
+            parts += decoder.parts.get();
+        }
+        assertEquals(parts, 12);
+        assertTrue(StubDecoder.maxRunning.get() > 1);
+        assertTrue(StubDecoder.maxRunning.get() <= 3);
+    }
+
+    @Test
+    public void testSingleDecoderDecodesOnCallingThread() throws IOException {
+        StubDecoder decoder = new StubDecoder();
+        List<List<WordResult>> hypotheses = SpeechAligner.decode(
+                Collections.singletonList(decoder),
+                asList(asList("one"), asList("two")),
+                frames(0, 10, 900, 910));
+
+        assertEquals(hypotheses.get(0).get(0).getWord().getSpelling(), "one");
+        assertEquals(hypotheses.get(1).get(0).getWord().getSpelling(), "two");
+        assertEquals(decoder.threads, Collections.singleton(Thread.currentThread()));
+    }
+
+    @Test
+    public void testRethrowsDecoderError() {
+        List<StubDecoder> decoders = asList(new StubDecoder(), new StubDecoder());
+        try {
+            SpeechAligner.decode(decoders,
+                    asList(asList("one"), asList("error"), asList("three")),
+                    frames(0, 10, 20, 30, 40, 50));
+            fail("the second part can't be decoded");
+        } catch (IOException e) {
+            assertEquals(e.getMessage(), "can't read 20:30");
+        }
+    }
+}
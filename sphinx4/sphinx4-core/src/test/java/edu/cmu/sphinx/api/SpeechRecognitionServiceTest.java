@@ -0,0 +1,202 @@
+package edu.cmu.sphinx.api;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class SpeechRecognitionServiceTest {
+
+    /** Reads the audio of a session and keeps the number of bytes read. */
+    static class StubDecoder implements SpeechRecognitionService.Decoder {
+        final Map<RecognitionSession, Integer> decoded =
+            new ConcurrentHashMap<RecognitionSession, Integer>();
+        final AtomicInteger shutdowns = new AtomicInteger();
+
+        public List<SpeechResult> decode(RecognitionSession session) {
+            InputStream stream = session.getInputStream();
+            byte[] buffer = new byte[256];
+            int total = 0;
+            int n;
+            try {
+                while ((n = stream.read(buffer)) >= 0) {
+                    total += n;
+                    // some work and garbage for every block
+                    List<byte[]> garbage = new ArrayList<byte[]>();
+                    for (int i = 0; i < 16; i++) {
+                        byte[] copy = Arrays.copyOf(buffer, 4096);
+                        Arrays.sort(copy);
+                        garbage.add(copy);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            decoded.put(session, total);
+            return Collections.emptyList();
+        }
+
+        public void shutdown() {
+            shutdowns.incrementAndGet();
+        }
+    }
+
+    /** Counts down when a session is finished. */
+    static class FinishListener implements RecognitionListener {
+        final CountDownLatch finished;
+        final List<Throwable> errors =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+
+        FinishListener(int sessions) {
+            finished = new CountDownLatch(sessions);
+        }
+
+        public void onResult(RecognitionSession session, SpeechResult result) {
+        }
+
+        public void onFinished(RecognitionSession session, Throwable error) {
+            if (error != null)
+                errors.add(error);
+            finished.countDown();
+        }
+    }
+
+    private SpeechRecognitionService createService(StubDecoder... decoders) {
+        return new SpeechRecognitionService(Arrays.asList(decoders), 2, 64);
+    }
+
+    @Test
+    public void testDecodesSessions() throws Exception {
+        StubDecoder decoder = new StubDecoder();
+        SpeechRecognitionService service = createService(decoder);
+        FinishListener listener = new FinishListener(1);
+
+        RecognitionSession session = service.openSession(listener);
+        session.feed(new byte[1000]);
+        session.finish();
+
+        assertTrue(session.getResults().get(10, TimeUnit.SECONDS).isEmpty());
+        assertTrue(listener.finished.await(10, TimeUnit.SECONDS));
+        assertTrue(listener.errors.isEmpty());
+        assertEquals(decoder.decoded.get(session), Integer.valueOf(1000));
+        assertEquals(session.getAudioBytes(), 1000);
+        assertEquals(service.getOpenSessions(), 0);
+
+        // the decoder spent time and memory on the session
+        if (ManagementFactory.getThreadMXBean().isCurrentThreadCpuTimeSupported())
+            assertTrue(session.getCpuTime() > 0);
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)
+            assertTrue(session.getAllocatedBytes() > 16 * 4096);
+
+        service.shutdown(1000);
+        assertEquals(decoder.shutdowns.get(), 1);
+    }
+
+    @Test
+    public void testRejectsSessionsOverLimit() throws Exception {
+        StubDecoder decoder = new StubDecoder();
+        SpeechRecognitionService service = createService(decoder);
+        FinishListener listener = new FinishListener(1);
+
+        // one session is decoded, the other one waits for the decoder
+        RecognitionSession first = service.openSession(listener);
+        RecognitionSession second = service.openSession(null);
+        assertEquals(service.getOpenSessions(), 2);
+        try {
+            service.openSession(null);
+            fail("the session limit is reached");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(service.getRejectedSessions(), 1);
+
+        first.finish();
+        assertTrue(listener.finished.await(10, TimeUnit.SECONDS));
+        RecognitionSession third = service.openSession(null);
+        second.finish();
+        third.finish();
+        third.getResults().get(10, TimeUnit.SECONDS);
+        assertEquals(decoder.decoded.size(), 3);
+        assertEquals(service.getRejectedSessions(), 1);
+        service.shutdown(1000);
+    }
+
+    @Test
+    public void testShutdownDrainsSessions() throws Exception {
+        StubDecoder decoder = new StubDecoder();
+        SpeechRecognitionService service = createService(decoder);
+        FinishListener listener = new FinishListener(2);
+        final RecognitionSession first = service.openSession(listener);
+        final RecognitionSession second = service.openSession(listener);
+
+        // the clients finish their audio after the shutdown started
+        Thread client = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                    first.feed(new byte[100]);
+                    first.finish();
+                    second.feed(new byte[200]);
+                    second.finish();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        client.start();
+        service.shutdown(10000);
+        client.join();
+
+        assertFalse(first.isCancelled());
+        assertFalse(second.isCancelled());
+        assertTrue(listener.finished.await(10, TimeUnit.SECONDS));
+        assertTrue(listener.errors.isEmpty());
+        assertEquals(decoder.decoded.get(first), Integer.valueOf(100));
+        assertEquals(decoder.decoded.get(second), Integer.valueOf(200));
+        assertEquals(decoder.shutdowns.get(), 1);
+        try {
+            service.openSession(null);
+            fail("the service is shut down");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testShutdownCancelsAfterTimeout() throws Exception {
+        StubDecoder decoder = new StubDecoder();
+        SpeechRecognitionService service = createService(decoder);
+        FinishListener listener = new FinishListener(2);
+        RecognitionSession running = service.openSession(listener);
+        RecognitionSession waiting = service.openSession(listener);
+        running.feed(new byte[10]);
+
+        service.shutdown(100);
+
+        assertTrue(running.isCancelled());
+        assertTrue(waiting.isCancelled());
+        assertTrue(listener.finished.await(10, TimeUnit.SECONDS));
+        assertTrue(listener.errors.isEmpty());
+        assertNull(decoder.decoded.get(waiting));
+        assertEquals(decoder.shutdowns.get(), 1);
+        assertEquals(service.getOpenSessions(), 0);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.decoder.adaptation;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.decoder.adaptation.RandomModelLoader.Frame;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianMixture;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianSelector;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.MixtureComponent;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Pool;
+
+/**
+ * Checks that the online adaptation applies a transform every few results once
+ * enough frames are collected, that every transform is applied to the means
+ * the adaptation started with and that the Gaussian selection follows the
+ * adapted means.
+ */
+public class OnlineAdaptationTest {
+
+    private static final int NUM_STATES = 50;
+    private static final int NUM_GAUSSIANS = 4;
+    private static final int LENGTH = 13;
+
+    @Test
+    public void testTransformEveryInterval() {
+        RandomModelLoader loader = new RandomModelLoader(NUM_STATES, NUM_GAUSSIANS, LENGTH, 1);
+        float[][] means = copyMeans(loader.getMeansPool());
+        OnlineAdaptation adaptation = new OnlineAdaptation(loader, 1, 2);
+        Random random = new Random(2);
+
+        collect(adaptation, loader.createFrames(random, 400));
+        assertThat(adaptation.getTransform(), nullValue());
+        collect(adaptation, loader.createFrames(random, 400));
+        Transform first = adaptation.getTransform();
+        assertThat(first, notNullValue());
+        checkAdapted(loader.getMeansPool(), means, first);
+
+        collect(adaptation, loader.createFrames(random, 400));
+        assertThat(adaptation.getTransform(), sameInstance(first));
+        collect(adaptation, loader.createFrames(random, 400));
+        Transform second = adaptation.getTransform();
+        assertThat(second, not(sameInstance(first)));
+        assertThat(adaptation.getStats().getFrames(), equalTo(1600));
+        // the second transform replaces the first one instead of adding to it
+        checkAdapted(loader.getMeansPool(), means, second);
+    }
+
+    @Test
+    public void testNotEnoughFrames() {
+        RandomModelLoader loader = new RandomModelLoader(NUM_STATES, NUM_GAUSSIANS, LENGTH, 3);
+        float[][] means = copyMeans(loader.getMeansPool());
+        OnlineAdaptation adaptation = new OnlineAdaptation(loader, 2, 1);
+
+        collect(adaptation, loader.createFrames(new Random(4), 500));
+        assertThat(adaptation.getTransform(), nullValue());
+        for (int i = 0; i < means.length; i++)
+            for (int k = 0; k < LENGTH; k++)
+                assertThat(loader.getMeansPool().get(i)[k], equalTo(means[i][k]));
+    }
+
+    @Test
+    public void testSelectorFollowsTransform() {
+        RandomModelLoader loader = new RandomModelLoader(NUM_STATES, NUM_GAUSSIANS, LENGTH, 6);
+        MixtureComponent[][] components = new MixtureComponent[NUM_STATES][];
+        for (int i = 0; i < NUM_STATES; i++)
+            components[i] = ((GaussianMixture) loader.getSenonePool().get(i)).getMixtureComponents();
+        GaussianSelector selector = new GaussianSelector(components, 16, 2);
+        GaussianSelector expected = new GaussianSelector(components, 16, 2);
+        for (int i = 0; i < NUM_STATES; i++)
+            ((GaussianMixture) loader.getSenonePool().get(i)).setGaussianSelector(selector);
+        short[] shortlists = selector.getShortlists().clone();
+        OnlineAdaptation adaptation = new OnlineAdaptation(loader, 1, 1);
+
+        collect(adaptation, loader.createFrames(new Random(7), 800));
+        assertThat(adaptation.getTransform(), notNullValue());
+        // the shortlists are rebuilt for the adapted means with the same codebook
+        expected.update();
+        assertThat(selector.getShortlists(), not(equalTo(shortlists)));
+        assertThat(selector.getShortlists(), equalTo(expected.getShortlists()));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidInterval() {
+        new OnlineAdaptation(new RandomModelLoader(1, 1, 1, 5), 1, 0);
+    }
+
+    /** Collects the frames of one result. */
+    private static void collect(OnlineAdaptation adaptation, Frame[] frames) {
+        for (Frame frame : frames)
+            adaptation.getStats().collect(frame.mixtureId, frame.posteriors, frame.features);
+        adaptation.resultCollected();
+    }
+
+    private static float[][] copyMeans(Pool<float[]> meansPool) {
+        float[][] means = new float[meansPool.size()][];
+        for (int i = 0; i < means.length; i++)
+            means[i] = meansPool.get(i).clone();
+        return means;
+    }
+
+    private static void checkAdapted(Pool<float[]> meansPool, float[][] means, Transform transform) {
+        float[][] a = transform.getAs()[0][0];
+        float[] b = transform.getBs()[0][0];
+        for (int i = 0; i < means.length; i++) {
+            for (int l = 0; l < LENGTH; l++) {
+                double expected = b[l];
+                for (int m = 0; m < LENGTH; m++)
+                    expected += a[l][m] * means[i][m];
+                assertThat((double) meansPool.get(i)[l],
+                        closeTo(expected, Math.abs(expected) * 1e-5 + 1e-5));
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.decoder.adaptation;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianMixture;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianWeights;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.MixtureComponent;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Pool;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Senone;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Sphinx3Loader;
+import edu.cmu.sphinx.util.LogMath;
+
+/**
+ * A loader of a continuous single stream model with random means and
+ * variances, which is enough to collect adaptation statistics and to apply
+ * transforms. The senones are Gaussian mixtures with uniform weights.
+ */
+class RandomModelLoader extends Sphinx3Loader {
+
+    RandomModelLoader(int numStates, int numGaussians, int vectorLength, long seed) {
+        Random random = new Random(seed);
+        this.numStates = numStates;
+        this.numStreams = 1;
+        this.numGaussiansPerState = numGaussians;
+        this.vectorLength = new int[] {vectorLength};
+        this.modelProps = new Properties();
+        meansPool = new Pool<float[]>("means");
+        variancePool = new Pool<float[]>("variances");
+        for (int i = 0; i < numStates * numGaussians; i++) {
+            float[] mean = new float[vectorLength];
+            float[] variance = new float[vectorLength];
+            for (int k = 0; k < vectorLength; k++) {
+                mean[k] = (float) random.nextGaussian();
+                variance[k] = 0.5f + random.nextFloat();
+            }
+            meansPool.put(i, mean);
+            variancePool.put(i, variance);
+        }
+
+        float[] weights = new float[numGaussians];
+        Arrays.fill(weights, LogMath.getLogMath().linearToLog(1.0 / numGaussians));
+        mixtureWeights = new GaussianWeights("mixw", numStates, numGaussians, 1);
+        senonePool = new Pool<Senone>("senones");
+        for (int i = 0; i < numStates; i++) {
+            mixtureWeights.put(i, 0, weights);
+            MixtureComponent[] components = new MixtureComponent[numGaussians];
+            for (int j = 0; j < numGaussians; j++)
+                components[j] = new MixtureComponent(meansPool.get(i * numGaussians + j),
+                        variancePool.get(i * numGaussians + j));
+            senonePool.put(i, new GaussianMixture(mixtureWeights, components, i));
+        }
+    }
+
+    /**
+     * Creates random frames aligned to random states.
+     *
+     * @param random the random generator
+     * @param count number of frames
+     * @return the frames
+     */
+    Frame[] createFrames(Random random, int count) {
+        Frame[] frames = new Frame[count];
+        for (int f = 0; f < count; f++) {
+            Frame frame = new Frame();
+            frame.mixtureId = random.nextInt(numStates);
+            frame.posteriors = new float[numGaussiansPerState];
+            for (int j = 0; j < numGaussiansPerState; j++)
+                frame.posteriors[j] = random.nextFloat();
+            frame.features = new float[vectorLength[0]];
+            for (int k = 0; k < vectorLength[0]; k++)
+                frame.features[k] = (float) random.nextGaussian();
+            frames[f] = frame;
+        }
+        return frames;
+    }
+
+    /** A frame aligned to a state. */
+    static class Frame {
+        int mixtureId;
+        float[] posteriors;
+        float[] features;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.decoder.adaptation;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.decoder.adaptation.RandomModelLoader.Frame;
+
+/**
+ * Compares the regression matrices computed from the counts of every Gaussian
+ * with the ones accumulated frame by frame, and the merged statistics of
+ * partial counts with the statistics collected serially.
+ */
+public class StatsTest {
+
+    private static final int NUM_STATES = 50;
+    private static final int NUM_GAUSSIANS = 4;
+    private static final int LENGTH = 13;
+    private static final int NUM_CLUSTERS = 2;
+
+    @Test
+    public void testSameAsFrameAccumulation() {
+        RandomModelLoader loader = new RandomModelLoader(NUM_STATES, NUM_GAUSSIANS, LENGTH, 1);
+        ClusteredDensityFileData clusters = new ClusteredDensityFileData(loader, NUM_CLUSTERS);
+        Stats stats = new Stats(loader, clusters);
+        Frame[] frames = loader.createFrames(new Random(2), 1000);
+
+        // the accumulation of every frame into the matrices of its cluster
+        double[][][][] regLs = new double[NUM_CLUSTERS][LENGTH][LENGTH + 1][LENGTH + 1];
+        double[][][] regRs = new double[NUM_CLUSTERS][LENGTH][LENGTH + 1];
+        for (Frame frame : frames) {
+            stats.collect(frame.mixtureId, frame.posteriors, frame.features);
+            for (int j = 0; j < NUM_GAUSSIANS; j++) {
+                int gaussian = frame.mixtureId * NUM_GAUSSIANS + j;
+                int cluster = clusters.getClassIndex(gaussian);
+                float dnom = frame.posteriors[j];
+                float[] tmean = loader.getMeansPool().get(gaussian);
+                float[] variance = loader.getVariancePool().get(gaussian);
+                for (int k = 0; k < LENGTH; k++) {
+                    float wtMeanVar = dnom * frame.features[k] / variance[k];
+                    float wtDcountVar = dnom / variance[k];
+                    for (int p = 0; p < LENGTH; p++) {
+                        float wtDcountVarMean = wtDcountVar * tmean[p];
+                        for (int q = p; q < LENGTH; q++)
+                            regLs[cluster][k][p][q] += wtDcountVarMean * tmean[q];
+                        regLs[cluster][k][p][LENGTH] += wtDcountVarMean;
+                        regRs[cluster][k][p] += wtMeanVar * tmean[p];
+                    }
+                    regLs[cluster][k][LENGTH][LENGTH] += wtDcountVar;
+                    regRs[cluster][k][LENGTH] += wtMeanVar;
+                }
+            }
+        }
+
+        double[][][][][] actualLs = stats.getRegLs();
+        double[][][][] actualRs = stats.getRegRs();
+        for (int c = 0; c < NUM_CLUSTERS; c++) {
+            for (int k = 0; k < LENGTH; k++) {
+                for (int p = 0; p <= LENGTH; p++) {
+                    for (int q = p; q <= LENGTH; q++)
+                        assertClose(actualLs[c][0][k][p][q], regLs[c][k][p][q]);
+                    assertClose(actualRs[c][0][k][p], regRs[c][k][p]);
+                }
+            }
+        }
+        assertThat(stats.getFrames(), equalTo(frames.length));
+    }
+
+    @Test
+    public void testMergeSameAsSerial() {
+        RandomModelLoader loader = new RandomModelLoader(NUM_STATES, NUM_GAUSSIANS, LENGTH, 3);
+        ClusteredDensityFileData clusters = new ClusteredDensityFileData(loader, NUM_CLUSTERS);
+        Stats serial = new Stats(loader, clusters);
+        Stats merged = new Stats(loader, clusters);
+        Stats[] partials = {merged.createPartialStats(), merged.createPartialStats(),
+                merged.createPartialStats()};
+        Frame[] frames = loader.createFrames(new Random(4), 1000);
+        for (int f = 0; f < frames.length; f++) {
+            serial.collect(frames[f].mixtureId, frames[f].posteriors, frames[f].features);
+            partials[f % partials.length].collect(frames[f].mixtureId,
+                    frames[f].posteriors, frames[f].features);
+        }
+        for (Stats partial : partials)
+            merged.merge(partial);
+
+        assertThat(merged.getFrames(), equalTo(serial.getFrames()));
+        double[][][][][] serialLs = serial.getRegLs();
+        double[][][][] serialRs = serial.getRegRs();
+        double[][][][][] mergedLs = merged.getRegLs();
+        double[][][][] mergedRs = merged.getRegRs();
+        for (int c = 0; c < NUM_CLUSTERS; c++) {
+            for (int k = 0; k < LENGTH; k++) {
+                for (int p = 0; p <= LENGTH; p++) {
+                    for (int q = p; q <= LENGTH; q++)
+                        assertClose(mergedLs[c][0][k][p][q], serialLs[c][0][k][p][q]);
+                    assertClose(mergedRs[c][0][k][p], serialRs[c][0][k][p]);
+                }
+            }
+        }
+
+        Transform transform = merged.createTransform();
+        assertThat(transform, notNullValue());
+        float[][][][] serialAs = serial.createTransform().getAs();
+        for (int c = 0; c < NUM_CLUSTERS; c++)
+            for (int l = 0; l < LENGTH; l++)
+                for (int m = 0; m < LENGTH; m++)
+                    assertClose(transform.getAs()[c][0][l][m], serialAs[c][0][l][m]);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergeOtherModel() {
+        RandomModelLoader loader = new RandomModelLoader(NUM_STATES, NUM_GAUSSIANS, LENGTH, 5);
+        ClusteredDensityFileData clusters = new ClusteredDensityFileData(loader, NUM_CLUSTERS);
+        new Stats(loader, clusters).merge(new Stats(loader, clusters));
+    }
+
+    private static void assertClose(double actual, double expected) {
+        assertThat(actual, closeTo(expected, Math.abs(expected) * 1e-4 + 1e-4));
+    }
+}
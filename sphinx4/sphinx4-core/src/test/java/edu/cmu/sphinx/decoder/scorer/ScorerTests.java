@@ -3,6 +3,7 @@ package edu.cmu.sphinx.decoder.scorer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -47,6 +48,7 @@ public class ScorerTests {
         List<Class<? extends SimpleAcousticScorer>> scorerClasses = new ArrayList<Class<? extends SimpleAcousticScorer>>();
         scorerClasses.add(SimpleAcousticScorer.class);
         scorerClasses.add(ThreadedAcousticScorer.class);
+        scorerClasses.add(FrameBatchedAcousticScorer.class);
 
         for (Class<? extends SimpleAcousticScorer> scorerClass : scorerClasses) {
             System.err.println("testing: " + scorerClass.getSimpleName());
@@ -119,4 +121,43 @@ public class ScorerTests {
         
         // ensure that all scoring threads have died
     }
+
+
+    @Test
+    public void testThreadedScorerFindsBest() {
+        Map<String, Object> props = new HashMap<String, Object>();
+        DataBufferProcessor dummyFrontEnd = createDummyFrontEnd();
+
+        props.put(SimpleAcousticScorer.FEATURE_FRONTEND, dummyFrontEnd);
+        props.put(ThreadedAcousticScorer.PROP_NUM_THREADS, 4);
+        props.put(ThreadedAcousticScorer.PROP_IS_CPU_RELATIVE, false);
+        ThreadedAcousticScorer scorer = ConfigurationManager.getInstance(ThreadedAcousticScorer.class, props);
+
+        scorer.allocate();
+        scorer.startRecognition();
+
+        final int[] scored = new int[1];
+        List<Scoreable> tokens = new LinkedList<Scoreable>();
+        for (int i = 0; i < 1000; i++) {
+            final float score = -Math.abs(i - 617);
+            tokens.add(new Token(null, 0.f, 0.f, 0.f, 0.f) {
+                @Override
+                public float calculateScore(Data feature) {
+                    synchronized (scored) {
+                        scored[0]++;
+                    }
+                    setScore(score);
+                    return score;
+                }
+            });
+        }
+
+        Scoreable best = (Scoreable) scorer.calculateScores(tokens);
+        Assert.assertSame(best, tokens.get(617));
+        Assert.assertEquals(scored[0], 1000);
+        Assert.assertEquals(scorer.getScoredFrames(), 1);
+
+        scorer.stopRecognition();
+        scorer.deallocate();
+    }
 }
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.decoder.scorer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.decoder.search.Token;
+import edu.cmu.sphinx.frontend.Data;
+import edu.cmu.sphinx.frontend.DataEndSignal;
+import edu.cmu.sphinx.frontend.DataStartSignal;
+import edu.cmu.sphinx.frontend.FloatData;
+import edu.cmu.sphinx.frontend.Signal;
+import edu.cmu.sphinx.frontend.databranch.DataBufferProcessor;
+import edu.cmu.sphinx.frontend.endpoint.SpeechEndSignal;
+import edu.cmu.sphinx.frontend.endpoint.SpeechStartSignal;
+import edu.cmu.sphinx.linguist.HMMSearchState;
+import edu.cmu.sphinx.linguist.SearchStateArc;
+import edu.cmu.sphinx.linguist.WordSequence;
+import edu.cmu.sphinx.linguist.acoustic.HMMPosition;
+import edu.cmu.sphinx.linguist.acoustic.HMMState;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianMixture;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianWeights;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.MixtureComponent;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.PackedGaussianMixture;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.PackedGaussianPool;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Senone;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.SenoneHMM;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.SenoneSequence;
+import edu.cmu.sphinx.util.LogMath;
+import edu.cmu.sphinx.util.props.ConfigurationManager;
+
+/**
+ * Scores tokens of states with Gaussian mixture senones, which the scorers
+ * score through their own caches and, for a packed Gaussian pool, in
+ * batches. The frame batched scorer must give the same scores as the simple
+ * one.
+ */
+public class SenoneScoringTest {
+
+    private static final int NUM_SENONES = 6;
+    private static final int NUM_GAUSSIANS = 4;
+    private static final int DIMENSION = 3;
+
+    private final Random random = new Random(11);
+    private final GaussianWeights weights =
+            new GaussianWeights("mixw", NUM_SENONES, NUM_GAUSSIANS, 1);
+
+    /** A mixture which counts how often it is scored. */
+    @SuppressWarnings("serial")
+    private static class CountingMixture extends GaussianMixture {
+        private int scored;
+
+        CountingMixture(GaussianWeights weights, MixtureComponent[] components, int id) {
+            super(weights, components, id);
+        }
+
+        @Override
+        public float calculateScore(Data feature) {
+            scored++;
+            return super.calculateScore(feature);
+        }
+    }
+
+    /** A search state of an HMM state. */
+    private static class SenoneState implements HMMSearchState, ScoreProvider {
+        private final HMMState hmmState;
+
+        SenoneState(HMMState hmmState) {
+            this.hmmState = hmmState;
+        }
+
+        public HMMState getHMMState() {
+            return hmmState;
+        }
+
+        public float getScore(Data data) {
+            return hmmState.getScore(data);
+        }
+
+        public float[] getComponentScore(Data feature) {
+            return hmmState.calculateComponentScore(feature);
+        }
+
+        public SearchStateArc[] getSuccessors() {
+            return new SearchStateArc[0];
+        }
+
+        public boolean isEmitting() {
+            return true;
+        }
+
+        public boolean isFinal() {
+            return false;
+        }
+
+        public String toPrettyString() {
+            return toString();
+        }
+
+        public String getSignature() {
+            return toString();
+        }
+
+        public WordSequence getWordHistory() {
+            return null;
+        }
+
+        public Object getLexState() {
+            return null;
+        }
+
+        public int getOrder() {
+            return 0;
+        }
+    }
+
+    @Test
+    public void testScorersKeepOwnScores() {
+        CountingMixture[] senones = createSenones();
+        SenoneState state = createStates(senones).get(0);
+        SimpleAcousticScorer first = new SimpleAcousticScorer(null, null);
+        SimpleAcousticScorer second = new SimpleAcousticScorer(null, null);
+        Data firstFrame = createFrame(0);
+        Data secondFrame = createFrame(1);
+
+        first.doScoring(createTokens(state), firstFrame);
+        second.doScoring(createTokens(state), secondFrame);
+        // the second scorer does not replace the score of the first one
+        Token token = new Token(state, 0);
+        first.doScoring(Arrays.asList(token), firstFrame);
+
+        Assert.assertEquals(senones[0].scored, 2);
+        Assert.assertEquals(token.getAcousticScore(), senones[0].calculateScore(firstFrame));
+    }
+
+    @Test
+    public void testThreadedScorerKeepsOwnScores() {
+        CountingMixture[] senones = createSenones();
+        List<SenoneState> states = createStates(senones);
+        ThreadedAcousticScorer scorer = new ThreadedAcousticScorer(null, null, 1, false, 4, Thread.NORM_PRIORITY);
+        scorer.allocate();
+        try {
+            Data frame = createFrame(0);
+            List<Token> tokens = new ArrayList<Token>();
+            for (int i = 0; i < 50; i++)
+                tokens.addAll(createTokens(states.get(i % states.size())));
+            scorer.doScoring(tokens, frame);
+            for (Token token : tokens) {
+                GaussianMixture senone = SimpleAcousticScorer.getSenone(token);
+                Assert.assertEquals(token.getAcousticScore(), senone.calculateScore(frame));
+            }
+        } finally {
+            scorer.deallocate();
+        }
+    }
+
+    @Test
+    public void testPackedSenonesScoredInBatch() {
+        CountingMixture[] senones = createSenones();
+        MixtureComponent[][] components = new MixtureComponent[NUM_SENONES][];
+        for (int i = 0; i < NUM_SENONES; i++)
+            components[i] = senones[i].getMixtureComponents();
+        final List<Integer> batches = new ArrayList<Integer>();
+        PackedGaussianPool pool = new PackedGaussianPool(components, weights, new int[] {DIMENSION}) {
+            @Override
+            public void calculateScores(int[] ids, int count, float[] feature, float[] scores) {
+                batches.add(count);
+                super.calculateScores(ids, count, feature, scores);
+            }
+        };
+        Senone[] packed = new Senone[NUM_SENONES];
+        for (int i = 0; i < NUM_SENONES; i++)
+            packed[i] = new PackedGaussianMixture(weights, pool, i);
+        List<SenoneState> states = createStates(packed);
+        SimpleAcousticScorer scorer = new SimpleAcousticScorer(null, null);
+
+        for (int n = 0; n < 3; n++) {
+            Data frame = createFrame(n);
+            List<Token> tokens = new ArrayList<Token>();
+            for (SenoneState state : states)
+                tokens.addAll(createTokens(state));
+            scorer.doScoring(tokens, frame);
+            for (Token token : tokens) {
+                int id = (int) SimpleAcousticScorer.getSenone(token).getID();
+                Assert.assertEquals(token.getAcousticScore(), senones[id].calculateScore(frame));
+            }
+        }
+        Assert.assertEquals(batches, Arrays.asList(NUM_SENONES, NUM_SENONES, NUM_SENONES));
+    }
+
+    @Test
+    public void testFrameBatchedSameAsSimple() {
+        CountingMixture[] senones = createSenones();
+        List<SenoneState> states = createStates(senones);
+        // batches of 4 frames, the speech segments end within a batch
+        List<Data> input = new ArrayList<Data>();
+        input.add(new DataStartSignal(16000));
+        int frames = 0;
+        for (int segment : new int[] {11, 4, 2}) {
+            input.add(new SpeechStartSignal());
+            for (int i = 0; i < segment; i++)
+                input.add(createFrame(frames++));
+            input.add(new SpeechEndSignal());
+        }
+        input.add(new DataEndSignal(0));
+
+        SimpleAcousticScorer simple = new SimpleAcousticScorer(createFrontEnd(input), null);
+        FrameBatchedAcousticScorer batched =
+                new FrameBatchedAcousticScorer(createFrontEnd(input), null, 4);
+        simple.startRecognition();
+        batched.startRecognition();
+        int scored = 0;
+        for (int n = 0; n < 100; n++) {
+            // every frame scores other senones, some join within a batch
+            List<Token> expected = new ArrayList<Token>();
+            List<Token> actual = new ArrayList<Token>();
+            for (int i = 0; i < states.size(); i++) {
+                if ((i + n) % 4 == 0)
+                    continue;
+                expected.addAll(createTokens(states.get(i)));
+                actual.addAll(createTokens(states.get(i)));
+            }
+            Data simpleResult = simple.calculateScores(expected);
+            Data batchedResult = batched.calculateScores(actual);
+            if (simpleResult == null) {
+                Assert.assertNull(batchedResult);
+                break;
+            }
+            Assert.assertEquals(batchedResult.getClass(), simpleResult.getClass());
+            if (simpleResult instanceof Signal)
+                continue;
+            scored++;
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertEquals(actual.get(i).getAcousticScore(), expected.get(i).getAcousticScore());
+                Assert.assertSame(actual.get(i).getData(), expected.get(i).getData());
+            }
+        }
+        Assert.assertEquals(scored, frames);
+    }
+
+    private static DataBufferProcessor createFrontEnd(List<Data> input) {
+        DataBufferProcessor frontEnd = ConfigurationManager.getInstance(DataBufferProcessor.class);
+        for (Data data : input)
+            frontEnd.processDataFrame(data);
+        return frontEnd;
+    }
+
+    private CountingMixture[] createSenones() {
+        LogMath logMath = LogMath.getLogMath();
+        float[] mixw = new float[NUM_GAUSSIANS];
+        Arrays.fill(mixw, logMath.linearToLog(1.0 / NUM_GAUSSIANS));
+        CountingMixture[] senones = new CountingMixture[NUM_SENONES];
+        for (int i = 0; i < NUM_SENONES; i++) {
+            MixtureComponent[] components = new MixtureComponent[NUM_GAUSSIANS];
+            for (int j = 0; j < NUM_GAUSSIANS; j++) {
+                float[] mean = new float[DIMENSION];
+                float[] variance = new float[DIMENSION];
+                for (int k = 0; k < DIMENSION; k++) {
+                    mean[k] = (float) random.nextGaussian();
+                    variance[k] = 0.5f + random.nextFloat();
+                }
+                components[j] = new MixtureComponent(mean, variance);
+            }
+            weights.put(i, 0, mixw);
+            senones[i] = new CountingMixture(weights, components, i);
+        }
+        return senones;
+    }
+
+    /** Creates the emitting states of HMMs of three senones each. */
+    private List<SenoneState> createStates(Senone[] senones) {
+        UnitManager unitManager = new UnitManager();
+        float[][] transitions = new float[4][4];
+        List<SenoneState> states = new ArrayList<SenoneState>();
+        for (int i = 0; i + 3 <= senones.length; i += 3) {
+            SenoneHMM hmm = new SenoneHMM(unitManager.getUnit("U" + i),
+                    new SenoneSequence(Arrays.copyOfRange(senones, i, i + 3)),
+                    transitions, HMMPosition.UNDEFINED);
+            for (int j = 0; j < 3; j++)
+                states.add(new SenoneState(hmm.getState(j)));
+        }
+        return states;
+    }
+
+    private static List<Token> createTokens(SenoneState state) {
+        return Arrays.asList(new Token(state, 0), new Token(state, 0));
+    }
+
+    private Data createFrame(long firstSample) {
+        float[] values = new float[DIMENSION];
+        for (int k = 0; k < DIMENSION; k++)
+            values[k] = (float) random.nextGaussian();
+        return new FloatData(values, 16000, firstSample);
+    }
+}
@@ -0,0 +1,126 @@
+package edu.cmu.sphinx.decoder.search.test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.decoder.search.BestTokenTable;
+import edu.cmu.sphinx.decoder.search.Token;
+import edu.cmu.sphinx.decoder.search.TokenArena;
+import edu.cmu.sphinx.linguist.SearchState;
+import edu.cmu.sphinx.linguist.SearchStateArc;
+import edu.cmu.sphinx.linguist.WordSequence;
+
+public class BestTokenTableTest {
+
+    /** A state with a configurable, possibly colliding, hash code */
+    static class TestState implements SearchState {
+        final int id;
+        final int hash;
+
+        TestState(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TestState && ((TestState) o).id == id;
+        }
+
+        public SearchStateArc[] getSuccessors() {
+            return new SearchStateArc[0];
+        }
+
+        public boolean isEmitting() {
+            return true;
+        }
+
+        public boolean isFinal() {
+            return false;
+        }
+
+        public String toPrettyString() {
+            return "state " + id;
+        }
+
+        public String getSignature() {
+            return toPrettyString();
+        }
+
+        public WordSequence getWordHistory() {
+            return null;
+        }
+
+        public Object getLexState() {
+            return null;
+        }
+
+        public int getOrder() {
+            return 0;
+        }
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        BestTokenTable table = new BestTokenTable();
+        Map<SearchState, Token> map = new HashMap<SearchState, Token>();
+
+        for (int frame = 0; frame < 3; frame++) {
+            table.clear();
+            map.clear();
+            // many states share hash codes to exercise probing and growth
+            for (int i = 0; i < 5000; i++) {
+                TestState state = new TestState(i, i % 97 * 37);
+                Token token = new Token(state, frame);
+                table.put(state, token);
+                map.put(state, token);
+            }
+            // replace some of the entries
+            for (int i = 0; i < 5000; i += 3) {
+                TestState state = new TestState(i, i % 97 * 37);
+                Token token = new Token(state, frame);
+                table.put(state, token);
+                map.put(state, token);
+            }
+
+            Assert.assertEquals(table.size(), map.size());
+            for (Map.Entry<SearchState, Token> entry : map.entrySet())
+                Assert.assertSame(table.get(entry.getKey()), entry.getValue());
+            Assert.assertNull(table.get(new TestState(5000, 0)));
+        }
+
+        table.clear();
+        Assert.assertEquals(table.size(), 0);
+        Assert.assertNull(table.get(new TestState(1, 37)));
+    }
+
+    @Test
+    public void testArenaRecycling() {
+        TokenArena arena = new TokenArena();
+        TestState state = new TestState(0, 0);
+
+        arena.nextGeneration();
+        Token first = arena.newToken(null, state, -1.0f, 0.0f, 0.0f, 0);
+        first.applyScore(-2.0f, null);
+        arena.nextGeneration();
+        Token second = arena.newToken(null, state, -1.0f, 0.0f, 0.0f, 0);
+        Assert.assertNotSame(second, first);
+
+        // the generation before the previous one is reused and reset
+        arena.nextGeneration();
+        Token third = arena.newToken(first, state, -3.0f, 0.0f, 0.0f, 10);
+        Assert.assertSame(third, first);
+        Assert.assertEquals(third.getScore(), -3.0f);
+        Assert.assertEquals(third.getAcousticScore(), 0.0f);
+        Assert.assertNull(third.getData());
+        Assert.assertEquals(arena.getTokensAllocated(), 2);
+    }
+}
@@ -0,0 +1,62 @@
+package edu.cmu.sphinx.decoder.search.test;
+
+import static edu.cmu.sphinx.decoder.search.test.SearchGraphFixture.NUM_FRAMES;
+import static edu.cmu.sphinx.decoder.search.test.SearchGraphFixture.createFactories;
+import static edu.cmu.sphinx.decoder.search.test.SearchGraphFixture.decode;
+
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.decoder.pruner.SimplePruner;
+import edu.cmu.sphinx.decoder.search.PooledTokenSearchManager;
+import edu.cmu.sphinx.decoder.search.SimpleActiveListManager;
+import edu.cmu.sphinx.decoder.search.WordPruningBreadthFirstSearchManager;
+import edu.cmu.sphinx.decoder.search.test.SearchGraphFixture.TestLinguist;
+import edu.cmu.sphinx.decoder.search.test.SearchGraphFixture.TestScorer;
+
+/**
+ * Checks that recycling the tokens does not change the search of the word
+ * pruning search manager on a random search graph.
+ */
+public class PooledTokenSearchManagerTest {
+
+    private void compare(boolean buildWordLattice, double nonEmittingBeam) {
+        WordPruningBreadthFirstSearchManager plain = new WordPruningBreadthFirstSearchManager(new TestLinguist(7),
+                new SimplePruner(), new TestScorer(),
+                new SimpleActiveListManager(createFactories(nonEmittingBeam), false), false, 0.0, 0, true,
+                buildWordLattice, 100, 0.0f, false);
+        PooledTokenSearchManager pooled = new PooledTokenSearchManager(new TestLinguist(7), new SimplePruner(),
+                new TestScorer(), new SimpleActiveListManager(createFactories(nonEmittingBeam), false), false, 0.0, 0,
+                true, buildWordLattice, 100, 0.0f, false);
+
+        List<String> expected = decode(plain);
+        List<String> actual = decode(pooled);
+
+        Assert.assertEquals(actual.size(), NUM_FRAMES);
+        Assert.assertEquals(expected.size(), NUM_FRAMES);
+        for (int i = 0; i < expected.size(); i++)
+            Assert.assertEquals(actual.get(i), expected.get(i), "frame " + i);
+    }
+
+    @Test
+    public void testSameAsWordPruning() {
+        compare(false, 1E-30);
+    }
+
+    @Test
+    public void testSameAsWordPruningWithLattice() {
+        compare(true, 1E-30);
+    }
+
+    @Test
+    public void testSameAsWordPruningWithTightBeam() {
+        compare(false, 0.999);
+    }
+
+    @Test
+    public void testSameAsWordPruningWithLatticeAndTightBeam() {
+        compare(true, 0.999);
+    }
+}
@@ -0,0 +1,295 @@
+package edu.cmu.sphinx.decoder.search.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.cmu.sphinx.decoder.scorer.AcousticScorer;
+import edu.cmu.sphinx.decoder.scorer.Scoreable;
+import edu.cmu.sphinx.decoder.search.ActiveListFactory;
+import edu.cmu.sphinx.decoder.search.AlternateHypothesisManager;
+import edu.cmu.sphinx.decoder.search.PartitionActiveListFactory;
+import edu.cmu.sphinx.decoder.search.Token;
+import edu.cmu.sphinx.decoder.search.WordPruningBreadthFirstSearchManager;
+import edu.cmu.sphinx.frontend.Data;
+import edu.cmu.sphinx.linguist.Linguist;
+import edu.cmu.sphinx.linguist.SearchGraph;
+import edu.cmu.sphinx.linguist.SearchState;
+import edu.cmu.sphinx.linguist.SearchStateArc;
+import edu.cmu.sphinx.linguist.WordSearchState;
+import edu.cmu.sphinx.linguist.WordSequence;
+import edu.cmu.sphinx.linguist.dictionary.Pronunciation;
+import edu.cmu.sphinx.result.Result;
+import edu.cmu.sphinx.util.props.PropertySheet;
+
+/**
+ * A random search graph with a deterministic scorer, and a trace of the
+ * active tokens of every frame, to compare the search managers with each
+ * other.
+ */
+class SearchGraphFixture {
+
+    static final int NUM_FRAMES = 40;
+
+    static class State implements SearchState, SearchStateArc {
+        final int id;
+        final boolean emitting;
+        final float probability;
+        SearchStateArc[] successors = new SearchStateArc[0];
+        Set<String> threads;
+
+        State(int id, boolean emitting, float probability) {
+            this.id = id;
+            this.emitting = emitting;
+            this.probability = probability;
+        }
+
+        State arc(float arcProbability) {
+            State arc = createCopy(arcProbability);
+            arc.successors = successors;
+            arc.threads = threads;
+            return arc;
+        }
+
+        State createCopy(float arcProbability) {
+            return new State(id, emitting, arcProbability);
+        }
+
+        @Override
+        public int hashCode() {
+            // plenty of collisions
+            return id % 97;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof State && ((State) o).id == id;
+        }
+
+        public SearchStateArc[] getSuccessors() {
+            threads.add(Thread.currentThread().getName());
+            return successors;
+        }
+
+        public boolean isEmitting() {
+            return emitting;
+        }
+
+        public boolean isFinal() {
+            return false;
+        }
+
+        public String toPrettyString() {
+            return Integer.toString(id);
+        }
+
+        public String getSignature() {
+            return toPrettyString();
+        }
+
+        public WordSequence getWordHistory() {
+            return null;
+        }
+
+        public Object getLexState() {
+            return null;
+        }
+
+        public int getOrder() {
+            return emitting ? 1 : 0;
+        }
+
+        public SearchState getState() {
+            return this;
+        }
+
+        public float getProbability() {
+            return probability;
+        }
+
+        public float getLanguageProbability() {
+            return 0;
+        }
+
+        public float getInsertionProbability() {
+            return 0;
+        }
+    }
+
+    static class WordState extends State implements WordSearchState {
+
+        WordState(int id, float probability) {
+            super(id, false, probability);
+        }
+
+        @Override
+        State createCopy(float arcProbability) {
+            return new WordState(id, arcProbability);
+        }
+
+        public Pronunciation getPronunciation() {
+            return null;
+        }
+
+        public boolean isWordStart() {
+            return false;
+        }
+    }
+
+    static class TestLinguist implements Linguist, SearchGraph {
+        final State initial;
+        // the threads which expanded states
+        final Set<String> threads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        TestLinguist(long seed) {
+            Random random = new Random(seed);
+            float[] probabilities = {-1, -2, -3, -5};
+            State[] emitting = new State[3000];
+            State[] words = new State[200];
+            for (int i = 0; i < emitting.length; i++)
+                emitting[i] = new State(i, true, 0);
+            for (int i = 0; i < words.length; i++)
+                words[i] = new WordState(emitting.length + i, 0);
+            for (State state : emitting) {
+                List<SearchStateArc> arcs = new ArrayList<SearchStateArc>();
+                arcs.add(state);
+                for (int i = 0; i < 6; i++)
+                    arcs.add(emitting[random.nextInt(emitting.length)]);
+                if (random.nextInt(10) == 0)
+                    arcs.add(words[random.nextInt(words.length)]);
+                state.successors = arcs.toArray(new SearchStateArc[arcs.size()]);
+            }
+            for (State state : emitting)
+                state.threads = threads;
+            for (State word : words) {
+                word.threads = threads;
+                word.successors = new SearchStateArc[3];
+                for (int i = 0; i < 3; i++)
+                    word.successors[i] = emitting[random.nextInt(emitting.length)];
+            }
+            // give every arc its own probability
+            for (State state : emitting)
+                for (int i = 0; i < state.successors.length; i++)
+                    state.successors[i] = ((State) state.successors[i])
+                            .arc(probabilities[random.nextInt(probabilities.length)]);
+            initial = new WordState(-1, 0);
+            initial.threads = threads;
+            initial.successors = Arrays.copyOf(emitting, 50, SearchStateArc[].class);
+        }
+
+        public SearchGraph getSearchGraph() {
+            return this;
+        }
+
+        public void startRecognition() {
+        }
+
+        public void stopRecognition() {
+        }
+
+        public void allocate() {
+        }
+
+        public void deallocate() {
+        }
+
+        public void newProperties(PropertySheet ps) {
+        }
+
+        public SearchState getInitialState() {
+            return initial;
+        }
+
+        public int getNumStateOrder() {
+            return 2;
+        }
+
+        public boolean getWordTokenFirst() {
+            return false;
+        }
+    }
+
+    static class TestScorer implements AcousticScorer {
+        int frame;
+
+        public Data calculateScores(List<? extends Scoreable> scoreableList) {
+            if (frame++ >= NUM_FRAMES)
+                return null;
+            Token best = null;
+            for (Scoreable scoreable : scoreableList) {
+                Token token = (Token) scoreable;
+                int id = ((State) token.getSearchState()).id;
+                int hash = (id * 7919 + frame * 104729) & 0xffff;
+                token.applyScore(-(hash % 1000) / 10.0f, null);
+                if (best == null || token.getScore() > best.getScore())
+                    best = token;
+            }
+            return best;
+        }
+
+        public Data calculateScoresAndStoreData(List<? extends Scoreable> scoreableList) {
+            return calculateScores(scoreableList);
+        }
+
+        public void allocate() {
+        }
+
+        public void deallocate() {
+        }
+
+        public void startRecognition() {
+            frame = 0;
+        }
+
+        public void stopRecognition() {
+        }
+
+        public void newProperties(PropertySheet ps) {
+        }
+    }
+
+    static List<String> decode(WordPruningBreadthFirstSearchManager searchManager) {
+        List<String> trace = new ArrayList<String>();
+        searchManager.allocate();
+        searchManager.startRecognition();
+        Result result;
+        while ((result = searchManager.recognize(1)) != null) {
+            AlternateHypothesisManager loserManager = result.getAlternateHypothesisManager();
+            StringBuilder sb = new StringBuilder();
+            for (Token token : result.getActiveTokens()) {
+                for (Token t = token; t != null; t = t.getPredecessor()) {
+                    append(sb, t);
+                    // the lattice keeps the alternatives of word tokens
+                    if (loserManager != null && loserManager.hasAlternatePredecessors(t)) {
+                        sb.append('[');
+                        for (Token loser : loserManager.getAlternatePredecessors(t))
+                            append(sb, loser);
+                        sb.append("] ");
+                    }
+                }
+                sb.append('\n');
+            }
+            trace.add(sb.toString());
+        }
+        searchManager.stopRecognition();
+        searchManager.deallocate();
+        return trace;
+    }
+
+    private static void append(StringBuilder sb, Token token) {
+        SearchState state = token.getSearchState();
+        sb.append(state == null ? "-" : ((State) state).id).append(':')
+                .append(Float.floatToIntBits(token.getScore())).append(' ');
+    }
+
+    static List<ActiveListFactory> createFactories(double nonEmittingBeam) {
+        List<ActiveListFactory> factories = new ArrayList<ActiveListFactory>();
+        factories.add(new PartitionActiveListFactory(500, nonEmittingBeam));
+        factories.add(new PartitionActiveListFactory(2000, 1E-60));
+        return factories;
+    }
+}
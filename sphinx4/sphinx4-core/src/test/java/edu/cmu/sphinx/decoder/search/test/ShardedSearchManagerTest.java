@@ -0,0 +1,76 @@
+package edu.cmu.sphinx.decoder.search.test;
+
+import static edu.cmu.sphinx.decoder.search.test.SearchGraphFixture.NUM_FRAMES;
+import static edu.cmu.sphinx.decoder.search.test.SearchGraphFixture.createFactories;
+import static edu.cmu.sphinx.decoder.search.test.SearchGraphFixture.decode;
+
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.decoder.pruner.SimplePruner;
+import edu.cmu.sphinx.decoder.search.PooledTokenSearchManager;
+import edu.cmu.sphinx.decoder.search.ShardedSearchManager;
+import edu.cmu.sphinx.decoder.search.SimpleActiveListManager;
+import edu.cmu.sphinx.decoder.search.WordPruningBreadthFirstSearchManager;
+import edu.cmu.sphinx.decoder.search.test.SearchGraphFixture.TestLinguist;
+import edu.cmu.sphinx.decoder.search.test.SearchGraphFixture.TestScorer;
+
+/**
+ * Checks that the sharded expansion produces the same search as the serial
+ * ones on a random search graph.
+ */
+public class ShardedSearchManagerTest {
+
+    private void compare(boolean buildWordLattice, double nonEmittingBeam) {
+        WordPruningBreadthFirstSearchManager plain = new WordPruningBreadthFirstSearchManager(new TestLinguist(7),
+                new SimplePruner(), new TestScorer(),
+                new SimpleActiveListManager(createFactories(nonEmittingBeam), false), false, 0.0, 0, true,
+                buildWordLattice, 100, 0.0f, false);
+        PooledTokenSearchManager serial = new PooledTokenSearchManager(new TestLinguist(7), new SimplePruner(),
+                new TestScorer(), new SimpleActiveListManager(createFactories(nonEmittingBeam), false), false, 0.0, 0,
+                true, buildWordLattice, 100, 0.0f, false);
+        TestLinguist linguist = new TestLinguist(7);
+        ShardedSearchManager sharded = new ShardedSearchManager(linguist, new SimplePruner(),
+                new TestScorer(), new SimpleActiveListManager(createFactories(nonEmittingBeam), false), false, 0.0, 0,
+                true, buildWordLattice, 100, 0.0f, false, 4, false, 1);
+
+        List<String> original = decode(plain);
+        List<String> expected = decode(serial);
+        List<String> actual = decode(sharded);
+
+        Assert.assertEquals(actual.size(), NUM_FRAMES);
+        Assert.assertTrue(sharded.getShardedExpansions() >= NUM_FRAMES - 1);
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(actual.get(i), expected.get(i), "frame " + i);
+            Assert.assertEquals(actual.get(i), original.get(i), "frame " + i);
+        }
+        // the successors are expanded by the workers
+        boolean expandedByWorker = false;
+        for (String thread : linguist.threads)
+            expandedByWorker |= thread.startsWith(ShardedSearchManager.class.getSimpleName());
+        Assert.assertTrue(expandedByWorker, linguist.threads.toString());
+    }
+
+    @Test
+    public void testSameAsSerial() {
+        compare(false, 1E-30);
+    }
+
+    @Test
+    public void testSameAsSerialWithLattice() {
+        compare(true, 1E-30);
+    }
+
+    @Test
+    public void testSameAsSerialWithTightBeam() {
+        // the beam threshold depends on the order the tokens are added in
+        compare(false, 0.999);
+    }
+
+    @Test
+    public void testSameAsSerialWithLatticeAndTightBeam() {
+        compare(true, 0.999);
+    }
+}
@@ -0,0 +1,128 @@
+package edu.cmu.sphinx.frontend;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.frontend.filter.Preemphasizer;
+import edu.cmu.sphinx.frontend.transform.DiscreteFourierTransform;
+import edu.cmu.sphinx.frontend.util.AudioFileDataSource;
+import edu.cmu.sphinx.frontend.window.RaisedCosineWindower;
+
+/**
+ * Compares the output of a pipeline running ahead in an
+ * {@link AsyncDataProcessor} with the output of the same pipeline pulled
+ * synchronously.
+ */
+public class AsyncDataProcessorTest {
+
+    @Test
+    public void testSameOutput() {
+        AudioFileDataSource expectedSource = createSource();
+        FrontEnd expected = createFrontEnd(expectedSource, null);
+        AudioFileDataSource actualSource = createSource();
+        AsyncDataProcessor async = new AsyncDataProcessor(4);
+        FrontEnd actual = createFrontEnd(actualSource, async);
+
+        for (int utterance = 0; utterance < 2; utterance++) {
+            expectedSource.setAudioFile(getClass().getResource("test-feat.wav"), null);
+            actualSource.setAudioFile(getClass().getResource("test-feat.wav"), null);
+            List<Data> expectedData = readStream(expected);
+            List<Data> actualData = readStream(actual);
+
+            Assert.assertEquals(actualData.size(), expectedData.size());
+            for (int i = 0; i < expectedData.size(); i++) {
+                Data e = expectedData.get(i);
+                Data a = actualData.get(i);
+                Assert.assertEquals(a.getClass(), e.getClass());
+                if (e instanceof DoubleData)
+                    Assert.assertTrue(Arrays.equals(((DoubleData) a).getValues(),
+                            ((DoubleData) e).getValues()));
+            }
+            assertThat(async.getOccupancy(), lessThanOrEqualTo(async.getCapacity()));
+        }
+
+        // The source is exhausted
+        Assert.assertNull(actual.getData());
+        assertThat(async.getAverageOccupancy(),
+                lessThanOrEqualTo((double) async.getCapacity()));
+    }
+
+    @Test(expectedExceptions = DataProcessingException.class)
+    public void testFailure() {
+        final AsyncDataProcessor async = new AsyncDataProcessor(2);
+        async.setPredecessor(new BaseDataProcessor() {
+            private int count;
+
+            @Override
+            public Data getData() throws DataProcessingException {
+                if (count++ < 5)
+                    return new DoubleData(new double[] {count});
+                throw new DataProcessingException("failed");
+            }
+        });
+        async.initialize();
+
+        assertThat(async.getData(), instanceOf(DoubleData.class));
+        for (int i = 0; i < 4; i++)
+            assertThat(async.getData(), instanceOf(DoubleData.class));
+        async.getData();
+    }
+
+    private AudioFileDataSource createSource() {
+        return new AudioFileDataSource(320, null);
+    }
+
+    private List<Data> readStream(FrontEnd frontEnd) {
+        List<Data> stream = new ArrayList<Data>();
+        Data data;
+        do {
+            data = frontEnd.getData();
+            Assert.assertNotNull(data);
+            stream.add(data);
+        } while (!(data instanceof DataEndSignal));
+        assertThat(stream.get(0), instanceOf(DataStartSignal.class));
+        return stream;
+    }
+
+    private FrontEnd createFrontEnd(AudioFileDataSource source,
+                                    AsyncDataProcessor async) {
+        List<DataProcessor> pipeline = new ArrayList<DataProcessor>();
+        pipeline.add(source);
+        pipeline.add(new Preemphasizer(0.97));
+        pipeline.add(new RaisedCosineWindower(0.46, 25.625f, 10.0f));
+        pipeline.add(new DiscreteFourierTransform(-1, false));
+        if (async != null)
+            pipeline.add(async);
+        pipeline.add(new SquaringProcessor());
+
+        FrontEnd frontEnd = new FrontEnd(pipeline);
+        frontEnd.initialize();
+        return frontEnd;
+    }
+
+    /** Squares the power spectrum so that a stage follows the async one. */
+    private static class SquaringProcessor extends BaseDataProcessor {
+
+        @Override
+        public Data getData() throws DataProcessingException {
+            Data data = getPredecessor().getData();
+            if (data instanceof DoubleData) {
+                DoubleData input = (DoubleData) data;
+                double[] values = input.getValues().clone();
+                for (int i = 0; i < values.length; i++)
+                    values[i] *= values[i];
+                data = new DoubleData(values, input.getSampleRate(),
+                        input.getFirstSampleNumber());
+            }
+            return data;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.frontend;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.frontend.endpoint.SpeechEndSignal;
+import edu.cmu.sphinx.frontend.endpoint.SpeechStartSignal;
+import edu.cmu.sphinx.frontend.util.FeatureStore;
+import edu.cmu.sphinx.frontend.util.FeatureStoreDataSource;
+import edu.cmu.sphinx.util.TimeFrame;
+
+/**
+ * Replays stored features, kept in memory or in a file, over time frames
+ * which start and end inside and outside speech.
+ */
+public class FeatureStoreTest {
+
+    @Test
+    public void testMemoryStore() throws Exception {
+        FeatureStore store = createStore(new FeatureStore());
+        checkStore(store);
+        store.close();
+    }
+
+    @Test
+    public void testFileStore() throws Exception {
+        File file = File.createTempFile("features", ".bin");
+        FeatureStore store = createStore(new FeatureStore(file));
+        checkStore(store);
+        store.close();
+        Assert.assertFalse(file.exists());
+    }
+
+    /**
+     * Two speech segments, frames at 100-190 ms and 500-590 ms, with three
+     * values each.
+     */
+    private FeatureStore createStore(FeatureStore store) {
+        store.add(new DataStartSignal(16000));
+        store.add(new SpeechStartSignal(90));
+        for (int i = 0; i < 10; i++)
+            store.add(frame(100 + 10 * i));
+        store.add(new SpeechEndSignal(200));
+        store.add(new SpeechStartSignal(490));
+        for (int i = 0; i < 10; i++)
+            store.add(frame(500 + 10 * i));
+        // the end of speech at the end of data has the wall clock time
+        store.add(new SpeechEndSignal());
+        store.add(new DataEndSignal(700));
+        return store;
+    }
+
+    private FloatData frame(long time) {
+        return new FloatData(new float[] {time, time + 1, time + 2}, 16000, time, time * 16);
+    }
+
+    private void checkStore(FeatureStore store) {
+        Assert.assertTrue(store.isComplete());
+        Assert.assertEquals(store.size(), 20);
+        Assert.assertEquals(store.getDimension(), 3);
+        Assert.assertEquals(store.getSampleRate(), 16000);
+        Assert.assertEquals(store.getDuration(), 700);
+
+        List<TimeFrame> segments = store.getSpeechSegments();
+        Assert.assertEquals(segments.size(), 2);
+        Assert.assertEquals(segments.get(0).toString(), "90:200");
+        Assert.assertEquals(segments.get(1).toString(), "490:700");
+
+        FeatureStoreDataSource source = new FeatureStoreDataSource();
+
+        source.setFeatureStore(store, TimeFrame.INFINITE);
+        Assert.assertEquals(replay(source), "DS SS 100 110 120 130 140 150 160 170 180 190 SE "
+                + "SS 500 510 520 530 540 550 560 570 580 590 SE DE");
+
+        // starts and ends inside the segments
+        source.setFeatureStore(store, new TimeFrame(150, 520));
+        Assert.assertEquals(replay(source), "DS SS 150 160 170 180 190 SE SS 500 510 520 SE DE");
+
+        // the second segment only
+        source.setFeatureStore(store, segments.get(1));
+        Assert.assertEquals(replay(source), "DS SS 500 510 520 530 540 550 560 570 580 590 SE DE");
+
+        // the first segment, ending with its last frame
+        source.setFeatureStore(store, new TimeFrame(90, 190));
+        Assert.assertEquals(replay(source), "DS SS 100 110 120 130 140 150 160 170 180 190 SE DE");
+
+        // no speech
+        source.setFeatureStore(store, new TimeFrame(300, 400));
+        Assert.assertEquals(replay(source), "DS DE");
+
+        FloatData frame = store.getFrame(12);
+        Assert.assertEquals(frame.getCollectTime(), 520);
+        Assert.assertEquals(frame.getFirstSampleNumber(), 520 * 16);
+        Assert.assertEquals(frame.getValues(), new float[] {520, 521, 522});
+    }
+
+    private String replay(DataProcessor source) {
+        List<String> items = new ArrayList<String>();
+        Data data;
+        while ((data = source.getData()) != null) {
+            if (data instanceof DataStartSignal)
+                items.add("DS");
+            else if (data instanceof SpeechStartSignal)
+                items.add("SS");
+            else if (data instanceof SpeechEndSignal)
+                items.add("SE");
+            else if (data instanceof DataEndSignal)
+                items.add("DE");
+            else
+                items.add(Long.toString(((FloatData) data).getCollectTime()));
+        }
+        StringBuilder result = new StringBuilder();
+        for (String item : items) {
+            if (result.length() > 0)
+                result.append(' ');
+            result.append(item);
+        }
+        return result.toString();
+    }
+}
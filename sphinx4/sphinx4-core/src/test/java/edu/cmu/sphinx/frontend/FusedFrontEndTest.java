@@ -0,0 +1,117 @@
+package edu.cmu.sphinx.frontend;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.frontend.filter.Preemphasizer;
+import edu.cmu.sphinx.frontend.frequencywarp.PLPCepstrumProducer;
+import edu.cmu.sphinx.frontend.frequencywarp.PLPFrequencyFilterBank;
+import edu.cmu.sphinx.frontend.transform.DiscreteFourierTransform;
+import edu.cmu.sphinx.frontend.util.AudioFileDataSource;
+import edu.cmu.sphinx.frontend.window.RaisedCosineWindower;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Loader;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Sphinx3Loader;
+
+/**
+ * Compares the cepstra of the fused front end stages with the ones of the
+ * modular pipelines they replace.
+ */
+public class FusedFrontEndTest {
+
+    @DataProvider(name = "featParams")
+    public Object[][] featParams() {
+        return new Object[][] {
+            {"-lowerf 130\n-upperf 6800\n-nfilt 40\n"},
+            {"-lowerf 130\n-upperf 6800\n-nfilt 25\n-transform dct\n-lifter 22\n"},
+            {"-lowerf 200\n-upperf 3500\n-nfilt 20\n-transform kaldi\n-remove_noise no\n"}};
+    }
+
+    @Test(dataProvider = "featParams")
+    public void testMfcc(String featParams) throws IOException {
+        List<DataProcessor> modular = new ArrayList<DataProcessor>();
+        modular.add(new DiscreteFourierTransform(-1, false));
+        modular.add(new AutoCepstrum(createLoader(featParams)));
+
+        List<DataProcessor> fused = new ArrayList<DataProcessor>();
+        fused.add(new FusedMfccFrontEnd(createLoader(featParams), -1));
+
+        compare(modular, fused);
+    }
+
+    @Test
+    public void testPlp() {
+        List<DataProcessor> modular = new ArrayList<DataProcessor>();
+        modular.add(new DiscreteFourierTransform(512, false));
+        modular.add(new PLPFrequencyFilterBank(130, 3600, 32));
+        modular.add(new PLPCepstrumProducer(32, 13, 14));
+
+        List<DataProcessor> fused = new ArrayList<DataProcessor>();
+        fused.add(new FusedPlpFrontEnd(512, 130, 3600, 32, 13, 14));
+
+        compare(modular, fused);
+    }
+
+    private void compare(List<DataProcessor> modular, List<DataProcessor> fused) {
+        FrontEnd expected = createFrontEnd(modular);
+        FrontEnd actual = createFrontEnd(fused);
+
+        int frames = 0;
+        Data expectedData;
+        do {
+            expectedData = expected.getData();
+            Data actualData = actual.getData();
+            if (expectedData instanceof DoubleData) {
+                Assert.assertTrue(actualData instanceof DoubleData);
+                DoubleData expectedFrame = (DoubleData) expectedData;
+                DoubleData actualFrame = (DoubleData) actualData;
+                Assert.assertTrue(Arrays.equals(actualFrame.getValues(),
+                        expectedFrame.getValues()), "frame " + frames);
+                Assert.assertEquals(actualFrame.getFirstSampleNumber(),
+                        expectedFrame.getFirstSampleNumber());
+                frames++;
+            } else if (expectedData != null) {
+                Assert.assertEquals(actualData.getClass(), expectedData.getClass());
+            } else {
+                Assert.assertNull(actualData);
+            }
+        } while (expectedData != null);
+
+        Assert.assertTrue(frames > 100);
+    }
+
+    private FrontEnd createFrontEnd(List<DataProcessor> cepstrum) {
+        AudioFileDataSource source = new AudioFileDataSource(320, null);
+        source.setAudioFile(getClass().getResource("test-feat.wav"), null);
+
+        List<DataProcessor> pipeline = new ArrayList<DataProcessor>();
+        pipeline.add(source);
+        pipeline.add(new Preemphasizer(0.97));
+        pipeline.add(new RaisedCosineWindower(0.46, 25.625f, 10.0f));
+        pipeline.addAll(cepstrum);
+
+        FrontEnd frontEnd = new FrontEnd(pipeline);
+        frontEnd.initialize();
+        return frontEnd;
+    }
+
+    private static Loader createLoader(String featParams) {
+        final Properties properties = new Properties();
+        for (String line : featParams.split("\n")) {
+            String[] tokens = line.split(" ");
+            properties.setProperty(tokens[0], tokens[1]);
+        }
+        return new Sphinx3Loader() {
+            @Override
+            public void load() {
+                modelProps = properties;
+            }
+        };
+    }
+}
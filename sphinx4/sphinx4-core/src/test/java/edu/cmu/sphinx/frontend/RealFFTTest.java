@@ -0,0 +1,110 @@
+package edu.cmu.sphinx.frontend;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+
+import java.util.Random;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.frontend.transform.DiscreteFourierTransform;
+import edu.cmu.sphinx.frontend.transform.RealFFT;
+
+/**
+ * Compares {@link RealFFT} and the inverse {@link DiscreteFourierTransform}
+ * with the Fourier transform computed by definition.
+ */
+public class RealFFTTest {
+
+    @DataProvider(name = "sizes")
+    public Object[][] sizes() {
+        return new Object[][] {{1}, {2}, {4}, {8}, {64}, {512}};
+    }
+
+    @Test(dataProvider = "sizes")
+    public void testSpectrum(int size) {
+        double[] signal = randomSignal(size);
+        double[] data = signal.clone();
+        new RealFFT(size).transform(data);
+
+        for (int k = 0; k <= size / 2; k++) {
+            double[] expected = dft(signal, k);
+            double re, im;
+            if (k == 0) {
+                re = data[0];
+                im = 0;
+            } else if (k == size / 2) {
+                re = data[1];
+                im = 0;
+            } else {
+                re = data[2 * k];
+                im = data[2 * k + 1];
+            }
+            assertThat(re, closeTo(expected[0], 1e-9 * size));
+            assertThat(im, closeTo(expected[1], 1e-9 * size));
+        }
+    }
+
+    @Test(dataProvider = "sizes")
+    public void testPowerSpectrum(int size) {
+        double[] signal = randomSignal(size);
+        double[] power = new double[size / 2 + 1];
+        new RealFFT(size).powerSpectrum(signal.clone(), power);
+
+        for (int k = 0; k <= size / 2; k++) {
+            double[] expected = dft(signal, k);
+            double magnitude = expected[0] * expected[0] + expected[1] * expected[1];
+            assertThat(power[k], closeTo(magnitude, 1e-9 * size * size));
+        }
+    }
+
+    @Test(dataProvider = "sizes")
+    public void testInversePowerSpectrum(int size) {
+        double[] signal = randomSignal(size);
+        double[] power = new DiscreteFourierTransform(size, true)
+                .powerSpectrum(signal, null);
+
+        // the complex transform scaled the input by 1 / size
+        for (int k = 0; k <= size / 2; k++) {
+            double[] expected = inverseDft(signal, k);
+            double magnitude = expected[0] * expected[0] + expected[1] * expected[1];
+            assertThat(power[k], closeTo(magnitude, 1e-12));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRejectsOtherSizes() {
+        new RealFFT(48);
+    }
+
+    private static double[] randomSignal(int size) {
+        Random random = new Random(size);
+        double[] signal = new double[size];
+        for (int i = 0; i < size; i++)
+            signal[i] = random.nextDouble() * 2 - 1;
+        return signal;
+    }
+
+    private static double[] dft(double[] signal, int k) {
+        double re = 0;
+        double im = 0;
+        for (int n = 0; n < signal.length; n++) {
+            double w = -2 * Math.PI * k * n / signal.length;
+            re += signal[n] * Math.cos(w);
+            im += signal[n] * Math.sin(w);
+        }
+        return new double[] {re, im};
+    }
+
+    private static double[] inverseDft(double[] signal, int k) {
+        double re = 0;
+        double im = 0;
+        for (int n = 0; n < signal.length; n++) {
+            double w = 2 * Math.PI * k * n / signal.length;
+            re += signal[n] / signal.length * Math.cos(w);
+            im += signal[n] / signal.length * Math.sin(w);
+        }
+        return new double[] {re, im};
+    }
+}
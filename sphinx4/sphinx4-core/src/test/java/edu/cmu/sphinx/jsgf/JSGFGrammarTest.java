@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.jsgf;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.jsgf.parser.JSGFParser;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.dictionary.TextDictionary;
+import edu.cmu.sphinx.linguist.language.grammar.GrammarArc;
+import edu.cmu.sphinx.linguist.language.grammar.GrammarNode;
+
+/**
+ * Changes rules of a small grammar and compares the sentences of the grammar
+ * graph updated by an incremental commit with the sentences of the graph
+ * created from scratch.
+ */
+public class JSGFGrammarTest {
+
+    private static final String GRAMMAR = "#JSGF V1.0;\ngrammar cmd;\n"
+            + "public <command> = <action> <object> | stop;\n"
+            + "<action> = open | close;\n"
+            + "<object> = [the] <thing> | all;\n"
+            + "<thing> = window | file;\n";
+
+    private File dir;
+
+    @BeforeMethod
+    public void createFiles() throws IOException {
+        dir = File.createTempFile("jsgf", "");
+        dir.delete();
+        dir.mkdir();
+        writeText("dict", "all AO L\nand AE N D\nclose K L OW Z\nfile F AY L\nmenu M EH N UW\n"
+                + "now N AW\nopen OW P AH N\nstop S T AA P\nthe DH AH\nwindow W IH N D OW\n");
+        writeText("fillerdict", "<s> SIL\n</s> SIL\n<sil> SIL\n");
+        writeText("cmd.gram", GRAMMAR);
+    }
+
+    @AfterMethod
+    public void deleteFiles() {
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testChangedRuleIsReplaced() throws Exception {
+        JSGFGrammar grammar = createGrammar(false, true);
+        GrammarNode initialNode = grammar.getInitialNode();
+        int nodes = grammar.getNumNodes();
+
+        grammar.getRuleGrammar().setRule("thing",
+                JSGFParser.ruleForJSGF("window | file | menu"), false);
+        grammar.commitChanges();
+
+        Assert.assertSame(grammar.getInitialNode(), initialNode);
+        Assert.assertFalse(grammar.getChangedNodes().isEmpty());
+        Assert.assertTrue(grammar.getNumNodes() > nodes);
+        Assert.assertTrue(getSentences(grammar).contains("close the menu"));
+        Assert.assertEquals(getSentences(grammar), getSentences(
+                createGrammar(GRAMMAR.replace("file;", "file | menu;"), false, false)));
+    }
+
+    @Test
+    public void testNestedAndPublicRules() throws Exception {
+        JSGFGrammar grammar = createGrammar(true, true);
+        GrammarNode initialNode = grammar.getInitialNode();
+
+        JSGFRuleGrammar ruleGrammar = grammar.getRuleGrammar();
+        ruleGrammar.setRule("object", JSGFParser.ruleForJSGF("<thing> [all]"), false);
+        ruleGrammar.setRule("thing", JSGFParser.ruleForJSGF("menu"), false);
+        grammar.commitChanges();
+        ruleGrammar.setRule("command",
+                JSGFParser.ruleForJSGF("<action> <object> [now] | stop"), true);
+        grammar.commitChanges();
+
+        Assert.assertSame(grammar.getInitialNode(), initialNode);
+        String text = GRAMMAR.replace("<object> | stop", "<object> [now] | stop")
+                .replace("[the] <thing> | all", "<thing> [all]")
+                .replace("window | file", "menu");
+        Assert.assertEquals(getSentences(grammar),
+                getSentences(createGrammar(text, true, false)));
+    }
+
+    @Test
+    public void testStructureChangeCreatesGraph() throws Exception {
+        JSGFGrammar grammar = createGrammar(false, true);
+        GrammarNode initialNode = grammar.getInitialNode();
+
+        grammar.getRuleGrammar().setRule("thing",
+                JSGFParser.ruleForJSGF("window | <thing> and file"), true);
+        grammar.commitChanges();
+
+        Assert.assertNotSame(grammar.getInitialNode(), initialNode);
+        Assert.assertTrue(grammar.getChangedNodes().isEmpty());
+        Assert.assertTrue(getSentences(grammar).contains("window and file"));
+    }
+
+    @Test
+    public void testUnchangedGrammarIsKept() throws Exception {
+        JSGFGrammar grammar = createGrammar(false, true);
+        GrammarNode initialNode = grammar.getInitialNode();
+        grammar.commitChanges();
+        Assert.assertSame(grammar.getInitialNode(), initialNode);
+        Assert.assertTrue(grammar.getChangedNodes().isEmpty());
+    }
+
+    private JSGFGrammar createGrammar(boolean addSilenceWords,
+                                      boolean incremental) throws IOException {
+        return createGrammar(GRAMMAR, addSilenceWords, incremental);
+    }
+
+    private JSGFGrammar createGrammar(String text, boolean addSilenceWords,
+                                      boolean incremental) throws IOException {
+        writeText("cmd.gram", text);
+        TextDictionary dictionary = new TextDictionary(
+                new File(dir, "dict").toURI().toURL(),
+                new File(dir, "fillerdict").toURI().toURL(), null, null,
+                new UnitManager());
+        JSGFGrammar grammar = new JSGFGrammar(dir.toURI().toURL(), "cmd",
+                false, true, addSilenceWords, false, dictionary, incremental);
+        grammar.allocate();
+        return grammar;
+    }
+
+    /** Collects the sentences of up to six words, without fillers. */
+    private Set<String> getSentences(JSGFGrammar grammar) {
+        Set<String> sentences = new TreeSet<String>();
+        collectSentences(grammar.getInitialNode(), "", 0,
+                new HashSet<String>(), sentences);
+        return sentences;
+    }
+
+    private void collectSentences(GrammarNode node, String prefix, int length,
+                                  Set<String> visited, Set<String> sentences) {
+        if (!node.isEmpty() && !node.getWord().isFiller()) {
+            prefix = prefix + ' ' + node.getWord().getSpelling();
+            length++;
+        }
+        if (length > 6 || !visited.add(node.getID() + prefix))
+            return;
+        if (node.isFinalNode())
+            sentences.add(prefix.trim());
+        for (GrammarArc arc : node.getSuccessors())
+            collectSentences(arc.getGrammarNode(), prefix, length, visited,
+                    sentences);
+    }
+
+    private void writeText(String name, String text) throws IOException {
+        Writer writer = new FileWriter(new File(dir, name));
+        writer.write(text);
+        writer.close();
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.acoustic.tiedstate.test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.frontend.FloatData;
+import edu.cmu.sphinx.linguist.acoustic.HMM;
+import edu.cmu.sphinx.linguist.acoustic.HMMPosition;
+import edu.cmu.sphinx.linguist.acoustic.LeftRightContext;
+import edu.cmu.sphinx.linguist.acoustic.Unit;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.CompiledModelLoader;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.CompiledModelWriter;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Loader;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.PackedGaussianMixture;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Sphinx3Loader;
+
+/**
+ * Compiles a small synthetic Sphinx-3 model and compares the model loaded
+ * back by {@link CompiledModelLoader} with the original.
+ */
+public class CompiledModelTest {
+
+    private static final int NUM_SENONES = 15;
+    private static final int NUM_GAUSSIANS = 4;
+    private static final int DIMENSION = 6;
+    private static final int NUM_TMATS = 3;
+
+    private File modelDir;
+    private File compiled;
+    private Sphinx3Loader original;
+
+    @BeforeClass
+    public void createModel() throws IOException {
+        modelDir = File.createTempFile("model", "");
+        modelDir.delete();
+        modelDir.mkdir();
+        compiled = new File(modelDir, "model.bin");
+
+        Random random = new Random(7);
+        float[] means = new float[NUM_SENONES * NUM_GAUSSIANS * DIMENSION];
+        float[] variances = new float[means.length];
+        for (int i = 0; i < means.length; i++) {
+            means[i] = (float) random.nextGaussian();
+            variances[i] = 0.1f + random.nextFloat();
+        }
+        writeDensity("means", means);
+        writeDensity("variances", variances);
+
+        float[] mixw = new float[NUM_SENONES * NUM_GAUSSIANS];
+        for (int i = 0; i < mixw.length; i++)
+            mixw[i] = random.nextFloat();
+        writeS3("mixture_weights", new int[] {NUM_SENONES, 1, NUM_GAUSSIANS,
+                mixw.length}, mixw);
+
+        float[] tmat = new float[NUM_TMATS * 3 * 4];
+        for (int i = 0; i < NUM_TMATS * 3; i++) {
+            tmat[i * 4 + i % 3] = 0.6f;
+            tmat[i * 4 + i % 3 + 1] = 0.4f;
+        }
+        writeS3("transition_matrices", new int[] {NUM_TMATS, 3, 4, tmat.length}, tmat);
+
+        writeText("feat.params", "-model cont\n-feat 1s_c_d_dd\n");
+        writeText("mdef", "0.3\n3 n_base\n2 n_tri\n20 n_state_map\n"
+                + "15 n_tied_state\n9 n_tied_ci_state\n3 n_tied_tmat\n"
+                + "# base lft rt p attrib tmat state ids\n"
+                + "SIL - - - filler 0 0 1 2 N\n"
+                + "AH - - - n/a 1 3 4 5 N\n"
+                + "B - - - n/a 2 6 7 8 N\n"
+                + "AH B SIL e n/a 1 9 10 11 N\n"
+                + "B AH AH b n/a 2 12 13 14 N\n");
+
+        original = new Sphinx3Loader(modelDir.toURI().toURL(),
+                new UnitManager(), 0.0f, 1e-7f, 1e-4f, 4, true);
+        original.load();
+        CompiledModelWriter.write(original, compiled);
+    }
+
+    @AfterClass
+    public void deleteModel() {
+        for (File file : modelDir.listFiles())
+            file.delete();
+        modelDir.delete();
+    }
+
+    @Test
+    public void testScoresMatch() throws IOException {
+        compareScores(load(false));
+    }
+
+    @Test
+    public void testPackedScoresMatch() throws IOException {
+        Loader loader = load(true);
+        Assert.assertTrue(loader.getSenonePool().get(0) instanceof PackedGaussianMixture);
+        compareScores(loader);
+    }
+
+    @Test
+    public void testHMMsMatch() throws IOException {
+        UnitManager unitManager = new UnitManager();
+        Loader loader = new CompiledModelLoader(compiled.toURI().toURL(),
+                unitManager, true);
+        loader.load();
+
+        Assert.assertEquals(loader.getContextIndependentUnits().keySet(),
+                original.getContextIndependentUnits().keySet());
+        Assert.assertEquals(loader.getProperties(), original.getProperties());
+
+        int count = 0;
+        for (HMM hmm : loader.getHMMManager())
+            count++;
+        Assert.assertEquals(count, 5);
+
+        Unit ah = loader.getContextIndependentUnits().get("AH");
+        Unit b = loader.getContextIndependentUnits().get("B");
+        Unit cd = unitManager.getUnit("B", false, LeftRightContext.get(
+                new Unit[] {ah}, new Unit[] {ah}));
+        HMM hmm = loader.getHMMManager().get(HMMPosition.BEGIN, cd);
+        Assert.assertNotNull(hmm);
+        Assert.assertEquals(hmm.getBaseUnit(), b);
+        Assert.assertNotNull(loader.getHMMManager().get(HMMPosition.UNDEFINED,
+                UnitManager.SILENCE));
+
+        for (int i = 0; i < NUM_TMATS; i++) {
+            float[][] expected = original.getTransitionMatrixPool().get(i);
+            float[][] actual = loader.getTransitionMatrixPool().get(i);
+            for (int j = 0; j < expected.length; j++)
+                Assert.assertEquals(actual[j], expected[j]);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testRejectsOtherFiles() throws IOException {
+        Loader loader = new CompiledModelLoader(
+                new File(modelDir, "means").toURI().toURL(), new UnitManager(), true);
+        loader.load();
+    }
+
+    private Loader load(boolean packed) throws IOException {
+        CompiledModelLoader loader = new CompiledModelLoader(
+                compiled.toURI().toURL(), new UnitManager(), true);
+        loader.setUsePackedGaussians(packed);
+        loader.load();
+        return loader;
+    }
+
+    private void compareScores(Loader loader) {
+        Random random = new Random(11);
+        Assert.assertEquals(loader.getSenonePool().size(), NUM_SENONES);
+        for (int n = 0; n < 10; n++) {
+            float[] feature = new float[DIMENSION];
+            for (int i = 0; i < DIMENSION; i++)
+                feature[i] = (float) random.nextGaussian();
+            for (int i = 0; i < NUM_SENONES; i++) {
+                float expected = original.getSenonePool().get(i)
+                        .getScore(new FloatData(feature, 16000, 0));
+                float actual = loader.getSenonePool().get(i)
+                        .getScore(new FloatData(feature, 16000, 0));
+                Assert.assertEquals(actual, expected);
+            }
+        }
+    }
+
+    private void writeDensity(String name, float[] data) throws IOException {
+        writeS3(name, new int[] {NUM_SENONES, 1, NUM_GAUSSIANS, DIMENSION,
+                data.length}, data);
+    }
+
+    private void writeS3(String name, int[] header, float[] data) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(
+                new File(modelDir, name)));
+        out.writeBytes("s3\nversion 1.0\nchksum0 no\nendhdr\n");
+        out.writeInt(0x11223344);
+        for (int value : header)
+            out.writeInt(value);
+        for (float value : data)
+            out.writeFloat(value);
+        out.close();
+    }
+
+    private void writeText(String name, String text) throws IOException {
+        Writer writer = new FileWriter(new File(modelDir, name));
+        writer.write(text);
+        writer.close();
+    }
+}
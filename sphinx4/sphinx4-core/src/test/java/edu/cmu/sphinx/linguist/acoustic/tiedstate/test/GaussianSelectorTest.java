@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.acoustic.tiedstate.test;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.frontend.FloatData;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianMixture;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianSelector;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianWeights;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.MixtureComponent;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.PackedGaussianMixture;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.PackedGaussianPool;
+import edu.cmu.sphinx.util.LogMath;
+
+/**
+ * Tests scoring of {@link GaussianMixture} with a {@link GaussianSelector}.
+ */
+public class GaussianSelectorTest {
+
+    private static final int NUM_SENONES = 10;
+    private static final int NUM_GAUSSIANS = 16;
+    private static final int DIMENSION = 4;
+
+    private final Random random = new Random(17);
+    private final GaussianWeights weights = new GaussianWeights("mixw", NUM_SENONES, NUM_GAUSSIANS, 1);
+    private final MixtureComponent[][] components = new MixtureComponent[NUM_SENONES][NUM_GAUSSIANS];
+
+    public GaussianSelectorTest() {
+        LogMath logMath = LogMath.getLogMath();
+        for (int i = 0; i < NUM_SENONES; i++) {
+            float[] mixw = new float[NUM_GAUSSIANS];
+            for (int j = 0; j < NUM_GAUSSIANS; j++) {
+                mixw[j] = logMath.linearToLog(1.0 / NUM_GAUSSIANS);
+                float[] mean = new float[DIMENSION];
+                float[] var = new float[DIMENSION];
+                for (int k = 0; k < DIMENSION; k++) {
+                    mean[k] = 3 * (float) random.nextGaussian();
+                    var[k] = 0.5f;
+                }
+                components[i][j] = new MixtureComponent(mean, var);
+            }
+            weights.put(i, 0, mixw);
+        }
+    }
+
+    private float[] randomFeature() {
+        float[] feature = new float[DIMENSION];
+        for (int k = 0; k < DIMENSION; k++)
+            feature[k] = 3 * (float) random.nextGaussian();
+        return feature;
+    }
+
+    @Test
+    public void testFullShortlistMatchesFullScore() {
+        GaussianSelector selector = new GaussianSelector(components, 8, NUM_GAUSSIANS);
+        for (int n = 0; n < 20; n++) {
+            FloatData data = new FloatData(randomFeature(), 16000, n);
+            for (int i = 0; i < NUM_SENONES; i++) {
+                GaussianMixture full = new GaussianMixture(weights, components[i], i);
+                GaussianMixture selected = new GaussianMixture(weights, components[i], i);
+                selected.setGaussianSelector(selector);
+                Assert.assertEquals(selected.getScore(data), full.getScore(data), 1.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testPackedSameAsSelected() {
+        GaussianSelector selector = new GaussianSelector(components, 32, 4);
+        // with a floor the components off the shortlist contribute too
+        MixtureComponent[][] floored = new MixtureComponent[NUM_SENONES][NUM_GAUSSIANS];
+        for (int i = 0; i < NUM_SENONES; i++)
+            for (int j = 0; j < NUM_GAUSSIANS; j++)
+                floored[i][j] = new MixtureComponent(components[i][j].getMean(), null, null,
+                        components[i][j].getVariance(), null, null, 1e-10f,
+                        MixtureComponent.DEFAULT_VAR_FLOOR);
+        for (MixtureComponent[][] model : new MixtureComponent[][][] {components, floored}) {
+            PackedGaussianPool pool = new PackedGaussianPool(model, weights, new int[] {DIMENSION});
+            for (int n = 0; n < 20; n++) {
+                FloatData data = new FloatData(randomFeature(), 16000, n);
+                for (int i = 0; i < NUM_SENONES; i++) {
+                    GaussianMixture expected = new GaussianMixture(weights, model[i], i);
+                    GaussianMixture packed = new PackedGaussianMixture(weights, pool, i);
+                    expected.setGaussianSelector(selector);
+                    packed.setGaussianSelector(selector);
+                    Assert.assertEquals(packed.getScore(data), expected.getScore(data));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUpdateKeepsCodebook() {
+        MixtureComponent[][] moved = new MixtureComponent[NUM_SENONES][NUM_GAUSSIANS];
+        for (int i = 0; i < NUM_SENONES; i++)
+            for (int j = 0; j < NUM_GAUSSIANS; j++)
+                moved[i][j] = new MixtureComponent(components[i][j].getMean().clone(),
+                        components[i][j].getVariance());
+        GaussianSelector selector = new GaussianSelector(moved, 16, 4);
+        float[][] features = new float[20][];
+        int[] codewords = new int[features.length];
+        for (int n = 0; n < features.length; n++) {
+            features[n] = randomFeature();
+            codewords[n] = selector.getCodeword(new FloatData(features[n], 16000, n));
+        }
+
+        for (MixtureComponent[] senone : moved)
+            for (MixtureComponent component : senone)
+                for (int k = 0; k < DIMENSION; k++)
+                    component.getMean()[k] = component.getMean()[k] * 0.5f + 1.0f;
+        selector.update();
+        for (int n = 0; n < features.length; n++)
+            Assert.assertEquals(selector.getCodeword(new FloatData(features[n], 16000, n)), codewords[n]);
+
+        selector.retrain();
+        Assert.assertEquals(selector.getShortlists(),
+                new GaussianSelector(moved, 16, 4).getShortlists());
+    }
+
+    @Test
+    public void testShortlistApproximatesFullScore() {
+        GaussianSelector selector = new GaussianSelector(components, 32, 4);
+        Assert.assertEquals(selector.getShortlistSize(), 4);
+        for (int n = 0; n < 20; n++) {
+            FloatData data = new FloatData(randomFeature(), 16000, n);
+            for (int i = 0; i < NUM_SENONES; i++) {
+                GaussianMixture full = new GaussianMixture(weights, components[i], i);
+                GaussianMixture selected = new GaussianMixture(weights, components[i], i);
+                selected.setGaussianSelector(selector);
+                Assert.assertTrue(selected.getScore(data) <= full.getScore(data) + 1.0f);
+            }
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.acoustic.tiedstate.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.frontend.FloatData;
+import edu.cmu.sphinx.linguist.acoustic.HMMPosition;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.LazyHmmManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Pool;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Senone;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.SenoneHMM;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.kaldi.KaldiGmmPool;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.kaldi.KaldiTextParser;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.kaldi.TransitionModel;
+
+/**
+ * Parses the same small Kaldi model in text and in binary encoding.
+ */
+public class KaldiTextParserTest {
+
+    private static final int NUM_PDFS = 6;
+    private static final int NUM_GAUSSIANS = 2;
+    private static final int DIMENSION = 3;
+
+    private final float[] logProbs = new float[13];
+    private final float[][][] gmms = new float[NUM_PDFS][4][];
+
+    public KaldiTextParserTest() {
+        Random random = new Random(5);
+        for (int i = 1; i < logProbs.length; i++)
+            logProbs[i] = (float) Math.log(i % 2 == 1 ? 0.75 : 0.25);
+        for (float[][] gmm : gmms) {
+            gmm[0] = randomVector(random, NUM_GAUSSIANS);
+            gmm[1] = randomVector(random, NUM_GAUSSIANS);
+            gmm[2] = randomVector(random, NUM_GAUSSIANS * DIMENSION);
+            gmm[3] = randomVector(random, NUM_GAUSSIANS * DIMENSION);
+        }
+    }
+
+    @Test
+    public void testTextAndBinaryMatch() {
+        UnitManager unitManager = new UnitManager();
+        Model text = new Model(new KaldiTextParser(
+                stream(textModel()), stream(textTree())));
+        Model binary = new Model(new KaldiTextParser(
+                stream(binaryModel()), stream(binaryTree())));
+
+        SenoneHMM textHmm = (SenoneHMM) text.hmmManager.get(
+                HMMPosition.UNDEFINED, unitManager.getUnit("AH"));
+        SenoneHMM binaryHmm = (SenoneHMM) binary.hmmManager.get(
+                HMMPosition.UNDEFINED, unitManager.getUnit("AH"));
+
+        for (int i = 0; i < 4; i++)
+            Assert.assertEquals(binaryHmm.getTransitionMatrix()[i],
+                                textHmm.getTransitionMatrix()[i]);
+        Senone[] textSenones = textHmm.getSenoneSequence().getSenones();
+        Senone[] binarySenones = binaryHmm.getSenoneSequence().getSenones();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(textSenones[i].getID(), 3 + i);
+            Assert.assertEquals(binarySenones[i].getID(), 3 + i);
+        }
+
+        float[] feature = {0.5f, -1.0f, 2.0f};
+        for (int i = 0; i < NUM_PDFS; i++) {
+            float expected = text.senones.get(i).getScore(new FloatData(feature, 16000, 0));
+            float actual = binary.senones.get(i).getScore(new FloatData(feature, 16000, 0));
+            Assert.assertEquals(actual, expected);
+        }
+    }
+
+    @Test
+    public void testFloatParsing() {
+        Random random = new Random(3);
+        float[] expected = new float[3000];
+        StringBuilder text = new StringBuilder(" [ ");
+        for (int i = 0; i < expected.length; i++) {
+            float value = (float) (random.nextGaussian()
+                    * Math.pow(10, random.nextInt(30) - 15));
+            String literal;
+            if (i % 3 == 0)
+                literal = Float.toString(value);
+            else if (i % 3 == 1)
+                literal = String.format(Locale.US, "%.7g", value);
+            else
+                literal = String.format(Locale.US, "%e", value);
+            expected[i] = Float.parseFloat(literal);
+            text.append(literal).append(' ');
+        }
+        text.append("-inf 0 -0.0 1e-40 ]\n");
+
+        float[] actual = new KaldiTextParser(stream(text.toString().getBytes()))
+                .getFloatArray();
+        Assert.assertEquals(actual.length, expected.length + 4);
+        for (int i = 0; i < expected.length; i++)
+            Assert.assertEquals(actual[i], expected[i]);
+        Assert.assertEquals(actual[expected.length], Float.NEGATIVE_INFINITY);
+        Assert.assertEquals(actual[expected.length + 3], 1e-40f);
+    }
+
+    @Test
+    public void testMatrix() {
+        KaldiTextParser parser = new KaldiTextParser(
+                stream(" [\n  1 2 3 \n  4 5 6 ]\n".getBytes()));
+        float[][] matrix = parser.getFloatMatrix();
+        Assert.assertEquals(matrix.length, 2);
+        Assert.assertEquals(matrix[1], new float[] {4, 5, 6});
+
+        BinaryWriter out = new BinaryWriter();
+        out.header();
+        out.token("FM");
+        out.basicInt(2);
+        out.basicInt(3);
+        for (int i = 1; i <= 6; i++)
+            out.rawFloat(i);
+        matrix = new KaldiTextParser(stream(out.toByteArray())).getFloatMatrix();
+        Assert.assertEquals(matrix[0], new float[] {1, 2, 3});
+        Assert.assertEquals(matrix[1], new float[] {4, 5, 6});
+    }
+
+    private static class Model {
+        final Pool<Senone> senones;
+        final LazyHmmManager hmmManager;
+
+        Model(KaldiTextParser parser) {
+            TransitionModel transitionModel = new TransitionModel(parser);
+            senones = new KaldiGmmPool(parser);
+            Map<String, Integer> symbols = new HashMap<String, Integer>();
+            symbols.put("SIL", 1);
+            symbols.put("AH", 2);
+            hmmManager = new LazyHmmManager(parser, transitionModel, senones, symbols);
+        }
+    }
+
+    private byte[] textModel() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<TransitionModel>\n<Topology>\n<TopologyEntry>\n");
+        sb.append("<ForPhones>\n1 2 \n</ForPhones>\n");
+        for (int i = 0; i < 3; i++) {
+            sb.append(String.format("<State> %d <PdfClass> %d <Transition> %d 0.75 "
+                    + "<Transition> %d 0.25 </State>\n", i, i, i, i + 1));
+        }
+        sb.append("<State> 3 </State>\n</TopologyEntry>\n</Topology>\n");
+        sb.append("<Triples> 6\n");
+        for (int i = 0; i < 6; i++)
+            sb.append(String.format("%d %d %d\n", 1 + i / 3, i % 3, i));
+        sb.append("</Triples>\n<LogProbs>\n");
+        appendVector(sb, logProbs);
+        sb.append("</LogProbs>\n</TransitionModel>\n");
+
+        sb.append("<DIMENSION> ").append(DIMENSION).append(" <NUMPDFS> ")
+          .append(NUM_PDFS).append(' ');
+        for (float[][] gmm : gmms) {
+            sb.append("<DiagGMM>\n<GCONSTS> ");
+            appendVector(sb, gmm[0]);
+            sb.append("<WEIGHTS> ");
+            appendVector(sb, gmm[1]);
+            sb.append("<MEANS_INVVARS> ");
+            appendMatrix(sb, gmm[2]);
+            sb.append("<INV_VARS> ");
+            appendMatrix(sb, gmm[3]);
+            sb.append("</DiagGMM>\n");
+        }
+        return sb.toString().getBytes();
+    }
+
+    private static byte[] textTree() {
+        return ("ContextDependency 3 1 ToPdf TE 1 3 ( NULL "
+                + "TE -1 3 ( CE 0 CE 1 CE 2 ) "
+                + "TE -1 3 ( CE 3 CE 4 CE 5 ) ) \n"
+                + "EndContextDependency \n").getBytes();
+    }
+
+    private byte[] binaryModel() {
+        BinaryWriter out = new BinaryWriter();
+        out.header();
+        out.token("<TransitionModel>");
+        out.token("<Topology>");
+        out.intVector(1, 2);
+        out.intVector(-1, 0, 0);
+        out.basicInt(1);
+        out.basicInt(4);
+        for (int i = 0; i < 3; i++) {
+            out.basicInt(i);
+            out.basicInt(2);
+            out.basicInt(i);
+            out.basicFloat(0.75f);
+            out.basicInt(i + 1);
+            out.basicFloat(0.25f);
+        }
+        out.basicInt(-1);
+        out.basicInt(0);
+        out.token("</Topology>");
+        out.token("<Triples>");
+        out.basicInt(6);
+        for (int i = 0; i < 6; i++) {
+            out.basicInt(1 + i / 3);
+            out.basicInt(i % 3);
+            out.basicInt(i);
+        }
+        out.token("</Triples>");
+        out.token("<LogProbs>");
+        out.floatVector(logProbs);
+        out.token("</LogProbs>");
+        out.token("</TransitionModel>");
+
+        out.token("<DIMENSION>");
+        out.basicInt(DIMENSION);
+        out.token("<NUMPDFS>");
+        out.basicInt(NUM_PDFS);
+        for (float[][] gmm : gmms) {
+            out.token("<DiagGMM>");
+            out.token("<GCONSTS>");
+            out.floatVector(gmm[0]);
+            out.token("<WEIGHTS>");
+            out.floatVector(gmm[1]);
+            out.token("<MEANS_INVVARS>");
+            out.floatMatrix(gmm[2], NUM_GAUSSIANS);
+            out.token("<INV_VARS>");
+            out.floatMatrix(gmm[3], NUM_GAUSSIANS);
+            out.token("</DiagGMM>");
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] binaryTree() {
+        BinaryWriter out = new BinaryWriter();
+        out.header();
+        out.token("ContextDependency");
+        out.basicInt(3);
+        out.basicInt(1);
+        out.token("ToPdf");
+        out.token("TE");
+        out.basicInt(1);
+        out.basicUnsigned(3);
+        out.token("(");
+        out.token("NULL");
+        for (int i = 0; i < 2; i++) {
+            out.token("TE");
+            out.basicInt(-1);
+            out.basicUnsigned(3);
+            out.token("(");
+            for (int j = 0; j < 3; j++) {
+                out.token("CE");
+                out.basicInt(i * 3 + j);
+            }
+            out.token(")");
+        }
+        out.token(")");
+        out.token("EndContextDependency");
+        return out.toByteArray();
+    }
+
+    private static void appendVector(StringBuilder sb, float[] values) {
+        sb.append(" [ ");
+        for (float value : values)
+            sb.append(value).append(' ');
+        sb.append("]\n");
+    }
+
+    private static void appendMatrix(StringBuilder sb, float[] values) {
+        sb.append(" [");
+        for (int i = 0; i < values.length; i++) {
+            if (i % DIMENSION == 0)
+                sb.append("\n  ");
+            sb.append(values[i]).append(' ');
+        }
+        sb.append("]\n");
+    }
+
+    private static float[] randomVector(Random random, int size) {
+        float[] vector = new float[size];
+        for (int i = 0; i < size; i++)
+            vector[i] = (float) random.nextGaussian();
+        return vector;
+    }
+
+    private static InputStream stream(byte[] data) {
+        return new ByteArrayInputStream(data);
+    }
+
+    /** Writes the binary encoding of Kaldi on a little-endian machine. */
+    private static class BinaryWriter extends ByteArrayOutputStream {
+        private final ByteBuffer scratch =
+            ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+        void header() {
+            write(0);
+            write('B');
+        }
+
+        void token(String token) {
+            byte[] bytes = token.getBytes();
+            write(bytes, 0, bytes.length);
+            write(' ');
+        }
+
+        void basicInt(int value) {
+            write(4);
+            rawInt(value);
+        }
+
+        void basicUnsigned(int value) {
+            write(-4);
+            rawInt(value);
+        }
+
+        void basicFloat(float value) {
+            write(4);
+            rawFloat(value);
+        }
+
+        void intVector(int... values) {
+            write(4);
+            rawInt(values.length);
+            for (int value : values)
+                rawInt(value);
+        }
+
+        void floatVector(float[] values) {
+            token("FV");
+            basicInt(values.length);
+            for (float value : values)
+                rawFloat(value);
+        }
+
+        void floatMatrix(float[] values, int rows) {
+            token("FM");
+            basicInt(rows);
+            basicInt(values.length / rows);
+            for (float value : values)
+                rawFloat(value);
+        }
+
+        void rawInt(int value) {
+            scratch.clear();
+            scratch.putInt(value);
+            write(scratch.array(), 0, 4);
+        }
+
+        void rawFloat(float value) {
+            rawInt(Float.floatToIntBits(value));
+        }
+    }
+}
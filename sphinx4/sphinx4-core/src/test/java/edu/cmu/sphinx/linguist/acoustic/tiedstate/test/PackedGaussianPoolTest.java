@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.acoustic.tiedstate.test;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.frontend.FloatData;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianMixture;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.GaussianWeights;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.MixtureComponent;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.PackedGaussianMixture;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.PackedGaussianPool;
+import edu.cmu.sphinx.util.LogMath;
+
+/**
+ * Compares the scores of {@link PackedGaussianPool} with the ones of plain
+ * {@link GaussianMixture} objects.
+ */
+public class PackedGaussianPoolTest {
+
+    private static final int NUM_SENONES = 20;
+    private static final int NUM_GAUSSIANS = 8;
+    private static final int DIMENSION = 13;
+
+    @Test
+    public void testScoresMatchGaussianMixture() {
+        Random random = new Random(42);
+        LogMath logMath = LogMath.getLogMath();
+
+        GaussianWeights weights = new GaussianWeights("mixw", NUM_SENONES, NUM_GAUSSIANS, 1);
+        MixtureComponent[][] components = new MixtureComponent[NUM_SENONES][NUM_GAUSSIANS];
+        for (int i = 0; i < NUM_SENONES; i++) {
+            float[] mixw = new float[NUM_GAUSSIANS];
+            for (int j = 0; j < NUM_GAUSSIANS; j++) {
+                mixw[j] = logMath.linearToLog(1.0 / NUM_GAUSSIANS);
+                float[] mean = new float[DIMENSION];
+                float[] var = new float[DIMENSION];
+                for (int k = 0; k < DIMENSION; k++) {
+                    mean[k] = (float) random.nextGaussian();
+                    var[k] = 0.1f + random.nextFloat();
+                }
+                components[i][j] = new MixtureComponent(mean, var);
+            }
+            weights.put(i, 0, mixw);
+        }
+
+        PackedGaussianPool pool = new PackedGaussianPool(components, weights, new int[] {DIMENSION});
+
+        // every other senone, in reverse order
+        int[] senones = new int[NUM_SENONES / 2];
+        float[] scores = new float[senones.length];
+        for (int i = 0; i < senones.length; i++)
+            senones[i] = NUM_SENONES - 1 - 2 * i;
+
+        for (int n = 0; n < 10; n++) {
+            float[] feature = new float[DIMENSION];
+            for (int k = 0; k < DIMENSION; k++)
+                feature[k] = (float) random.nextGaussian();
+            FloatData data = new FloatData(feature, 16000, n);
+
+            pool.calculateScores(senones, senones.length, feature, scores);
+            for (int i = 0; i < senones.length; i++)
+                Assert.assertEquals(scores[i], new GaussianMixture(weights,
+                        components[senones[i]], senones[i]).getScore(data));
+
+            for (int i = 0; i < NUM_SENONES; i++) {
+                GaussianMixture expected = new GaussianMixture(weights, components[i], i);
+                GaussianMixture packed = new PackedGaussianMixture(weights, pool, i);
+                Assert.assertEquals(packed.getScore(data), expected.getScore(data));
+                Assert.assertEquals(pool.calculateScore(i, feature), expected.getScore(data));
+                Assert.assertEquals(packed.calculateComponentScore(data),
+                        expected.calculateComponentScore(data));
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.flat;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.linguist.SearchState;
+import edu.cmu.sphinx.linguist.SearchStateArc;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Sphinx3Loader;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.TiedStateAcousticModel;
+import edu.cmu.sphinx.linguist.dictionary.TextDictionary;
+import edu.cmu.sphinx.linguist.language.grammar.SimpleWordListGrammar;
+
+/**
+ * Compiles a small looping grammar and compares the search graph with the
+ * graph restored from the saved compact form and with the graph compiled on
+ * several threads.
+ */
+public class FlatLinguistTest {
+
+    private File dir;
+    private File cache;
+    private UnitManager unitManager;
+    private TiedStateAcousticModel model;
+
+    @BeforeMethod
+    public void createModels() throws IOException {
+        dir = File.createTempFile("flat", "");
+        dir.delete();
+        dir.mkdir();
+        cache = new File(dir, "cache");
+
+        writeModel();
+        unitManager = new UnitManager();
+        Sphinx3Loader loader = new Sphinx3Loader(dir.toURI().toURL(),
+                unitManager, 0.0f, 1e-7f, 1e-4f, 4, true);
+        model = new TiedStateAcousticModel(loader, unitManager, true);
+
+        writeText("dict", "a AH\nab AH B\nba B AH\nbad B AH D\n"
+                + "dad D AH D\ndad(2) D AE D\ndada D AH D AH\n");
+        writeText("fillerdict", "<s> SIL\n</s> SIL\n<sil> SIL\n");
+        writeText("words", "a\nab\nbad\ndad\ndada\n");
+    }
+
+    @AfterMethod
+    public void deleteModels() {
+        delete(dir);
+    }
+
+    @Test
+    public void testRestoredGraphIsIdentical() throws IOException {
+        String built = describe(createLinguist(0.1, cache, 1));
+        String[] files = cache.list();
+        Assert.assertEquals(files.length, 1);
+
+        String restored = describe(createLinguist(0.1, cache, 1));
+        Assert.assertEquals(cache.list(), files);
+        Assert.assertEquals(restored, built);
+    }
+
+    @Test
+    public void testParallelCompilation() throws IOException {
+        Assert.assertEquals(describe(createLinguist(0.1, null, 4)),
+                describe(createLinguist(0.1, null, 1)));
+    }
+
+    @Test
+    public void testOtherModelsAreNotMixed() throws IOException {
+        createLinguist(0.1, cache, 1);
+        String other = describe(createLinguist(0.5, cache, 1));
+        Assert.assertEquals(cache.list().length, 2);
+        Assert.assertEquals(other, describe(createLinguist(0.5, null, 1)));
+    }
+
+    private FlatLinguist createLinguist(double wordInsertionProbability,
+                                        File graphCache, int threads) throws IOException {
+        TextDictionary dictionary = new TextDictionary(
+                new File(dir, "dict").toURI().toURL(),
+                new File(dir, "fillerdict").toURI().toURL(), null, null,
+                unitManager);
+        SimpleWordListGrammar grammar = new SimpleWordListGrammar(
+                new File(dir, "words").getPath(), true, false, false, false,
+                false, dictionary);
+        FlatLinguist linguist = new FlatLinguist(model, grammar, unitManager,
+                wordInsertionProbability, 0.1, 1e-2, 1.0, 9.5f, false, false,
+                false, false, 1.0, 1.0, null, graphCache, threads);
+        linguist.allocate();
+        return linguist;
+    }
+
+    /** Describes the graph breadth first, in successor order. */
+    private String describe(FlatLinguist linguist) {
+        StringBuilder description = new StringBuilder();
+        Map<SearchState, Integer> ids = new IdentityHashMap<SearchState, Integer>();
+        List<SearchState> states = new ArrayList<SearchState>();
+        SearchState initial = linguist.getSearchGraph().getInitialState();
+        ids.put(initial, 0);
+        states.add(initial);
+        for (int i = 0; i < states.size(); i++) {
+            SentenceHMMState state = (SentenceHMMState) states.get(i);
+            description.append(i).append(' ').append(state.getClass().getSimpleName())
+                    .append(' ').append(state);
+            if (state instanceof HMMStateState) {
+                HMMStateState hmmState = (HMMStateState) state;
+                description.append(' ').append(hmmState.getHMMState().getHMM().getUnit())
+                        .append(' ').append(hmmState.getHMMState().getState());
+            }
+            if (state instanceof PronunciationState)
+                description.append(' ').append(Arrays.asList(
+                        ((PronunciationState) state).getPronunciation().getUnits()));
+            description.append('\n');
+            for (SearchStateArc arc : state.getSuccessors()) {
+                Integer id = ids.get(arc.getState());
+                if (id == null) {
+                    id = states.size();
+                    ids.put(arc.getState(), id);
+                    states.add(arc.getState());
+                }
+                description.append(" -> ").append(id)
+                        .append(' ').append(arc.getLanguageProbability())
+                        .append(' ').append(arc.getInsertionProbability()).append('\n');
+            }
+        }
+        return description.toString();
+    }
+
+    private void writeModel() throws IOException {
+        int senones = 15;
+        float[] means = new float[senones * 2];
+        float[] variances = new float[means.length];
+        Arrays.fill(variances, 1.0f);
+        writeS3("means", new int[] {senones, 1, 2, 1, means.length}, means);
+        writeS3("variances", new int[] {senones, 1, 2, 1, means.length}, variances);
+        float[] mixw = new float[senones * 2];
+        Arrays.fill(mixw, 0.5f);
+        writeS3("mixture_weights", new int[] {senones, 1, 2, mixw.length}, mixw);
+        float[] tmat = new float[5 * 3 * 4];
+        for (int i = 0; i < 5 * 3; i++) {
+            tmat[i * 4 + i % 3] = 0.6f;
+            tmat[i * 4 + i % 3 + 1] = 0.4f;
+        }
+        writeS3("transition_matrices", new int[] {5, 3, 4, tmat.length}, tmat);
+
+        writeText("feat.params", "-model cont\n-feat 1s_c_d_dd\n");
+        writeText("mdef", "0.3\n5 n_base\n0 n_tri\n20 n_state_map\n"
+                + "15 n_tied_state\n15 n_tied_ci_state\n5 n_tied_tmat\n"
+                + "# base lft rt p attrib tmat state ids\n"
+                + "SIL - - - filler 0 0 1 2 N\n"
+                + "AE - - - n/a 1 3 4 5 N\n"
+                + "AH - - - n/a 2 6 7 8 N\n"
+                + "B - - - n/a 3 9 10 11 N\n"
+                + "D - - - n/a 4 12 13 14 N\n");
+    }
+
+    private void writeS3(String name, int[] header, float[] data) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(
+                new File(dir, name)));
+        out.writeBytes("s3\nversion 1.0\nchksum0 no\nendhdr\n");
+        out.writeInt(0x11223344);
+        for (int value : header)
+            out.writeInt(value);
+        for (float value : data)
+            out.writeFloat(value);
+        out.close();
+    }
+
+    private void writeText(String name, String text) throws IOException {
+        Writer writer = new FileWriter(new File(dir, name));
+        writer.write(text);
+        writer.close();
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null)
+            for (File child : files)
+                delete(child);
+        file.delete();
+    }
+}
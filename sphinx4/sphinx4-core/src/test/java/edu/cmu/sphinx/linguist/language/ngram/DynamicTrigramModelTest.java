@@ -4,6 +4,7 @@ package edu.cmu.sphinx.linguist.language.ngram;
 import static edu.cmu.sphinx.util.LogMath.getLogMath;
 import static java.util.Arrays.asList;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.equalTo;
@@ -22,6 +23,7 @@ import edu.cmu.sphinx.linguist.WordSequence;
 import edu.cmu.sphinx.linguist.acoustic.UnitManager;
 import edu.cmu.sphinx.linguist.dictionary.Dictionary;
 import edu.cmu.sphinx.linguist.dictionary.TextDictionary;
+import edu.cmu.sphinx.linguist.dictionary.Word;
 
 
 public class DynamicTrigramModelTest {
@@ -71,6 +73,58 @@ public class DynamicTrigramModelTest {
                 containsInAnyOrder("one", "two", "three"));
     }
 
+    @Test
+    public void incrementalModel() throws IOException {
+        List<String> text = asList("one two three", "two three four",
+                "one two", "four three two one", "", "three four");
+
+        DynamicTrigramModel model = new DynamicTrigramModel(dictionary);
+        model.setText(text.subList(0, 2));
+        model.allocate();
+        model.addText(text.subList(2, text.size()));
+        model.allocate();
+        assertSameModel(model, text);
+
+        model.setRange(1, 4);
+        model.allocate();
+        assertThat(model.getVocabulary(),
+                containsInAnyOrder("one", "two", "three", "four"));
+        assertSameModel(model, text.subList(1, 4));
+
+        model.setRange(1, 6);
+        model.allocate();
+        assertSameModel(model, text.subList(1, 6));
+    }
+
+    private void assertSameModel(DynamicTrigramModel model, List<String> text)
+            throws IOException {
+        DynamicTrigramModel expected = new DynamicTrigramModel(dictionary);
+        expected.setText(text);
+        expected.allocate();
+        assertThat(model.getVocabulary(), equalTo(expected.getVocabulary()));
+
+        List<Word> words = new ArrayList<Word>();
+        for (String spelling : asList("one", "two", "three", "four", "five"))
+            words.add(dictionary.getWord(spelling));
+        words.add(dictionary.getSentenceStartWord());
+        words.add(dictionary.getSentenceEndWord());
+        for (Word w1 : words) {
+            assertSameProbability(model, expected, new WordSequence(w1));
+            for (Word w2 : words) {
+                assertSameProbability(model, expected, new WordSequence(w1, w2));
+                for (Word w3 : words)
+                    assertSameProbability(model, expected,
+                            new WordSequence(w1, w2, w3));
+            }
+        }
+    }
+
+    private void assertSameProbability(LanguageModel model,
+            LanguageModel expected, WordSequence wordSequence) {
+        assertThat((double) model.getProbability(wordSequence),
+                closeTo(expected.getProbability(wordSequence), 1e-2));
+    }
+
     @Test(enabled = false)
     public void compareWithPrecomputed() throws ClassNotFoundException,
             IOException {
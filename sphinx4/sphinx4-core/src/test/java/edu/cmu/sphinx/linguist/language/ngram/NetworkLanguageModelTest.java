@@ -0,0 +1,224 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.language.ngram;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.linguist.WordSequence;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.dictionary.Dictionary;
+import edu.cmu.sphinx.linguist.dictionary.TextDictionary;
+import edu.cmu.sphinx.linguist.dictionary.Word;
+import edu.cmu.sphinx.linguist.language.ngram.large.LargeTrigramModel;
+import edu.cmu.sphinx.util.LogMath;
+
+/**
+ * Queries a trigram model served by {@link LanguageModelServer} one by one and
+ * in pipelined batches and compares the answers with the model itself. A
+ * server failing in the middle of a batch checks that the client reconnects.
+ */
+public class NetworkLanguageModelTest {
+
+    private static final String[] SPELLINGS = {"daines", "huggins", "david",
+            "result", "following", "some", "case"};
+
+    private LanguageModel model;
+    private LanguageModelServer server;
+    private List<WordSequence> wordSequences;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        URL dictUrl = getClass().getResource("large/100.dict");
+        URL noisedictUrl = getClass()
+                .getResource("/edu/cmu/sphinx/models/en-us/en-us/noisedict");
+        Dictionary dictionary = new TextDictionary(dictUrl, noisedictUrl,
+                null, null, new UnitManager());
+        model = new LargeTrigramModel("", getClass().getResource("large/100.arpa.dmp"),
+                null, 100, 100, false, 3, dictionary, false, 1.0f, 1.0f, 1.0f,
+                false);
+        dictionary.allocate();
+        model.allocate();
+
+        server = new LanguageModelServer(model, 0);
+        server.start();
+
+        wordSequences = new ArrayList<WordSequence>();
+        for (String first : SPELLINGS) {
+            Word word = new Word(first, null, false);
+            wordSequences.add(new WordSequence(word));
+            for (String second : SPELLINGS) {
+                Word[] bigram = {word, new Word(second, null, false)};
+                wordSequences.add(new WordSequence(bigram));
+                for (String third : SPELLINGS) {
+                    Word[] trigram = {bigram[0], bigram[1],
+                            new Word(third, null, false)};
+                    wordSequences.add(new WordSequence(trigram));
+                }
+            }
+        }
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        server.close();
+        model.deallocate();
+    }
+
+    @Test
+    public void testQueries() throws IOException {
+        NetworkLanguageModel client = new NetworkLanguageModel("localhost",
+                server.getPort(), null, 3);
+        client.allocate();
+        for (WordSequence wordSequence : wordSequences)
+            checkProbability(client.getProbability(wordSequence), wordSequence);
+        client.deallocate();
+    }
+
+    @Test
+    public void testPrefetch() throws IOException {
+        // a small window to send many batches
+        NetworkLanguageModel client = new NetworkLanguageModel("localhost",
+                server.getPort(), null, 3, 1000, 7, 16384);
+        client.allocate();
+        List<WordSequence> batch = new ArrayList<WordSequence>(wordSequences);
+        batch.addAll(wordSequences.subList(0, 50));
+        client.prefetch(batch);
+        assertThat(client.cache.size(), equalTo(wordSequences.size()));
+        for (WordSequence wordSequence : wordSequences)
+            checkProbability(client.cache.get(wordSequence), wordSequence);
+
+        // the connection stays in sync after the batches
+        client.cache.clear();
+        checkProbability(client.getProbability(wordSequences.get(10)),
+                wordSequences.get(10));
+        client.deallocate();
+    }
+
+    @Test
+    public void testPrefetchWithSmallByteWindow() throws IOException {
+        NetworkLanguageModel client = new NetworkLanguageModel("localhost",
+                server.getPort(), null, 3, 1000, 1000, 40);
+        client.allocate();
+        client.prefetch(wordSequences);
+        assertThat(client.cache.size(), equalTo(wordSequences.size()));
+        for (WordSequence wordSequence : wordSequences)
+            checkProbability(client.cache.get(wordSequence), wordSequence);
+        client.deallocate();
+    }
+
+    @DataProvider(name = "failures")
+    public Object[][] failures() {
+        return new Object[][] {{true}, {false}};
+    }
+
+    @Test(dataProvider = "failures")
+    public void testFailureInBatch(boolean close) throws IOException {
+        FailingServer failingServer = new FailingServer(5, close);
+        NetworkLanguageModel client = new NetworkLanguageModel("localhost",
+                failingServer.serverSocket.getLocalPort(), null, 3, 1000, 4, 16384);
+        client.allocate();
+        List<WordSequence> batch = new ArrayList<WordSequence>();
+        for (int i = 0; i < 20; i++)
+            batch.add(new WordSequence(new Word("w" + i, null, false)));
+        client.prefetch(batch);
+        assertThat(client.cache.size(), equalTo(5));
+
+        // the queries not answered go to the new connection in sync
+        float expected = LogMath.getLogMath().log10ToLog(-1.5f);
+        for (WordSequence wordSequence : batch)
+            assertThat(client.getProbability(wordSequence), equalTo(expected));
+        client.cache.clear();
+        client.prefetch(batch);
+        assertThat(client.cache.size(), equalTo(batch.size()));
+        client.deallocate();
+        failingServer.serverSocket.close();
+    }
+
+    /**
+     * Answers every query with -1.5 but fails the first connection after the
+     * given number of answers, by closing it or by a garbled answer.
+     */
+    private static class FailingServer implements Runnable {
+
+        final ServerSocket serverSocket;
+        final int answers;
+        final boolean close;
+
+        FailingServer(int answers, boolean close) throws IOException {
+            this.answers = answers;
+            this.close = close;
+            serverSocket = new ServerSocket(0);
+            Thread thread = new Thread(this, "FailingServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public void run() {
+            try {
+                for (int connection = 0; ; connection++) {
+                    Socket socket = serverSocket.accept();
+                    try {
+                        serve(socket, connection == 0 ? answers : -1);
+                    } finally {
+                        socket.close();
+                    }
+                }
+            } catch (IOException e) {
+                // closed by the test
+            }
+        }
+
+        private void serve(Socket socket, int failAfter) throws IOException {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream()));
+            Writer writer = new OutputStreamWriter(socket.getOutputStream());
+            writer.write(LanguageModelServer.GREETING + "\n");
+            writer.flush();
+            for (int i = 0; reader.readLine() != null; i++) {
+                if (i == failAfter) {
+                    if (close)
+                        return;
+                    writer.write("garbled\n");
+                } else {
+                    writer.write("-1.5\n");
+                }
+                writer.flush();
+            }
+        }
+    }
+
+    private void checkProbability(float probability, WordSequence wordSequence) {
+        float expected = model.getProbability(wordSequence);
+        if (expected == LogMath.LOG_ZERO)
+            assertThat(probability, equalTo(LogMath.LOG_ZERO));
+        else
+            assertThat((double) probability,
+                    closeTo(expected, Math.abs(expected) * 1e-5 + 1e-3));
+    }
+}
@@ -0,0 +1,142 @@
+package edu.cmu.sphinx.linguist.language.ngram;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.linguist.WordSequence;
+import edu.cmu.sphinx.linguist.dictionary.Word;
+
+public class NgramProbabilityCacheTest {
+
+    /** Word ids are the spellings, words which are no number are unknown */
+    private static final NgramProbabilityCache.WordIds IDS = new NgramProbabilityCache.WordIds() {
+        public int getWordId(Word word) {
+            try {
+                return Integer.parseInt(word.getSpelling());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    };
+
+    private static WordSequence sequence(int... ids) {
+        Word[] words = new Word[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            words[i] = new Word(Integer.toString(ids[i]), null, false);
+        return new WordSequence(words);
+    }
+
+    private static float probability(int... ids) {
+        float p = 0;
+        for (int id : ids)
+            p = p * 31 - id;
+        return p;
+    }
+
+    @Test
+    public void testGetAndPut() {
+        NgramProbabilityCache cache = new NgramProbabilityCache(100, 65535, 4, IDS);
+        assertThat(cache.getBitsPerWord(), equalTo(16));
+        assertTrue(Float.isNaN(cache.get(sequence(1, 2, 3, 4))));
+
+        cache.put(sequence(1, 2, 3, 4), -1.5f);
+        cache.put(sequence(0, 2, 3, 4), -2.5f);
+        cache.put(sequence(1, 2, 3), -3.5f);
+        cache.put(sequence(65534, 65534, 65534, 65534), -4.5f);
+        assertThat(cache.get(sequence(1, 2, 3, 4)), equalTo(-1.5f));
+        assertThat(cache.get(sequence(0, 2, 3, 4)), equalTo(-2.5f));
+        assertThat(cache.get(sequence(1, 2, 3)), equalTo(-3.5f));
+        assertThat(cache.get(sequence(65534, 65534, 65534, 65534)), equalTo(-4.5f));
+        assertTrue(Float.isNaN(cache.get(sequence(4, 3, 2, 1))));
+        assertThat(cache.size(), equalTo(4));
+
+        cache.clear();
+        assertThat(cache.size(), equalTo(0));
+        assertTrue(Float.isNaN(cache.get(sequence(1, 2, 3, 4))));
+    }
+
+    @Test
+    public void testUnknownWords() {
+        NgramProbabilityCache cache = new NgramProbabilityCache(100, 20, 3, IDS);
+        WordSequence unknown = new WordSequence(new Word("1", null, false), new Word("<unk>", null, false),
+                new Word("2", null, false));
+        cache.put(unknown, -1f);
+        assertTrue(Float.isNaN(cache.get(unknown)));
+        assertThat(cache.size(), equalTo(0));
+    }
+
+    @Test
+    public void testLargeVocabulary() {
+        // 20 bit ids, a 4-gram takes two longs
+        NgramProbabilityCache cache = new NgramProbabilityCache(1000, 1000000, 4, IDS);
+        assertThat(cache.getBitsPerWord(), equalTo(20));
+        for (int i = 0; i < 500; i++)
+            cache.put(sequence(999999 - i, i, 3 * i, 7), probability(999999 - i, i, 3 * i, 7));
+        for (int i = 0; i < 500; i++) {
+            float p = cache.get(sequence(999999 - i, i, 3 * i, 7));
+            assertTrue(Float.isNaN(p) || p == probability(999999 - i, i, 3 * i, 7));
+        }
+        assertThat(cache.get(sequence(999999, 0, 0, 7)), equalTo(probability(999999, 0, 0, 7)));
+        assertTrue(Float.isNaN(cache.get(sequence(999999, 0, 0, 8))));
+    }
+
+    @Test
+    public void testEviction() {
+        NgramProbabilityCache cache = new NgramProbabilityCache(64, 1000, 3, IDS);
+        int capacity = cache.getCapacity();
+        // keep reading one entry, it should survive the sweeps
+        cache.put(sequence(1, 1, 1), probability(1, 1, 1));
+        for (int i = 0; i < 100 * capacity; i++) {
+            cache.put(sequence(i % 997, i / 997 % 997, 2), probability(i % 997, i / 997 % 997, 2));
+            assertThat(cache.get(sequence(1, 1, 1)), equalTo(probability(1, 1, 1)));
+        }
+        assertThat(cache.size(), lessThanOrEqualTo(capacity));
+        assertThat(cache.size(), greaterThan(capacity / 2));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws InterruptedException {
+        final NgramProbabilityCache cache = new NgramProbabilityCache(256, 100, 3, IDS);
+        final AtomicInteger hits = new AtomicInteger();
+        final AtomicInteger wrong = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 100000; i++) {
+                        int a = random.nextInt(100);
+                        int b = random.nextInt(100);
+                        int c = random.nextInt(10);
+                        WordSequence ws = sequence(a, b, c);
+                        float p = cache.get(ws);
+                        if (Float.isNaN(p)) {
+                            cache.put(ws, probability(a, b, c));
+                        } else {
+                            hits.incrementAndGet();
+                            if (p != probability(a, b, c))
+                                wrong.incrementAndGet();
+                        }
+                        if (seed == 0 && i % 20000 == 0)
+                            cache.clear();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertThat(wrong.get(), equalTo(0));
+        assertThat(hits.get(), greaterThan(0));
+    }
+}
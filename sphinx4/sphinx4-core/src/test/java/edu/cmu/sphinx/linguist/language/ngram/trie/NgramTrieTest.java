@@ -12,8 +12,12 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.closeTo;
 import static org.hamcrest.Matchers.equalTo;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.util.Random;
 
 import org.testng.annotations.Test;
 
@@ -28,6 +32,39 @@ public class NgramTrieTest {
 
     @Test
     public void testNgram() throws IOException {
+        checkModel(false);
+    }
+
+    @Test
+    public void testMemoryMappedNgram() throws IOException {
+        checkModel(true);
+    }
+
+    @Test
+    public void testMappedBitarrChunks() throws IOException {
+        Random random = new Random(42);
+        byte[] data = new byte[5000];
+        random.nextBytes(data);
+        File file = File.createTempFile("trie", ".bin");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+
+        NgramTrieBitarr heap = new NgramTrieBitarr(data.length - 100);
+        System.arraycopy(data, 100, heap.getArr(), 0, data.length - 100);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        // small chunks to cross many chunk boundaries
+        NgramTrieBitarr mapped = new MappedNgramTrieBitarr(raf.getChannel(), 100, data.length - 100, 6);
+        raf.close();
+
+        for (long bit = 0; bit < (data.length - 108) * 8L; bit += 3) {
+            int mask = (1 << (1 + (int) (bit % 25))) - 1;
+            assertThat(mapped.readInt(0, bit, mask), equalTo(heap.readInt(0, bit, mask)));
+        }
+    }
+
+    private void checkModel(boolean memoryMapped) throws IOException {
         URL dictUrl = getClass().getResource("100.dict");
         URL noisedictUrl = getClass()
                 .getResource("/edu/cmu/sphinx/models/en-us/en-us/noisedict");
@@ -49,7 +86,8 @@ public class NgramTrieTest {
                                                   false,
                                                   1.0f,
                                                   1.0f,
-                                                  1.0f);
+                                                  1.0f,
+                                                  memoryMapped);
         dictionary.allocate();
         model.allocate();
         assertThat(model.getMaxDepth(), equalTo(3));
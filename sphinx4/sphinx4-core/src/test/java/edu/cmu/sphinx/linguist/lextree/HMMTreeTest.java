@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.linguist.lextree;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.linguist.SearchState;
+import edu.cmu.sphinx.linguist.SearchStateArc;
+import edu.cmu.sphinx.linguist.acoustic.UnitManager;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.Sphinx3Loader;
+import edu.cmu.sphinx.linguist.acoustic.tiedstate.TiedStateAcousticModel;
+import edu.cmu.sphinx.linguist.dictionary.Dictionary;
+import edu.cmu.sphinx.linguist.dictionary.TextDictionary;
+import edu.cmu.sphinx.linguist.language.ngram.LanguageModel;
+import edu.cmu.sphinx.linguist.language.ngram.SimpleNGramModel;
+
+/**
+ * Builds the lex tree of a small vocabulary and compares the search graph of
+ * the linguist with the one of the tree restored from the saved compact form.
+ */
+public class HMMTreeTest {
+
+    private static final int MAX_DEPTH = 60;
+
+    private File dir;
+    private File cache;
+    private UnitManager unitManager;
+    private TiedStateAcousticModel acousticModel;
+    private Dictionary dictionary;
+
+    @BeforeMethod
+    public void createModels() throws IOException {
+        dir = File.createTempFile("lextree", "");
+        dir.delete();
+        dir.mkdir();
+        cache = new File(dir, "cache");
+
+        writeModel();
+        unitManager = new UnitManager();
+        Sphinx3Loader loader = new Sphinx3Loader(dir.toURI().toURL(),
+                unitManager, 0.0f, 1e-7f, 1e-4f, 4, true);
+        acousticModel = new TiedStateAcousticModel(loader, unitManager, true);
+
+        writeText("dict", "a AH\nab AH B\nba B AH\nbad B AH D\n"
+                + "dab D AH B\ndad D AH D\ndada D AH D AH\n");
+        writeText("fillerdict", "<s> SIL\n</s> SIL\n<sil> SIL\n");
+        dictionary = new TextDictionary(new File(dir, "dict").toURI().toURL(),
+                new File(dir, "fillerdict").toURI().toURL(), null, null,
+                unitManager);
+
+        writeText("lm", "\\data\\\nngram 1=9\n\n\\1-grams:\n"
+                + "-1.0 <s> 0.0\n-1.0 </s> 0.0\n-0.5 a 0.0\n-0.7 ab 0.0\n"
+                + "-0.9 ba 0.0\n-1.1 bad 0.0\n-1.3 dab 0.0\n-1.5 dad 0.0\n"
+                + "-1.7 dada 0.0\n\n\\end\\\n");
+    }
+
+    @AfterMethod
+    public void deleteModels() {
+        delete(dir);
+    }
+
+    @Test
+    public void testRestoredTreeIsIdentical() throws IOException {
+        LexTreeLinguist built = createLinguist(9.5f, cache);
+        String[] files = cache.list();
+        Assert.assertEquals(files.length, 1);
+
+        LexTreeLinguist restored = createLinguist(9.5f, cache);
+        Assert.assertEquals(cache.list(), files);
+        Assert.assertEquals(describe(restored, true), describe(built, true));
+
+        // the tree is the same as without a cache, the order of the
+        // successors of a built tree depends on identity hash codes
+        Assert.assertEquals(describe(createLinguist(9.5f, null), false),
+                describe(restored, false));
+    }
+
+    @Test
+    public void testOtherModelsAreNotMixed() throws IOException {
+        createLinguist(9.5f, cache);
+        LexTreeLinguist other = createLinguist(5.0f, cache);
+        Assert.assertEquals(cache.list().length, 2);
+        Assert.assertEquals(describe(other, false),
+                describe(createLinguist(5.0f, null), false));
+    }
+
+    private LexTreeLinguist createLinguist(float languageWeight, File treeCache)
+            throws IOException {
+        LanguageModel languageModel = new SimpleNGramModel(
+                new File(dir, "lm").toURI().toURL(), dictionary, 0.7f, 3);
+        LexTreeLinguist linguist = new LexTreeLinguist(acousticModel,
+                unitManager, languageModel, dictionary, false, false, 1.0,
+                1.0, 1.0, 1.0, languageWeight, false, false, 1.0f, 0, treeCache);
+        linguist.allocate();
+        return linguist;
+    }
+
+    /**
+     * Describes the states of the search graph up to a depth in breadth
+     * first order, with their successors in successor order or sorted. The
+     * states are built from the nodes of the tree, so the description covers
+     * the nodes reachable from the initial word.
+     */
+    private String describe(LexTreeLinguist linguist, boolean ordered) {
+        List<String> lines = new ArrayList<String>();
+        Map<SearchState, Integer> depths = new HashMap<SearchState, Integer>();
+        List<SearchState> queue = new ArrayList<SearchState>();
+        SearchState initial = linguist.getSearchGraph().getInitialState();
+        depths.put(initial, 0);
+        queue.add(initial);
+        for (int i = 0; i < queue.size(); i++) {
+            SearchState state = queue.get(i);
+            int depth = depths.get(state);
+            if (depth == MAX_DEPTH)
+                continue;
+            List<String> successors = new ArrayList<String>();
+            for (SearchStateArc arc : state.getSuccessors()) {
+                SearchState successor = arc.getState();
+                if (!depths.containsKey(successor)) {
+                    depths.put(successor, depth + 1);
+                    queue.add(successor);
+                }
+                successors.add(arc.getProbability() + " " + successor);
+            }
+            if (!ordered)
+                Collections.sort(successors);
+            lines.add(state + " -> " + successors);
+        }
+        if (!ordered)
+            Collections.sort(lines);
+        return lines.toString();
+    }
+
+    private void writeModel() throws IOException {
+        int senones = 12;
+        float[] means = new float[senones * 2];
+        float[] variances = new float[means.length];
+        Arrays.fill(variances, 1.0f);
+        writeS3("means", new int[] {senones, 1, 2, 1, means.length}, means);
+        writeS3("variances", new int[] {senones, 1, 2, 1, means.length}, variances);
+        float[] mixw = new float[senones * 2];
+        Arrays.fill(mixw, 0.5f);
+        writeS3("mixture_weights", new int[] {senones, 1, 2, mixw.length}, mixw);
+        float[] tmat = new float[4 * 3 * 4];
+        for (int i = 0; i < 4 * 3; i++) {
+            tmat[i * 4 + i % 3] = 0.6f;
+            tmat[i * 4 + i % 3 + 1] = 0.4f;
+        }
+        writeS3("transition_matrices", new int[] {4, 3, 4, tmat.length}, tmat);
+
+        writeText("feat.params", "-model cont\n-feat 1s_c_d_dd\n");
+        writeText("mdef", "0.3\n4 n_base\n0 n_tri\n16 n_state_map\n"
+                + "12 n_tied_state\n12 n_tied_ci_state\n4 n_tied_tmat\n"
+                + "# base lft rt p attrib tmat state ids\n"
+                + "SIL - - - filler 0 0 1 2 N\n"
+                + "AH - - - n/a 1 3 4 5 N\n"
+                + "B - - - n/a 2 6 7 8 N\n"
+                + "D - - - n/a 3 9 10 11 N\n");
+    }
+
+    private void writeS3(String name, int[] header, float[] data) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(
+                new File(dir, name)));
+        out.writeBytes("s3\nversion 1.0\nchksum0 no\nendhdr\n");
+        out.writeInt(0x11223344);
+        for (int value : header)
+            out.writeInt(value);
+        for (float value : data)
+            out.writeFloat(value);
+        out.close();
+    }
+
+    private void writeText(String name, String text) throws IOException {
+        Writer writer = new FileWriter(new File(dir, name));
+        writer.write(text);
+        writer.close();
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null)
+            for (File child : files)
+                delete(child);
+        file.delete();
+    }
+}
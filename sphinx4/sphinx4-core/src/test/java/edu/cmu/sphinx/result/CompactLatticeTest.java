@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.result;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.util.LogMath;
+
+/**
+ * Compares the posteriors, n-best lists and merged nodes of the compact
+ * lattice with the ones computed on the object lattice.
+ */
+public class CompactLatticeTest {
+
+    private final LogMath logMath = LogMath.getLogMath();
+
+    @Test
+    public void testPosterior() {
+        Lattice lattice = new Lattice();
+        Node a = lattice.addNode("A", "A", 0, 0);
+        Node b = lattice.addNode("B", "B", 0, 0);
+        Node c = lattice.addNode("C", "C", 0, 0);
+        Node d = lattice.addNode("D", "D", 0, 0);
+        lattice.setInitialNode(a);
+        lattice.setTerminalNode(d);
+        lattice.addEdge(a, b, logMath.linearToLog(4), 0);
+        lattice.addEdge(a, c, logMath.linearToLog(6), 0);
+        lattice.addEdge(c, b, logMath.linearToLog(1), 0);
+        lattice.addEdge(b, d, logMath.linearToLog(5), 0);
+        lattice.addEdge(c, d, logMath.linearToLog(2), 0);
+
+        CompactLattice compact = new CompactLattice(lattice);
+        compact.computeNodePosteriors(1.0f);
+        lattice.computeNodePosteriors(1.0f);
+
+        double allPaths = 4 * 5 + 6 * 1 * 5 + 6 * 2;
+        double delta = 1e-4;
+        for (int node = 0; node < compact.getNumNodes(); node++) {
+            Node original = lattice.getNode(compact.getNodeId(node));
+            Assert.assertEquals(compact.getPosterior(node), original.getPosterior(), 1e-2);
+            Assert.assertEquals(compact.getForwardScore(node), original.getForwardScore(), 1e-2);
+        }
+        int bIndex = indexOf(compact, "B");
+        Assert.assertEquals(logMath.logToLinear((float) compact.getPosterior(bIndex)),
+                (4 * 5 + 6 * 1 * 5) / allPaths, delta);
+
+        int[] path = compact.getViterbiPath();
+        String[] ids = new String[path.length];
+        for (int i = 0; i < path.length; i++)
+            ids[i] = compact.getNodeId(path[i]);
+        Assert.assertEquals(ids, new String[] {"A", "C", "B", "D"});
+
+        Lattice converted = compact.toLattice();
+        Assert.assertEquals(converted.getNodes().size(), 4);
+        Assert.assertEquals(converted.getEdges().size(), 5);
+        Assert.assertEquals(converted.getNode("B").getPosterior(),
+                compact.getPosterior(bIndex));
+        Assert.assertSame(converted.getNode("B").getBestPredecessor(),
+                converted.getNode("C"));
+    }
+
+    @Test
+    public void testNbest() {
+        Lattice lattice = createLattice();
+        lattice.computeNodePosteriors(1.0f);
+        CompactLattice compact = new CompactLattice(lattice);
+        compact.computeNodePosteriors(1.0f);
+        for (int n = 1; n <= 5; n++)
+            Assert.assertEquals(new TreeSet<String>(compact.getNbest(n)),
+                    new TreeSet<String>(new Nbest(lattice).getNbest(n)));
+        Assert.assertEquals(new TreeSet<String>(compact.getNbest(1)),
+                new TreeSet<String>(Arrays.asList("<s> go to the shop </s>")));
+    }
+
+    @Test
+    public void testOptimize() {
+        Lattice lattice = createLattice();
+        CompactLattice compact = new CompactLattice(lattice);
+        int nodes = compact.getNumNodes();
+        new LatticeOptimizer(lattice).optimize();
+        compact.optimize();
+
+        Assert.assertTrue(compact.getNumNodes() < nodes);
+        Assert.assertEquals(compact.getNumNodes(), lattice.getNodes().size());
+        Assert.assertEquals(compact.getNumEdges(), lattice.getEdges().size());
+        Assert.assertEquals(describe(compact.toLattice()), describe(lattice));
+        Assert.assertEquals(compact.sortNodes()[0], compact.getInitialNode());
+    }
+
+    /**
+     * Creates a lattice with two copies of "the" entered from the same node
+     * and two copies of "shop" leaving to the same node.
+     */
+    private Lattice createLattice() {
+        Lattice lattice = new Lattice();
+        Node start = lattice.addNode("0", "<s>", 0, 0);
+        Node go = lattice.addNode("1", "go", 1, 10);
+        Node to = lattice.addNode("2", "to", 11, 20);
+        Node too = lattice.addNode("3", "too", 11, 20);
+        Node the1 = lattice.addNode("4", "the", 21, 30);
+        Node the2 = lattice.addNode("5", "the", 21, 30);
+        Node shop1 = lattice.addNode("6", "shop", 31, 40);
+        Node shop2 = lattice.addNode("7", "shop", 31, 40);
+        Node stop = lattice.addNode("8", "stop", 31, 40);
+        Node end = lattice.addNode("9", "</s>", 41, 41);
+        lattice.setInitialNode(start);
+        lattice.setTerminalNode(end);
+        lattice.addEdge(start, go, -100, -10);
+        lattice.addEdge(go, to, -100, -10);
+        lattice.addEdge(go, too, -150, -30);
+        lattice.addEdge(to, the1, -100, -10);
+        lattice.addEdge(to, the2, -120, -10);
+        lattice.addEdge(too, the2, -100, -20);
+        lattice.addEdge(the1, shop1, -100, -10);
+        lattice.addEdge(the2, shop2, -110, -10);
+        lattice.addEdge(the2, stop, -130, -40);
+        lattice.addEdge(shop1, end, -100, -5);
+        lattice.addEdge(shop2, end, -100, -5);
+        lattice.addEdge(stop, end, -90, -5);
+        return lattice;
+    }
+
+    /** Describes the edges by the words, times and scores of their ends. */
+    private Set<String> describe(Lattice lattice) {
+        Set<String> description = new TreeSet<String>();
+        for (Edge edge : lattice.getEdges())
+            description.add(describe(edge.getFromNode()) + " -> "
+                    + describe(edge.getToNode()) + ' '
+                    + edge.getAcousticScore() + ' ' + edge.getLMScore());
+        return description;
+    }
+
+    private String describe(Node node) {
+        return node.getWord() + "@" + node.getBeginTime() + '/'
+                + node.getEnteringEdges().size() + '/'
+                + node.getLeavingEdges().size();
+    }
+
+    private int indexOf(CompactLattice lattice, String id) {
+        for (int node = 0; node < lattice.getNumNodes(); node++)
+            if (lattice.getNodeId(node).equals(id))
+                return node;
+        return -1;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Carnegie Mellon University.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * See the file "license.terms" for information on usage and
+ * redistribution of this file, and for a DISCLAIMER OF ALL
+ * WARRANTIES.
+ *
+ */
+
+package edu.cmu.sphinx.util.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import edu.cmu.sphinx.decoder.Decoder;
+import edu.cmu.sphinx.decoder.ResultListener;
+import edu.cmu.sphinx.decoder.search.Token;
+import edu.cmu.sphinx.instrumentation.BestPathAccuracyTracker;
+import edu.cmu.sphinx.instrumentation.Monitor;
+import edu.cmu.sphinx.instrumentation.RejectionTracker;
+import edu.cmu.sphinx.recognizer.Recognizer;
+import edu.cmu.sphinx.result.Result;
+import edu.cmu.sphinx.util.Timer;
+import edu.cmu.sphinx.util.TimerPool;
+
+/**
+ * Checks the accuracy of the histogram, the counters under concurrent
+ * updates and the snapshot exposed through JMX.
+ */
+public class MetricRegistryTest {
+
+    @Test
+    public void testBuckets() {
+        int previous = -1;
+        for (long value = 0; value < 100000; value++) {
+            int bucket = Histogram.getBucket(value);
+            Assert.assertTrue(bucket >= previous);
+            previous = bucket;
+            long limit = Histogram.getBucketLimit(bucket);
+            Assert.assertTrue(limit >= value);
+            Assert.assertTrue(limit - value <= value / 32);
+        }
+        Assert.assertEquals(Histogram.getBucketLimit(Histogram.getBucket(Long.MAX_VALUE)),
+                Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i * 1000L);
+        Assert.assertEquals(histogram.getCount(), 1000);
+        Assert.assertEquals(histogram.getMin(), 1000);
+        Assert.assertEquals(histogram.getMax(), 1000000);
+        Assert.assertEquals(histogram.getMean(), 500500.0, 1e-6);
+        Assert.assertEquals(histogram.getPercentile(50), 500000, 500000 / 32);
+        Assert.assertEquals(histogram.getPercentile(99), 990000, 990000 / 32);
+        Assert.assertEquals(histogram.getPercentile(100), 1000000);
+
+        histogram.reset();
+        Assert.assertEquals(histogram.getCount(), 0);
+        Assert.assertEquals(histogram.getPercentile(50), 0);
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws InterruptedException {
+        final MetricRegistry registry = new MetricRegistry();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        registry.getCounter("test.count").increment();
+                        registry.getHistogram("test.values").record(j);
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+        Assert.assertEquals(registry.getCounter("test.count").getValue(), 40000);
+        Assert.assertEquals(registry.getHistogram("test.values").getCount(), 40000);
+        Assert.assertEquals(registry.getHistogram("test.values").getMax(), 9999);
+    }
+
+    @Test
+    public void testSnapshotAndMBean() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        registry.getCounter("lm.cacheHits").add(3);
+        registry.getGauge("speed.realTimeFactor").setValue(0.5);
+        registry.getHistogram("timer.Score").record(100);
+
+        Map<String, Double> snapshot = registry.getSnapshot();
+        Assert.assertEquals(snapshot.get("lm.cacheHits"), 3.0);
+        Assert.assertEquals(snapshot.get("speed.realTimeFactor"), 0.5);
+        Assert.assertEquals(snapshot.get("timer.Score.count"), 1.0);
+        Assert.assertEquals(snapshot.get("timer.Score.p99"), 100.0);
+
+        ObjectName name = new ObjectName("edu.cmu.sphinx:type=Metrics,name=test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        registry.registerMBean(name);
+        try {
+            Assert.assertEquals(server.getAttribute(name, "lm.cacheHits"), 3.0);
+            registry.getCounter("lm.cacheHits").increment();
+            Assert.assertEquals(server.getAttribute(name, "lm.cacheHits"), 4.0);
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            Assert.assertEquals(server.getAttribute(name, "lm.cacheHits"), 0.0);
+        } finally {
+            registry.unregisterMBean(name);
+        }
+        Assert.assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void testTimerRecordsHistogram() {
+        Histogram histogram = MetricRegistry.getRegistry().getHistogram("timer.metricsTest");
+        long count = histogram.getCount();
+        Timer timer = TimerPool.getTimer(this, "metricsTest");
+        timer.start();
+        timer.stop();
+        Assert.assertEquals(timer.getCount(), 1);
+        Assert.assertEquals(histogram.getCount(), count + 1);
+    }
+
+    @Test
+    public void testTrackersPublishAccuracy() {
+        MetricRegistry registry = MetricRegistry.getRegistry();
+        long words = registry.getCounter("accuracy.words").getValue();
+        long deletions = registry.getCounter("accuracy.deletions").getValue();
+        long utterances = registry.getCounter("rejection.utterances").getValue();
+        long falseInGrammar = registry.getCounter("rejection.falseInGrammar").getValue();
+
+        Decoder decoder = new Decoder(null, false, false, new ArrayList<ResultListener>(), 1);
+        Recognizer recognizer = new Recognizer(decoder, new ArrayList<Monitor>());
+        BestPathAccuracyTracker accuracyTracker =
+                new BestPathAccuracyTracker(recognizer, false, false, false, false, false, false);
+        RejectionTracker rejectionTracker = new RejectionTracker(recognizer, false, false);
+
+        // nothing is recognized
+        Result result = new Result(null, new ArrayList<Token>(), 0, true, false, false);
+        result.setReferenceText("one two");
+        accuracyTracker.newResult(result);
+        rejectionTracker.newResult(result);
+        result.setReferenceText("<unk>");
+        rejectionTracker.newResult(result);
+
+        Assert.assertEquals(registry.getCounter("accuracy.words").getValue(), words + 2);
+        Assert.assertEquals(registry.getCounter("accuracy.deletions").getValue(), deletions + 2);
+        Assert.assertEquals(registry.getGauge("accuracy.wordErrorRate").getValue(), 1.0);
+        Assert.assertEquals(registry.getGauge("accuracy.wordAccuracy").getValue(), 0.0);
+        Assert.assertEquals(registry.getCounter("rejection.utterances").getValue(), utterances + 2);
+        Assert.assertEquals(registry.getCounter("rejection.falseInGrammar").getValue(), falseInGrammar + 1);
+        Assert.assertEquals(registry.getGauge("rejection.accuracy").getValue(), 0.5);
+
+        accuracyTracker.reset();
+        Assert.assertEquals(registry.getGauge("accuracy.wordErrorRate").getValue(), 0.0);
+    }
+
+    @Test
+    public void testThreadUsage() {
+        long start = ThreadUsage.getAllocatedBytes();
+        long[] garbage = new long[100000];
+        long end = ThreadUsage.getAllocatedBytes();
+        if (start >= 0)
+            Assert.assertTrue(ThreadUsage.getDifference(start, end) >= garbage.length * 8);
+        Assert.assertEquals(ThreadUsage.getDifference(-1, end), 0);
+    }
+}